@@ -28,7 +28,7 @@ public class BeforeRecordBreadcrumbsTest {
         Configuration configuration = new Configuration("api-key");
         configuration.setAutomaticallyCollectBreadcrumbs(false);
         client = generateClient();
-        assertEquals(0, client.breadcrumbs.store.size());
+        assertEquals(0, client.breadcrumbs.snapshot().size());
     }
 
     @After
@@ -39,7 +39,7 @@ public class BeforeRecordBreadcrumbsTest {
     @Test
     public void noCallback() throws Exception {
         client.leaveBreadcrumb("Hello");
-        assertEquals(1, client.breadcrumbs.store.size());
+        assertEquals(1, client.breadcrumbs.snapshot().size());
     }
 
     @Test
@@ -51,7 +51,7 @@ public class BeforeRecordBreadcrumbsTest {
             }
         });
         client.leaveBreadcrumb("Hello");
-        assertEquals(0, client.breadcrumbs.store.size());
+        assertEquals(0, client.breadcrumbs.snapshot().size());
     }
 
     @Test
@@ -63,7 +63,7 @@ public class BeforeRecordBreadcrumbsTest {
             }
         });
         client.leaveBreadcrumb("Hello");
-        assertEquals(1, client.breadcrumbs.store.size());
+        assertEquals(1, client.breadcrumbs.snapshot().size());
     }
 
     @Test
@@ -81,7 +81,7 @@ public class BeforeRecordBreadcrumbsTest {
             }
         });
         client.leaveBreadcrumb("Hello");
-        assertEquals(0, client.breadcrumbs.store.size());
+        assertEquals(0, client.breadcrumbs.snapshot().size());
     }
 
     @Test
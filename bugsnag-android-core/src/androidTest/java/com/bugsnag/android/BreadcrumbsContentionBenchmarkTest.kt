@@ -0,0 +1,67 @@
+package com.bugsnag.android
+
+import android.util.Log
+import org.junit.Test
+import java.util.concurrent.ConcurrentLinkedQueue
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+
+/**
+ * Measures the cost of adding breadcrumbs from N producer threads, comparing the ring buffer
+ * against the previous ConcurrentLinkedQueue implementation which pruned on every add.
+ */
+class BreadcrumbsContentionBenchmarkTest {
+
+    companion object {
+        private const val ITERATIONS = 20000
+        private const val CAPACITY = 32
+    }
+
+    @Test
+    fun ringBufferContention() {
+        for (producers in listOf(1, 2, 4, 8)) {
+            val buffer = RingBuffer<Breadcrumb>(CAPACITY)
+            val crumb = Breadcrumb("benchmark")
+            report("RingBuffer", producers, measure(producers) { buffer.add(crumb) })
+        }
+    }
+
+    @Test
+    fun linkedQueueContention() {
+        for (producers in listOf(1, 2, 4, 8)) {
+            val queue = ConcurrentLinkedQueue<Breadcrumb>()
+            val crumb = Breadcrumb("benchmark")
+            val elapsed = measure(producers) {
+                queue.add(crumb)
+                while (queue.size > CAPACITY) {
+                    queue.poll()
+                }
+            }
+            report("ConcurrentLinkedQueue", producers, elapsed)
+        }
+    }
+
+    private fun measure(producers: Int, action: () -> Unit): Long {
+        val start = CountDownLatch(1)
+        val threads = (0 until producers).map {
+            Thread {
+                start.await()
+                for (k in 0 until ITERATIONS) {
+                    action()
+                }
+            }
+        }
+        threads.forEach { it.start() }
+        val begin = System.nanoTime()
+        start.countDown()
+        threads.forEach { it.join() }
+        return System.nanoTime() - begin
+    }
+
+    private fun report(name: String, producers: Int, elapsedNs: Long) {
+        val adds = producers * ITERATIONS
+        val elapsedMs = TimeUnit.NANOSECONDS.toMillis(elapsedNs)
+        Log.i("BugsnagBenchmark",
+            "$name ($producers producers): $adds adds in ${elapsedMs}ms, ${elapsedNs / adds}ns/add")
+    }
+}
@@ -56,7 +56,7 @@ class BreadcrumbsSerializationTest {
     @Test
     fun testClientMethods() {
         client!!.leaveBreadcrumb("Hello World")
-        val store = client!!.breadcrumbs.store
+        val store = client!!.breadcrumbs.snapshot()
         var count = 0
 
         for (breadcrumb in store) {
@@ -24,8 +24,8 @@ public class CachedThreadTest {
             new StackTraceElement("App", "launch", "App.java", 70),
         };
 
-        CachedThread thread = new CachedThread(new Configuration("key"), 24, "main-one", "ando",
-                                                true, stacktrace);
+        CachedThread thread = new CachedThread(24, "main-one", "ando", true,
+                                                new Stacktrace(stacktrace, new String[0]));
         JSONObject result = streamableToJson(thread);
         assertEquals(24, result.getLong("id"));
         assertEquals("main-one", result.getString("name"));
@@ -53,8 +53,8 @@ public class CachedThreadTest {
             new StackTraceElement("App", "launch", "App.java", 70),
         };
 
-        CachedThread thread = new CachedThread(new Configuration("key"), 24, "main-one", "ando",
-                                                false, stacktrace);
+        CachedThread thread = new CachedThread(24, "main-one", "ando", false,
+                                                new Stacktrace(stacktrace, new String[0]));
         JSONObject result = streamableToJson(thread);
         assertEquals(24, result.getLong("id"));
         assertEquals("main-one", result.getString("name"));
@@ -1,6 +1,10 @@
 package com.bugsnag.android;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 import androidx.annotation.NonNull;
 import androidx.test.filters.SmallTest;
@@ -12,6 +16,8 @@ import org.junit.Test;
 import java.util.Map;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 
 @SmallTest
 public class ClientNotifyTest {
@@ -80,6 +86,109 @@ public class ClientNotifyTest {
         assertEquals("Message", error.getExceptionMessage());
     }
 
+    @Test
+    public void testNotifyAsyncSent() throws Exception {
+        DeliveryFuture future = client.notifyAsync(new RuntimeException("Testing"));
+        assertEquals(DeliveryOutcome.SENT, future.get(2000, TimeUnit.MILLISECONDS));
+        assertEquals("Testing", apiClient.report.getError().getExceptionMessage());
+    }
+
+    @Test
+    public void testNotifyAsyncDropped() throws Exception {
+        client.beforeNotify(new BeforeNotify() {
+            @Override
+            public boolean run(@NonNull Error error) {
+                return false;
+            }
+        });
+        DeliveryFuture future = client.notifyAsync(new RuntimeException("Testing"));
+        assertEquals(DeliveryOutcome.DROPPED, future.get(2000, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void testNotifyFailedWhenCallbackThrows() throws Exception {
+        Error error = new Error.Builder(client.getConfig(), new RuntimeException("Testing"),
+            null, Thread.currentThread(), false).build();
+        DeliveryFuture future = new DeliveryFuture();
+        try {
+            client.notify(error, DeliveryStyle.ASYNC, new ThrowingCallback(), future);
+            fail("The callback's exception should be thrown to the caller");
+        } catch (IllegalStateException expected) {
+            assertEquals(DeliveryOutcome.FAILED, future.get(0, TimeUnit.MILLISECONDS));
+        }
+    }
+
+    @Test
+    public void testNotifyAsyncFailedWhenCallbackThrowsInBackground() throws Exception {
+        client.getConfig().setEnrichErrorsInBackground(true);
+        DeliveryFuture future = client.notifyAsync(new RuntimeException("Testing"),
+            new ThrowingCallback());
+        assertEquals(DeliveryOutcome.FAILED, future.get(2000, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void testBackgroundEnrichmentRunsCallbacksAfterNotifyReturns() throws Exception {
+        client.getConfig().setEnrichErrorsInBackground(true);
+        final CountDownLatch returned = new CountDownLatch(1);
+        final CountDownLatch ran = new CountDownLatch(1);
+        final AtomicReference<Thread> callbackThread = new AtomicReference<>();
+        final AtomicBoolean ranAfterReturn = new AtomicBoolean();
+
+        client.notify(new RuntimeException("Testing"), new Callback() {
+            @Override
+            public void beforeNotify(@NonNull Report report) {
+                callbackThread.set(Thread.currentThread());
+                try {
+                    ranAfterReturn.set(returned.await(2, TimeUnit.SECONDS));
+                } catch (InterruptedException exception) {
+                    ranAfterReturn.set(false);
+                }
+                ran.countDown();
+            }
+        });
+        returned.countDown();
+
+        assertTrue(ran.await(2, TimeUnit.SECONDS));
+        assertTrue(ranAfterReturn.get());
+        assertNotSame(Thread.currentThread(), callbackThread.get());
+    }
+
+    @Test
+    public void testBackgroundEnrichmentKeepsBlockingNotifySynchronous() {
+        client.getConfig().setEnrichErrorsInBackground(true);
+        ThreadRecordingCallback callback = new ThreadRecordingCallback();
+        client.notifyBlocking(new RuntimeException("Testing"), callback);
+        assertSame(Thread.currentThread(), callback.thread);
+    }
+
+    @Test
+    public void testBackgroundEnrichmentKeepsUnhandledErrorsSynchronous() {
+        client.getConfig().setEnrichErrorsInBackground(true);
+        Error error = new Error.Builder(client.getConfig(), new RuntimeException("Testing"),
+            null, Thread.currentThread(), true)
+            .severityReasonType(HandledState.REASON_UNHANDLED_EXCEPTION)
+            .build();
+        ThreadRecordingCallback callback = new ThreadRecordingCallback();
+        client.notify(error, DeliveryStyle.ASYNC_WITH_CACHE, callback);
+        assertSame(Thread.currentThread(), callback.thread);
+    }
+
+    static class ThreadRecordingCallback implements Callback {
+        volatile Thread thread;
+
+        @Override
+        public void beforeNotify(@NonNull Report report) {
+            thread = Thread.currentThread();
+        }
+    }
+
+    static class ThrowingCallback implements Callback {
+        @Override
+        public void beforeNotify(@NonNull Report report) {
+            throw new IllegalStateException("Whoops");
+        }
+    }
+
     @SuppressWarnings("deprecation")
     static class FakeClient implements ErrorReportApiClient {
 
@@ -240,15 +240,15 @@ public class ClientTest {
         Configuration config = generateConfiguration();
         config.setAutomaticallyCollectBreadcrumbs(false);
         client = generateClient(config);
-        assertEquals(0, client.breadcrumbs.store.size());
+        assertEquals(0, client.breadcrumbs.snapshot().size());
 
         client.setMaxBreadcrumbs(1);
 
         client.leaveBreadcrumb("test");
         client.leaveBreadcrumb("another");
-        assertEquals(1, client.breadcrumbs.store.size());
+        assertEquals(1, client.breadcrumbs.snapshot().size());
 
-        Breadcrumb poll = client.breadcrumbs.store.poll();
+        Breadcrumb poll = client.breadcrumbs.snapshot().get(0);
         assertEquals(BreadcrumbType.MANUAL, poll.getType());
         assertEquals("manual", poll.getName());
         assertEquals("another", poll.getMetadata().get("message"));
@@ -259,13 +259,13 @@ public class ClientTest {
         Configuration config = generateConfiguration();
         config.setAutomaticallyCollectBreadcrumbs(false);
         client = generateClient(config);
-        assertEquals(0, client.breadcrumbs.store.size());
+        assertEquals(0, client.breadcrumbs.snapshot().size());
 
         client.leaveBreadcrumb("test");
-        assertEquals(1, client.breadcrumbs.store.size());
+        assertEquals(1, client.breadcrumbs.snapshot().size());
 
         client.clearBreadcrumbs();
-        assertEquals(0, client.breadcrumbs.store.size());
+        assertEquals(0, client.breadcrumbs.snapshot().size());
     }
 
     @Test
@@ -311,11 +311,11 @@ public class ClientTest {
     public void testBreadcrumbStoreNotModified() {
         client = generateClient();
         Collection<Breadcrumb> breadcrumbs = client.getBreadcrumbs();
-        int breadcrumbCount = client.breadcrumbs.store.size();
+        int breadcrumbCount = client.breadcrumbs.snapshot().size();
 
         breadcrumbs.clear(); // only the copy should be cleared
         assertTrue(breadcrumbs.isEmpty());
-        assertEquals(breadcrumbCount, client.breadcrumbs.store.size());
+        assertEquals(breadcrumbCount, client.breadcrumbs.snapshot().size());
     }
 
     @Test
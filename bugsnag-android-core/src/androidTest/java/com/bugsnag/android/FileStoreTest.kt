@@ -3,6 +3,7 @@ package com.bugsnag.android
 import android.content.Context
 import androidx.test.core.app.ApplicationProvider
 import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
 import org.junit.Assert.assertTrue
 import org.junit.Test
 import java.io.File
@@ -43,6 +44,21 @@ class FileStoreTest {
         assertEquals(File("/foo.json"), delegate.errorFile)
         assertTrue(delegate.exception is FileNotFoundException)
     }
+
+    @Test
+    fun movesPayloadFileIntoStore() {
+        val dir = File(appContext.cacheDir, "custom-store")
+        dir.mkdir()
+        val store = CustomFileStore(config, appContext, dir.absolutePath, 1, null, null)
+        val payload = File(appContext.cacheDir, "payload.json")
+        payload.writeText("{\"exceptions\":[]}")
+
+        assertTrue(store.moveFileForDelivery(payload))
+        assertFalse(payload.exists())
+        val stored = File(dir, "foo.json")
+        assertEquals("{\"exceptions\":[]}", stored.readText())
+        stored.delete()
+    }
 }
 
 class CustomDelegate: FileStore.Delegate {
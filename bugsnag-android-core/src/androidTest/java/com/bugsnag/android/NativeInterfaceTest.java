@@ -1,5 +1,7 @@
 package com.bugsnag.android;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotSame;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertSame;
@@ -8,6 +10,7 @@ import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.io.File;
 import java.util.Map;
 
 public class NativeInterfaceTest {
@@ -64,4 +67,16 @@ public class NativeInterfaceTest {
         assertSame("-print 1", app.get("args"));
         assertNull(metadata.get("info"));
     }
+
+    @Test
+    public void deliverReportFileFiltersReleaseStage() throws Exception {
+        NativeInterface.setClient(client);
+        client.getConfig().setNotifyReleaseStages(new String[]{"production"});
+        int queued = client.getErrorStore().findStoredFiles().size();
+
+        File payload = File.createTempFile("native", ".json");
+        NativeInterface.deliverReportFile("development", payload.getAbsolutePath());
+        assertFalse(payload.exists());
+        assertEquals(queued, client.getErrorStore().findStoredFiles().size());
+    }
 }
@@ -75,7 +75,10 @@ public class StacktraceTest {
         JSONArray jsonArray = streamableToJsonArray(stacktrace);
         assertEquals(200, jsonArray.length());
         assertEquals(0, jsonArray.getJSONObject(0).getInt("lineNumber"));
-        assertEquals(199, jsonArray.getJSONObject(199).getInt("lineNumber"));
+        assertEquals(148, jsonArray.getJSONObject(148).getInt("lineNumber"));
+        assertEquals("... 801 frames omitted", jsonArray.getJSONObject(149).getString("method"));
+        assertEquals(950, jsonArray.getJSONObject(150).getInt("lineNumber"));
+        assertEquals(999, jsonArray.getJSONObject(199).getInt("lineNumber"));
     }
 
     @Test
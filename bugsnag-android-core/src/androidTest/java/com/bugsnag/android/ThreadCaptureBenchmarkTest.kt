@@ -0,0 +1,92 @@
+package com.bugsnag.android
+
+import android.util.Log
+import org.junit.After
+import org.junit.Test
+import java.io.StringWriter
+import java.util.concurrent.CountDownLatch
+
+/**
+ * Measures the cost of building a handled error with 50, 150 and 300 additional idle threads
+ * under each thread capture policy, and the cost of serializing the threads of an error.
+ */
+class ThreadCaptureBenchmarkTest {
+
+    companion object {
+        private const val ITERATIONS = 20
+    }
+
+    private val release = CountDownLatch(1)
+    private val threads = ArrayList<Thread>()
+
+    @After
+    fun tearDown() {
+        release.countDown()
+        threads.forEach { it.join() }
+    }
+
+    @Test
+    fun buildErrorWithSyntheticThreads() {
+        for (count in listOf(50, 150, 300)) {
+            startThreads(count - threads.size)
+            val config = Configuration("api-key")
+
+            report("all threads", count, measure(config))
+            report("serialize all threads", count, measureSerialization(config))
+            config.maxThreads = 20
+            config.maxThreadFrames = 10
+            report("all threads, capped", count, measure(config))
+            config.maxThreads = -1
+            config.maxThreadFrames = -1
+            config.ignoreThreadNames = arrayOf("synthetic-")
+            report("all threads, filtered", count, measure(config))
+            config.threadCapturePolicy = ThreadCapturePolicy.ERROR_THREAD
+            report("error thread", count, measure(config))
+            config.threadCapturePolicy = ThreadCapturePolicy.UNHANDLED_ONLY
+            report("unhandled only", count, measure(config))
+            config.sendThreads = false
+            report("threads not sent", count, measure(config))
+        }
+    }
+
+    private fun startThreads(count: Int) {
+        val started = CountDownLatch(count)
+        repeat(count) {
+            val thread = Thread({
+                started.countDown()
+                release.await()
+            }, "synthetic-${threads.size}")
+            thread.start()
+            threads.add(thread)
+        }
+        started.await()
+    }
+
+    private fun measure(config: Configuration): LongArray {
+        val exc = RuntimeException("Whoops")
+        return LongArray(ITERATIONS) {
+            val start = System.nanoTime()
+            Error.Builder(config, exc, null, Thread.currentThread(), false).build()
+            System.nanoTime() - start
+        }.sortedArray()
+    }
+
+    private fun measureSerialization(config: Configuration): LongArray {
+        val error = Error.Builder(config, RuntimeException("Whoops"), null,
+            Thread.currentThread(), false).build()
+        return LongArray(ITERATIONS) {
+            val start = System.nanoTime()
+            val stream = JsonStream(StringWriter())
+            error.toStream(stream)
+            stream.flush()
+            System.nanoTime() - start
+        }.sortedArray()
+    }
+
+    private fun report(name: String, threadCount: Int, elapsedNs: LongArray) {
+        val median = elapsedNs[elapsedNs.size / 2] / 1000
+        val best = elapsedNs[0] / 1000
+        Log.i("BugsnagBenchmark",
+            "$name ($threadCount threads): median ${median}us, best ${best}us")
+    }
+}
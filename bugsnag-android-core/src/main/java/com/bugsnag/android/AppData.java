@@ -1,6 +1,5 @@
 package com.bugsnag.android;
 
-import android.app.ActivityManager;
 import android.content.Context;
 import android.content.pm.ApplicationInfo;
 import android.content.pm.PackageInfo;
@@ -25,6 +24,7 @@ class AppData {
     private final Context appContext;
     private final Configuration config;
     private final SessionTracker sessionTracker;
+    private final DeviceStateCache deviceState;
 
     private final String packageName;
     private String binaryArch = null;
@@ -42,7 +42,15 @@ class AppData {
 
     AppData(Context appContext, PackageManager packageManager,
             Configuration config, SessionTracker sessionTracker) {
+        this(appContext, packageManager, config, sessionTracker,
+            new DeviceStateCache(appContext, null));
+    }
+
+    AppData(Context appContext, PackageManager packageManager,
+            Configuration config, SessionTracker sessionTracker,
+            DeviceStateCache deviceState) {
         this.appContext = appContext;
+        this.deviceState = deviceState;
         this.packageManager = packageManager;
         this.config = config;
         this.sessionTracker = sessionTracker;
@@ -90,7 +98,7 @@ class AppData {
         map.put("versionName", calculateVersionName());
         map.put("activeScreen", getActiveScreenClass());
         map.put("memoryUsage", getMemoryUsage());
-        map.put("lowMemory", isLowMemory());
+        map.put("lowMemory", deviceState.isLowMemory());
         return map;
     }
 
@@ -211,24 +219,4 @@ class AppData {
         return runtime.totalMemory() - runtime.freeMemory();
     }
 
-    /**
-     * Check if the device is currently running low on memory.
-     */
-    @Nullable
-    private Boolean isLowMemory() {
-        try {
-            ActivityManager activityManager =
-                (ActivityManager) appContext.getSystemService(Context.ACTIVITY_SERVICE);
-
-            if (activityManager != null) {
-                ActivityManager.MemoryInfo memInfo = new ActivityManager.MemoryInfo();
-                activityManager.getMemoryInfo(memInfo);
-                return memInfo.lowMemory;
-            }
-        } catch (Exception exception) {
-            Logger.warn("Could not check lowMemory status");
-        }
-        return null;
-    }
-
 }
@@ -1,28 +1,41 @@
 package com.bugsnag.android;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 
 import java.io.IOException;
-import java.io.StringWriter;
-import java.util.ArrayList;
-import java.util.Collections;
+import java.io.Writer;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
 import java.util.Date;
-import java.util.HashMap;
-import java.util.List;
+import java.util.Iterator;
 import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
 
 public final class Breadcrumb implements JsonStream.Streamable {
 
     private static final int MAX_MESSAGE_LENGTH = 140;
+    private static final int MAX_INTERNED_NAMES = 256;
     private static final String DEFAULT_NAME = "manual";
     private static final String MESSAGE_METAKEY = "message";
     private static final String TIMESTAMP_KEY = "timestamp";
     private static final String NAME_KEY = "name";
     private static final String METADATA_KEY = "metaData";
     private static final String TYPE_KEY = "type";
+    private static final String REPEAT_COUNT_KEY = "repeatCount";
+    private static final String[] EMPTY_METADATA = new String[0];
 
-    @NonNull
-    private final String timestamp;
+    // breadcrumb names are mostly drawn from a small set (activity names, intent actions)
+    private static final Map<String, String> namePool = new ConcurrentHashMap<>();
+
+    private static final AtomicIntegerFieldUpdater<Breadcrumb> repeatCountUpdater =
+        AtomicIntegerFieldUpdater.newUpdater(Breadcrumb.class, "repeatCount");
+
+    private final long timestamp;
 
     @NonNull
     private final String name;
@@ -30,34 +43,49 @@ public final class Breadcrumb implements JsonStream.Streamable {
     @NonNull
     private final BreadcrumbType type;
 
+    // alternating keys and values, kept sorted alphabetically by key
     @NonNull
-    private final Map<String, String> metadata;
+    private String[] metadata;
+
+    @Nullable
+    private Map<String, String> metadataView;
+
+    // the serialized form of this breadcrumb without its repeat count, discarded whenever the
+    // metadata is modified
+    @Nullable
+    private volatile String payload;
+
+    // the number of consecutive identical breadcrumbs this breadcrumb represents
+    private volatile int repeatCount = 1;
 
     Breadcrumb(@NonNull String message) {
-        this(DEFAULT_NAME, BreadcrumbType.MANUAL, Collections.singletonMap(MESSAGE_METAKEY,
-            message.substring(0, Math.min(message.length(), MAX_MESSAGE_LENGTH))));
+        this(DEFAULT_NAME, BreadcrumbType.MANUAL, System.currentTimeMillis(), new String[]{
+            MESSAGE_METAKEY, message.substring(0, Math.min(message.length(), MAX_MESSAGE_LENGTH))
+        });
     }
 
     Breadcrumb(@NonNull String name,
                @NonNull BreadcrumbType type,
                @NonNull Map<String, String> metadata) {
-        this(name, type, new Date(), metadata);
+        this(name, type, System.currentTimeMillis(), flatten(metadata));
     }
 
     Breadcrumb(@NonNull String name,
                @NonNull BreadcrumbType type,
                @NonNull Date captureDate,
                @NonNull Map<String, String> metadata) {
-        if (captureDate == null) {
-            captureDate = new Date();
-        }
-        if (metadata == null) {
-            metadata = new HashMap<>();
-        }
-        this.timestamp = DateUtils.toIso8601(captureDate);
+        this(name, type, captureDate != null ? captureDate.getTime() : System.currentTimeMillis(),
+            flatten(metadata));
+    }
+
+    private Breadcrumb(@NonNull String name,
+                       @NonNull BreadcrumbType type,
+                       long timestamp,
+                       @NonNull String[] metadata) {
+        this.timestamp = timestamp;
         this.type = type;
-        this.name = name;
-        this.metadata = new HashMap<>(metadata);
+        this.name = intern(name);
+        this.metadata = metadata;
     }
 
     @NonNull
@@ -70,42 +98,395 @@ public final class Breadcrumb implements JsonStream.Streamable {
         return type;
     }
 
+    /**
+     * Gets a mutable view of the breadcrumb's metadata. Changes made through the view are
+     * reflected in the breadcrumb.
+     */
     @NonNull
     public Map<String, String> getMetadata() {
-        return metadata;
+        if (metadataView == null) {
+            metadataView = new MetadataView();
+        }
+        return metadataView;
     }
 
     @NonNull
     public String getTimestamp() {
+        return DateUtils.toIso8601(new Date(timestamp));
+    }
+
+    /**
+     * @return the time the breadcrumb was left, in milliseconds since the epoch
+     */
+    long getTimestampMs() {
         return timestamp;
     }
 
+    /**
+     * Returns the metadata as alternating keys and values, sorted by key. The array is
+     * replaced rather than resized when pairs are added or removed, and must not be modified.
+     */
+    @NonNull
+    String[] getMetadataPairs() {
+        return metadata;
+    }
+
     @Override
     public void toStream(@NonNull JsonStream writer) throws IOException {
+        String json = payload;
+        int repeats = repeatCount;
+
+        if (json != null) {
+            if (repeats > 1) {
+                writer.jsonValue(json, REPEAT_COUNT_KEY, repeats);
+            } else {
+                writer.jsonValue(json);
+            }
+            return;
+        }
+        writeMembers(writer);
+
+        // written outside the metadata so that it cannot collide with a user's key
+        if (repeats > 1) {
+            writer.name(REPEAT_COUNT_KEY).value(repeats);
+        }
+        writer.endObject();
+    }
+
+    /**
+     * Serializes the breadcrumb and retains the result so that later calls to
+     * {@link #toStream(JsonStream)} can write it out without encoding it again. The repeat
+     * count is left out, as it changes after the breadcrumb is recorded, and is added when the
+     * breadcrumb is written.
+     *
+     * @param maxSize the maximum size of the payload in bytes
+     * @return the encoded size in bytes, or -1 if the payload exceeded maxSize, in which case
+     *     serialization stops as soon as the limit is passed
+     */
+    int encode(int maxSize) throws IOException {
+        payload = null;
+        BoundedWriter out = new BoundedWriter(maxSize);
+
+        try {
+            JsonStream writer = new JsonStream(out);
+            writeMembers(writer);
+            writer.endObject();
+        } catch (PayloadTooLargeException exc) {
+            return -1;
+        }
+        payload = out.toString();
+        return out.size;
+    }
+
+    /**
+     * Begins the breadcrumb object and writes every member except the repeat count
+     */
+    private void writeMembers(@NonNull JsonStream writer) throws IOException {
         writer.beginObject();
-        writer.name(TIMESTAMP_KEY).value(this.timestamp);
+        writer.name(TIMESTAMP_KEY).value(getTimestamp());
         writer.name(NAME_KEY).value(this.name);
         writer.name(TYPE_KEY).value(this.type.toString());
         writer.name(METADATA_KEY);
         writer.beginObject();
 
-        // sort metadata alphabetically
-        List<String> keys = new ArrayList<>(metadata.keySet());
-        Collections.sort(keys, String.CASE_INSENSITIVE_ORDER);
+        String[] pairs = metadata;
+        for (int k = 0; k < pairs.length; k += 2) {
+            writer.name(pairs[k]).value(pairs[k + 1]);
+        }
+        writer.endObject();
+    }
+
+    int getRepeatCount() {
+        return repeatCount;
+    }
+
+    /**
+     * Records that an identical breadcrumb was left immediately after this one.
+     */
+    void incrementRepeatCount() {
+        // the payload is kept, as it does not include the repeat count
+        repeatCountUpdater.incrementAndGet(this);
+    }
+
+    /**
+     * Returns true if a breadcrumb created from these arguments would be identical to this one.
+     * Used to detect duplicates without allocating a new breadcrumb.
+     */
+    boolean isDuplicate(@Nullable String name,
+                        @NonNull BreadcrumbType type,
+                        @Nullable Map<String, String> metadata) {
+        if (this.type != type || this.name == null || !this.name.equals(name)) {
+            return false;
+        }
+        String[] pairs = this.metadata;
+        int size = metadata != null ? metadata.size() : 0;
+
+        if (pairs.length != size * 2) {
+            return false;
+        }
+        for (int k = 0; k < pairs.length; k += 2) {
+            String value = pairs[k + 1];
+
+            if (value != null ? !value.equals(metadata.get(pairs[k]))
+                : metadata.get(pairs[k]) != null || !metadata.containsKey(pairs[k])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns true if a breadcrumb created from this message would be identical to this one.
+     */
+    boolean isDuplicateMessage(@NonNull String message) {
+        String[] pairs = this.metadata;
+
+        if (type != BreadcrumbType.MANUAL || !DEFAULT_NAME.equals(name) || pairs.length != 2
+            || !MESSAGE_METAKEY.equals(pairs[0]) || pairs[1] == null) {
+            return false;
+        }
+        int length = Math.min(message.length(), MAX_MESSAGE_LENGTH);
+        return pairs[1].length() == length && message.regionMatches(0, pairs[1], 0, length);
+    }
+
+    private static String intern(String name) {
+        if (name == null) {
+            return null;
+        }
+        String pooled = namePool.get(name);
+
+        if (pooled != null) {
+            return pooled;
+        }
+        if (namePool.size() < MAX_INTERNED_NAMES) {
+            pooled = namePool.putIfAbsent(name, name);
+        }
+        return pooled != null ? pooled : name;
+    }
+
+    private static String[] flatten(Map<String, String> map) {
+        if (map == null || map.isEmpty()) {
+            return EMPTY_METADATA;
+        }
+        String[] keys = map.keySet().toArray(new String[0]);
+        int count = 0;
 
         for (String key : keys) {
-            writer.name(key).value(metadata.get(key));
+            if (key != null) {
+                keys[count++] = key;
+            }
         }
+        Arrays.sort(keys, 0, count, String.CASE_INSENSITIVE_ORDER);
+        String[] pairs = new String[count * 2];
 
-        writer.endObject();
-        writer.endObject();
+        for (int k = 0; k < count; k++) {
+            pairs[2 * k] = keys[k];
+            pairs[2 * k + 1] = map.get(keys[k]);
+        }
+        return pairs;
+    }
+
+    private int indexOfKey(Object key) {
+        String[] pairs = metadata;
+        for (int k = 0; k < pairs.length; k += 2) {
+            if (pairs[k].equals(key)) {
+                return k;
+            }
+        }
+        return -1;
+    }
+
+    private String putMetadata(String key, String value) {
+        String[] pairs = metadata;
+        int index = indexOfKey(key);
+        payload = null;
+
+        if (index >= 0) {
+            String previous = pairs[index + 1];
+            pairs[index + 1] = value;
+            return previous;
+        }
+
+        // insert the new pair at its sorted position
+        int pos = 0;
+        while (pos < pairs.length && String.CASE_INSENSITIVE_ORDER.compare(pairs[pos], key) <= 0) {
+            pos += 2;
+        }
+        String[] copy = new String[pairs.length + 2];
+        System.arraycopy(pairs, 0, copy, 0, pos);
+        copy[pos] = key;
+        copy[pos + 1] = value;
+        System.arraycopy(pairs, pos, copy, pos + 2, pairs.length - pos);
+        metadata = copy;
+        return null;
     }
 
-    int payloadSize() throws IOException {
-        StringWriter writer = new StringWriter();
-        JsonStream jsonStream = new JsonStream(writer);
-        toStream(jsonStream);
+    private String removeMetadata(int index) {
+        String[] pairs = metadata;
+        final String previous = pairs[index + 1];
+        String[] copy = new String[pairs.length - 2];
+        System.arraycopy(pairs, 0, copy, 0, index);
+        System.arraycopy(pairs, index + 2, copy, index, pairs.length - index - 2);
+        metadata = copy;
+        payload = null;
+        return previous;
+    }
+
+    private final class MetadataView extends AbstractMap<String, String> {
+
+        @Override
+        public int size() {
+            return metadata.length / 2;
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return indexOfKey(key) >= 0;
+        }
+
+        @Override
+        public String get(Object key) {
+            int index = indexOfKey(key);
+            return index >= 0 ? metadata[index + 1] : null;
+        }
+
+        @Override
+        public String put(String key, String value) {
+            if (key == null) {
+                throw new NullPointerException("Breadcrumb metadata keys cannot be null");
+            }
+            return putMetadata(key, value);
+        }
 
-        return writer.toString().length();
+        @Override
+        public String remove(Object key) {
+            int index = indexOfKey(key);
+            return index >= 0 ? removeMetadata(index) : null;
+        }
+
+        @Override
+        public void clear() {
+            metadata = EMPTY_METADATA;
+            payload = null;
+        }
+
+        @NonNull
+        @Override
+        public Set<Entry<String, String>> entrySet() {
+            return new AbstractSet<Entry<String, String>>() {
+                @Override
+                public int size() {
+                    return MetadataView.this.size();
+                }
+
+                @NonNull
+                @Override
+                public Iterator<Entry<String, String>> iterator() {
+                    return new EntryIterator();
+                }
+            };
+        }
+    }
+
+    private final class EntryIterator implements Iterator<Map.Entry<String, String>> {
+        private int next;
+        private int last = -1;
+
+        @Override
+        public boolean hasNext() {
+            return next < metadata.length;
+        }
+
+        @Override
+        public Map.Entry<String, String> next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            last = next;
+            next += 2;
+            return new AbstractMap.SimpleEntry<String, String>(metadata[last], metadata[last + 1]) {
+                @Override
+                public String setValue(String value) {
+                    super.setValue(value);
+                    return putMetadata(getKey(), value);
+                }
+            };
+        }
+
+        @Override
+        public void remove() {
+            if (last < 0) {
+                throw new IllegalStateException();
+            }
+            removeMetadata(last);
+            next = last;
+            last = -1;
+        }
+    }
+
+    private static final class PayloadTooLargeException extends IOException {
+        private static final long serialVersionUID = 4613468839234932402L;
+    }
+
+    /**
+     * Buffers JSON output while counting its UTF-8 encoded size, aborting once the
+     * limit is exceeded.
+     */
+    private static final class BoundedWriter extends Writer {
+        private final StringBuilder buffer = new StringBuilder(256);
+        private final int maxSize;
+        int size;
+
+        BoundedWriter(int maxSize) {
+            this.maxSize = maxSize;
+        }
+
+        @Override
+        public void write(@NonNull char[] chars, int off, int len) throws IOException {
+            for (int k = off; k < off + len; k++) {
+                count(chars[k]);
+            }
+            buffer.append(chars, off, len);
+        }
+
+        @Override
+        public void write(@NonNull String str, int off, int len) throws IOException {
+            for (int k = off; k < off + len; k++) {
+                count(str.charAt(k));
+            }
+            buffer.append(str, off, len);
+        }
+
+        @Override
+        public void write(int chr) throws IOException {
+            count((char) chr);
+            buffer.append((char) chr);
+        }
+
+        private void count(char chr) throws IOException {
+            if (chr < 0x80) {
+                size += 1;
+            } else if (chr < 0x800 || Character.isSurrogate(chr)) {
+                size += 2; // a surrogate pair encodes to 4 bytes
+            } else {
+                size += 3;
+            }
+            if (size > maxSize) {
+                throw new PayloadTooLargeException();
+            }
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+
+        @Override
+        public String toString() {
+            return buffer.toString();
+        }
     }
 }
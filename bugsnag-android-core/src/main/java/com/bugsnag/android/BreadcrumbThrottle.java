@@ -0,0 +1,99 @@
+package com.bugsnag.android;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Holds the rate limits configured for breadcrumbs, either by {@link BreadcrumbType} or by
+ * breadcrumb name. Checking a limit does not allocate, so it can be done before a breadcrumb
+ * is constructed or any callbacks are run.
+ */
+final class BreadcrumbThrottle {
+
+    private final RateLimit[] typeLimits = new RateLimit[BreadcrumbType.values().length];
+    private final Map<String, RateLimit> nameLimits = new ConcurrentHashMap<>();
+
+    void setLimit(@NonNull BreadcrumbType type, int limit, long periodMs) {
+        typeLimits[type.ordinal()] = limit >= 0 ? new RateLimit(limit, periodMs) : null;
+    }
+
+    void setLimit(@NonNull String name, int limit, long periodMs) {
+        if (limit >= 0) {
+            nameLimits.put(name, new RateLimit(limit, periodMs));
+        } else {
+            nameLimits.remove(name);
+        }
+    }
+
+    /**
+     * Returns true if a breadcrumb with this name and type would currently be dropped, without
+     * counting it against the limit.
+     */
+    boolean isThrottled(@Nullable String name, @NonNull BreadcrumbType type) {
+        return isExhausted(typeLimits[type.ordinal()], findLimit(name),
+            System.currentTimeMillis());
+    }
+
+    /**
+     * Counts a breadcrumb with this name and type against any matching limits. Both limits are
+     * checked before either is consumed, so a breadcrumb dropped by its name limit does not use
+     * up its type limit, or the other way round.
+     *
+     * @return true if the breadcrumb is within the limits and should be recorded
+     */
+    boolean tryAcquire(@Nullable String name, @NonNull BreadcrumbType type) {
+        long now = System.currentTimeMillis();
+        RateLimit typeLimit = typeLimits[type.ordinal()];
+        RateLimit nameLimit = findLimit(name);
+
+        if (isExhausted(typeLimit, nameLimit, now)) {
+            return false;
+        }
+        boolean acquired = typeLimit == null || typeLimit.tryAcquire(now);
+        return (nameLimit == null || nameLimit.tryAcquire(now)) && acquired;
+    }
+
+    @Nullable
+    private RateLimit findLimit(@Nullable String name) {
+        return name != null ? nameLimits.get(name) : null;
+    }
+
+    private static boolean isExhausted(@Nullable RateLimit typeLimit,
+                                       @Nullable RateLimit nameLimit, long now) {
+        return (typeLimit != null && typeLimit.isExhausted(now))
+            || (nameLimit != null && nameLimit.isExhausted(now));
+    }
+
+    /**
+     * Allows up to a fixed number of breadcrumbs in each period.
+     */
+    static final class RateLimit {
+        private final int limit;
+        private final long periodMs;
+        private final AtomicLong periodStart = new AtomicLong();
+        private final AtomicInteger count = new AtomicInteger();
+
+        RateLimit(int limit, long periodMs) {
+            this.limit = limit;
+            this.periodMs = periodMs;
+        }
+
+        boolean isExhausted(long now) {
+            return now - periodStart.get() < periodMs && count.get() >= limit;
+        }
+
+        boolean tryAcquire(long now) {
+            long start = periodStart.get();
+
+            if (now - start >= periodMs && periodStart.compareAndSet(start, now)) {
+                count.set(0);
+            }
+            return count.incrementAndGet() <= limit;
+        }
+    }
+}
@@ -1,30 +1,37 @@
 package com.bugsnag.android;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 
 import java.io.IOException;
-import java.util.Observable;
-import java.util.Queue;
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.List;
+import java.util.Map;
 
 
-class Breadcrumbs extends Observable implements JsonStream.Streamable {
+class Breadcrumbs extends EventSource implements JsonStream.Streamable {
 
     private static final int MAX_PAYLOAD_SIZE = 4096;
-    final Queue<Breadcrumb> store = new ConcurrentLinkedQueue<>();
+    private static final int MAX_CAPACITY = 10000;
+    private static final String MANUAL_NAME = "manual";
 
     private final Configuration configuration;
+    private final Object resizeLock = new Object();
+    private volatile RingBuffer<Breadcrumb> store;
+
+    @Nullable
+    private volatile Breadcrumb lastBreadcrumb;
 
     Breadcrumbs(Configuration configuration) {
         this.configuration = configuration;
+        this.store = new RingBuffer<>(getConfiguredCapacity());
     }
 
     @Override
     public void toStream(@NonNull JsonStream writer) throws IOException {
-        pruneBreadcrumbs();
         writer.beginArray();
 
-        for (Breadcrumb breadcrumb : store) {
+        // breadcrumbs retain their encoded form, so this splices it in without re-serializing
+        for (Breadcrumb breadcrumb : snapshot()) {
             breadcrumb.toStream(writer);
         }
 
@@ -36,34 +43,137 @@ class Breadcrumbs extends Observable implements JsonStream.Streamable {
     }
 
     void clear() {
-        store.clear();
-        setChanged();
-        notifyObservers(new NativeInterface.Message(
-                    NativeInterface.MessageType.CLEAR_BREADCRUMBS, null));
+        // cleared in place, so that an add which already holds the buffer is cleared too, and
+        // under the resize lock, so that a resize cannot carry over the cleared breadcrumbs
+        synchronized (resizeLock) {
+            getStore().clear();
+            lastBreadcrumb = null;
+        }
+        publish(NativeInterface.MessageType.CLEAR_BREADCRUMBS, null);
+    }
+
+    /**
+     * Returns true if a breadcrumb with this name and type would be dropped by a rate limit.
+     * Callers can check this before gathering metadata for an automatic breadcrumb.
+     */
+    boolean isThrottled(@Nullable String name, @NonNull BreadcrumbType type) {
+        return configuration.getBreadcrumbThrottle().isThrottled(name, type);
+    }
+
+    /**
+     * Applies the configured rate limits and duplicate collapsing to a breadcrumb which is
+     * about to be left. This runs before the breadcrumb is allocated or passed to callbacks.
+     *
+     * @return true if the breadcrumb should be created and recorded
+     */
+    boolean shouldRecord(@Nullable String name,
+                         @NonNull BreadcrumbType type,
+                         @Nullable Map<String, String> metadata) {
+        Breadcrumb last = lastBreadcrumb;
+
+        if (configuration.getCollapseDuplicateBreadcrumbs() && last != null
+            && last.isDuplicate(name, type, metadata)) {
+            last.incrementRepeatCount();
+            return false;
+        }
+
+        // only breadcrumbs which will be stored count towards the rate limits
+        return configuration.getBreadcrumbThrottle().tryAcquire(name, type);
+    }
+
+    /**
+     * Applies the configured rate limits and duplicate collapsing to a manual breadcrumb
+     * which is about to be left with this message.
+     *
+     * @return true if the breadcrumb should be created and recorded
+     */
+    boolean shouldRecordMessage(@NonNull String message) {
+        Breadcrumb last = lastBreadcrumb;
+
+        if (configuration.getCollapseDuplicateBreadcrumbs() && last != null
+            && last.isDuplicateMessage(message)) {
+            last.incrementRepeatCount();
+            return false;
+        }
+
+        // only breadcrumbs which will be stored count towards the rate limits
+        return configuration.getBreadcrumbThrottle().tryAcquire(MANUAL_NAME, BreadcrumbType.MANUAL);
+    }
+
+    /**
+     * Returns a consistent copy of the stored breadcrumbs, ordered from oldest to newest.
+     */
+    @NonNull
+    List<Breadcrumb> snapshot() {
+        return getStore().snapshot();
+    }
+
+    /**
+     * Captures the breadcrumbs stored now, which are not changed by breadcrumbs left later.
+     * The breadcrumbs are only read from the buffer when the copy is written.
+     */
+    @NonNull
+    JsonStream.Streamable copy() {
+        final RingBuffer.Window<Breadcrumb> window = getStore().window();
+        return new JsonStream.Streamable() {
+            @Override
+            public void toStream(@NonNull JsonStream writer) throws IOException {
+                writer.beginArray();
+                for (Breadcrumb breadcrumb : window.items()) {
+                    breadcrumb.toStream(writer);
+                }
+                writer.endArray();
+            }
+        };
     }
 
     private void addToStore(@NonNull Breadcrumb breadcrumb) {
         try {
-            if (breadcrumb.payloadSize() > MAX_PAYLOAD_SIZE) {
+            if (breadcrumb.encode(MAX_PAYLOAD_SIZE) < 0) {
                 Logger.warn("Dropping breadcrumb because payload exceeds 4KB limit");
                 return;
             }
-            store.add(breadcrumb);
-            pruneBreadcrumbs();
-            setChanged();
-            notifyObservers(new NativeInterface.Message(
-                        NativeInterface.MessageType.ADD_BREADCRUMB, breadcrumb));
+            getStore().add(breadcrumb);
+            lastBreadcrumb = breadcrumb;
+            publish(NativeInterface.MessageType.ADD_BREADCRUMB, breadcrumb);
         } catch (IOException ex) {
             Logger.warn("Dropping breadcrumb because it could not be serialized", ex);
         }
     }
 
-    private void pruneBreadcrumbs() {
-        int maxBreadcrumbs = configuration.getMaxBreadcrumbs();
+    /**
+     * Gets the buffer of breadcrumbs, replacing it with one of the new size if
+     * {@link Configuration#setMaxBreadcrumbs(int)} has been called since it was created.
+     * The most recent breadcrumbs are carried over to the new buffer.
+     */
+    private RingBuffer<Breadcrumb> getStore() {
+        RingBuffer<Breadcrumb> current = store;
+        int capacity = getConfiguredCapacity();
 
-        // Remove oldest breadcrumbs until new max size reached
-        while (store.size() > maxBreadcrumbs) {
-            store.poll();
+        if (current.getCapacity() == capacity) {
+            return current;
         }
+        synchronized (resizeLock) {
+            current = store;
+
+            if (current.getCapacity() != capacity) {
+                if (capacity == MAX_CAPACITY) {
+                    Logger.warn("Limiting breadcrumb capacity to " + MAX_CAPACITY);
+                }
+                RingBuffer<Breadcrumb> resized = new RingBuffer<>(capacity);
+                List<Breadcrumb> crumbs = current.snapshot();
+
+                for (int k = Math.max(0, crumbs.size() - capacity); k < crumbs.size(); k++) {
+                    resized.add(crumbs.get(k));
+                }
+                store = resized;
+                current = resized;
+            }
+            return current;
+        }
+    }
+
+    private int getConfiguredCapacity() {
+        return Math.min(configuration.getMaxBreadcrumbs(), MAX_CAPACITY);
     }
 }
@@ -539,6 +539,33 @@ public final class Bugsnag {
         });
     }
 
+    /**
+     * Notify Bugsnag of a handled exception, and find out what became of the report without
+     * blocking the calling thread
+     *
+     * @param exception the exception to send to Bugsnag
+     * @return a future which completes once the report is sent, saved to disk or dropped
+     */
+    @NonNull
+    public static DeliveryFuture notifyAsync(@NonNull final Throwable exception) {
+        return getClient().notifyAsync(exception);
+    }
+
+    /**
+     * Notify Bugsnag of a handled exception, and find out what became of the report without
+     * blocking the calling thread
+     *
+     * @param exception the exception to send to Bugsnag
+     * @param callback  callback invoked on the generated error report for
+     *                  additional modification
+     * @return a future which completes once the report is sent, saved to disk or dropped
+     */
+    @NonNull
+    public static DeliveryFuture notifyAsync(@NonNull final Throwable exception,
+                                             @Nullable final Callback callback) {
+        return getClient().notifyAsync(exception, callback);
+    }
+
     /**
      * Intended for use by other clients (React Native/Unity). Calling this method directly from
      * Android is not supported.
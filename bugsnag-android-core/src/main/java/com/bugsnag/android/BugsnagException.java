@@ -22,7 +22,8 @@ public class BugsnagException extends Throwable implements JsonStream.Streamable
     private String type = Configuration.DEFAULT_EXCEPTION_TYPE;
 
     private JsonStream.Streamable streamable;
-    private String[] projectPackages;
+    private ProjectPackageMatcher projectPackages = ProjectPackageMatcher.EMPTY;
+    private Stacktrace.Limits stacktraceLimits = Stacktrace.Limits.DEFAULT;
 
     /**
      * Constructor
@@ -122,7 +123,8 @@ public class BugsnagException extends Throwable implements JsonStream.Streamable
             if (frames != null) {
                 stacktrace = new Stacktrace(frames);
             } else {
-                stacktrace = new Stacktrace(getStackTrace(), this.projectPackages);
+                stacktrace = new Stacktrace(getStackTrace(), 0, projectPackages,
+                    stacktraceLimits);
             }
 
             stream.beginObject();
@@ -134,7 +136,11 @@ public class BugsnagException extends Throwable implements JsonStream.Streamable
         }
     }
 
-    void setProjectPackages(String[] projectPackages) {
+    void setProjectPackages(@NonNull ProjectPackageMatcher projectPackages) {
         this.projectPackages = projectPackages;
     }
+
+    void setStacktraceLimits(@NonNull Stacktrace.Limits stacktraceLimits) {
+        this.stacktraceLimits = stacktraceLimits;
+    }
 }
@@ -15,21 +15,15 @@ class CachedThread implements JsonStream.Streamable {
     private final String name;
     private final String type;
     private final boolean isErrorReportingThread;
-    private Stacktrace stacktrace;
-
-    CachedThread(Configuration config, long id, String name, String type,
-                 boolean isErrorReportingThread, StackTraceElement[] frames) {
-        this(id, name, type, isErrorReportingThread,
-                new Stacktrace(frames, config.getProjectPackages()));
-    }
+    private JsonStream.Streamable stacktrace;
 
     CachedThread(long id, String name, String type,
                  boolean isErrorReportingThread, List<Map<String, Object>> customFrames) {
         this(id, name, type, isErrorReportingThread, new Stacktrace(customFrames));
     }
 
-    private CachedThread(long id, String name, String type,
-                         boolean isErrorReportingThread, Stacktrace stackTrace) {
+    CachedThread(long id, String name, String type,
+                 boolean isErrorReportingThread, JsonStream.Streamable stackTrace) {
         this.id = id;
         this.name = name;
         this.type = type;
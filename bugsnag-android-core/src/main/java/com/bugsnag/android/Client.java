@@ -3,8 +3,6 @@ package com.bugsnag.android;
 import static com.bugsnag.android.ConfigFactory.MF_BUILD_UUID;
 import static com.bugsnag.android.MapUtils.getStringFromMap;
 
-import com.bugsnag.android.NativeInterface.Message;
-
 import android.annotation.SuppressLint;
 import android.app.Activity;
 import android.app.Application;
@@ -14,6 +12,9 @@ import android.content.pm.ApplicationInfo;
 import android.content.pm.PackageManager;
 import android.content.res.Resources;
 import android.os.Build;
+import android.os.Debug;
+import android.os.Handler;
+import android.os.Looper;
 import android.os.storage.StorageManager;
 import android.text.TextUtils;
 import android.view.OrientationEventListener;
@@ -28,9 +29,12 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
 import java.util.Map;
 import java.util.Observable;
 import java.util.Observer;
+import java.util.concurrent.Executor;
 import java.util.concurrent.RejectedExecutionException;
 
 /**
@@ -45,7 +49,7 @@ import java.util.concurrent.RejectedExecutionException;
  * @see Bugsnag
  */
 @SuppressWarnings("checkstyle:JavadocTagContinuationIndentation")
-public class Client extends Observable implements Observer {
+public class Client extends EventSource implements Observer {
 
     private static final boolean BLOCKING = true;
     private static final String SHARED_PREF_KEY = "com.bugsnag.android";
@@ -54,6 +58,8 @@ public class Client extends Observable implements Observer {
     private static final String USER_EMAIL_KEY = "user.email";
 
     static final String INTERNAL_DIAGNOSTICS_TAB = "BugsnagDiagnostics";
+    static final String LAST_RUN_TAB = "lastRun";
+    static final String FREEZE_TAB = "freeze";
 
     @NonNull
     protected final Configuration config;
@@ -68,6 +74,9 @@ public class Client extends Observable implements Observer {
     @NonNull
     final Breadcrumbs breadcrumbs;
 
+    @NonNull
+    final StateJournal stateJournal;
+
     @NonNull
     private final User user = new User();
 
@@ -82,6 +91,11 @@ public class Client extends Observable implements Observer {
 
     private final OrientationEventListener orientationListener;
     private final Connectivity connectivity;
+    private final DeviceStateCache deviceState;
+    private final ResourceSampler resourceSampler;
+
+    @Nullable
+    private MainThreadWatchdog watchdog;
     final StorageManager storageManager;
 
     @Nullable
@@ -139,6 +153,7 @@ public class Client extends Observable implements Observer {
         connectivity = new ConnectivityCompat(appContext, new Function1<Boolean, Unit>() {
             @Override
             public Unit invoke(Boolean connected) {
+                deviceState.onNetworkChanged();
                 if (connected) {
                     errorStore.flushAsync();
                 }
@@ -151,20 +166,26 @@ public class Client extends Observable implements Observer {
             configuration.setDelivery(new DefaultDelivery(connectivity));
         }
 
-        sessionTracker =
-            new SessionTracker(configuration, this, sessionStore);
+        resourceSampler = new ResourceSampler(configuration, new ForegroundDetector(appContext));
+        sessionTracker = new SessionTracker(configuration, this,
+            SessionTracker.DEFAULT_TIMEOUT_MS, sessionStore, resourceSampler);
         eventReceiver = new EventReceiver(this);
 
         // Set up and collect constant app and device diagnostics
         sharedPrefs = appContext.getSharedPreferences(SHARED_PREF_KEY, Context.MODE_PRIVATE);
 
-        appData = new AppData(appContext, appContext.getPackageManager(), config, sessionTracker);
+        deviceState = new DeviceStateCache(appContext, connectivity);
+        appData = new AppData(appContext, appContext.getPackageManager(), config, sessionTracker,
+            deviceState);
         Resources resources = appContext.getResources();
-        deviceData = new DeviceData(connectivity, this.appContext, resources, sharedPrefs);
+        deviceData = new DeviceData(deviceState, resourceSampler, resources, sharedPrefs);
 
         // Set up breadcrumbs
         breadcrumbs = new Breadcrumbs(configuration);
 
+        // Read the state left by the previous process before recording this one
+        stateJournal = new StateJournal(StateJournal.getFile(appContext.getCacheDir()));
+
         // Set sensible defaults if project packages not already set
         if (config.getProjectPackages() == null) {
             setProjectPackages(appContext.getPackageName());
@@ -264,22 +285,35 @@ public class Client extends Observable implements Observer {
         }
         connectivity.registerForNetworkChanges();
 
+        // keep device state up to date, so that it is not looked up when errors are reported
+        try {
+            Async.run(new Runnable() {
+                @Override
+                public void run() {
+                    deviceState.register();
+                }
+            });
+        } catch (RejectedExecutionException ex) {
+            Logger.warn("Failed to register for device state changes", ex);
+        }
+
         boolean isNotProduction = !AppData.RELEASE_STAGE_PRODUCTION.equals(
             appData.guessReleaseStage());
         Logger.setEnabled(isNotProduction);
 
-        config.addObserver(this);
-        breadcrumbs.addObserver(this);
-        sessionTracker.addObserver(this);
-        user.addObserver(this);
+        config.bus.subscribe(bus.forwarder());
+        breadcrumbs.bus.subscribe(bus.forwarder());
+        sessionTracker.bus.subscribe(bus.forwarder());
+        user.bus.subscribe(bus.forwarder());
+        stateJournal.setUserId(user.getId());
+        stateJournal.setContext(config.getContext());
+        bus.subscribe(stateJournal, StateJournal.EVENT_TYPES);
 
         final Client client = this;
         orientationListener = new OrientationEventListener(appContext) {
             @Override
             public void onOrientationChanged(int orientation) {
-                client.setChanged();
-                client.notifyObservers(new Message(
-                    NativeInterface.MessageType.UPDATE_ORIENTATION, orientation));
+                client.publish(NativeInterface.MessageType.UPDATE_ORIENTATION, orientation);
             }
         };
         try {
@@ -291,11 +325,13 @@ public class Client extends Observable implements Observer {
         // Flush any on-disk errors
         errorStore.flushOnLaunch();
         loadPlugins();
+        enableOrDisableFreezeDetection();
+        notifyAbnormalTermination();
 
         // react to changes in config
-        ClientConfigObserver observer = new ClientConfigObserver(this, config);
-        config.addObserver(observer);
-        client.addObserver(observer);
+        bus.subscribe(new ClientConfigObserver(this, config),
+            NativeInterface.MessageType.UPDATE_NOTIFY_RELEASE_STAGES,
+            NativeInterface.MessageType.UPDATE_RELEASE_STAGE);
     }
 
     void recordStorageCacheBehavior(MetaData metaData) {
@@ -343,12 +379,83 @@ public class Client extends Observable implements Observer {
         }
     }
 
+    synchronized void enableOrDisableFreezeDetection() {
+        if (config.getDetectFreezes() && watchdog == null) {
+            final Handler handler = new Handler(Looper.getMainLooper());
+            Executor mainThreadExecutor = new Executor() {
+                @Override
+                public void execute(@NonNull Runnable command) {
+                    handler.post(command);
+                }
+            };
+            watchdog = new MainThreadWatchdog(mainThreadExecutor,
+                Looper.getMainLooper().getThread(), config.getFreezeThresholdMs(),
+                new MainThreadWatchdog.Delegate() {
+                    @Override
+                    public void onFreezeDetected(long durationMs,
+                                                 @NonNull StackTraceElement[] stacktrace) {
+                        notifyFreeze(durationMs, stacktrace);
+                    }
+                });
+
+            // paused in the background, and resumed when an activity brings the app back
+            Boolean inForeground = sessionTracker.isInForeground();
+            watchdog.setPaused(inForeground != null && !inForeground);
+            bus.subscribe(watchdog, NativeInterface.MessageType.UPDATE_IN_FOREGROUND);
+            watchdog.start();
+        } else if (!config.getDetectFreezes() && watchdog != null) {
+            bus.unsubscribe(watchdog);
+            watchdog.stop();
+            watchdog = null;
+        }
+    }
+
+    /**
+     * Reports a freeze of the main thread detected by the {@link MainThreadWatchdog}
+     */
+    void notifyFreeze(long durationMs, @NonNull StackTraceElement[] stacktrace) {
+        if (Debug.isDebuggerConnected()) {
+            return; // the main thread may be paused at a breakpoint
+        }
+        String message = "Main thread was blocked for " + durationMs + "ms";
+        BugsnagException exc = new BugsnagException("AppFreeze", message, stacktrace);
+        Error error = new Error.Builder(config, exc, sessionTracker,
+            Looper.getMainLooper().getThread(), false)
+            .severityReasonType(HandledState.REASON_FREEZE)
+            .build();
+
+        error.getMetaData().addToTab(FREEZE_TAB, "durationMs", durationMs);
+        error.getMetaData().addToTab(FREEZE_TAB, "thresholdMs", config.getFreezeThresholdMs());
+        notify(error, DeliveryStyle.ASYNC_WITH_CACHE, null);
+    }
+
+    /**
+     * Reports the previous process if the {@link StateJournal} shows that it was terminated in
+     * the foreground without crashing or exiting cleanly
+     */
+    void notifyAbnormalTermination() {
+        if (!config.getDetectAbnormalTerminations()
+            || !stateJournal.didLastRunTerminateAbnormally()) {
+            return;
+        }
+        String message = "The app was terminated in the foreground without crashing";
+        BugsnagException exc = new BugsnagException("AbnormalTermination", message,
+            new StackTraceElement[0]);
+        Error error = new Error.Builder(config, exc, sessionTracker,
+            Thread.currentThread(), false)
+            .severityReasonType(HandledState.REASON_ABNORMAL_TERMINATION)
+            .build();
+
+        error.getMetaData().store.put(LAST_RUN_TAB,
+            new HashMap<>(stateJournal.getLastRunInfo()));
+        notify(error, DeliveryStyle.ASYNC_WITH_CACHE, null);
+    }
+
     void sendNativeSetupNotification() {
-        setChanged();
         ArrayList<Object> messageArgs = new ArrayList<>();
         messageArgs.add(config);
 
-        super.notifyObservers(new Message(NativeInterface.MessageType.INSTALL, messageArgs));
+        publish(NativeInterface.MessageType.INSTALL, messageArgs);
         try {
             Async.run(new Runnable() {
                 @Override
@@ -362,17 +469,12 @@ public class Client extends Observable implements Observer {
     }
 
     void enqueuePendingNativeReports() {
-        setChanged();
-        notifyObservers(new Message(
-            NativeInterface.MessageType.DELIVER_PENDING, null));
+        publish(NativeInterface.MessageType.DELIVER_PENDING, null);
     }
 
     @Override
     public void update(@NonNull Observable observable, @NonNull Object arg) {
-        if (arg instanceof Message) {
-            setChanged();
-            super.notifyObservers(arg);
-        }
+        notifyObservers(arg);
     }
 
     /**
@@ -644,7 +746,7 @@ public class Client extends Observable implements Observer {
     @NonNull
     @InternalApi
     public Collection<Breadcrumb> getBreadcrumbs() {
-        return new ArrayList<>(breadcrumbs.store);
+        return breadcrumbs.snapshot();
     }
 
     @NonNull
@@ -961,11 +1063,102 @@ public class Client extends Observable implements Observer {
     void notify(@NonNull Error error,
                 @NonNull DeliveryStyle style,
                 @Nullable Callback callback) {
+        notify(error, style, callback, null);
+    }
+
+    /**
+     * @param future completed with the outcome of the report, if not null
+     */
+    void notify(@NonNull Error error,
+                @NonNull DeliveryStyle style,
+                @Nullable Callback callback,
+                @Nullable DeliveryFuture future) {
+        try {
+            captureAndDeliver(error, style, callback, future);
+        } catch (RuntimeException exception) {
+            // a callback may throw, which must not leave the future incomplete
+            complete(future, DeliveryOutcome.FAILED);
+            throw exception;
+        }
+    }
+
+    private void captureAndDeliver(@NonNull Error error,
+                                   @NonNull DeliveryStyle style,
+                                   @Nullable Callback callback,
+                                   @Nullable DeliveryFuture future) {
+        if (error.getHandledState().isUnhandled()) {
+            stateJournal.markCrashed();
+        }
+
         // Don't notify if this error class should be ignored
         if (error.shouldIgnoreClass()) {
+            complete(future, DeliveryOutcome.DROPPED);
             return;
         }
 
+        Date time = new Date();
+
+        // the process may be about to terminate, so crashes are always processed now
+        if (config.getEnrichErrorsInBackground() && style != DeliveryStyle.SAME_THREAD
+            && !error.getHandledState().isUnhandled()) {
+            // Capture the state which may change after notify returns. Each of these is a
+            // constant-time snapshot, which is only read when the error is delivered
+            error.setBreadcrumbs(breadcrumbs.copy());
+            error.setGlobalMetaData(config.getMetaData().copy());
+            error.setUser(new User(user));
+            attachDefaultContext(error);
+            enrichAndDeliverAsync(error, style, callback, time, future);
+        } else {
+            enrichAndDeliver(error, style, callback, time, false, future);
+        }
+    }
+
+    /**
+     * Attach default context from active activity
+     */
+    private void attachDefaultContext(@NonNull Error error) {
+        if (TextUtils.isEmpty(error.getContext())) {
+            String context = config.getContext();
+            error.setContext(context != null ? context : appData.getActiveScreenClass());
+        }
+    }
+
+    private void enrichAndDeliverAsync(@NonNull final Error error,
+                                       @NonNull final DeliveryStyle style,
+                                       @Nullable final Callback callback,
+                                       @NonNull final Date time,
+                                       @Nullable final DeliveryFuture future) {
+        try {
+            Async.run(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        enrichAndDeliver(error, style, callback, time, true, future);
+                    } catch (RuntimeException exception) {
+                        Logger.warn("Failed to notify Bugsnag of error", exception);
+                        complete(future, DeliveryOutcome.FAILED);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException exception) {
+            Logger.warn("Exceeded max queue count, processing error on the calling thread");
+            enrichAndDeliver(error, style, callback, time, false, future);
+        }
+    }
+
+    /**
+     * Attach the app and device data to an error, run callbacks on it and deliver it
+     *
+     * @param inBackground whether this is already running in the background, in which case
+     *                     the state captured by notify is used and the report is delivered
+     *                     on this thread
+     */
+    private void enrichAndDeliver(@NonNull Error error,
+                                  @NonNull DeliveryStyle style,
+                                  @Nullable Callback callback,
+                                  @NonNull Date time,
+                                  boolean inBackground,
+                                  @Nullable DeliveryFuture future) {
         // generate new object each time, as this can be mutated by end-users
         Map<String, Object> errorAppData = appData.getAppData();
 
@@ -973,34 +1166,38 @@ public class Client extends Observable implements Observer {
         String releaseStage = getStringFromMap("releaseStage", errorAppData);
 
         if (!config.shouldNotifyForReleaseStage(releaseStage)) {
+            complete(future, DeliveryOutcome.DROPPED);
             return;
         }
 
         // Capture the state of the app and device and attach diagnostics to the error
         Map<String, Object> errorDeviceData = deviceData.getDeviceData();
         error.setDeviceData(errorDeviceData);
-        error.getMetaData().store.put("device", deviceData.getDeviceMetaData());
+        error.getMetaData().store.put("device", deviceData.getDeviceMetaData(time));
 
 
         // add additional info that belongs in metadata
         error.setAppData(errorAppData);
         error.getMetaData().store.put("app", appData.getAppDataMetaData());
 
-        // Attach breadcrumbs to the error
-        error.setBreadcrumbs(breadcrumbs);
-
-        // Attach user info to the error
-        error.setUser(user);
+        // Attach the last known context of the previous process to crashes on launch
+        Map<String, Object> lastRunInfo = stateJournal.getLastRunInfo();
+        if (lastRunInfo != null && error.getHandledState().isUnhandled()
+            && errorStore.isStartupCrash(AppData.getDurationMs())) {
+            error.getMetaData().store.put(LAST_RUN_TAB, new HashMap<>(lastRunInfo));
+        }
 
-        // Attach default context from active activity
-        if (TextUtils.isEmpty(error.getContext())) {
-            String context = config.getContext();
-            error.setContext(context != null ? context : appData.getActiveScreenClass());
+        if (!inBackground) {
+            // processed before notify returns, so the live state is attached rather than copied
+            error.setBreadcrumbs(breadcrumbs);
+            error.setUser(user);
+            attachDefaultContext(error);
         }
 
         // Run beforeNotify tasks, don't notify if any return true
         if (!runBeforeNotifyTasks(error)) {
             Logger.info("Skipping notification - beforeNotify task returned false");
+            complete(future, DeliveryOutcome.DROPPED);
             return;
         }
 
@@ -1012,30 +1209,34 @@ public class Client extends Observable implements Observer {
         }
 
         if (error.getSession() != null) {
-            setChanged();
-
             if (error.getHandledState().isUnhandled()) {
-                notifyObservers(new Message(
-                    NativeInterface.MessageType.NOTIFY_UNHANDLED, null));
+                publish(NativeInterface.MessageType.NOTIFY_UNHANDLED, null);
             } else {
-                notifyObservers(new Message(
-                    NativeInterface.MessageType.NOTIFY_HANDLED, error.getExceptionName()));
+                publish(NativeInterface.MessageType.NOTIFY_HANDLED, error.getExceptionName());
             }
         }
 
         switch (style) {
             case SAME_THREAD:
-                deliver(report, error);
+                complete(future, deliver(report, error));
                 break;
             case NO_CACHE:
                 report.setCachingDisabled(true);
-                deliverReportAsync(error, report);
+                if (inBackground) {
+                    complete(future, deliver(report, error));
+                } else {
+                    deliverReportAsync(error, report, future);
+                }
                 break;
             case ASYNC:
-                deliverReportAsync(error, report);
+                if (inBackground) {
+                    complete(future, deliver(report, error));
+                } else {
+                    deliverReportAsync(error, report, future);
+                }
                 break;
             case ASYNC_WITH_CACHE:
-                errorStore.write(error);
+                complete(future, store(error));
                 errorStore.flushAsync();
                 break;
             default:
@@ -1095,7 +1296,8 @@ public class Client extends Observable implements Observer {
         }
     }
 
-    private void deliverReportAsync(@NonNull Error error, Report report) {
+    private void deliverReportAsync(@NonNull Error error, Report report,
+                                    @Nullable final DeliveryFuture future) {
         final Report finalReport = report;
         final Error finalError = error;
 
@@ -1104,15 +1306,32 @@ public class Client extends Observable implements Observer {
             Async.run(new Runnable() {
                 @Override
                 public void run() {
-                    deliver(finalReport, finalError);
+                    try {
+                        complete(future, deliver(finalReport, finalError));
+                    } catch (RuntimeException exception) {
+                        Logger.warn("Problem sending error to Bugsnag", exception);
+                        complete(future, DeliveryOutcome.FAILED);
+                    }
                 }
             });
         } catch (RejectedExecutionException exception) {
-            errorStore.write(error);
+            complete(future, store(error));
             Logger.warn("Exceeded max queue count, saving to disk to send later");
         }
     }
 
+    @NonNull
+    private DeliveryOutcome store(@NonNull Error error) {
+        return errorStore.write(error) != null ? DeliveryOutcome.STORED : DeliveryOutcome.FAILED;
+    }
+
+    private static void complete(@Nullable DeliveryFuture future,
+                                 @NonNull DeliveryOutcome outcome) {
+        if (future != null) {
+            future.complete(outcome);
+        }
+    }
+
     private void leaveErrorBreadcrumb(@NonNull Error error) {
         // Add a breadcrumb for this error occurring
         String exceptionMessage = error.getExceptionMessage();
@@ -1120,6 +1339,39 @@ public class Client extends Observable implements Observer {
         breadcrumbs.add(new Breadcrumb(error.getExceptionName(), BreadcrumbType.ERROR, message));
     }
 
+    /**
+     * Notify Bugsnag of a handled exception, and find out what became of the report without
+     * blocking the calling thread
+     *
+     * @param exception the exception to send to Bugsnag
+     * @return a future which completes once the report is sent, saved to disk or dropped
+     */
+    @NonNull
+    public DeliveryFuture notifyAsync(@NonNull Throwable exception) {
+        return notifyAsync(exception, null);
+    }
+
+    /**
+     * Notify Bugsnag of a handled exception, and find out what became of the report without
+     * blocking the calling thread
+     *
+     * @param exception the exception to send to Bugsnag
+     * @param callback  callback invoked on the generated error report for
+     *                  additional modification
+     * @return a future which completes once the report is sent, saved to disk or dropped
+     */
+    @NonNull
+    public DeliveryFuture notifyAsync(@NonNull Throwable exception,
+                                      @Nullable Callback callback) {
+        Error error = new Error.Builder(config, exception, sessionTracker,
+            Thread.currentThread(), false)
+            .severityReasonType(HandledState.REASON_HANDLED_EXCEPTION)
+            .build();
+        DeliveryFuture future = new DeliveryFuture();
+        notify(error, DeliveryStyle.ASYNC, callback, future);
+        return future;
+    }
+
     /**
      * Notify Bugsnag of a handled exception
      *
@@ -1373,6 +1625,9 @@ public class Client extends Observable implements Observer {
      * @param breadcrumb the log message to leave (max 140 chars)
      */
     public void leaveBreadcrumb(@NonNull String breadcrumb) {
+        if (!breadcrumbs.shouldRecordMessage(breadcrumb)) {
+            return;
+        }
         Breadcrumb crumb = new Breadcrumb(breadcrumb);
 
         if (runBeforeBreadcrumbTasks(crumb)) {
@@ -1387,6 +1642,9 @@ public class Client extends Observable implements Observer {
     public void leaveBreadcrumb(@NonNull String name,
                                 @NonNull BreadcrumbType type,
                                 @NonNull Map<String, String> metadata) {
+        if (!breadcrumbs.shouldRecord(name, type, metadata)) {
+            return;
+        }
         Breadcrumb crumb = new Breadcrumb(name, type, metadata);
 
         if (runBeforeBreadcrumbTasks(crumb)) {
@@ -1461,25 +1719,29 @@ public class Client extends Observable implements Observer {
         ExceptionHandler.disable(this);
     }
 
-    void deliver(@NonNull Report report, @NonNull Error error) {
+    @NonNull
+    DeliveryOutcome deliver(@NonNull Report report, @NonNull Error error) {
         if (!runBeforeSendTasks(report)) {
             Logger.info("Skipping notification - beforeSend task returned false");
-            return;
+            return DeliveryOutcome.DROPPED;
         }
         try {
             config.getDelivery().deliver(report, config);
             Logger.info("Sent 1 new error to Bugsnag");
             leaveErrorBreadcrumb(error);
+            return DeliveryOutcome.SENT;
         } catch (DeliveryFailureException exception) {
             if (!report.isCachingDisabled()) {
                 Logger.warn("Could not send error(s) to Bugsnag,"
                     + " saving to disk to send later", exception);
-                errorStore.write(error);
+                DeliveryOutcome outcome = store(error);
                 leaveErrorBreadcrumb(error);
+                return outcome;
             }
         } catch (Exception exception) {
             Logger.warn("Problem sending error to Bugsnag", exception);
         }
+        return DeliveryOutcome.FAILED;
     }
 
     /**
@@ -1633,5 +1895,14 @@ public class Client extends Observable implements Observer {
     void close() {
         orientationListener.disable();
         connectivity.unregisterForNetworkChanges();
+        deviceState.unregister();
+
+        synchronized (this) {
+            if (watchdog != null) {
+                watchdog.stop();
+                watchdog = null;
+            }
+        }
+        stateJournal.markCleanExit();
     }
 }
@@ -20,12 +20,15 @@ import java.util.concurrent.ConcurrentLinkedQueue;
  * User-specified configuration storage object, contains information
  * specified at the client level, api-key and endpoint configuration.
  */
-public class Configuration extends Observable implements Observer {
+public class Configuration extends EventSource implements Observer {
 
     private static final String HEADER_API_PAYLOAD_VERSION = "Bugsnag-Payload-Version";
     static final String HEADER_API_KEY = "Bugsnag-Api-Key";
     private static final String HEADER_BUGSNAG_SENT_AT = "Bugsnag-Sent-At";
     private static final int DEFAULT_MAX_SIZE = 32;
+    private static final long DEFAULT_RESOURCE_SAMPLE_TTL_MS = 5000;
+    private static final long DEFAULT_FREEZE_THRESHOLD_MS = 2000;
+    private static final long MIN_FREEZE_THRESHOLD_MS = 100;
     static final String DEFAULT_EXCEPTION_TYPE = "android";
 
     @NonNull
@@ -41,8 +44,19 @@ public class Configuration extends Observable implements Observer {
     @Nullable
     private String[] notifyReleaseStages = null;
     private String[] projectPackages;
+    private String[] projectPackageExclusions;
+    private volatile ProjectPackageMatcher projectPackageMatcher = ProjectPackageMatcher.EMPTY;
     private String releaseStage;
     private boolean sendThreads = true;
+    @NonNull
+    private volatile ThreadCapturePolicy threadCapturePolicy = ThreadCapturePolicy.ALL;
+    private volatile int maxThreads = -1;
+    private volatile int maxThreadFrames = -1;
+    @Nullable
+    private volatile String[] ignoreThreadNames;
+    private volatile Stacktrace.Limits stacktraceLimits = Stacktrace.Limits.DEFAULT;
+    private volatile long resourceSampleTtlMs = DEFAULT_RESOURCE_SAMPLE_TTL_MS;
+    private volatile boolean enrichErrorsInBackground = false;
     private boolean enableExceptionHandler = true;
     private boolean persistUserBetweenSessions = false;
     private long launchCrashThresholdMs = 5 * 1000;
@@ -53,6 +67,9 @@ public class Configuration extends Observable implements Observer {
     private boolean detectAnrs = false;
     private boolean detectNdkCrashes;
     private long anrThresholdMs = 5000;
+    private volatile boolean detectFreezes = false;
+    private volatile long freezeThresholdMs = DEFAULT_FREEZE_THRESHOLD_MS;
+    private volatile boolean detectAbnormalTerminations = false;
 
     @NonNull
     private MetaData metaData;
@@ -67,6 +84,8 @@ public class Configuration extends Observable implements Observer {
 
     private Delivery delivery;
     private int maxBreadcrumbs = DEFAULT_MAX_SIZE;
+    private final BreadcrumbThrottle breadcrumbThrottle = new BreadcrumbThrottle();
+    private volatile boolean collapseDuplicateBreadcrumbs = false;
 
     /**
      * Construct a new Bugsnag configuration object
@@ -76,7 +95,7 @@ public class Configuration extends Observable implements Observer {
     public Configuration(@NonNull String apiKey) {
         this.apiKey = apiKey;
         this.metaData = new MetaData();
-        this.metaData.addObserver(this);
+        this.metaData.bus.subscribe(bus.forwarder());
 
         try {
             // check if DETECT_NDK_CRASHES has been set in bugsnag-android or bugsnag-android-ndk
@@ -92,10 +111,7 @@ public class Configuration extends Observable implements Observer {
      * Respond to an update notification from observed objects, like MetaData
      */
     public void update(@NonNull Observable observable, @NonNull Object arg) {
-        if (arg instanceof NativeInterface.Message) {
-            setChanged();
-            notifyObservers(arg);
-        }
+        notifyObservers(arg);
     }
 
     /**
@@ -126,9 +142,7 @@ public class Configuration extends Observable implements Observer {
      */
     public void setAppVersion(@NonNull String appVersion) {
         this.appVersion = appVersion;
-        setChanged();
-        notifyObservers(new NativeInterface.Message(
-                    NativeInterface.MessageType.UPDATE_APP_VERSION, appVersion));
+        publish(NativeInterface.MessageType.UPDATE_APP_VERSION, appVersion);
     }
 
     /**
@@ -170,9 +184,7 @@ public class Configuration extends Observable implements Observer {
      */
     public void setContext(@Nullable String context) {
         this.context = context;
-        setChanged();
-        notifyObservers(new NativeInterface.Message(
-                    NativeInterface.MessageType.UPDATE_CONTEXT, context));
+        publish(NativeInterface.MessageType.UPDATE_CONTEXT, context);
     }
 
     /**
@@ -280,9 +292,7 @@ public class Configuration extends Observable implements Observer {
     @SuppressWarnings("checkstyle:AbbreviationAsWordInName")
     public void setBuildUUID(@Nullable String buildUuid) {
         this.buildUuid = buildUuid;
-        setChanged();
-        notifyObservers(new NativeInterface.Message(
-                    NativeInterface.MessageType.UPDATE_BUILD_UUID, buildUuid));
+        publish(NativeInterface.MessageType.UPDATE_BUILD_UUID, buildUuid);
     }
 
     /**
@@ -358,9 +368,7 @@ public class Configuration extends Observable implements Observer {
      */
     public void setNotifyReleaseStages(@Nullable String[] notifyReleaseStages) {
         this.notifyReleaseStages = notifyReleaseStages;
-        setChanged();
-        notifyObservers(new NativeInterface.Message(
-                NativeInterface.MessageType.UPDATE_NOTIFY_RELEASE_STAGES, this));
+        publish(NativeInterface.MessageType.UPDATE_NOTIFY_RELEASE_STAGES, this);
     }
 
     /**
@@ -387,6 +395,46 @@ public class Configuration extends Observable implements Observer {
      */
     public void setProjectPackages(@Nullable String[] projectPackages) {
         this.projectPackages = projectPackages;
+        compileProjectPackages();
+    }
+
+    /**
+     * Get which packages should not be considered part of your application, even though they
+     * are within the project packages.
+     *
+     * @return excluded packages
+     */
+    @Nullable
+    public String[] getProjectPackageExclusions() {
+        return projectPackageExclusions;
+    }
+
+    /**
+     * Set which packages should not be considered part of your application, even though they
+     * are within the project packages, such as a library vendored into your app's package.
+     * <p/>
+     * For example:
+     * <p/>
+     * config.setProjectPackageExclusions(new String[]{"com.example.myapp.thirdparty"});
+     * <p/>
+     * Both project packages and exclusions can contain globs, where '*' matches within a
+     * single package name segment and '**' matches across segments.
+     *
+     * @param exclusions a list of package names
+     */
+    public void setProjectPackageExclusions(@Nullable String[] exclusions) {
+        this.projectPackageExclusions = exclusions;
+        compileProjectPackages();
+    }
+
+    @NonNull
+    ProjectPackageMatcher getProjectPackageMatcher() {
+        return projectPackageMatcher;
+    }
+
+    private synchronized void compileProjectPackages() {
+        projectPackageMatcher =
+            ProjectPackageMatcher.compile(projectPackages, projectPackageExclusions);
     }
 
     /**
@@ -409,9 +457,7 @@ public class Configuration extends Observable implements Observer {
      */
     public void setReleaseStage(@Nullable String releaseStage) {
         this.releaseStage = releaseStage;
-        setChanged();
-        notifyObservers(new NativeInterface.Message(
-                    NativeInterface.MessageType.UPDATE_RELEASE_STAGE, this));
+        publish(NativeInterface.MessageType.UPDATE_RELEASE_STAGE, this);
     }
 
     /**
@@ -433,6 +479,233 @@ public class Configuration extends Observable implements Observer {
         this.sendThreads = sendThreads;
     }
 
+    /**
+     * Get which threads are captured when an error is reported.
+     *
+     * @return the thread capture policy
+     */
+    @NonNull
+    public ThreadCapturePolicy getThreadCapturePolicy() {
+        return threadCapturePolicy;
+    }
+
+    /**
+     * Set which threads are captured when an error is reported. By default all threads are
+     * captured. Capturing every thread can take several milliseconds in apps with hundreds of
+     * threads, so apps which only need the thread that an error occurred on can use
+     * {@link ThreadCapturePolicy#ERROR_THREAD}.
+     * <p/>
+     * No threads are captured if {@link #getSendThreads()} is false.
+     *
+     * @param threadCapturePolicy which threads to capture
+     */
+    public void setThreadCapturePolicy(@NonNull ThreadCapturePolicy threadCapturePolicy) {
+        this.threadCapturePolicy = threadCapturePolicy;
+    }
+
+    /**
+     * Get the max number of threads captured for each error.
+     *
+     * @return the max number of threads, or a negative value if there is no limit
+     */
+    public int getMaxThreads() {
+        return maxThreads;
+    }
+
+    /**
+     * Set the max number of threads captured for each error. The thread which the error
+     * occurred on is always captured, followed by the other threads in order of their id.
+     * By default there is no limit.
+     *
+     * @param maxThreads the max number of threads, or a negative value to remove the limit
+     */
+    public void setMaxThreads(int maxThreads) {
+        this.maxThreads = maxThreads;
+    }
+
+    /**
+     * Get the max number of frames captured for each thread.
+     *
+     * @return the max number of frames, or a negative value if there is no limit
+     */
+    public int getMaxThreadFrames() {
+        return maxThreadFrames;
+    }
+
+    /**
+     * Set the max number of frames captured for each thread, counted from the top of its
+     * stack. This does not affect the stacktrace of the error itself. By default there is no
+     * limit.
+     *
+     * @param maxThreadFrames the max number of frames, or a negative value to remove the limit
+     */
+    public void setMaxThreadFrames(int maxThreadFrames) {
+        this.maxThreadFrames = maxThreadFrames;
+    }
+
+    /**
+     * Get the names of threads which are not captured when an error is reported.
+     *
+     * @return thread name prefixes
+     */
+    @Nullable
+    public String[] getIgnoreThreadNames() {
+        return ignoreThreadNames;
+    }
+
+    /**
+     * Set which threads are not captured when an error is reported, by the start of their
+     * name. The thread which the error occurred on is always captured.
+     * <p/>
+     * For example:
+     * <p/>
+     * config.setIgnoreThreadNames(new String[]{"OkHttp", "pool-"});
+     *
+     * @param ignoreThreadNames thread name prefixes to ignore
+     */
+    public void setIgnoreThreadNames(@Nullable String[] ignoreThreadNames) {
+        this.ignoreThreadNames = ignoreThreadNames;
+    }
+
+    /**
+     * Get the max number of frames sent in each stacktrace.
+     *
+     * @return the max number of frames
+     */
+    public int getMaxStackframes() {
+        return stacktraceLimits.maxFrames;
+    }
+
+    /**
+     * Set the max number of frames sent in each stacktrace, after repeating frames have been
+     * compressed. Frames beyond this are omitted from the middle of the stack. By default, 200
+     * frames are sent.
+     *
+     * @param maxStackframes the max number of frames
+     */
+    public synchronized void setMaxStackframes(int maxStackframes) {
+        if (maxStackframes < 1) {
+            Logger.warn("Ignoring invalid max stackframes. Must be >= 1.");
+            return;
+        }
+        Stacktrace.Limits limits = stacktraceLimits;
+        stacktraceLimits =
+            new Stacktrace.Limits(maxStackframes, limits.tailLength, limits.maxCycleLength);
+    }
+
+    /**
+     * Get the number of frames kept from the bottom of a stacktrace which is truncated.
+     *
+     * @return the number of frames
+     */
+    public int getStackframeTailLength() {
+        return stacktraceLimits.tailLength;
+    }
+
+    /**
+     * Set the number of frames kept from the bottom of a stacktrace which has more than
+     * {@link #getMaxStackframes()} frames, so that the entry point of a deep stack is still
+     * sent. By default, 50 frames are kept. If this is 0, only the top of the stack is sent.
+     *
+     * @param tailLength the number of frames
+     */
+    public synchronized void setStackframeTailLength(int tailLength) {
+        if (tailLength < 0) {
+            Logger.warn("Ignoring invalid stackframe tail length. Must be >= 0.");
+            return;
+        }
+        Stacktrace.Limits limits = stacktraceLimits;
+        stacktraceLimits =
+            new Stacktrace.Limits(limits.maxFrames, tailLength, limits.maxCycleLength);
+    }
+
+    /**
+     * Get the longest sequence of frames which is compressed if it repeats.
+     *
+     * @return the number of frames, or 0 if repeating frames are not compressed
+     */
+    public int getMaxRecursionCycleLength() {
+        return stacktraceLimits.maxCycleLength;
+    }
+
+    /**
+     * Set the longest sequence of frames which is compressed if it repeats. A sequence which
+     * occurs 3 or more times in a row, such as the recursion which led to a
+     * StackOverflowError, is sent once followed by a frame noting how many times it repeated.
+     * By default, sequences of up to 8 frames are compressed.
+     *
+     * @param maxCycleLength the number of frames, or 0 to disable compression
+     */
+    public synchronized void setMaxRecursionCycleLength(int maxCycleLength) {
+        if (maxCycleLength < 0) {
+            Logger.warn("Ignoring invalid recursion cycle length. Must be >= 0.");
+            return;
+        }
+        Stacktrace.Limits limits = stacktraceLimits;
+        stacktraceLimits =
+            new Stacktrace.Limits(limits.maxFrames, limits.tailLength, maxCycleLength);
+    }
+
+    @NonNull
+    Stacktrace.Limits getStacktraceLimits() {
+        return stacktraceLimits;
+    }
+
+    /**
+     * Get how long a sample of the free disk space, free memory and foreground state is
+     * reused for errors.
+     *
+     * @return the TTL in milliseconds, or 0 if these values are looked up for each error
+     */
+    public long getResourceSampleTtlMs() {
+        return resourceSampleTtlMs;
+    }
+
+    /**
+     * Set how long a sample of the free disk space, free memory and foreground state is
+     * reused for errors. Looking these values up takes a system call and an IPC call to the
+     * activity manager, so by default a sample is reused for 5 seconds, after which it is
+     * taken again in the background. The age of the sample is sent with each error.
+     *
+     * @param ttlMs the TTL in milliseconds, or 0 to look these values up for each error
+     */
+    public void setResourceSampleTtlMs(long ttlMs) {
+        if (ttlMs < 0) {
+            Logger.warn("Ignoring invalid resource sample TTL. Must be >= 0.");
+            return;
+        }
+        this.resourceSampleTtlMs = ttlMs;
+    }
+
+    /**
+     * Get whether handled errors are enriched and delivered in the background
+     *
+     * @return true if callbacks for handled errors run in the background
+     * @see #setEnrichErrorsInBackground(boolean)
+     */
+    public boolean getEnrichErrorsInBackground() {
+        return enrichErrorsInBackground;
+    }
+
+    /**
+     * Set whether handled errors are enriched and delivered in the background.
+     * <p/>
+     * By default, notify collects the app and device data, runs the beforeNotify tasks and
+     * the notify callback, and for some delivery styles writes the report to disk, all before
+     * it returns. If this is enabled, notify only captures the stacktrace, threads,
+     * breadcrumbs, user, context and metadata as they are when it is called, and the rest
+     * is done on a background thread. Callbacks then run after notify returns, and on
+     * another thread.
+     * <p/>
+     * Unhandled errors, and errors reported with notifyBlocking, are always processed before
+     * notify returns.
+     *
+     * @param enrichErrorsInBackground true to run callbacks for handled errors in the background
+     */
+    public void setEnrichErrorsInBackground(boolean enrichErrorsInBackground) {
+        this.enrichErrorsInBackground = enrichErrorsInBackground;
+    }
+
     /**
      * Get whether or not Bugsnag should automatically handle uncaught exceptions
      *
@@ -499,17 +772,15 @@ public class Configuration extends Observable implements Observer {
      * @param metaData meta data
      */
     public void setMetaData(@NonNull MetaData metaData) {
-        this.metaData.deleteObserver(this);
+        this.metaData.bus.unsubscribe(bus.forwarder());
         //noinspection ConstantConditions
         if (metaData == null) {
             this.metaData = new MetaData();
         } else {
             this.metaData = metaData;
         }
-        this.setChanged();
-        this.notifyObservers(new NativeInterface.Message(
-                    NativeInterface.MessageType.UPDATE_METADATA, this.metaData.store));
-        this.metaData.addObserver(this);
+        publish(NativeInterface.MessageType.UPDATE_METADATA, this.metaData.store);
+        this.metaData.bus.subscribe(bus.forwarder());
     }
 
     /**
@@ -652,6 +923,68 @@ public class Configuration extends Observable implements Observer {
         return maxBreadcrumbs;
     }
 
+    /**
+     * Limits how many breadcrumbs of the given type are recorded in each period. Breadcrumbs
+     * over the limit are dropped before they are created or passed to any
+     * {@link BeforeRecordBreadcrumb} callbacks. This is useful for automatic breadcrumbs which
+     * can otherwise push more useful breadcrumbs out of the buffer.
+     * <p/>
+     * For example, to record at most 5 state change breadcrumbs per minute:
+     * <p/>
+     * config.setBreadcrumbRateLimit(BreadcrumbType.STATE, 5, 60000);
+     *
+     * @param type           the breadcrumb type to limit
+     * @param maxBreadcrumbs the max number of breadcrumbs recorded per period, or a negative
+     *                       value to remove the limit
+     * @param periodMs       the length of the period in milliseconds
+     */
+    public void setBreadcrumbRateLimit(@NonNull BreadcrumbType type,
+                                       int maxBreadcrumbs,
+                                       long periodMs) {
+        breadcrumbThrottle.setLimit(type, maxBreadcrumbs, periodMs);
+    }
+
+    /**
+     * Limits how many breadcrumbs with the given name are recorded in each period. Breadcrumbs
+     * over the limit are dropped before they are created or passed to any
+     * {@link BeforeRecordBreadcrumb} callbacks.
+     *
+     * @param name           the breadcrumb name to limit, e.g. "BATTERY_LOW"
+     * @param maxBreadcrumbs the max number of breadcrumbs recorded per period, or a negative
+     *                       value to remove the limit
+     * @param periodMs       the length of the period in milliseconds
+     * @see #setBreadcrumbRateLimit(BreadcrumbType, int, long)
+     */
+    public void setBreadcrumbRateLimit(@NonNull String name, int maxBreadcrumbs, long periodMs) {
+        breadcrumbThrottle.setLimit(name, maxBreadcrumbs, periodMs);
+    }
+
+    /**
+     * Sets whether consecutive identical breadcrumbs should be collapsed into a single
+     * breadcrumb with a repeat count. Breadcrumbs are identical if they have the same name,
+     * type and metadata. By default this is false.
+     *
+     * @param collapseDuplicateBreadcrumbs whether identical breadcrumbs should be collapsed
+     */
+    public void setCollapseDuplicateBreadcrumbs(boolean collapseDuplicateBreadcrumbs) {
+        this.collapseDuplicateBreadcrumbs = collapseDuplicateBreadcrumbs;
+    }
+
+    /**
+     * Gets whether consecutive identical breadcrumbs are collapsed into a single breadcrumb
+     * with a repeat count.
+     *
+     * @return true if duplicate breadcrumbs are collapsed
+     */
+    public boolean getCollapseDuplicateBreadcrumbs() {
+        return collapseDuplicateBreadcrumbs;
+    }
+
+    @NonNull
+    BreadcrumbThrottle getBreadcrumbThrottle() {
+        return breadcrumbThrottle;
+    }
+
     /**
      * Retrieves the delivery used to make HTTP requests to Bugsnag.
      *
@@ -706,6 +1039,78 @@ public class Configuration extends Observable implements Observer {
         this.detectAnrs = detectAnrs;
     }
 
+    /**
+     * @return whether freezes of the main thread are reported to Bugsnag
+     * @see #setDetectFreezes(boolean)
+     */
+    public boolean getDetectFreezes() {
+        return detectFreezes;
+    }
+
+    /**
+     * Sets whether freezes of the main thread which are shorter than an ANR should be reported
+     * to Bugsnag. When enabled, Bugsnag posts a heartbeat to the main thread, and captures the
+     * main thread's stacktrace whenever the heartbeat has waited for longer than
+     * {@link #getFreezeThresholdMs()}. Once the main thread recovers, an "AppFreeze" error is
+     * reported with that stacktrace and how long the main thread was blocked for. Detection
+     * pauses while the app is in the background. This is disabled by default.
+     * <p/>
+     * This must be set before Bugsnag is initialised.
+     *
+     * @param detectFreezes whether freezes should be reported or not
+     * @see #setFreezeThresholdMs(long)
+     */
+    public void setDetectFreezes(boolean detectFreezes) {
+        this.detectFreezes = detectFreezes;
+    }
+
+    /**
+     * @return whether abnormal terminations of the previous process are reported to Bugsnag
+     * @see #setDetectAbnormalTerminations(boolean)
+     */
+    public boolean getDetectAbnormalTerminations() {
+        return detectAbnormalTerminations;
+    }
+
+    /**
+     * Sets whether Bugsnag should report an "AbnormalTermination" error on launch when the
+     * previous process was terminated in the foreground without capturing a crash or exiting
+     * cleanly, which usually means it ran out of memory or was killed. The error includes the
+     * last known state of the previous process in a "lastRun" tab. This is disabled by default.
+     * <p/>
+     * This must be set before Bugsnag is initialised.
+     *
+     * @param detectAbnormalTerminations whether abnormal terminations should be reported or not
+     */
+    public void setDetectAbnormalTerminations(boolean detectAbnormalTerminations) {
+        this.detectAbnormalTerminations = detectAbnormalTerminations;
+    }
+
+    /**
+     * @return the time in ms that the main thread is blocked for before it is reported as frozen
+     * @see #setFreezeThresholdMs(long)
+     */
+    public long getFreezeThresholdMs() {
+        return freezeThresholdMs;
+    }
+
+    /**
+     * Sets the time in milliseconds that the main thread must be blocked for before it is
+     * reported as frozen, which is 2000ms by default. This must be at least 100ms, and less than
+     * the ANR threshold.
+     *
+     * @param freezeThresholdMs the threshold in ms at which freezes are detected
+     * @see #setDetectFreezes(boolean)
+     */
+    public void setFreezeThresholdMs(long freezeThresholdMs) {
+        if (freezeThresholdMs < MIN_FREEZE_THRESHOLD_MS || freezeThresholdMs >= anrThresholdMs) {
+            Logger.warn("Ignoring invalid freeze threshold. Must be >= " + MIN_FREEZE_THRESHOLD_MS
+                + " and < " + anrThresholdMs + ".");
+            return;
+        }
+        this.freezeThresholdMs = freezeThresholdMs;
+    }
+
     boolean getCallPreviousSigquitHandler() {
         return callPreviousSigquitHandler;
     }
@@ -881,7 +1286,7 @@ public class Configuration extends Observable implements Observer {
      */
     @Deprecated
     protected boolean inProject(@NonNull String className) {
-        return Stacktrace.inProject(className, projectPackages);
+        return projectPackageMatcher.inProject(className);
     }
 
     /**
@@ -128,5 +128,13 @@ internal class ConnectivityApi24(
             activeNetwork = network
             cb?.invoke(true)
         }
+
+        override fun onLost(network: Network?) {
+            super.onLost(network)
+            if (network == activeNetwork) { // the default network may already be replaced
+                activeNetwork = null
+                cb?.invoke(false)
+            }
+        }
     }
 }
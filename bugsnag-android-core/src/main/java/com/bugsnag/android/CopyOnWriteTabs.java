@@ -0,0 +1,184 @@
+package com.bugsnag.android;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.AbstractMap;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The tabs of a {@link MetaData}, held in an immutable map which is replaced on every write.
+ * Each write copies only the tab which it changes and the map of tabs, so the tabs which are
+ * unchanged are shared between the old and new maps, and {@link #snapshot()} can return the
+ * current map without copying it.
+ * <p/>
+ * Tabs which are returned by {@link #get(Object)} are views which read the latest map and
+ * write through to this store, so that changes to them are visible in later snapshots but
+ * never in earlier ones. Entries which are iterated are read from a single snapshot, and their
+ * tabs cannot be modified.
+ */
+final class CopyOnWriteTabs extends AbstractMap<String, Object> {
+
+    private volatile Map<String, Object> tabs = Collections.emptyMap();
+
+    CopyOnWriteTabs() {
+    }
+
+    CopyOnWriteTabs(@NonNull Map<String, Object> map) {
+        Map<String, Object> copy = new HashMap<>();
+
+        for (Map.Entry<String, Object> entry : map.entrySet()) {
+            copy.put(entry.getKey(), freeze(entry.getValue()));
+        }
+        tabs = Collections.unmodifiableMap(copy);
+    }
+
+    /**
+     * Returns the tabs as they are now, which are not changed by later writes
+     */
+    @NonNull
+    Map<String, Object> snapshot() {
+        return tabs;
+    }
+
+    @Nullable
+    @Override
+    public Object get(@Nullable Object key) {
+        Object value = tabs.get(key);
+
+        if (value instanceof Map) {
+            return new Tab((String) key);
+        }
+        return value;
+    }
+
+    @Override
+    public boolean containsKey(@Nullable Object key) {
+        return tabs.containsKey(key);
+    }
+
+    @Override
+    public int size() {
+        return tabs.size();
+    }
+
+    @Nullable
+    @Override
+    public synchronized Object put(@NonNull String key, @NonNull Object value) {
+        Object previous = tabs.get(key);
+        Map<String, Object> copy = new HashMap<>(tabs);
+        copy.put(key, freeze(value));
+        tabs = Collections.unmodifiableMap(copy);
+        return previous;
+    }
+
+    @Nullable
+    @Override
+    public synchronized Object remove(@Nullable Object key) {
+        if (!tabs.containsKey(key)) {
+            return null;
+        }
+        Map<String, Object> copy = new HashMap<>(tabs);
+        Object previous = copy.remove(key);
+        tabs = Collections.unmodifiableMap(copy);
+        return previous;
+    }
+
+    @Override
+    public synchronized void clear() {
+        tabs = Collections.emptyMap();
+    }
+
+    @NonNull
+    @Override
+    public Set<Entry<String, Object>> entrySet() {
+        return tabs.entrySet();
+    }
+
+    /**
+     * Replaces a tab with a copy which has the value set, or removed if the value is null
+     */
+    private synchronized Object writeToTab(@NonNull String tabName,
+                                           @NonNull Object key,
+                                           @Nullable Object value) {
+        Map<?, ?> current = tabs.get(tabName) instanceof Map
+            ? (Map<?, ?>) tabs.get(tabName) : Collections.emptyMap();
+        Map<Object, Object> tab = new HashMap<Object, Object>(current);
+        Object previous = value != null ? tab.put(key, value) : tab.remove(key);
+
+        Map<String, Object> copy = new HashMap<>(tabs);
+        copy.put(tabName, Collections.unmodifiableMap(tab));
+        tabs = Collections.unmodifiableMap(copy);
+        return previous;
+    }
+
+    /**
+     * Copies a tab which is added from outside the store, so that it cannot be changed later
+     */
+    private static Object freeze(@NonNull Object value) {
+        if (value instanceof Tab) {
+            return ((Tab) value).current();
+        }
+        if (value instanceof Map) {
+            return Collections.unmodifiableMap(new HashMap<>((Map<?, ?>) value));
+        }
+        return value;
+    }
+
+    private final class Tab extends AbstractMap<String, Object> {
+
+        private final String name;
+
+        Tab(@NonNull String name) {
+            this.name = name;
+        }
+
+        @SuppressWarnings("unchecked")
+        @NonNull
+        Map<String, Object> current() {
+            Object tab = tabs.get(name);
+            return tab instanceof Map ? (Map<String, Object>) tab
+                : Collections.<String, Object>emptyMap();
+        }
+
+        @Nullable
+        @Override
+        public Object get(@Nullable Object key) {
+            return current().get(key);
+        }
+
+        @Override
+        public boolean containsKey(@Nullable Object key) {
+            return current().containsKey(key);
+        }
+
+        @Override
+        public int size() {
+            return current().size();
+        }
+
+        @Nullable
+        @Override
+        public Object put(@NonNull String key, @NonNull Object value) {
+            return writeToTab(name, key, value);
+        }
+
+        @Nullable
+        @Override
+        public Object remove(@Nullable Object key) {
+            if (key == null || !current().containsKey(key)) {
+                return null;
+            }
+            return writeToTab(name, key, null);
+        }
+
+        @NonNull
+        @Override
+        public Set<Entry<String, Object>> entrySet() {
+            return current().entrySet();
+        }
+    }
+}
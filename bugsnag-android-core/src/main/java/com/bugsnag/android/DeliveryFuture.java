@@ -0,0 +1,125 @@
+package com.bugsnag.android;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * The pending {@link DeliveryOutcome} of an error reported with
+ * {@link Client#notifyAsync(Throwable, Callback)}.
+ * <p/>
+ * This is completed by the thread which delivers or saves the report, so waiting for it with
+ * {@link #get(long, TimeUnit)} blocks the calling thread, while a {@link Listener} does not.
+ * It cannot be cancelled.
+ */
+public final class DeliveryFuture implements Future<DeliveryOutcome> {
+
+    /**
+     * Receives the outcome of an error report once it is known
+     */
+    public interface Listener {
+
+        /**
+         * Called on the thread which completed the report, or on the thread which added this
+         * listener if the report had already completed
+         *
+         * @param outcome what became of the report
+         */
+        void onComplete(@NonNull DeliveryOutcome outcome);
+    }
+
+    private final CountDownLatch latch = new CountDownLatch(1);
+    private final AtomicReference<DeliveryOutcome> outcome = new AtomicReference<>();
+    private final Queue<Listener> listeners = new ConcurrentLinkedQueue<>();
+
+    DeliveryFuture() {
+    }
+
+    /**
+     * Add a listener which is called once with the outcome of the report
+     *
+     * @param listener the listener to call
+     */
+    public void addListener(@NonNull Listener listener) {
+        listeners.add(listener);
+        DeliveryOutcome result = outcome.get();
+
+        // whichever of this and complete() removes the listener calls it
+        if (result != null && listeners.remove(listener)) {
+            callListener(listener, result);
+        }
+    }
+
+    /**
+     * @return the outcome of the report, or null if it is not yet known
+     */
+    @Nullable
+    public DeliveryOutcome getOutcome() {
+        return outcome.get();
+    }
+
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        return false;
+    }
+
+    @Override
+    public boolean isCancelled() {
+        return false;
+    }
+
+    @Override
+    public boolean isDone() {
+        return outcome.get() != null;
+    }
+
+    @NonNull
+    @Override
+    public DeliveryOutcome get() throws InterruptedException {
+        latch.await();
+        return outcome.get();
+    }
+
+    @NonNull
+    @Override
+    public DeliveryOutcome get(long timeout, @NonNull TimeUnit unit)
+        throws InterruptedException, TimeoutException {
+        if (!latch.await(timeout, unit)) {
+            throw new TimeoutException("Error report was not delivered within the timeout");
+        }
+        return outcome.get();
+    }
+
+    /**
+     * Set the outcome of the report, if it has not already been set
+     *
+     * @return true if this set the outcome
+     */
+    boolean complete(@NonNull DeliveryOutcome result) {
+        if (!outcome.compareAndSet(null, result)) {
+            return false;
+        }
+        latch.countDown();
+
+        Listener listener;
+        while ((listener = listeners.poll()) != null) {
+            callListener(listener, result);
+        }
+        return true;
+    }
+
+    private static void callListener(Listener listener, DeliveryOutcome result) {
+        try {
+            listener.onComplete(result);
+        } catch (Throwable ex) {
+            Logger.warn("DeliveryFuture listener threw an Exception", ex);
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package com.bugsnag.android;
+
+/**
+ * What became of an error reported with {@link Client#notifyAsync(Throwable, Callback)}
+ */
+public enum DeliveryOutcome {
+
+    /**
+     * The report was sent to Bugsnag
+     */
+    SENT,
+
+    /**
+     * The report was saved to disk, and will be sent when it is next flushed
+     */
+    STORED,
+
+    /**
+     * The report was not sent, as the error is ignored by the configuration or a callback
+     * discarded it
+     */
+    DROPPED,
+
+    /**
+     * The report could neither be sent nor saved to disk
+     */
+    FAILED
+}
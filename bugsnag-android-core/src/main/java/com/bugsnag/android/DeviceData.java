@@ -1,17 +1,11 @@
 package com.bugsnag.android;
 
-import android.annotation.SuppressLint;
-import android.content.ContentResolver;
 import android.content.Context;
-import android.content.Intent;
-import android.content.IntentFilter;
 import android.content.SharedPreferences;
 import android.content.res.Resources;
-import android.os.BatteryManager;
 import android.os.Build;
 import android.os.Environment;
-import android.os.StatFs;
-import android.provider.Settings;
+import android.os.SystemClock;
 import android.util.DisplayMetrics;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
@@ -45,8 +39,8 @@ class DeviceData {
     private static final String INSTALL_ID_KEY = "install.iud";
 
     private final boolean emulator;
-    private final Context appContext;
-    private final Connectivity connectivity;
+    private final DeviceStateCache deviceState;
+    private final ResourceSampler resourceSampler;
     private final Resources resources;
     private final SharedPreferences sharedPrefs;
     private final DisplayMetrics displayMetrics;
@@ -70,8 +64,15 @@ class DeviceData {
 
     DeviceData(Connectivity connectivity, Context appContext, Resources resources,
                SharedPreferences sharedPreferences) {
-        this.connectivity = connectivity;
-        this.appContext = appContext;
+        this(new DeviceStateCache(appContext, connectivity),
+            new ResourceSampler(null, new ForegroundDetector(appContext)), resources,
+            sharedPreferences);
+    }
+
+    DeviceData(DeviceStateCache deviceState, ResourceSampler resourceSampler,
+               Resources resources, SharedPreferences sharedPreferences) {
+        this.deviceState = deviceState;
+        this.resourceSampler = resourceSampler;
         this.resources = resources;
         this.sharedPrefs = sharedPreferences;
 
@@ -108,22 +109,32 @@ class DeviceData {
     }
 
     Map<String, Object> getDeviceData() {
+        ResourceSampler.Snapshot resources = resourceSampler.getSnapshot();
         Map<String, Object> map = getDeviceDataSummary();
         map.put("id", id);
-        map.put("freeMemory", calculateFreeMemory());
+        map.put("freeMemory", resources.freeMemory);
         map.put("totalMemory", calculateTotalMemory());
-        map.put("freeDisk", calculateFreeDisk());
+        map.put("freeDisk", resources.freeDisk);
         map.put("orientation", calculateOrientation());
         return map;
     }
 
     Map<String, Object> getDeviceMetaData() {
+        return getDeviceMetaData(new Date());
+    }
+
+    /**
+     * @param time the time at which the error occurred
+     */
+    Map<String, Object> getDeviceMetaData(@NonNull Date time) {
         Map<String, Object> map = new HashMap<>();
-        map.put("batteryLevel", getBatteryLevel());
-        map.put("charging", isCharging());
-        map.put("locationStatus", getLocationStatus());
-        map.put("networkAccess", getNetworkAccess());
-        map.put("time", getTime());
+        map.put("batteryLevel", deviceState.getBatteryLevel());
+        map.put("charging", deviceState.isCharging());
+        map.put("locationStatus", deviceState.getLocationStatus());
+        map.put("networkAccess", deviceState.getNetworkAccess());
+        map.put("time", DateUtils.toIso8601(time));
+        map.put("resourceSampleAgeMs",
+            resourceSampler.getSampleAgeMs(SystemClock.elapsedRealtime()));
         map.put("brand", Build.BRAND);
         map.put("locale", locale);
         map.put("screenDensity", screenDensity);
@@ -255,24 +266,8 @@ class DeviceData {
     /**
      * Get the usable disk space on internal storage's data directory
      */
-    @SuppressLint("UsableSpace")
     long calculateFreeDisk() {
-        // for this specific case we want the currently usable space, not
-        // StorageManager#allocatableBytes() as the UsableSpace lint inspection suggests
-        File dataDirectory = Environment.getDataDirectory();
-        return dataDirectory.getUsableSpace();
-    }
-
-    /**
-     * Get the amount of memory remaining that the VM can allocate
-     */
-    private long calculateFreeMemory() {
-        Runtime runtime = Runtime.getRuntime();
-        if (runtime.maxMemory() != Long.MAX_VALUE) {
-            return runtime.maxMemory() - runtime.totalMemory() + runtime.freeMemory();
-        } else {
-            return runtime.freeMemory();
-        }
+        return ResourceSampler.calculateFreeDisk(Environment.getDataDirectory());
     }
 
     /**
@@ -297,78 +292,6 @@ class DeviceData {
         return orientation;
     }
 
-    /**
-     * Get the current battery charge level, eg 0.3
-     */
-    @Nullable
-    private Float getBatteryLevel() {
-        try {
-            IntentFilter ifilter = new IntentFilter(Intent.ACTION_BATTERY_CHANGED);
-            Intent batteryStatus = appContext.registerReceiver(null, ifilter);
-
-            return batteryStatus.getIntExtra("level", -1)
-                / (float) batteryStatus.getIntExtra("scale", -1);
-        } catch (Exception exception) {
-            Logger.warn("Could not get batteryLevel");
-        }
-        return null;
-    }
-
-    /**
-     * Is the device currently charging/full battery?
-     */
-    @Nullable
-    private Boolean isCharging() {
-        try {
-            IntentFilter ifilter = new IntentFilter(Intent.ACTION_BATTERY_CHANGED);
-            Intent batteryStatus = appContext.registerReceiver(null, ifilter);
-
-            int status = batteryStatus.getIntExtra("status", -1);
-            return (status == BatteryManager.BATTERY_STATUS_CHARGING
-                || status == BatteryManager.BATTERY_STATUS_FULL);
-        } catch (Exception exception) {
-            Logger.warn("Could not get charging status");
-        }
-        return null;
-    }
-
-    /**
-     * Get the current status of location services
-     */
-    @Nullable
-    @SuppressWarnings("deprecation") // LOCATION_PROVIDERS_ALLOWED is deprecated
-    private String getLocationStatus() {
-        try {
-            ContentResolver cr = appContext.getContentResolver();
-            String providersAllowed =
-                Settings.Secure.getString(cr, Settings.Secure.LOCATION_PROVIDERS_ALLOWED);
-            if (providersAllowed != null && providersAllowed.length() > 0) {
-                return "allowed";
-            } else {
-                return "disallowed";
-            }
-        } catch (Exception exception) {
-            Logger.warn("Could not get locationStatus");
-        }
-        return null;
-    }
-
-    /**
-     * Get the current status of network access, eg "cellular"
-     */
-    @Nullable
-    private String getNetworkAccess() {
-        return connectivity.retrieveNetworkAccessState();
-    }
-
-    /**
-     * Get the current time on the device, in ISO8601 format.
-     */
-    @NonNull
-    private String getTime() {
-        return DateUtils.toIso8601(new Date());
-    }
-
     /**
      * Wrapper class to allow the test framework to use the correct version of the CPU / ABI
      */
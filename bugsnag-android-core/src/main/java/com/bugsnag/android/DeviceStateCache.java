@@ -0,0 +1,269 @@
+package com.bugsnag.android;
+
+import android.app.ActivityManager;
+import android.content.BroadcastReceiver;
+import android.content.ComponentCallbacks2;
+import android.content.ContentResolver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.database.ContentObserver;
+import android.os.BatteryManager;
+import android.provider.Settings;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Holds the last known battery, location, network and memory state of the device, which is
+ * kept up to date by broadcasts and callbacks from the system.
+ * <p/>
+ * Reading this state directly requires IPC calls to system services, which would otherwise
+ * be made on the thread reporting an error. Until {@link #register()} has been called, or if
+ * registering for changes to a value fails, it is read directly when requested.
+ */
+class DeviceStateCache extends BroadcastReceiver implements ComponentCallbacks2 {
+
+    private final Context appContext;
+    @Nullable
+    private final Connectivity connectivity;
+    private final ContentObserver locationObserver = new ContentObserver(null) {
+        @Override
+        public void onChange(boolean selfChange) {
+            locationStatus = readLocationStatus(appContext);
+        }
+    };
+
+    private volatile boolean registered;
+    private volatile boolean batteryRegistered;
+    private volatile boolean locationRegistered;
+    private volatile boolean memoryRegistered;
+
+    @Nullable
+    private volatile Float batteryLevel;
+
+    @Nullable
+    private volatile Boolean charging;
+
+    @Nullable
+    private volatile String locationStatus;
+
+    @Nullable
+    private volatile String networkAccess;
+
+    @Nullable
+    private volatile Boolean lowMemory;
+
+    DeviceStateCache(@NonNull Context appContext, @Nullable Connectivity connectivity) {
+        this.appContext = appContext;
+        this.connectivity = connectivity;
+    }
+
+    /**
+     * Read the current state and register for changes to it. This makes several IPC calls, so
+     * should not be called on the main thread.
+     */
+    void register() {
+        try {
+            Intent batteryStatus = appContext.registerReceiver(this,
+                new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
+            updateBatteryStatus(batteryStatus);
+            batteryRegistered = true;
+        } catch (Exception exception) {
+            Logger.warn("Failed to register for battery changes", exception);
+        }
+        try {
+            ContentResolver cr = appContext.getContentResolver();
+            cr.registerContentObserver(Settings.Secure.getUriFor(locationSetting()),
+                false, locationObserver);
+            locationStatus = readLocationStatus(appContext);
+            locationRegistered = true;
+        } catch (Exception exception) {
+            Logger.warn("Failed to register for location setting changes", exception);
+        }
+        try {
+            appContext.registerComponentCallbacks(this);
+            lowMemory = readLowMemory(appContext);
+            memoryRegistered = true;
+        } catch (Exception exception) {
+            Logger.warn("Failed to register for memory changes", exception);
+        }
+        // the client forwards network changes from its connectivity callback
+        networkAccess = readNetworkAccess();
+        registered = true;
+    }
+
+    void unregister() {
+        registered = false;
+        try {
+            if (batteryRegistered) {
+                batteryRegistered = false;
+                appContext.unregisterReceiver(this);
+            }
+            if (locationRegistered) {
+                locationRegistered = false;
+                appContext.getContentResolver().unregisterContentObserver(locationObserver);
+            }
+            if (memoryRegistered) {
+                memoryRegistered = false;
+                appContext.unregisterComponentCallbacks(this);
+            }
+        } catch (Exception exception) {
+            Logger.warn("Failed to unregister for device state changes", exception);
+        }
+    }
+
+    boolean isRegistered() {
+        return registered;
+    }
+
+    @Nullable
+    Float getBatteryLevel() {
+        if (!batteryRegistered) {
+            updateBatteryStatus(readBatteryStatus());
+        }
+        return batteryLevel;
+    }
+
+    @Nullable
+    Boolean isCharging() {
+        if (!batteryRegistered) {
+            updateBatteryStatus(readBatteryStatus());
+        }
+        return charging;
+    }
+
+    @Nullable
+    String getLocationStatus() {
+        return locationRegistered ? locationStatus : readLocationStatus(appContext);
+    }
+
+    @Nullable
+    String getNetworkAccess() {
+        return registered ? networkAccess : readNetworkAccess();
+    }
+
+    @Nullable
+    Boolean isLowMemory() {
+        return memoryRegistered ? lowMemory : readLowMemory(appContext);
+    }
+
+    /**
+     * Called when the network changes, on the thread which delivers connectivity callbacks
+     */
+    void onNetworkChanged() {
+        if (registered) {
+            networkAccess = readNetworkAccess();
+        }
+    }
+
+    @Override
+    public void onReceive(@NonNull Context context, @NonNull Intent intent) {
+        updateBatteryStatus(intent);
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        refreshLowMemory();
+    }
+
+    @Override
+    public void onLowMemory() {
+        lowMemory = true;
+        refreshLowMemory();
+    }
+
+    @Override
+    public void onConfigurationChanged(@NonNull android.content.res.Configuration newConfig) {
+    }
+
+    /**
+     * Memory callbacks are made on the main thread, so the memory state is read elsewhere
+     */
+    private void refreshLowMemory() {
+        try {
+            Async.run(new Runnable() {
+                @Override
+                public void run() {
+                    lowMemory = readLowMemory(appContext);
+                }
+            });
+        } catch (RejectedExecutionException exception) {
+            Logger.warn("Failed to refresh lowMemory status", exception);
+        }
+    }
+
+    @Nullable
+    private String readNetworkAccess() {
+        return connectivity != null ? connectivity.retrieveNetworkAccessState() : null;
+    }
+
+    @Nullable
+    private Intent readBatteryStatus() {
+        try {
+            IntentFilter ifilter = new IntentFilter(Intent.ACTION_BATTERY_CHANGED);
+            return appContext.registerReceiver(null, ifilter);
+        } catch (Exception exception) {
+            Logger.warn("Could not get battery status");
+        }
+        return null;
+    }
+
+    private void updateBatteryStatus(@Nullable Intent batteryStatus) {
+        if (batteryStatus == null) {
+            batteryLevel = null;
+            charging = null;
+            return;
+        }
+        batteryLevel = batteryStatus.getIntExtra("level", -1)
+            / (float) batteryStatus.getIntExtra("scale", -1);
+        int status = batteryStatus.getIntExtra("status", -1);
+        charging = status == BatteryManager.BATTERY_STATUS_CHARGING
+            || status == BatteryManager.BATTERY_STATUS_FULL;
+    }
+
+    @SuppressWarnings("deprecation") // LOCATION_PROVIDERS_ALLOWED is deprecated
+    private static String locationSetting() {
+        return Settings.Secure.LOCATION_PROVIDERS_ALLOWED;
+    }
+
+    /**
+     * Get the current status of location services
+     */
+    @Nullable
+    private static String readLocationStatus(Context appContext) {
+        try {
+            ContentResolver cr = appContext.getContentResolver();
+            String providersAllowed = Settings.Secure.getString(cr, locationSetting());
+            if (providersAllowed != null && providersAllowed.length() > 0) {
+                return "allowed";
+            } else {
+                return "disallowed";
+            }
+        } catch (Exception exception) {
+            Logger.warn("Could not get locationStatus");
+        }
+        return null;
+    }
+
+    /**
+     * Check if the device is currently running low on memory.
+     */
+    @Nullable
+    private static Boolean readLowMemory(Context appContext) {
+        try {
+            ActivityManager activityManager =
+                (ActivityManager) appContext.getSystemService(Context.ACTIVITY_SERVICE);
+
+            if (activityManager != null) {
+                ActivityManager.MemoryInfo memInfo = new ActivityManager.MemoryInfo();
+                activityManager.getMemoryInfo(memInfo);
+                return memInfo.lowMemory;
+            }
+        } catch (Exception exception) {
+            Logger.warn("Could not check lowMemory status");
+        }
+        return null;
+    }
+}
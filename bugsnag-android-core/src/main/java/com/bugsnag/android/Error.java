@@ -41,12 +41,19 @@ public class Error implements JsonStream.Streamable {
 
     @NonNull
     final Configuration config;
-    private String[] projectPackages;
     private final Exceptions exceptions;
-    private Breadcrumbs breadcrumbs;
+    private JsonStream.Streamable breadcrumbs;
+
+    /**
+     * A copy of the global metadata taken when the error was captured, or null to use the
+     * global metadata as it is when the error is serialized
+     */
+    @Nullable
+    private MetaData globalMetaData;
     private final BugsnagException exception;
     private final HandledState handledState;
     private final Session session;
+    @Nullable
     private final ThreadState threadState;
     private boolean incomplete = false;
 
@@ -65,14 +72,14 @@ public class Error implements JsonStream.Streamable {
         this.severity = severity;
         this.session = session;
 
-        projectPackages = config.getProjectPackages();
         exceptions = new Exceptions(config, exception);
     }
 
     @Override
     public void toStream(@NonNull JsonStream writer) throws IOException {
         // Merge error metaData into global metadata and apply filters
-        MetaData mergedMetaData = MetaData.merge(config.getMetaData(), metaData);
+        MetaData global = globalMetaData != null ? globalMetaData : config.getMetaData();
+        MetaData mergedMetaData = MetaData.merge(global, metaData);
 
         // Write error basics
         writer.beginObject();
@@ -84,6 +91,7 @@ public class Error implements JsonStream.Streamable {
         writer.name("unhandled").value(handledState.isUnhandled());
         writer.name("incomplete").value(incomplete);
 
+        String[] projectPackages = exceptions.getProjectPackages();
         if (projectPackages != null) {
             writer.name("projectPackages").beginArray();
             for (String projectPackage : projectPackages) {
@@ -104,7 +112,7 @@ public class Error implements JsonStream.Streamable {
         writer.name("breadcrumbs").value(breadcrumbs);
         writer.name("groupingHash").value(groupingHash);
 
-        if (config.getSendThreads()) {
+        if (config.getSendThreads() && threadState != null) {
             writer.name("threads").value(threadState);
         }
 
@@ -387,10 +395,14 @@ public class Error implements JsonStream.Streamable {
         this.deviceData = deviceData;
     }
 
-    void setBreadcrumbs(Breadcrumbs breadcrumbs) {
+    void setBreadcrumbs(JsonStream.Streamable breadcrumbs) {
         this.breadcrumbs = breadcrumbs;
     }
 
+    void setGlobalMetaData(@Nullable MetaData globalMetaData) {
+        this.globalMetaData = globalMetaData;
+    }
+
     boolean shouldIgnoreClass() {
         return config.shouldIgnoreClass(getExceptionName());
     }
@@ -409,14 +421,11 @@ public class Error implements JsonStream.Streamable {
     }
 
     String[] getProjectPackages() {
-        return projectPackages;
+        return exceptions.getProjectPackages();
     }
 
     void setProjectPackages(String[] projectPackages) {
-        this.projectPackages = projectPackages;
-        if (exceptions != null) {
-            exceptions.setProjectPackages(projectPackages);
-        }
+        exceptions.setProjectPackages(projectPackages);
     }
 
     static class Builder {
@@ -437,7 +446,7 @@ public class Error implements JsonStream.Streamable {
                 @NonNull Thread thread,
                 boolean unhandled) {
             Throwable exc = unhandled ? exception : null;
-            this.threadState = new ThreadState(config, thread, Thread.getAllStackTraces(), exc);
+            this.threadState = ThreadState.capture(config, thread, exc, unhandled);
             this.config = config;
             this.exception = exception;
             this.severityReasonType = HandledState.REASON_USER_SPECIFIED; // default
@@ -0,0 +1,187 @@
+package com.bugsnag.android;
+
+import com.bugsnag.android.NativeInterface.MessageType;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.Arrays;
+import java.util.Observable;
+import java.util.Observer;
+
+/**
+ * Dispatches changes in the notifier's state to subscribers. Each {@link MessageType} has its own
+ * array of subscribers, which is replaced whenever a subscriber is added or removed. Publishing
+ * therefore reads a single volatile field and does not lock or allocate, unlike
+ * {@link Observable#notifyObservers(Object)}, which synchronizes and copies its observers.
+ * <p/>
+ * The events of one component can be forwarded to another by subscribing its
+ * {@link #forwarder()}.
+ */
+final class EventBus {
+
+    interface Subscriber {
+        void onEvent(@NonNull MessageType type, @Nullable Object value);
+    }
+
+    private static final MessageType[] ALL_TYPES = MessageType.values();
+    private static final Subscriber[] EMPTY = new Subscriber[0];
+
+    private volatile Subscriber[][] subscribers = new Subscriber[ALL_TYPES.length][];
+
+    private final Subscriber forwarder = new Subscriber() {
+        @Override
+        public void onEvent(@NonNull MessageType type, @Nullable Object value) {
+            publish(type, value);
+        }
+    };
+
+    EventBus() {
+        Arrays.fill(subscribers, EMPTY);
+    }
+
+    /**
+     * Delivers an event to each subscriber of its type, in the order they subscribed
+     */
+    void publish(@NonNull MessageType type, @Nullable Object value) {
+        for (Subscriber subscriber : subscribers[type.ordinal()]) {
+            subscriber.onEvent(type, value);
+        }
+    }
+
+    /**
+     * Returns a subscriber which publishes the events it receives on this bus
+     */
+    @NonNull
+    Subscriber forwarder() {
+        return forwarder;
+    }
+
+    /**
+     * Returns true if any subscriber would receive an event of this type. Publishers can check
+     * this to avoid building the value of an event which will not be delivered.
+     */
+    boolean hasSubscribers(@NonNull MessageType type) {
+        return subscribers[type.ordinal()].length > 0;
+    }
+
+    /**
+     * Subscribes to events of the given types, or to all events if no types are given
+     */
+    synchronized void subscribe(@NonNull Subscriber subscriber, @NonNull MessageType... types) {
+        Subscriber[][] next = subscribers.clone();
+
+        for (MessageType type : types.length == 0 ? ALL_TYPES : types) {
+            Subscriber[] current = next[type.ordinal()];
+            Subscriber[] added = Arrays.copyOf(current, current.length + 1);
+            added[current.length] = subscriber;
+            next[type.ordinal()] = added;
+        }
+        subscribers = next;
+    }
+
+    /**
+     * Removes a subscriber from all the event types it subscribed to
+     */
+    synchronized void unsubscribe(@NonNull Subscriber subscriber) {
+        Subscriber[][] next = subscribers.clone();
+
+        for (int k = 0; k < next.length; k++) {
+            next[k] = remove(next[k], subscriber);
+        }
+        subscribers = next;
+    }
+
+    boolean isSubscribed(@NonNull Subscriber subscriber) {
+        for (Subscriber[] current : subscribers) {
+            if (indexOf(current, subscriber) >= 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    synchronized void unsubscribeAll() {
+        Subscriber[][] next = new Subscriber[ALL_TYPES.length][];
+        Arrays.fill(next, EMPTY);
+        subscribers = next;
+    }
+
+    /**
+     * Counts the distinct subscribers to this bus
+     */
+    int countSubscribers() {
+        Subscriber[][] current = subscribers;
+        int count = 0;
+
+        for (int k = 0; k < current.length; k++) {
+            for (Subscriber subscriber : current[k]) {
+                if (isFirstSubscription(current, k, subscriber)) {
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+
+    private static boolean isFirstSubscription(Subscriber[][] all, int type, Subscriber sub) {
+        for (int k = 0; k < type; k++) {
+            if (indexOf(all[k], sub) >= 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static Subscriber[] remove(Subscriber[] current, Subscriber subscriber) {
+        int index = indexOf(current, subscriber);
+
+        if (index < 0) {
+            return current;
+        }
+        Subscriber[] removed = new Subscriber[current.length - 1];
+        System.arraycopy(current, 0, removed, 0, index);
+        System.arraycopy(current, index + 1, removed, index, removed.length - index);
+        return removed;
+    }
+
+    private static int indexOf(Subscriber[] current, Subscriber subscriber) {
+        for (int k = 0; k < current.length; k++) {
+            if (current[k].equals(subscriber)) {
+                return k;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Delivers events to a {@link Observer}, which is how plugins and apps subscribe to a
+     * component. A {@link NativeInterface.Message} is only allocated for these subscribers.
+     */
+    static final class ObserverAdapter implements Subscriber {
+
+        private final Observable source;
+        private final Observer observer;
+
+        ObserverAdapter(@NonNull Observable source, @NonNull Observer observer) {
+            this.source = source;
+            this.observer = observer;
+        }
+
+        @Override
+        public void onEvent(@NonNull MessageType type, @Nullable Object value) {
+            observer.update(source, new NativeInterface.Message(type, value));
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof ObserverAdapter
+                && ((ObserverAdapter) other).observer.equals(observer);
+        }
+
+        @Override
+        public int hashCode() {
+            return observer.hashCode();
+        }
+    }
+}
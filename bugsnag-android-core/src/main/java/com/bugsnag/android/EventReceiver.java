@@ -32,9 +32,16 @@ public class EventReceiver extends BroadcastReceiver {
     @Override
     public void onReceive(@NonNull Context context, @NonNull Intent intent) {
         try {
-            Map<String, String> meta = new HashMap<>();
             String fullAction = intent.getAction();
             String shortAction = shortenActionNameIfNeeded(intent.getAction());
+            BreadcrumbType type =
+                actions.containsKey(fullAction) ? actions.get(fullAction) : BreadcrumbType.LOG;
+
+            if (!client.getConfig().isAutomaticallyCollectingBreadcrumbs()
+                || client.breadcrumbs.isThrottled(shortAction, type)) {
+                return;
+            }
+            Map<String, String> meta = new HashMap<>();
             meta.put(INTENT_ACTION_KEY, fullAction); // always add the Intent Action
 
             Bundle extras = intent.getExtras();
@@ -50,12 +57,7 @@ public class EventReceiver extends BroadcastReceiver {
                 }
             }
 
-            BreadcrumbType type =
-                actions.containsKey(fullAction) ? actions.get(fullAction) : BreadcrumbType.LOG;
-
-            if (client.getConfig().isAutomaticallyCollectingBreadcrumbs()) {
-                client.leaveBreadcrumb(shortAction, type, meta);
-            }
+            client.leaveBreadcrumb(shortAction, type, meta);
 
         } catch (Exception ex) {
             Logger.warn("Failed to leave breadcrumb in EventReceiver: " + ex.getMessage());
@@ -0,0 +1,67 @@
+package com.bugsnag.android;
+
+import com.bugsnag.android.NativeInterface.MessageType;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.Observable;
+import java.util.Observer;
+
+/**
+ * A component which publishes changes to its state on an {@link EventBus}.
+ * <p/>
+ * This remains an {@link Observable} so that plugins and apps can continue to register an
+ * {@link Observer}, but the synchronized observer list of {@link Observable} is not used: each
+ * observer is subscribed to the bus and receives a {@link NativeInterface.Message} for each
+ * event.
+ */
+abstract class EventSource extends Observable {
+
+    @NonNull
+    final EventBus bus = new EventBus();
+
+    void publish(@NonNull MessageType type, @Nullable Object value) {
+        bus.publish(type, value);
+    }
+
+    @Override
+    public void addObserver(@NonNull Observer observer) {
+        EventBus.ObserverAdapter adapter = new EventBus.ObserverAdapter(this, observer);
+
+        synchronized (bus) {
+            if (!bus.isSubscribed(adapter)) {
+                bus.subscribe(adapter);
+            }
+        }
+    }
+
+    @Override
+    public void deleteObserver(@Nullable Observer observer) {
+        if (observer != null) {
+            bus.unsubscribe(new EventBus.ObserverAdapter(this, observer));
+        }
+    }
+
+    @Override
+    public void deleteObservers() {
+        bus.unsubscribeAll();
+    }
+
+    @Override
+    public int countObservers() {
+        return bus.countSubscribers();
+    }
+
+    /**
+     * Publishes a {@link NativeInterface.Message} to the subscribers of its type. Other
+     * arguments are ignored, as they have no type to dispatch on.
+     */
+    @Override
+    public void notifyObservers(@Nullable Object arg) {
+        if (arg instanceof NativeInterface.Message) {
+            NativeInterface.Message message = (NativeInterface.Message) arg;
+            publish(message.type, message.value);
+        }
+    }
+}
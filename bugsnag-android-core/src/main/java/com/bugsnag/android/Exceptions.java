@@ -13,29 +13,37 @@ class Exceptions implements JsonStream.Streamable {
 
     private final BugsnagException exception;
     private String exceptionType;
-    private String[] projectPackages;
+    private ProjectPackageMatcher projectPackages;
+    private final Stacktrace.Limits stacktraceLimits;
 
     Exceptions(Configuration config, BugsnagException exception) {
         this.exception = exception;
         exceptionType = exception.getType();
-        projectPackages = config.getProjectPackages();
+        projectPackages = config.getProjectPackageMatcher();
+        stacktraceLimits = config.getStacktraceLimits();
+        exception.setProjectPackages(projectPackages);
+        exception.setStacktraceLimits(stacktraceLimits);
     }
 
     @Override
     public void toStream(@NonNull JsonStream writer) throws IOException {
         writer.beginArray();
 
-        // Unwrap any "cause" exceptions
+        // Unwrap any "cause" exceptions, leaving out the frames each shares with its parent
         Throwable currentEx = exception;
+        StackTraceElement[] enclosingTrace = null;
         while (currentEx != null) {
+            StackTraceElement[] stackTrace = currentEx.getStackTrace();
             if (currentEx instanceof JsonStream.Streamable) {
                 ((JsonStream.Streamable) currentEx).toStream(writer);
             } else {
                 String exceptionName = currentEx.getClass().getName();
                 String localizedMessage = currentEx.getLocalizedMessage();
-                StackTraceElement[] stackTrace = currentEx.getStackTrace();
-                exceptionToStream(writer, exceptionName, localizedMessage, stackTrace);
+                int framesInCommon = Stacktrace.countFramesInCommon(stackTrace, enclosingTrace);
+                exceptionToStream(writer, exceptionName, localizedMessage, stackTrace,
+                    framesInCommon);
             }
+            enclosingTrace = stackTrace;
             currentEx = currentEx.getCause();
         }
 
@@ -56,24 +64,26 @@ class Exceptions implements JsonStream.Streamable {
     }
 
     String[] getProjectPackages() {
-        return projectPackages;
+        return projectPackages.getProjectPackages();
     }
 
     void setProjectPackages(String[] projectPackages) {
-        this.projectPackages = projectPackages;
-        exception.setProjectPackages(projectPackages);
+        this.projectPackages = this.projectPackages.withProjectPackages(projectPackages);
+        exception.setProjectPackages(this.projectPackages);
     }
 
     private void exceptionToStream(@NonNull JsonStream writer,
                                    String name,
                                    String message,
-                                   StackTraceElement[] frames) throws IOException {
+                                   StackTraceElement[] frames,
+                                   int framesInCommon) throws IOException {
         writer.beginObject();
         writer.name("errorClass").value(name);
         writer.name("message").value(message);
         writer.name("type").value(exceptionType);
 
-        Stacktrace stacktrace = new Stacktrace(frames, projectPackages);
+        Stacktrace stacktrace =
+            new Stacktrace(frames, framesInCommon, projectPackages, stacktraceLimits);
         writer.name("stacktrace").value(stacktrace);
         writer.endObject();
     }
@@ -104,6 +104,26 @@ abstract class FileStore<T extends JsonStream.Streamable> {
         }
     }
 
+    /**
+     * Moves a file which already holds a JSON payload into the store, without reading or
+     * re-encoding its content. The file must be on the same filesystem as the store.
+     *
+     * @return true if the file was moved
+     */
+    boolean moveFileForDelivery(@NonNull File file) {
+        if (storeDirectory == null) {
+            return false;
+        }
+        String filename = getFilename(file);
+        discardOldestFileIfNeeded();
+        lock.lock();
+        try {
+            return file.renameTo(new File(filename));
+        } finally {
+            lock.unlock();
+        }
+    }
+
     @Nullable
     String write(@NonNull JsonStream.Streamable streamable) {
         if (storeDirectory == null) {
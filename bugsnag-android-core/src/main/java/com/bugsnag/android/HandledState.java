@@ -14,7 +14,7 @@ public final class HandledState implements JsonStream.Streamable {
 
     @StringDef({REASON_UNHANDLED_EXCEPTION, REASON_STRICT_MODE, REASON_HANDLED_EXCEPTION,
         REASON_USER_SPECIFIED, REASON_CALLBACK_SPECIFIED, REASON_PROMISE_REJECTION,
-        REASON_LOG, REASON_SIGNAL, REASON_ANR})
+        REASON_LOG, REASON_SIGNAL, REASON_ANR, REASON_FREEZE, REASON_ABNORMAL_TERMINATION})
     @Retention(RetentionPolicy.SOURCE)
     @interface SeverityReason {
     }
@@ -28,6 +28,8 @@ public final class HandledState implements JsonStream.Streamable {
     static final String REASON_SIGNAL = "signal";
     static final String REASON_LOG = "log";
     static final String REASON_ANR = "anrError";
+    static final String REASON_FREEZE = "appFreeze";
+    static final String REASON_ABNORMAL_TERMINATION = "abnormalTermination";
 
     @SeverityReason
     private final String severityReasonType;
@@ -72,6 +74,10 @@ public final class HandledState implements JsonStream.Streamable {
                 return new HandledState(severityReasonType, severity, false, attributeValue);
             case REASON_ANR:
                 return new HandledState(severityReasonType, Severity.ERROR, true, null);
+            case REASON_FREEZE:
+                return new HandledState(severityReasonType, Severity.WARNING, false, null);
+            case REASON_ABNORMAL_TERMINATION:
+                return new HandledState(severityReasonType, Severity.ERROR, false, null);
             default:
                 String msg = String.format("Invalid argument '%s' for severityReason",
                     severityReasonType);
@@ -83,4 +83,21 @@ public class JsonStream extends JsonWriter {
 
         out.flush();
     }
+
+    /**
+     * Writes an object which has already been encoded, adding a number member before its
+     * closing brace. This lets a value which changes after the object was encoded be written
+     * without encoding the object again. The object must already hold at least one member,
+     * and the name must not need escaping.
+     */
+    void jsonValue(@NonNull String json, @NonNull String name, long value) throws IOException {
+        writeDeferredName();
+        beforeValue();
+        out.write(json, 0, json.length() - 1);
+        out.write(",\"");
+        out.write(name);
+        out.write("\":");
+        out.write(Long.toString(value));
+        out.write('}');
+    }
 }
@@ -400,7 +400,7 @@ class JsonWriter implements Closeable, Flushable {
         return this;
     }
 
-    private void writeDeferredName() throws IOException {
+    void writeDeferredName() throws IOException {
         if (deferredName != null) {
             beforeName();
             string(deferredName);
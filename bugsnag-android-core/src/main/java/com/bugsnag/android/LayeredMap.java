@@ -0,0 +1,249 @@
+package com.bugsnag.android;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A view which deep-merges several maps without copying them. Where more than one layer holds a
+ * value for the same key, the value in the later layer wins, unless both values are maps, in
+ * which case they are merged in turn.
+ * <p/>
+ * The layers are never modified. Writes go to an override layer of their own, so a view only
+ * copies the paths which are changed through it. Nested maps which are returned by
+ * {@link #get(Object)} are themselves views and are retained in the override layer, so that
+ * changes to them are visible through this map.
+ * <p/>
+ * Keys are compared as objects, as nested maps which are added to metadata may have keys of any
+ * type. Only null keys are ignored.
+ */
+final class LayeredMap extends AbstractMap<Object, Object> {
+
+    private static final Object REMOVED = new Object();
+
+    private final Map<?, ?>[] layers;
+    private final ConcurrentHashMap<Object, Object> overrides = new ConcurrentHashMap<>();
+
+    /**
+     * @param layers the maps to merge, in increasing order of precedence
+     */
+    LayeredMap(@NonNull Map<?, ?>... layers) {
+        this.layers = layers;
+    }
+
+    @Nullable
+    @Override
+    public Object get(@Nullable Object key) {
+        if (key == null) {
+            return null;
+        }
+        Object value = overrides.get(key);
+
+        if (value != null) {
+            return value == REMOVED ? null : value;
+        }
+        value = resolve(key);
+
+        // nested maps are returned as views so that they cannot modify the layers
+        if (value instanceof Map && !(value instanceof LayeredMap)) {
+            value = new LayeredMap((Map<?, ?>) value);
+        }
+        if (value instanceof LayeredMap) {
+            Object existing = overrides.putIfAbsent(key, value);
+
+            if (existing != null) {
+                return existing == REMOVED ? null : existing;
+            }
+        }
+        return value;
+    }
+
+    @Override
+    public boolean containsKey(@Nullable Object key) {
+        return get(key) != null;
+    }
+
+    @Nullable
+    @Override
+    public Object put(@NonNull Object key, @NonNull Object value) {
+        Object previous = get(key);
+        overrides.put(key, value);
+        return previous;
+    }
+
+    @Nullable
+    @Override
+    public Object remove(@Nullable Object key) {
+        if (key == null) {
+            return null;
+        }
+        Object previous = get(key);
+        overrides.put(key, REMOVED);
+        return previous;
+    }
+
+    @Override
+    public void clear() {
+        for (Object key : keySet()) {
+            overrides.put(key, REMOVED);
+        }
+    }
+
+    @NonNull
+    @Override
+    public Set<Entry<Object, Object>> entrySet() {
+        return new AbstractSet<Entry<Object, Object>>() {
+            @NonNull
+            @Override
+            public Iterator<Entry<Object, Object>> iterator() {
+                return new EntryIterator();
+            }
+
+            @Override
+            public int size() {
+                int size = 0;
+                for (Iterator<Entry<Object, Object>> it = iterator(); it.hasNext(); it.next()) {
+                    size++;
+                }
+                return size;
+            }
+        };
+    }
+
+    /**
+     * Finds the merged value for a key in the layers, ignoring any overrides. Only keys which
+     * hold a map in more than one layer allocate a new view.
+     */
+    @Nullable
+    private Object resolve(@NonNull Object key) {
+        List<Map<?, ?>> maps = null;
+        Map<?, ?> first = null;
+
+        for (int k = layers.length - 1; k >= 0; k--) {
+            Object value = layers[k].get(key);
+
+            if (value == null) {
+                continue;
+            }
+            if (!(value instanceof Map)) {
+                if (first == null) {
+                    return value;
+                }
+                break;
+            }
+            if (first == null) {
+                first = (Map<?, ?>) value;
+            } else {
+                if (maps == null) {
+                    maps = new ArrayList<>();
+                    maps.add(first);
+                }
+                maps.add((Map<?, ?>) value);
+            }
+        }
+        if (maps == null) {
+            return first;
+        }
+        Map<?, ?>[] nested = new Map<?, ?>[maps.size()];
+
+        for (int k = 0; k < nested.length; k++) {
+            nested[k] = maps.get(nested.length - 1 - k);
+        }
+        return new LayeredMap(nested);
+    }
+
+    /**
+     * Returns true if the key is shadowed by the overrides or by a layer above the given index
+     */
+    private boolean isShadowed(Object key, int layer) {
+        if (overrides.containsKey(key)) {
+            return true;
+        }
+        for (int k = layer + 1; k < layers.length; k++) {
+            if (layers[k].get(key) != null) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Visits the overrides and then each layer from the top down, skipping keys which have
+     * already been visited, so the merged map is never materialized.
+     */
+    private final class EntryIterator implements Iterator<Entry<Object, Object>> {
+
+        private Iterator<? extends Entry<?, ?>> current = overrides.entrySet().iterator();
+        private int layer = layers.length;
+        private Entry<Object, Object> next;
+        private Object lastKey;
+
+        @Override
+        public boolean hasNext() {
+            while (next == null) {
+                if (current.hasNext()) {
+                    next = nextEntry(current.next());
+                } else if (layer > 0) {
+                    layer--;
+                    current = layers[layer].entrySet().iterator();
+                } else {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public Entry<Object, Object> next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            Entry<Object, Object> entry = next;
+            next = null;
+            lastKey = entry.getKey();
+            return entry;
+        }
+
+        @Override
+        public void remove() {
+            if (lastKey == null) {
+                throw new IllegalStateException();
+            }
+            LayeredMap.this.remove(lastKey);
+            lastKey = null;
+        }
+
+        @Nullable
+        private Entry<Object, Object> nextEntry(Entry<?, ?> entry) {
+            Object key = entry.getKey();
+
+            if (key == null || entry.getValue() == null) {
+                return null;
+            }
+            Object value;
+
+            if (layer == layers.length) {
+                value = entry.getValue();
+
+                if (value == REMOVED) {
+                    return null;
+                }
+            } else {
+                if (isShadowed(key, layer)) {
+                    return null;
+                }
+                value = entry.getValue() instanceof Map ? resolve(key) : entry.getValue();
+            }
+            return new SimpleImmutableEntry<>(key, value);
+        }
+    }
+}
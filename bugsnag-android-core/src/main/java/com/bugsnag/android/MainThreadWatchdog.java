@@ -0,0 +1,197 @@
+package com.bugsnag.android;
+
+import android.os.SystemClock;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+
+import java.util.List;
+import java.util.concurrent.Executor;
+
+/**
+ * Detects freezes of the main thread which are too short to be ANRs, by posting a heartbeat to
+ * its Looper and measuring how long the heartbeat waits to be dispatched.
+ * <p/>
+ * A watchdog thread posts the heartbeat, then checks on it several times per threshold. The
+ * main thread's stack is only captured once the heartbeat has waited for longer than the
+ * threshold, so while the app is responsive the only overhead is a message and a few wakeups
+ * per threshold. The freeze is reported once the heartbeat is dispatched, so that it records
+ * how long the main thread was actually blocked for. A freeze which never ends is left to ANR
+ * detection.
+ * <p/>
+ * The watchdog pauses while the app is in the background, where a blocked main thread is not
+ * seen by the user, so that it does not keep waking the process. It resumes once an activity
+ * is started and the app returns to the foreground.
+ */
+class MainThreadWatchdog implements Runnable, EventBus.Subscriber {
+
+    /**
+     * Returned by {@link #check(long)} when the watchdog should wait until it is resumed
+     */
+    static final long PAUSED = -1;
+
+    private static final int CHECKS_PER_THRESHOLD = 4;
+
+    interface Delegate {
+
+        /**
+         * Called on the watchdog thread once the main thread has recovered from being blocked
+         * for longer than the threshold
+         *
+         * @param durationMs how long the main thread was blocked for
+         * @param stacktrace the stacktrace of the main thread while it was blocked
+         */
+        void onFreezeDetected(long durationMs, @NonNull StackTraceElement[] stacktrace);
+    }
+
+    private final Executor mainThreadExecutor;
+    private final Thread mainThread;
+    private final long thresholdMs;
+    private final Delegate delegate;
+    private final Runnable heartbeat = new Runnable() {
+        @Override
+        public void run() {
+            onHeartbeat(SystemClock.uptimeMillis());
+        }
+    };
+
+    private volatile boolean heartbeatPending;
+    private volatile boolean paused;
+    private volatile Thread watchdogThread;
+
+    // written by the main thread before heartbeatPending is cleared
+    private long heartbeatDispatchedAtMs;
+
+    // only accessed by the watchdog thread
+    private long heartbeatPostedAtMs;
+
+    @Nullable
+    private StackTraceElement[] freezeStacktrace;
+
+    /**
+     * @param mainThreadExecutor posts the heartbeat to the main thread's Looper
+     * @param thresholdMs        how long the main thread is blocked for before it is a freeze
+     */
+    MainThreadWatchdog(@NonNull Executor mainThreadExecutor, @NonNull Thread mainThread,
+                       long thresholdMs, @NonNull Delegate delegate) {
+        this.mainThreadExecutor = mainThreadExecutor;
+        this.mainThread = mainThread;
+        this.thresholdMs = thresholdMs;
+        this.delegate = delegate;
+    }
+
+    synchronized void start() {
+        if (watchdogThread == null) {
+            Thread thread = new Thread(this, "Bugsnag Watchdog");
+            thread.setDaemon(true);
+            watchdogThread = thread;
+            thread.start();
+        }
+    }
+
+    synchronized void stop() {
+        Thread thread = watchdogThread;
+        watchdogThread = null;
+
+        if (thread != null) {
+            thread.interrupt();
+        }
+    }
+
+    boolean isRunning() {
+        return watchdogThread != null;
+    }
+
+    /**
+     * Pauses or resumes the watchdog. A heartbeat which has already been posted is still
+     * checked on until it is dispatched, so a freeze which began in the foreground is reported.
+     */
+    synchronized void setPaused(boolean paused) {
+        this.paused = paused;
+
+        if (!paused) {
+            notifyAll();
+        }
+    }
+
+    boolean isPaused() {
+        return paused;
+    }
+
+    @Override
+    public void onEvent(@NonNull NativeInterface.MessageType type, @Nullable Object value) {
+        if (type == NativeInterface.MessageType.UPDATE_IN_FOREGROUND
+            && value instanceof List && !((List) value).isEmpty()) {
+            setPaused(!Boolean.TRUE.equals(((List) value).get(0)));
+        }
+    }
+
+    @Override
+    public void run() {
+        while (watchdogThread == Thread.currentThread()) {
+            try {
+                long delayMs = check(SystemClock.uptimeMillis());
+
+                if (delayMs == PAUSED) {
+                    awaitResume();
+                } else {
+                    Thread.sleep(delayMs);
+                }
+            } catch (InterruptedException ignored) {
+                // stop() interrupts the watchdog thread
+            }
+        }
+    }
+
+    private synchronized void awaitResume() throws InterruptedException {
+        while (paused && watchdogThread == Thread.currentThread()) {
+            wait();
+        }
+    }
+
+    /**
+     * Called on the main thread when the heartbeat is dispatched
+     *
+     * @param nowMs the current time, from {@link SystemClock#uptimeMillis()}
+     */
+    @VisibleForTesting
+    void onHeartbeat(long nowMs) {
+        heartbeatDispatchedAtMs = nowMs;
+        heartbeatPending = false;
+    }
+
+    /**
+     * Report a freeze which has ended and post a heartbeat if the last one has been dispatched,
+     * or capture the main thread's stack if the heartbeat has waited for longer than the
+     * threshold
+     *
+     * @param nowMs the current time, from {@link SystemClock#uptimeMillis()}
+     * @return how long to wait before checking again, or {@link #PAUSED} if no heartbeat was
+     *     posted because the watchdog is paused
+     */
+    long check(long nowMs) {
+        if (!heartbeatPending) {
+            if (freezeStacktrace != null) {
+                reportFreeze(heartbeatDispatchedAtMs - heartbeatPostedAtMs, freezeStacktrace);
+                freezeStacktrace = null;
+            }
+            if (paused) {
+                return PAUSED;
+            }
+            heartbeatPending = true;
+            heartbeatPostedAtMs = nowMs;
+            mainThreadExecutor.execute(heartbeat);
+        } else if (freezeStacktrace == null && nowMs - heartbeatPostedAtMs >= thresholdMs) {
+            freezeStacktrace = mainThread.getStackTrace();
+        }
+        return Math.max(1, thresholdMs / CHECKS_PER_THRESHOLD);
+    }
+
+    private void reportFreeze(long durationMs, @NonNull StackTraceElement[] stacktrace) {
+        try {
+            delegate.onFreezeDetected(durationMs, stacktrace);
+        } catch (Exception exception) {
+            Logger.warn("Failed to report main thread freeze", exception);
+        }
+    }
+}
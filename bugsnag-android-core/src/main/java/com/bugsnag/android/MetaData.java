@@ -6,12 +6,9 @@ import androidx.annotation.Nullable;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.HashSet;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Observable;
-import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * A container for additional diagnostic information you'd like to send with
@@ -19,7 +16,7 @@ import java.util.concurrent.ConcurrentHashMap;
  * <p>
  * Diagnostic information is presented on your Bugsnag dashboard in tabs.
  */
-public class MetaData extends Observable implements JsonStream.Streamable {
+public class MetaData extends EventSource implements JsonStream.Streamable {
 
     @NonNull
     final Map<String, Object> store;
@@ -29,14 +26,22 @@ public class MetaData extends Observable implements JsonStream.Streamable {
      * Create an empty MetaData object.
      */
     public MetaData() {
-        this(new ConcurrentHashMap<String, Object>());
+        store = new CopyOnWriteTabs();
+        jsonStreamer = new ObjectJsonStreamer();
     }
 
     /**
      * Create a MetaData with values copied from an existing Map
      */
     public MetaData(@NonNull Map<String, Object> map) {
-        store = new ConcurrentHashMap<>(map);
+        store = new CopyOnWriteTabs(map);
+        jsonStreamer = new ObjectJsonStreamer();
+    }
+
+    @SuppressWarnings("unchecked")
+    private MetaData(@NonNull LayeredMap store) {
+        // tabs are keyed by name, though the maps nested in them may have keys of any type
+        this.store = (Map<String, Object>) (Map<?, ?>) store;
         jsonStreamer = new ObjectJsonStreamer();
     }
 
@@ -59,17 +64,22 @@ public class MetaData extends Observable implements JsonStream.Streamable {
      */
     public void addToTab(@NonNull String tabName, @NonNull String key, @Nullable Object value) {
         Map<String, Object> tab = getTab(tabName);
-        setChanged();
+
+        // the event values are only built if there is a subscriber, which error metadata lacks
         if (value != null) {
             tab.put(key, value);
-            notifyObservers(new NativeInterface.Message(
-                        NativeInterface.MessageType.ADD_METADATA,
-                        Arrays.asList(tabName, key, value)));
+
+            if (bus.hasSubscribers(NativeInterface.MessageType.ADD_METADATA)) {
+                publish(NativeInterface.MessageType.ADD_METADATA,
+                    Arrays.asList(tabName, key, value));
+            }
         } else {
             tab.remove(key);
-            notifyObservers(new NativeInterface.Message(
-                        NativeInterface.MessageType.REMOVE_METADATA,
-                        Arrays.asList(tabName, key)));
+
+            if (bus.hasSubscribers(NativeInterface.MessageType.REMOVE_METADATA)) {
+                publish(NativeInterface.MessageType.REMOVE_METADATA,
+                    Arrays.asList(tabName, key));
+            }
         }
     }
 
@@ -80,19 +90,17 @@ public class MetaData extends Observable implements JsonStream.Streamable {
      */
     public void clearTab(@NonNull String tabName) {
         store.remove(tabName);
-        setChanged();
-        notifyObservers(new NativeInterface.Message(
-                    NativeInterface.MessageType.CLEAR_METADATA_TAB, tabName));
+        publish(NativeInterface.MessageType.CLEAR_METADATA_TAB, tabName);
     }
 
     @NonNull
+    @SuppressWarnings("unchecked")
     Map<String, Object> getTab(String tabName) {
-        @SuppressWarnings("unchecked")
         Map<String, Object> tab = (Map<String, Object>) store.get(tabName);
 
         if (tab == null) {
-            tab = new ConcurrentHashMap<>();
-            store.put(tabName, tab);
+            store.put(tabName, new HashMap<String, Object>());
+            tab = (Map<String, Object>) store.get(tabName);
         }
 
         return tab;
@@ -106,6 +114,31 @@ public class MetaData extends Observable implements JsonStream.Streamable {
         return jsonStreamer.filters;
     }
 
+    /**
+     * Copies this MetaData, so that the copy is not changed by later changes to this MetaData.
+     * The copy shares the current tabs rather than copying them, and keeps any changes which are
+     * made to it in a layer of its own. Values within a tab are not copied.
+     */
+    @NonNull
+    MetaData copy() {
+        Map<?, ?> tabs;
+
+        if (store instanceof CopyOnWriteTabs) {
+            tabs = ((CopyOnWriteTabs) store).snapshot();
+        } else {
+            // a merged MetaData is a view over other stores, which may change
+            tabs = new CopyOnWriteTabs(store).snapshot();
+        }
+        MetaData copy = new MetaData(new LayeredMap(tabs));
+        copy.setFilters(getFilters());
+        return copy;
+    }
+
+    /**
+     * Merges several MetaData objects, with values in later objects taking precedence. The
+     * result is a view over the original stores, so no tabs are copied unless they are modified
+     * through the merged MetaData.
+     */
     @NonNull
     static MetaData merge(@NonNull MetaData... metaDataList) {
         List<Map<String, Object>> stores = new ArrayList<>();
@@ -120,50 +153,9 @@ public class MetaData extends Observable implements JsonStream.Streamable {
             }
         }
 
-        @SuppressWarnings({"unchecked", "rawtypes"})
-        MetaData newMeta = new MetaData(mergeMaps(stores.toArray(new Map[0])));
+        MetaData newMeta = new MetaData(new LayeredMap(stores.toArray(new Map<?, ?>[0])));
         newMeta.setFilters(filters.toArray(new String[0]));
 
         return newMeta;
     }
-
-    @SafeVarargs
-    @NonNull
-    private static Map<String, Object> mergeMaps(@NonNull Map<String, Object>... maps) {
-        Map<String, Object> result = new ConcurrentHashMap<>();
-
-        for (Map<String, Object> map : maps) {
-            if (map == null) {
-                continue;
-            }
-
-            // Get a set of all possible keys in base and overrides
-            Set<String> allKeys = new HashSet<>(result.keySet());
-            allKeys.addAll(map.keySet());
-
-            for (String key : allKeys) {
-                Object baseValue = result.get(key);
-                Object overridesValue = map.get(key);
-
-                if (overridesValue != null) {
-                    if (baseValue instanceof Map && overridesValue instanceof Map) {
-                        // Both original and overrides are Maps, go deeper
-                        @SuppressWarnings("unchecked")
-                        Map<String, Object> first = (Map<String, Object>) baseValue;
-                        @SuppressWarnings("unchecked")
-                        Map<String, Object> second = (Map<String, Object>) overridesValue;
-                        result.put(key, mergeMaps(first, second));
-                    } else {
-                        result.put(key, overridesValue);
-                    }
-                } else {
-                    if (baseValue != null) { // No collision, just use base value
-                        result.put(key, baseValue);
-                    }
-                }
-            }
-        }
-
-        return result;
-    }
 }
@@ -4,15 +4,14 @@ import android.annotation.SuppressLint;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
+import java.io.File;
 import java.nio.charset.Charset;
-import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
-import java.util.Queue;
 
 /**
  * Used as the entry point for native code to allow proguard to obfuscate other areas if needed
@@ -199,6 +198,16 @@ public class NativeInterface {
         return getClient().appContext.getCacheDir().getAbsolutePath() + "/bugsnag-native/";
     }
 
+    /**
+     * Retrieves the path of the state journal shared with the native layer, or null if the
+     * journal could not be mapped
+     */
+    @Nullable
+    public static String getStateJournalPath() {
+        StateJournal journal = getClient().stateJournal;
+        return journal.isMapped() ? journal.getFile().getAbsolutePath() : null;
+    }
+
     /**
      * Retrieve user data from the static Client instance as a Map
      */
@@ -261,8 +270,7 @@ public class NativeInterface {
      */
     @NonNull
     public static List<Breadcrumb> getBreadcrumbs() {
-        Queue<Breadcrumb> store = getClient().breadcrumbs.store;
-        return new ArrayList<>(store);
+        return getClient().breadcrumbs.snapshot();
     }
 
     /**
@@ -522,6 +530,32 @@ public class NativeInterface {
         }
     }
 
+    /**
+     * Deliver a report which the NDK has written as an event JSON payload, by moving the file
+     * into the error store. The file is deleted if it cannot be moved, or if reports are not
+     * sent for the release stage it was captured in.
+     *
+     * @param releaseStage The release stage of the app when the event was captured
+     * @param payloadPath The path of the JSON payload of the event
+     */
+    @SuppressWarnings("unused")
+    public static void deliverReportFile(@Nullable String releaseStage,
+                                         @NonNull String payloadPath) {
+        File payload = new File(payloadPath);
+        Client client = getClient();
+        ErrorStore errorStore = client.getErrorStore();
+
+        if (releaseStage != null && releaseStage.length() > 0
+            && !client.getConfig().shouldNotifyForReleaseStage(releaseStage)) {
+            IOUtils.deleteFile(payload);
+        } else if (errorStore.moveFileForDelivery(payload)) {
+            errorStore.flushAsync();
+        } else {
+            Logger.warn("Failed to move native report into the error store: " + payloadPath);
+            IOUtils.deleteFile(payload);
+        }
+    }
+
     /**
      * Notifies using the Android SDK
      *
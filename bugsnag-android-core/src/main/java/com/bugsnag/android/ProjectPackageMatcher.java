@@ -0,0 +1,205 @@
+package com.bugsnag.android;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+
+/**
+ * Decides whether a class is part of the project, from the project packages and the
+ * exclusions set in {@link Configuration}.
+ * <p/>
+ * The packages are compiled into a character trie, so that a class name is classified in a
+ * single pass rather than by testing it against every package. A class is in the project if
+ * it starts with a project package and does not start with an exclusion. Packages can
+ * contain globs: '*' matches any part of a single package segment, and '**' any number of
+ * segments. Results are memoized by class name.
+ * <p/>
+ * Instances are immutable apart from the memoized results, and are shared by every frame
+ * classified with the same configuration.
+ */
+final class ProjectPackageMatcher {
+
+    private static final int MAX_MEMOIZED_CLASSES = 4096;
+
+    static final ProjectPackageMatcher EMPTY = new ProjectPackageMatcher(null, null);
+
+    private static final class Node {
+        private char[] keys = new char[0];
+        private Node[] children = new Node[0];
+        boolean include;
+        boolean exclude;
+        List<Pattern> includeGlobs;
+        List<Pattern> excludeGlobs;
+
+        @Nullable
+        Node child(char key) {
+            for (int k = 0; k < keys.length; k++) {
+                if (keys[k] == key) {
+                    return children[k];
+                }
+            }
+            return null;
+        }
+
+        Node addChild(char key) {
+            Node child = child(key);
+            if (child == null) {
+                child = new Node();
+                keys = Arrays.copyOf(keys, keys.length + 1);
+                children = Arrays.copyOf(children, children.length + 1);
+                keys[keys.length - 1] = key;
+                children[children.length - 1] = child;
+            }
+            return child;
+        }
+    }
+
+    @Nullable
+    private final String[] projectPackages;
+    @Nullable
+    private final String[] exclusions;
+    private final Node root = new Node();
+    private final Map<String, Boolean> memoized = new ConcurrentHashMap<>();
+
+    private ProjectPackageMatcher(@Nullable String[] projectPackages,
+                                  @Nullable String[] exclusions) {
+        this.projectPackages = projectPackages;
+        this.exclusions = exclusions;
+        if (projectPackages != null) {
+            for (String pkg : projectPackages) {
+                add(pkg, false);
+            }
+        }
+        if (exclusions != null) {
+            for (String pkg : exclusions) {
+                add(pkg, true);
+            }
+        }
+    }
+
+    @NonNull
+    static ProjectPackageMatcher compile(@Nullable String[] projectPackages,
+                                         @Nullable String[] exclusions) {
+        if (projectPackages == null && exclusions == null) {
+            return EMPTY;
+        }
+        return new ProjectPackageMatcher(projectPackages, exclusions);
+    }
+
+    /**
+     * @return a matcher for other project packages, with the same exclusions
+     */
+    @NonNull
+    ProjectPackageMatcher withProjectPackages(@Nullable String[] projectPackages) {
+        return compile(projectPackages, exclusions);
+    }
+
+    @Nullable
+    String[] getProjectPackages() {
+        return projectPackages;
+    }
+
+    @Nullable
+    String[] getExclusions() {
+        return exclusions;
+    }
+
+    boolean inProject(@NonNull String className) {
+        if (projectPackages == null) {
+            return false;
+        }
+        Boolean result = memoized.get(className);
+        if (result == null) {
+            result = classify(className);
+            if (memoized.size() >= MAX_MEMOIZED_CLASSES) {
+                memoized.clear();
+            }
+            memoized.put(className, result);
+        }
+        return result;
+    }
+
+    private boolean classify(String className) {
+        boolean included = false;
+        Node node = root;
+        int index = 0;
+
+        while (node != null) {
+            if (node.exclude || matchesAny(node.excludeGlobs, className)) {
+                return false;
+            }
+            if (!included && (node.include || matchesAny(node.includeGlobs, className))) {
+                included = true;
+            }
+            if (index == className.length()) {
+                break;
+            }
+            node = node.child(className.charAt(index++));
+        }
+        return included;
+    }
+
+    private void add(@Nullable String pkg, boolean exclude) {
+        if (pkg == null) {
+            return;
+        }
+        int glob = pkg.indexOf('*');
+        String prefix = glob < 0 ? pkg : pkg.substring(0, glob);
+
+        Node node = root;
+        for (int k = 0; k < prefix.length(); k++) {
+            node = node.addChild(prefix.charAt(k));
+        }
+        if (glob < 0) {
+            if (exclude) {
+                node.exclude = true;
+            } else {
+                node.include = true;
+            }
+        } else if (exclude) {
+            node.excludeGlobs = addGlob(node.excludeGlobs, pkg);
+        } else {
+            node.includeGlobs = addGlob(node.includeGlobs, pkg);
+        }
+    }
+
+    private static List<Pattern> addGlob(@Nullable List<Pattern> globs, String pkg) {
+        if (globs == null) {
+            globs = new ArrayList<>();
+        }
+        StringBuilder regex = new StringBuilder();
+        int start = 0;
+        for (int k = 0; k < pkg.length(); k++) {
+            if (pkg.charAt(k) == '*') {
+                regex.append(Pattern.quote(pkg.substring(start, k)));
+                if (k + 1 < pkg.length() && pkg.charAt(k + 1) == '*') {
+                    regex.append(".*");
+                    k++;
+                } else {
+                    regex.append("[^.]*");
+                }
+                start = k + 1;
+            }
+        }
+        regex.append(Pattern.quote(pkg.substring(start)));
+        globs.add(Pattern.compile(regex.toString()));
+        return globs;
+    }
+
+    private static boolean matchesAny(@Nullable List<Pattern> globs, String className) {
+        if (globs != null) {
+            for (Pattern glob : globs) {
+                if (glob.matcher(className).lookingAt()) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+}
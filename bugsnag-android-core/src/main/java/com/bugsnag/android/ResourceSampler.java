@@ -0,0 +1,158 @@
+package com.bugsnag.android;
+
+import android.annotation.SuppressLint;
+import android.os.Environment;
+import android.os.SystemClock;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.File;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Samples the disk, memory and foreground state of the app, which are costly to look up, and
+ * serves them to each error from the last sample.
+ * <p/>
+ * A sample is reused until it is older than {@link Configuration#getResourceSampleTtlMs()},
+ * after which the next request returns it while a new sample is taken in the background. The
+ * age of the sample is sent with each error, so that the values are not mistaken for ones
+ * taken when the error occurred.
+ */
+class ResourceSampler {
+
+    static final class Snapshot {
+        final long freeDisk;
+        final long freeMemory;
+
+        @Nullable
+        final Boolean inForeground;
+
+        /**
+         * The time of the sample, from {@link SystemClock#elapsedRealtime()}
+         */
+        final long sampledAtMs;
+
+        Snapshot(long freeDisk, long freeMemory, @Nullable Boolean inForeground,
+                 long sampledAtMs) {
+            this.freeDisk = freeDisk;
+            this.freeMemory = freeMemory;
+            this.inForeground = inForeground;
+            this.sampledAtMs = sampledAtMs;
+        }
+
+        long getAgeMs(long nowMs) {
+            return Math.max(0, nowMs - sampledAtMs);
+        }
+    }
+
+    @Nullable
+    private final Configuration config;
+    private final ForegroundDetector foregroundDetector;
+    private final File dataDirectory;
+    private final AtomicBoolean refreshing = new AtomicBoolean(false);
+
+    @Nullable
+    private volatile Snapshot snapshot;
+
+    /**
+     * @param config the configuration which sets the TTL, or null to sample on every request
+     */
+    ResourceSampler(@Nullable Configuration config,
+                    @NonNull ForegroundDetector foregroundDetector) {
+        this(config, foregroundDetector, Environment.getDataDirectory());
+    }
+
+    /**
+     * @param dataDirectory the directory whose usable space is sampled
+     */
+    ResourceSampler(@Nullable Configuration config,
+                    @NonNull ForegroundDetector foregroundDetector,
+                    @NonNull File dataDirectory) {
+        this.config = config;
+        this.foregroundDetector = foregroundDetector;
+        this.dataDirectory = dataDirectory;
+    }
+
+    @NonNull
+    Snapshot getSnapshot() {
+        return getSnapshot(SystemClock.elapsedRealtime());
+    }
+
+    @NonNull
+    Snapshot getSnapshot(long nowMs) {
+        Snapshot current = snapshot;
+        long ttlMs = config != null ? config.getResourceSampleTtlMs() : 0;
+
+        if (current == null || ttlMs <= 0) {
+            return sample(nowMs);
+        }
+        if (current.getAgeMs(nowMs) >= ttlMs) {
+            refreshAsync();
+        }
+        return current;
+    }
+
+    /**
+     * @return the age of the last sample, or null if none has been taken
+     */
+    @Nullable
+    Long getSampleAgeMs(long nowMs) {
+        Snapshot current = snapshot;
+        return current != null ? current.getAgeMs(nowMs) : null;
+    }
+
+    /**
+     * Take a new sample now, on the calling thread
+     */
+    @NonNull
+    Snapshot sample(long nowMs) {
+        Snapshot sampled = new Snapshot(calculateFreeDisk(dataDirectory), calculateFreeMemory(),
+            foregroundDetector.isInForeground(), nowMs);
+        snapshot = sampled;
+        return sampled;
+    }
+
+    private void refreshAsync() {
+        if (!refreshing.compareAndSet(false, true)) {
+            return; // a sample is already being taken
+        }
+        try {
+            Async.run(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        sample(SystemClock.elapsedRealtime());
+                    } finally {
+                        refreshing.set(false);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException exception) {
+            refreshing.set(false);
+            Logger.warn("Failed to sample resource usage", exception);
+        }
+    }
+
+    /**
+     * Get the usable disk space on internal storage's data directory
+     */
+    @SuppressLint("UsableSpace")
+    static long calculateFreeDisk(File dataDirectory) {
+        // for this specific case we want the currently usable space, not
+        // StorageManager#allocatableBytes() as the UsableSpace lint inspection suggests
+        return dataDirectory.getUsableSpace();
+    }
+
+    /**
+     * Get the amount of memory remaining that the VM can allocate
+     */
+    private static long calculateFreeMemory() {
+        Runtime runtime = Runtime.getRuntime();
+        if (runtime.maxMemory() != Long.MAX_VALUE) {
+            return runtime.maxMemory() - runtime.totalMemory() + runtime.freeMemory();
+        } else {
+            return runtime.freeMemory();
+        }
+    }
+}
@@ -0,0 +1,151 @@
+package com.bugsnag.android;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.VisibleForTesting;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A fixed-capacity buffer which retains the most recently added items. Any number of threads
+ * can add items concurrently without locking: each add claims a sequence number and writes
+ * into the slot it maps to, overwriting the oldest item once the buffer is full.
+ * <p/>
+ * Each slot holds the item together with its sequence number, and is only replaced by a
+ * compare-and-set against the entry which the writer read. A producer which stalls for a whole
+ * lap of the buffer therefore cannot overwrite a newer item, and {@link #snapshot()} skips any
+ * slot which does not hold the sequence number it expects, rather than returning a torn view
+ * of the buffer.
+ */
+final class RingBuffer<T> {
+
+    private static final class Entry<T> {
+        final long seq;
+        final T item;
+
+        Entry(long seq, T item) {
+            this.seq = seq;
+            this.item = item;
+        }
+    }
+
+    private final int capacity;
+    private final AtomicReferenceArray<Entry<T>> slots;
+    private final AtomicLong head = new AtomicLong();
+
+    /**
+     * The sequence number of the oldest item which was added after the last {@link #clear()}
+     */
+    private final AtomicLong tail = new AtomicLong();
+
+    RingBuffer(int capacity) {
+        this.capacity = capacity;
+        this.slots = new AtomicReferenceArray<>(capacity);
+    }
+
+    int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Adds an item to the buffer, evicting the oldest item if the buffer is full.
+     */
+    void add(@NonNull T item) {
+        if (capacity == 0) {
+            return;
+        }
+        write(head.getAndIncrement(), item);
+    }
+
+    /**
+     * Writes an item into the slot for a sequence number which has been claimed by the caller,
+     * unless the slot already holds a newer item.
+     */
+    @VisibleForTesting
+    void write(long seq, @NonNull T item) {
+        int index = (int) (seq % capacity);
+        Entry<T> entry = new Entry<>(seq, item);
+
+        while (true) {
+            Entry<T> current = slots.get(index);
+
+            // the item is older than the one in the slot, so would already have been evicted
+            if (current != null && current.seq > seq) {
+                return;
+            }
+            if (slots.compareAndSet(index, current, entry)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Removes every item which has been added. An item which is added concurrently is either
+     * removed or retained, but is never left in the buffer once newer items have been removed.
+     */
+    void clear() {
+        long end = head.get();
+        long current = tail.get();
+
+        // a concurrent clear may already have advanced the tail further
+        while (current < end && !tail.compareAndSet(current, end)) {
+            current = tail.get();
+        }
+    }
+
+    /**
+     * Returns the items currently held in the buffer, ordered from oldest to newest.
+     */
+    @NonNull
+    List<T> snapshot() {
+        return window().items();
+    }
+
+    /**
+     * Returns a handle on the items currently held in the buffer, without reading them.
+     */
+    @NonNull
+    Window<T> window() {
+        long end = head.get();
+        return new Window<>(this, Math.max(tail.get(), end - capacity), end);
+    }
+
+    /**
+     * The range of sequence numbers which were held in a buffer at one point, which is cheap to
+     * capture and can be read later on another thread. Items which have been overwritten by the
+     * time the window is read are skipped, which only happens if a whole lap of the buffer has
+     * been added in between.
+     */
+    static final class Window<T> {
+
+        private final RingBuffer<T> buffer;
+        private final long start;
+        private final long end;
+
+        Window(@NonNull RingBuffer<T> buffer, long start, long end) {
+            this.buffer = buffer;
+            this.start = start;
+            this.end = end;
+        }
+
+        /**
+         * Returns the items in the window which are still held in the buffer, ordered from
+         * oldest to newest.
+         */
+        @NonNull
+        List<T> items() {
+            List<T> items = new ArrayList<>((int) Math.max(0, end - start));
+
+            for (long seq = start; seq < end; seq++) {
+                Entry<T> entry = buffer.slots.get((int) (seq % buffer.capacity));
+
+                if (entry != null && entry.seq == seq) {
+                    items.add(entry.item);
+                }
+            }
+            return items;
+        }
+    }
+}
@@ -5,6 +5,7 @@ import static com.bugsnag.android.MapUtils.getStringFromMap;
 import android.app.Activity;
 import android.app.Application;
 import android.os.Bundle;
+import android.os.SystemClock;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import androidx.annotation.VisibleForTesting;
@@ -12,11 +13,10 @@ import androidx.annotation.VisibleForTesting;
 import java.io.File;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Observable;
 import java.util.UUID;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.RejectedExecutionException;
@@ -24,10 +24,10 @@ import java.util.concurrent.Semaphore;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
 
-class SessionTracker extends Observable implements Application.ActivityLifecycleCallbacks {
+class SessionTracker extends EventSource implements Application.ActivityLifecycleCallbacks {
 
     private static final String KEY_LIFECYCLE_CALLBACK = "ActivityLifecycle";
-    private static final int DEFAULT_TIMEOUT_MS = 30000;
+    static final int DEFAULT_TIMEOUT_MS = 30000;
 
     private final Collection<String>
         foregroundActivities = new ConcurrentLinkedQueue<>();
@@ -44,7 +44,7 @@ class SessionTracker extends Observable implements Application.ActivityLifecycle
     private final AtomicLong lastEnteredForegroundMs = new AtomicLong(0);
     private final AtomicReference<Session> currentSession = new AtomicReference<>();
     private final Semaphore flushingRequest = new Semaphore(1);
-    private final ForegroundDetector foregroundDetector;
+    private final ResourceSampler resourceSampler;
 
     SessionTracker(Configuration configuration, Client client, SessionStore sessionStore) {
         this(configuration, client, DEFAULT_TIMEOUT_MS, sessionStore);
@@ -52,11 +52,17 @@ class SessionTracker extends Observable implements Application.ActivityLifecycle
 
     SessionTracker(Configuration configuration, Client client, long timeoutMs,
                    SessionStore sessionStore) {
+        this(configuration, client, timeoutMs, sessionStore,
+            new ResourceSampler(configuration, new ForegroundDetector(client.appContext)));
+    }
+
+    SessionTracker(Configuration configuration, Client client, long timeoutMs,
+                   SessionStore sessionStore, ResourceSampler resourceSampler) {
         this.configuration = configuration;
         this.client = client;
         this.timeoutMs = timeoutMs;
         this.sessionStore = sessionStore;
-        this.foregroundDetector = new ForegroundDetector(client.appContext);
+        this.resourceSampler = resourceSampler;
         notifyNdkInForeground();
     }
 
@@ -93,9 +99,7 @@ class SessionTracker extends Observable implements Application.ActivityLifecycle
 
         if (session != null) {
             session.isStopped.set(true);
-            setChanged();
-            notifyObservers(new NativeInterface.Message(
-                NativeInterface.MessageType.STOP_SESSION, null));
+            publish(NativeInterface.MessageType.STOP_SESSION, null);
         }
     }
 
@@ -117,12 +121,10 @@ class SessionTracker extends Observable implements Application.ActivityLifecycle
     }
 
     private void notifySessionStartObserver(Session session) {
-        setChanged();
         String startedAt = DateUtils.toIso8601(session.getStartedAt());
-        notifyObservers(new NativeInterface.Message(
-            NativeInterface.MessageType.START_SESSION,
+        publish(NativeInterface.MessageType.START_SESSION,
             Arrays.asList(session.getId(), startedAt,
-                session.getHandledCount(), session.getUnhandledCount())));
+                session.getHandledCount(), session.getUnhandledCount()));
     }
 
     /**
@@ -144,9 +146,7 @@ class SessionTracker extends Observable implements Application.ActivityLifecycle
             session = new Session(sessionId, date, user, unhandledCount, handledCount);
             notifySessionStartObserver(session);
         } else {
-            setChanged();
-            notifyObservers(new NativeInterface.Message(
-                NativeInterface.MessageType.STOP_SESSION, null));
+            publish(NativeInterface.MessageType.STOP_SESSION, null);
         }
         currentSession.set(session);
         return session;
@@ -334,9 +334,10 @@ class SessionTracker extends Observable implements Application.ActivityLifecycle
     }
 
     private void leaveBreadcrumb(String activityName, String lifecycleCallback) {
-        if (configuration.isAutomaticallyCollectingBreadcrumbs()) {
-            Map<String, String> metadata = new HashMap<>();
-            metadata.put(KEY_LIFECYCLE_CALLBACK, lifecycleCallback);
+        if (configuration.isAutomaticallyCollectingBreadcrumbs()
+            && !client.breadcrumbs.isThrottled(activityName, BreadcrumbType.NAVIGATION)) {
+            Map<String, String> metadata =
+                Collections.singletonMap(KEY_LIFECYCLE_CALLBACK, lifecycleCallback);
 
             try {
                 client.leaveBreadcrumb(activityName, BreadcrumbType.NAVIGATION, metadata);
@@ -396,23 +397,43 @@ class SessionTracker extends Observable implements Application.ActivityLifecycle
                 lastExitedForegroundMs.set(nowMs);
             }
         }
-        setChanged();
-        notifyNdkInForeground();
+        refreshForegroundState();
+    }
+
+    /**
+     * Sample the foreground state again after an activity starts or stops, which requires an
+     * IPC call, off the calling thread
+     */
+    private void refreshForegroundState() {
+        try {
+            Async.run(new Runnable() {
+                @Override
+                public void run() {
+                    // serialized so that the NDK receives the latest state last
+                    synchronized (resourceSampler) {
+                        resourceSampler.sample(SystemClock.elapsedRealtime());
+                        notifyNdkInForeground();
+                    }
+                }
+            });
+        } catch (RejectedExecutionException exception) {
+            Logger.warn("Failed to update foreground state", exception);
+        }
     }
 
     private void notifyNdkInForeground() {
         Boolean inForeground = isInForeground();
 
-        if (inForeground != null) {
-            notifyObservers(new NativeInterface.Message(
-                    NativeInterface.MessageType.UPDATE_IN_FOREGROUND,
-                    Arrays.asList(inForeground, getContextActivity())));
+        if (inForeground != null
+            && bus.hasSubscribers(NativeInterface.MessageType.UPDATE_IN_FOREGROUND)) {
+            publish(NativeInterface.MessageType.UPDATE_IN_FOREGROUND,
+                    Arrays.asList(inForeground, getContextActivity()));
         }
     }
 
     @Nullable
     Boolean isInForeground() {
-        return foregroundDetector.isInForeground();
+        return resourceSampler.getSnapshot().inForeground;
     }
 
     //FUTURE:SM This shouldnt be here
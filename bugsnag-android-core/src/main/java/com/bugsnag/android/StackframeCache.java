@@ -0,0 +1,105 @@
+package com.bugsnag.android;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A least-recently-used cache of the rendered form of stack frames, keyed by
+ * {@link StackTraceElement}. The same frames recur across threads and errors, such as the
+ * frames of a Looper or of thread pool workers, so each is only rendered once.
+ */
+class StackframeCache {
+
+    static final int DEFAULT_CAPACITY = 2048;
+
+    private static final StackframeCache INSTANCE = new StackframeCache(DEFAULT_CAPACITY);
+
+    static class Frame {
+        final String method;
+        final String file;
+        final boolean inProject;
+
+        /**
+         * The project packages which inProject was computed for
+         */
+        final ProjectPackageMatcher projectPackages;
+
+        Frame(String method, String file, boolean inProject,
+              ProjectPackageMatcher projectPackages) {
+            this.method = method;
+            this.file = file;
+            this.inProject = inProject;
+            this.projectPackages = projectPackages;
+        }
+    }
+
+    private final Map<StackTraceElement, Frame> frames;
+
+    StackframeCache(final int capacity) {
+        this.frames = new LinkedHashMap<StackTraceElement, Frame>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<StackTraceElement, Frame> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    @NonNull
+    static StackframeCache getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Find the rendered form of a stack frame, rendering it if it is not cached or was
+     * rendered for different project packages
+     *
+     * @return the frame, or null if it could not be rendered
+     */
+    @Nullable
+    Frame get(@NonNull StackTraceElement element,
+              @NonNull ProjectPackageMatcher projectPackages) {
+        Frame frame;
+        synchronized (frames) {
+            frame = frames.get(element);
+        }
+        if (frame != null && frame.projectPackages == projectPackages) {
+            return frame;
+        }
+        frame = render(element, projectPackages);
+        if (frame != null) {
+            synchronized (frames) {
+                frames.put(element, frame);
+            }
+        }
+        return frame;
+    }
+
+    int size() {
+        synchronized (frames) {
+            return frames.size();
+        }
+    }
+
+    @Nullable
+    private static Frame render(StackTraceElement element,
+                                ProjectPackageMatcher projectPackages) {
+        try {
+            String className = element.getClassName();
+            String method;
+            if (className.length() > 0) {
+                method = className + "." + element.getMethodName();
+            } else {
+                method = element.getMethodName();
+            }
+            String file = element.getFileName() == null ? "Unknown" : element.getFileName();
+            boolean inProject = projectPackages.inProject(className);
+            return new Frame(method, file, inProject, projectPackages);
+        } catch (Exception lineEx) {
+            Logger.warn("Failed to serialize stacktrace", lineEx);
+            return null;
+        }
+    }
+}
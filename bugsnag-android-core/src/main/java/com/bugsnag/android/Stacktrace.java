@@ -1,107 +1,279 @@
 package com.bugsnag.android;
 
 import androidx.annotation.NonNull;
-import androidx.annotation.Nullable;
 
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.Collections;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
 /**
  * Serialize an exception stacktrace and mark frames as "in-project"
  * where appropriate.
+ * <p/>
+ * Frames are held as parallel arrays of their rendered fields, which are looked up in the
+ * {@link StackframeCache} rather than rendered for every frame of every error.
+ * <p/>
+ * Deep stacks are compressed within the {@link Limits} set in {@link Configuration}. A
+ * sequence of frames which repeats, such as the recursion which led to a StackOverflowError,
+ * is kept once and followed by a frame noting how many more times it repeated. If there are
+ * still too many frames, the top and bottom of the stack are kept and the middle omitted.
+ * The frames at the bottom of a cause which it shares with its enclosing exception can be
+ * left out, in which case they are replaced by a "... N more" frame.
  */
 class Stacktrace implements JsonStream.Streamable {
 
-    private static final int STACKTRACE_TRIM_LENGTH = 200;
+    static final int DEFAULT_MAX_FRAMES = 200;
+    static final int DEFAULT_TAIL_LENGTH = 50;
+    static final int DEFAULT_MAX_CYCLE_LENGTH = 8;
 
-    private final List<Map<String, Object>> trace;
+    /**
+     * The least number of times a sequence of frames must occur in a row to be compressed
+     */
+    private static final int MIN_CYCLE_REPEATS = 3;
+
+    /**
+     * How much a stacktrace is compressed
+     */
+    static final class Limits {
+        static final Limits DEFAULT =
+            new Limits(DEFAULT_MAX_FRAMES, DEFAULT_TAIL_LENGTH, DEFAULT_MAX_CYCLE_LENGTH);
+
+        /**
+         * The max number of frames sent, including the frames which stand in for omitted ones
+         */
+        final int maxFrames;
+
+        /**
+         * The number of frames kept from the bottom of the stack when it is truncated
+         */
+        final int tailLength;
+
+        /**
+         * The longest sequence of frames which is detected as repeating, or 0 to disable
+         */
+        final int maxCycleLength;
+
+        Limits(int maxFrames, int tailLength, int maxCycleLength) {
+            this.maxFrames = maxFrames;
+            this.tailLength = tailLength;
+            this.maxCycleLength = maxCycleLength;
+        }
+    }
+
+    private final int size;
+    private final String[] methods;
+    private final String[] files;
+    private final int[] lineNumbers;
+    private final boolean[] inProject;
+
+    /**
+     * Frames supplied as maps, which are serialized as is
+     */
+    private final List<Map<String, Object>> customFrames;
 
     Stacktrace(StackTraceElement[] stacktrace, String[] projectPackages) {
-        this.trace = serializeStacktrace(stacktrace, sanitiseProjectPackages(projectPackages));
+        this(stacktrace, ProjectPackageMatcher.compile(projectPackages, null));
     }
 
-    Stacktrace(List<Map<String, Object>> frames) {
-        if (frames.size() >= STACKTRACE_TRIM_LENGTH) {
-            this.trace = frames.subList(0, STACKTRACE_TRIM_LENGTH);
-        } else {
-            this.trace = frames;
-        }
+    Stacktrace(StackTraceElement[] stacktrace, ProjectPackageMatcher projectPackages) {
+        this(stacktrace, 0, projectPackages, Limits.DEFAULT);
     }
 
-    @Override
-    public void toStream(@NonNull JsonStream writer) throws IOException {
-        writer.beginArray();
-        for (Map<String, Object> element : trace) {
-            writer.value(element);
-        }
-        writer.endArray();
+    Stacktrace(StackTraceElement[] stacktrace, int framesInCommon,
+               ProjectPackageMatcher projectPackages, Limits limits) {
+        this(stacktrace, framesInCommon, projectPackages, limits, StackframeCache.getInstance());
     }
 
-    private List<Map<String, Object>> serializeStacktrace(StackTraceElement[] trace,
-                                                          List<String> projectPackages) {
-        List<Map<String, Object>> list = new ArrayList<>();
+    /**
+     * @param framesInCommon the number of frames at the bottom of the stack which are shared
+     *                       with the enclosing exception, and are left out
+     */
+    Stacktrace(StackTraceElement[] stacktrace, int framesInCommon,
+               ProjectPackageMatcher projectPackages, Limits limits,
+               StackframeCache cache) {
+        this.customFrames = null;
+        int end = Math.max(0, stacktrace.length - framesInCommon);
 
-        for (int k = 0; k < trace.length && k < STACKTRACE_TRIM_LENGTH; k++) {
-            StackTraceElement el = trace[k];
-            Map<String, Object> frame = serializeStackframe(el, projectPackages);
+        // entries are either the index of a frame, or a marker for frames which are left out
+        int[] frameIndexes = new int[end + 1];
+        String[] markers = new String[end + 1];
+        int[] omittedFrames = new int[end + 1];
+        int count = 0;
 
-            if (frame != null) {
-                list.add(frame);
+        int index = 0;
+        while (index < end) {
+            int cycle = 0;
+            int repeats = 0;
+            for (int length = 1; length <= limits.maxCycleLength
+                && index + length * MIN_CYCLE_REPEATS <= end; length++) {
+                int matches = countRepeats(stacktrace, index, length, end);
+                if (matches >= MIN_CYCLE_REPEATS && matches * length > repeats * cycle) {
+                    cycle = length;
+                    repeats = matches;
+                }
+            }
+            if (cycle == 0) {
+                frameIndexes[count++] = index++;
+                continue;
             }
+            for (int k = 0; k < cycle; k++) {
+                frameIndexes[count++] = index + k;
+            }
+            markers[count] = cycle == 1
+                ? "... previous frame repeated " + (repeats - 1) + " more times"
+                : "... previous " + cycle + " frames repeated " + (repeats - 1) + " more times";
+            omittedFrames[count] = cycle * (repeats - 1);
+            count++;
+            index += cycle * repeats;
         }
-        return list;
-    }
 
-    @Nullable
-    private Map<String, Object> serializeStackframe(StackTraceElement el,
-                                                    List<String> projectPackages) {
-        Map<String, Object> map = new HashMap<>();
-        try {
-            String methodName;
-            if (el.getClassName().length() > 0) {
-                methodName = el.getClassName() + "." + el.getMethodName();
+        // keep the top and bottom of the stack if there are still too many entries
+        int maxFrames = framesInCommon > 0 ? limits.maxFrames - 1 : limits.maxFrames;
+        int head = count;
+        int tail = 0;
+        if (count > maxFrames) {
+            if (limits.tailLength > 0 && maxFrames > limits.tailLength + 1) {
+                tail = limits.tailLength;
+                head = maxFrames - tail - 1;
             } else {
-                methodName =  el.getMethodName();
+                head = Math.max(0, maxFrames);
             }
-            map.put("method", methodName);
+        }
 
-            String filename = el.getFileName() == null ? "Unknown" : el.getFileName();
-            map.put("file", filename);
-            map.put("lineNumber", el.getLineNumber());
+        int capacity = head + (tail > 0 ? tail + 1 : 0) + (framesInCommon > 0 ? 1 : 0);
+        this.methods = new String[capacity];
+        this.files = new String[capacity];
+        this.lineNumbers = new int[capacity];
+        this.inProject = new boolean[capacity];
 
-            if (inProject(el.getClassName(), projectPackages)) {
-                map.put("inProject", true);
+        int rendered = 0;
+        for (int e = 0; e < head; e++) {
+            rendered = addEntry(stacktrace, frameIndexes[e], markers[e], rendered,
+                projectPackages, cache);
+        }
+        if (tail > 0) {
+            int omitted = 0;
+            for (int e = head; e < count - tail; e++) {
+                omitted += markers[e] == null ? 1 : omittedFrames[e];
+            }
+            rendered = addMarker("... " + omitted + " frames omitted", rendered);
+            for (int e = count - tail; e < count; e++) {
+                rendered = addEntry(stacktrace, frameIndexes[e], markers[e], rendered,
+                    projectPackages, cache);
             }
-            return map;
-        } catch (Exception lineEx) {
-            Logger.warn("Failed to serialize stacktrace", lineEx);
-            return null;
         }
+        if (framesInCommon > 0) {
+            rendered = addMarker("... " + framesInCommon + " more", rendered);
+        }
+        this.size = rendered;
     }
 
-    private static List<String> sanitiseProjectPackages(String[] projectPackages) {
-        if (projectPackages != null) {
-            return Arrays.asList(projectPackages);
+    Stacktrace(List<Map<String, Object>> frames) {
+        if (frames.size() >= DEFAULT_MAX_FRAMES) {
+            this.customFrames = frames.subList(0, DEFAULT_MAX_FRAMES);
         } else {
-            return Collections.emptyList();
+            this.customFrames = frames;
         }
+        this.size = customFrames.size();
+        this.methods = null;
+        this.files = null;
+        this.lineNumbers = null;
+        this.inProject = null;
     }
 
-    static boolean inProject(String className, String[] projectPackages) {
-        return inProject(className, sanitiseProjectPackages(projectPackages));
+    @Override
+    public void toStream(@NonNull JsonStream writer) throws IOException {
+        writer.beginArray();
+        if (customFrames != null) {
+            for (Map<String, Object> element : customFrames) {
+                writer.value(element);
+            }
+        } else {
+            for (int k = 0; k < size; k++) {
+                writer.beginObject();
+                writer.name("method").value(methods[k]);
+                if (files[k] == null) { // a marker for frames which were left out
+                    writer.endObject();
+                    continue;
+                }
+                writer.name("file").value(files[k]);
+                writer.name("lineNumber").value(lineNumbers[k]);
+                if (inProject[k]) {
+                    writer.name("inProject").value(true);
+                }
+                writer.endObject();
+            }
+        }
+        writer.endArray();
     }
 
-    private static boolean inProject(String className, List<String> projectPackages) {
-        for (String packageName : projectPackages) {
-            if (packageName != null && className.startsWith(packageName)) {
-                return true;
+    private int addEntry(StackTraceElement[] stacktrace, int frameIndex, String marker,
+                         int position, ProjectPackageMatcher projectPackages,
+                         StackframeCache cache) {
+        if (marker != null) {
+            return addMarker(marker, position);
+        }
+        StackTraceElement el = stacktrace[frameIndex];
+        StackframeCache.Frame frame = cache.get(el, projectPackages);
+
+        if (frame == null) {
+            return position;
+        }
+        methods[position] = frame.method;
+        files[position] = frame.file;
+        lineNumbers[position] = el.getLineNumber();
+        inProject[position] = frame.inProject;
+        return position + 1;
+    }
+
+    private int addMarker(String marker, int position) {
+        methods[position] = marker;
+        return position + 1;
+    }
+
+    /**
+     * Count how many times the sequence of frames starting at an index occurs in a row
+     */
+    private static int countRepeats(StackTraceElement[] stacktrace, int start, int length,
+                                    int end) {
+        int repeats = 1;
+        while (start + (repeats + 1) * length <= end
+            && regionMatches(stacktrace, start, start + repeats * length, length)) {
+            repeats++;
+        }
+        return repeats;
+    }
+
+    private static boolean regionMatches(StackTraceElement[] stacktrace, int first, int second,
+                                         int length) {
+        for (int k = 0; k < length; k++) {
+            StackTraceElement lhs = stacktrace[first + k];
+            StackTraceElement rhs = stacktrace[second + k];
+            if (lhs != rhs && (lhs == null || !lhs.equals(rhs))) {
+                return false;
             }
         }
-        return false;
+        return true;
+    }
+
+    /**
+     * Count the frames at the bottom of a stack which are the same as those at the bottom of
+     * its enclosing exception's stack, as Throwable.printStackTrace does
+     */
+    static int countFramesInCommon(StackTraceElement[] stacktrace,
+                                   StackTraceElement[] enclosing) {
+        if (enclosing == null) {
+            return 0;
+        }
+        int index = stacktrace.length - 1;
+        int enclosingIndex = enclosing.length - 1;
+        int count = 0;
+        while (index >= 0 && enclosingIndex >= 0 && stacktrace[index] != null
+            && stacktrace[index].equals(enclosing[enclosingIndex])) {
+            index--;
+            enclosingIndex--;
+            count++;
+        }
+        return count;
     }
 }
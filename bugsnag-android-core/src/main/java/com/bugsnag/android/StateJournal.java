@@ -0,0 +1,528 @@
+package com.bugsnag.android;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Records the most recent breadcrumbs and app state in a memory-mapped file. Writes are plain
+ * memory stores which the OS persists even if the process is killed, so on the next launch the
+ * journal holds the last known context of the previous process.
+ * <p/>
+ * The file layout matches bsg_journal in the NDK plugin (journal.h), which maps the same file
+ * so that the signal handler can read breadcrumbs without keeping its own copy. Any change to
+ * the offsets below must be made in both places and the version incremented.
+ * <p/>
+ * Each process of the app has its own journal, named after the process, so that a secondary
+ * process such as ":remote" does not reset the journal of the main process.
+ */
+final class StateJournal implements EventBus.Subscriber {
+
+    static final int VERSION = 2;
+    static final int CRUMB_CAPACITY = 32;
+
+    private static final int MAGIC = 0x4253474A;
+    private static final long SEQ_INVALID = -1;
+    private static final String FILE_NAME = "bugsnag-journal";
+
+    // values of the exit state, where a crash is also recorded by the NDK plugin
+    private static final int EXIT_RUNNING = 0;
+    private static final int EXIT_CRASHED = 1;
+    private static final int EXIT_CLEAN = 2;
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    // header offsets
+    private static final int MAGIC_OFFSET = 0;
+    private static final int VERSION_OFFSET = 4;
+    private static final int BIG_ENDIAN_OFFSET = 8;
+    private static final int CAPACITY_OFFSET = 12;
+    private static final int HEAD_OFFSET = 16;
+    private static final int START_TIME_OFFSET = 24;
+    private static final int LAST_UPDATE_OFFSET = 32;
+    private static final int IN_FOREGROUND_OFFSET = 40;
+    private static final int EXIT_STATE_OFFSET = 44;
+    private static final int CONTEXT_OFFSET = 48;
+    private static final int USER_ID_OFFSET = 112;
+    private static final int ACTIVE_SCREEN_OFFSET = 176;
+    private static final int SESSION_ID_OFFSET = 240;
+    private static final int HEADER_SIZE = 280;
+
+    // breadcrumb slot offsets, each slot holds a sequence number, the time in ms and a
+    // bugsnag_breadcrumb whose timestamp is left empty for the native layer to format
+    private static final int SLOT_SIZE = 1120;
+    private static final int SLOT_TIMESTAMP_OFFSET = 8;
+    private static final int CRUMB_OFFSET = 16;
+    private static final int CRUMB_NAME_OFFSET = CRUMB_OFFSET;
+    private static final int CRUMB_TIMESTAMP_OFFSET = CRUMB_OFFSET + 33;
+    private static final int CRUMB_TYPE_OFFSET = CRUMB_OFFSET + 72;
+    private static final int CRUMB_METADATA_OFFSET = CRUMB_OFFSET + 76;
+    private static final int CRUMB_METADATA_PAIRS = 8;
+
+    private static final int NAME_LEN = 33;
+    private static final int VALUE_LEN = 64;
+    private static final int SESSION_ID_LEN = 40;
+
+    static final int FILE_SIZE = HEADER_SIZE + CRUMB_CAPACITY * SLOT_SIZE;
+
+    /**
+     * The events which change the state recorded in the journal
+     */
+    static final NativeInterface.MessageType[] EVENT_TYPES = {
+        NativeInterface.MessageType.ADD_BREADCRUMB,
+        NativeInterface.MessageType.CLEAR_BREADCRUMBS,
+        NativeInterface.MessageType.UPDATE_CONTEXT,
+        NativeInterface.MessageType.UPDATE_USER_ID,
+        NativeInterface.MessageType.UPDATE_IN_FOREGROUND,
+        NativeInterface.MessageType.START_SESSION,
+        NativeInterface.MessageType.STOP_SESSION
+    };
+
+    /**
+     * Breadcrumb types in the order of bsg_breadcrumb_t
+     */
+    private static final BreadcrumbType[] NATIVE_TYPES = {
+        BreadcrumbType.MANUAL, BreadcrumbType.ERROR, BreadcrumbType.LOG,
+        BreadcrumbType.NAVIGATION, BreadcrumbType.PROCESS, BreadcrumbType.REQUEST,
+        BreadcrumbType.STATE, BreadcrumbType.USER
+    };
+
+    private final File file;
+
+    @Nullable
+    private final MappedByteBuffer buffer;
+
+    @Nullable
+    private final Map<String, Object> lastRunInfo;
+
+    /**
+     * Written between the stores which must be visible to the native layer in order. As on
+     * {@code StateRegion}, the volatile store orders the plain stores to the mapping on either
+     * side of it on ART, which the Java memory model does not promise for direct buffers.
+     */
+    private static volatile int barrier;
+
+    StateJournal(@NonNull File file) {
+        this.file = file;
+        MappedByteBuffer mapped = null;
+        Map<String, Object> previous = null;
+
+        try {
+            mapped = map(file);
+            previous = readLastRun(mapped);
+            reset(mapped);
+        } catch (IOException | RuntimeException ex) {
+            Logger.warn("Failed to map state journal, last run info will not be recorded", ex);
+            mapped = null;
+        }
+        this.buffer = mapped;
+        this.lastRunInfo = previous;
+    }
+
+    /**
+     * Returns the journal file for this process in a directory
+     */
+    @NonNull
+    static File getFile(@NonNull File dir) {
+        String processName = readProcessName();
+
+        if (processName == null || processName.isEmpty()) {
+            return new File(dir, FILE_NAME);
+        }
+        return new File(dir, FILE_NAME + "-" + processName.replace('/', '_'));
+    }
+
+    @NonNull
+    File getFile() {
+        return file;
+    }
+
+    boolean isMapped() {
+        return buffer != null;
+    }
+
+    /**
+     * Returns the state recorded by the previous process, or null if there was no journal.
+     * This includes whether the process recorded a crash, and the breadcrumbs left before it
+     * terminated.
+     */
+    @Nullable
+    Map<String, Object> getLastRunInfo() {
+        return lastRunInfo;
+    }
+
+    /**
+     * Returns true if the previous process was terminated while in the foreground, without
+     * capturing a crash or exiting cleanly. This is most likely because it ran out of memory or
+     * was killed. Processes in the background are routinely killed by the system, so are not
+     * treated as terminating abnormally.
+     */
+    boolean didLastRunTerminateAbnormally() {
+        return lastRunInfo != null && Boolean.TRUE.equals(lastRunInfo.get("terminatedAbnormally"));
+    }
+
+    @Override
+    public void onEvent(@NonNull NativeInterface.MessageType type, @Nullable Object value) {
+        if (buffer == null) {
+            return;
+        }
+        switch (type) {
+            case ADD_BREADCRUMB:
+                if (value instanceof Breadcrumb) {
+                    addBreadcrumb((Breadcrumb) value);
+                }
+                break;
+            case CLEAR_BREADCRUMBS:
+                clearBreadcrumbs();
+                break;
+            case UPDATE_CONTEXT:
+                setContext((String) value);
+                break;
+            case UPDATE_USER_ID:
+                setUserId((String) value);
+                break;
+            case UPDATE_IN_FOREGROUND:
+                if (value instanceof List && ((List) value).size() == 2) {
+                    List values = (List) value;
+                    setInForeground(Boolean.TRUE.equals(values.get(0)), (String) values.get(1));
+                }
+                break;
+            case START_SESSION:
+                if (value instanceof List && !((List) value).isEmpty()) {
+                    setSessionId((String) ((List) value).get(0));
+                }
+                break;
+            case STOP_SESSION:
+                setSessionId(null);
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * Writes a breadcrumb into the next slot without allocating, as this runs for every
+     * breadcrumb. Fields are null-terminated rather than cleared, and readers stop at the
+     * first empty metadata key.
+     */
+    synchronized void addBreadcrumb(@NonNull Breadcrumb crumb) {
+        if (buffer == null) {
+            return;
+        }
+        long seq = buffer.getLong(HEAD_OFFSET);
+        int offset = HEADER_SIZE + (int) (seq % CRUMB_CAPACITY) * SLOT_SIZE;
+        buffer.putLong(offset, SEQ_INVALID);
+        buffer.putLong(offset + SLOT_TIMESTAMP_OFFSET, crumb.getTimestampMs());
+
+        putString(offset + CRUMB_NAME_OFFSET, crumb.getName(), NAME_LEN);
+        buffer.put(offset + CRUMB_TIMESTAMP_OFFSET, (byte) 0);
+        buffer.putInt(offset + CRUMB_TYPE_OFFSET, nativeType(crumb.getType()));
+
+        String[] metadata = crumb.getMetadataPairs();
+        int pairs = Math.min(metadata.length / 2, CRUMB_METADATA_PAIRS);
+
+        for (int pair = 0; pair < CRUMB_METADATA_PAIRS; pair++) {
+            int pairOffset = offset + CRUMB_METADATA_OFFSET + pair * VALUE_LEN * 2;
+
+            if (pair < pairs) {
+                putString(pairOffset, metadata[pair * 2], VALUE_LEN);
+                putString(pairOffset + VALUE_LEN, metadata[pair * 2 + 1], VALUE_LEN);
+            } else {
+                buffer.put(pairOffset, (byte) 0);
+            }
+        }
+        barrier = (int) seq;
+        buffer.putLong(offset, seq);
+        buffer.putLong(HEAD_OFFSET, seq + 1);
+        touch();
+    }
+
+    synchronized void clearBreadcrumbs() {
+        if (buffer == null) {
+            return;
+        }
+        for (int k = 0; k < CRUMB_CAPACITY; k++) {
+            buffer.putLong(HEADER_SIZE + k * SLOT_SIZE, SEQ_INVALID);
+        }
+        touch();
+    }
+
+    synchronized void setContext(@Nullable String context) {
+        putHeaderString(CONTEXT_OFFSET, context, VALUE_LEN);
+    }
+
+    synchronized void setUserId(@Nullable String userId) {
+        putHeaderString(USER_ID_OFFSET, userId, VALUE_LEN);
+    }
+
+    synchronized void setSessionId(@Nullable String sessionId) {
+        putHeaderString(SESSION_ID_OFFSET, sessionId, SESSION_ID_LEN);
+    }
+
+    synchronized void setInForeground(boolean inForeground, @Nullable String activeScreen) {
+        if (buffer != null) {
+            buffer.putInt(IN_FOREGROUND_OFFSET, inForeground ? 1 : 0);
+            putHeaderString(ACTIVE_SCREEN_OFFSET, activeScreen, VALUE_LEN);
+        }
+    }
+
+    /**
+     * Records that an unhandled error has been captured, so the process is expected to terminate
+     */
+    synchronized void markCrashed() {
+        if (buffer != null) {
+            buffer.putInt(EXIT_STATE_OFFSET, EXIT_CRASHED);
+            touch();
+        }
+    }
+
+    /**
+     * Records that the process is exiting cleanly, so the next process does not treat its
+     * termination as abnormal
+     */
+    synchronized void markCleanExit() {
+        if (buffer != null && buffer.getInt(EXIT_STATE_OFFSET) == EXIT_RUNNING) {
+            buffer.putInt(EXIT_STATE_OFFSET, EXIT_CLEAN);
+            touch();
+        }
+    }
+
+    private static MappedByteBuffer map(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+
+        try {
+            if (raf.length() != FILE_SIZE) {
+                raf.setLength(FILE_SIZE);
+            }
+            FileChannel channel = raf.getChannel();
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_WRITE, 0, FILE_SIZE);
+            mapped.order(ByteOrder.nativeOrder());
+            return mapped;
+        } finally {
+            // the mapping remains valid once the file is closed
+            IOUtils.closeQuietly(raf);
+        }
+    }
+
+    /**
+     * Resets the journal for this process in place. Only the fields which are read are cleared,
+     * rather than zeroing the whole file, and the mapping is not forced to disk as the OS writes
+     * it back even if the process is killed.
+     */
+    private static void reset(MappedByteBuffer buffer) {
+        // the magic is cleared first and committed last, so a partial reset is not read as valid
+        buffer.putInt(MAGIC_OFFSET, 0);
+        barrier = 0;
+        buffer.putInt(VERSION_OFFSET, VERSION);
+        buffer.putInt(BIG_ENDIAN_OFFSET, ByteOrder.nativeOrder() == ByteOrder.BIG_ENDIAN ? 0 : 1);
+        buffer.putInt(CAPACITY_OFFSET, CRUMB_CAPACITY);
+        buffer.putLong(HEAD_OFFSET, 0);
+        buffer.putLong(START_TIME_OFFSET, System.currentTimeMillis());
+        buffer.putLong(LAST_UPDATE_OFFSET, System.currentTimeMillis());
+        buffer.putInt(IN_FOREGROUND_OFFSET, 0);
+        buffer.putInt(EXIT_STATE_OFFSET, EXIT_RUNNING);
+        buffer.put(CONTEXT_OFFSET, (byte) 0);
+        buffer.put(USER_ID_OFFSET, (byte) 0);
+        buffer.put(ACTIVE_SCREEN_OFFSET, (byte) 0);
+        buffer.put(SESSION_ID_OFFSET, (byte) 0);
+
+        for (int k = 0; k < CRUMB_CAPACITY; k++) {
+            buffer.putLong(HEADER_SIZE + k * SLOT_SIZE, SEQ_INVALID);
+        }
+        barrier = MAGIC;
+        buffer.putInt(MAGIC_OFFSET, MAGIC);
+    }
+
+    @Nullable
+    private static Map<String, Object> readLastRun(ByteBuffer buffer) {
+        if (buffer.getInt(MAGIC_OFFSET) != MAGIC || buffer.getInt(VERSION_OFFSET) != VERSION
+            || buffer.getInt(CAPACITY_OFFSET) != CRUMB_CAPACITY) {
+            return null;
+        }
+        Map<String, Object> info = new HashMap<>();
+        int exitState = buffer.getInt(EXIT_STATE_OFFSET);
+        boolean inForeground = buffer.getInt(IN_FOREGROUND_OFFSET) != 0;
+        info.put("crashed", exitState == EXIT_CRASHED);
+        info.put("terminatedAbnormally", exitState == EXIT_RUNNING && inForeground);
+        info.put("inForeground", inForeground);
+        info.put("duration",
+            buffer.getLong(LAST_UPDATE_OFFSET) - buffer.getLong(START_TIME_OFFSET));
+        putIfPresent(info, "context", getString(buffer, CONTEXT_OFFSET, VALUE_LEN));
+        putIfPresent(info, "userId", getString(buffer, USER_ID_OFFSET, VALUE_LEN));
+        putIfPresent(info, "activeScreen", getString(buffer, ACTIVE_SCREEN_OFFSET, VALUE_LEN));
+        putIfPresent(info, "sessionId", getString(buffer, SESSION_ID_OFFSET, SESSION_ID_LEN));
+
+        long end = buffer.getLong(HEAD_OFFSET);
+        List<Map<String, Object>> crumbs = new ArrayList<>();
+
+        for (long seq = Math.max(0, end - CRUMB_CAPACITY); seq < end; seq++) {
+            int offset = HEADER_SIZE + (int) (seq % CRUMB_CAPACITY) * SLOT_SIZE;
+
+            if (buffer.getLong(offset) == seq) {
+                crumbs.add(readBreadcrumb(buffer, offset));
+            }
+        }
+        info.put("breadcrumbs", crumbs);
+        return info;
+    }
+
+    private static Map<String, Object> readBreadcrumb(ByteBuffer buffer, int offset) {
+        Map<String, Object> crumb = new HashMap<>();
+        crumb.put("name", getString(buffer, offset + CRUMB_NAME_OFFSET, NAME_LEN));
+        long timestamp = buffer.getLong(offset + SLOT_TIMESTAMP_OFFSET);
+        crumb.put("timestamp", DateUtils.toIso8601(new Date(timestamp)));
+        int type = buffer.getInt(offset + CRUMB_TYPE_OFFSET);
+        BreadcrumbType crumbType = type >= 0 && type < NATIVE_TYPES.length
+            ? NATIVE_TYPES[type] : BreadcrumbType.MANUAL;
+        crumb.put("type", crumbType.toString());
+
+        Map<String, String> metadata = new HashMap<>();
+        for (int pair = 0; pair < CRUMB_METADATA_PAIRS; pair++) {
+            int pairOffset = offset + CRUMB_METADATA_OFFSET + pair * VALUE_LEN * 2;
+            String key = getString(buffer, pairOffset, VALUE_LEN);
+
+            if (key.isEmpty()) {
+                break;
+            }
+            metadata.put(key, getString(buffer, pairOffset + VALUE_LEN, VALUE_LEN));
+        }
+        crumb.put("metaData", metadata);
+        return crumb;
+    }
+
+    private static int nativeType(BreadcrumbType type) {
+        for (int k = 0; k < NATIVE_TYPES.length; k++) {
+            if (NATIVE_TYPES[k] == type) {
+                return k;
+            }
+        }
+        return 0;
+    }
+
+    private void touch() {
+        if (buffer != null) {
+            buffer.putLong(LAST_UPDATE_OFFSET, System.currentTimeMillis());
+        }
+    }
+
+    private void putHeaderString(int offset, @Nullable String value, int capacity) {
+        if (buffer == null) {
+            return;
+        }
+        putString(offset, value, capacity);
+        touch();
+    }
+
+    /**
+     * Writes a string as null-terminated UTF-8, truncated to fit the field without splitting
+     * a multi-byte character. Characters are encoded straight into the buffer, so no byte array
+     * is allocated.
+     *
+     * @return the number of bytes written, excluding the terminator
+     */
+    private int putString(int offset, @Nullable String value, int capacity) {
+        if (buffer == null) {
+            return 0;
+        }
+        int length = 0;
+        int count = value != null ? value.length() : 0;
+
+        for (int k = 0; k < count; k++) {
+            int codePoint = value.charAt(k);
+
+            if (Character.isHighSurrogate((char) codePoint) && k + 1 < count
+                && Character.isLowSurrogate(value.charAt(k + 1))) {
+                codePoint = Character.toCodePoint((char) codePoint, value.charAt(k + 1));
+            } else if (Character.isSurrogate((char) codePoint)) {
+                // unpaired surrogates are replaced, as String.getBytes() does
+                codePoint = '?';
+            }
+            int size = codePoint < 0x80 ? 1 : codePoint < 0x800 ? 2 : codePoint < 0x10000 ? 3 : 4;
+
+            if (length + size > capacity - 1) {
+                break;
+            }
+            putCodePoint(offset + length, codePoint, size);
+            length += size;
+
+            if (size == 4) {
+                k++;
+            }
+        }
+        buffer.put(offset + length, (byte) 0);
+        return length;
+    }
+
+    private void putCodePoint(int offset, int codePoint, int size) {
+        if (buffer == null) {
+            return;
+        }
+        if (size == 1) {
+            buffer.put(offset, (byte) codePoint);
+            return;
+        }
+        // the lead byte holds the high bits after a marker of one bit per byte of the sequence
+        int lead = size == 2 ? 0xC0 : size == 3 ? 0xE0 : 0xF0;
+        buffer.put(offset, (byte) (lead | (codePoint >> (6 * (size - 1)))));
+
+        for (int k = 1; k < size; k++) {
+            buffer.put(offset + k, (byte) (0x80 | ((codePoint >> (6 * (size - 1 - k))) & 0x3F)));
+        }
+    }
+
+    private static String getString(ByteBuffer buffer, int offset, int capacity) {
+        int length = 0;
+
+        while (length < capacity - 1 && buffer.get(offset + length) != 0) {
+            length++;
+        }
+        byte[] bytes = new byte[length];
+        for (int k = 0; k < length; k++) {
+            bytes[k] = buffer.get(offset + k);
+        }
+        return new String(bytes, UTF8);
+    }
+
+    /**
+     * Reads the name of this process from /proc, which is available on every API level
+     */
+    @Nullable
+    private static String readProcessName() {
+        FileInputStream input = null;
+
+        try {
+            input = new FileInputStream("/proc/self/cmdline");
+            byte[] bytes = new byte[256];
+            int length = input.read(bytes);
+            int end = 0;
+
+            while (end < length && bytes[end] != 0) {
+                end++;
+            }
+            return new String(bytes, 0, end, UTF8).trim();
+        } catch (IOException ex) {
+            return null;
+        } finally {
+            IOUtils.closeQuietly(input);
+        }
+    }
+
+    private static void putIfPresent(Map<String, Object> map, String key, String value) {
+        if (!value.isEmpty()) {
+            map.put(key, value);
+        }
+    }
+}
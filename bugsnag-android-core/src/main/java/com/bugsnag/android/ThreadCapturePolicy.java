@@ -0,0 +1,25 @@
+package com.bugsnag.android;
+
+/**
+ * Controls which threads are captured when an error is reported
+ *
+ * @see Configuration#setThreadCapturePolicy(ThreadCapturePolicy)
+ */
+public enum ThreadCapturePolicy {
+    /**
+     * Threads are never captured
+     */
+    NEVER,
+    /**
+     * All threads are captured for unhandled errors, and no threads for handled errors
+     */
+    UNHANDLED_ONLY,
+    /**
+     * Only the thread which the error occurred on is captured
+     */
+    ERROR_THREAD,
+    /**
+     * All threads are captured (default)
+     */
+    ALL
+}
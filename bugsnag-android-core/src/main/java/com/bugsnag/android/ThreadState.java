@@ -4,19 +4,132 @@ import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
 import java.io.IOException;
+import java.io.StringWriter;
 import java.util.Arrays;
 import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
 /**
  * Capture and serialize the state of all threads at the time of an exception.
+ * <p/>
+ * Threads which are parked on identical stacks, such as the workers of a thread pool, share
+ * a single {@link Stacktrace}, which is serialized once and copied into each of them.
  */
 class ThreadState implements JsonStream.Streamable {
     private static final String THREAD_TYPE = "android";
 
+    private static final Comparator<Thread> THREAD_ID_COMPARATOR = new Comparator<Thread>() {
+        public int compare(@NonNull Thread lhs, @NonNull Thread rhs) {
+            return Long.valueOf(lhs.getId()).compareTo(rhs.getId());
+        }
+    };
+
     private final CachedThread[] cachedThreads;
 
+    /**
+     * Capture the threads selected by the configured {@link ThreadCapturePolicy}, name filter
+     * and limits.
+     *
+     * @param currentThread the thread which the error occurred on
+     * @param exc           the exception, if the error is unhandled
+     * @return the captured threads, or null if threads would not be sent for this error
+     */
+    @Nullable
+    static ThreadState capture(@NonNull Configuration config,
+                               @NonNull Thread currentThread,
+                               @Nullable Throwable exc,
+                               boolean unhandled) {
+        if (!config.getSendThreads()) {
+            return null;
+        }
+        switch (config.getThreadCapturePolicy()) {
+            case NEVER:
+                return null;
+            case UNHANDLED_ONLY:
+                if (!unhandled) {
+                    return null;
+                }
+                break;
+            case ERROR_THREAD: // the constructor adds the current thread
+                return new ThreadState(config, currentThread,
+                    new HashMap<Thread, StackTraceElement[]>(), exc);
+            default:
+                break;
+        }
+
+        String[] ignoreThreadNames = config.getIgnoreThreadNames();
+        boolean filtered = ignoreThreadNames != null && ignoreThreadNames.length > 0;
+        if (!filtered && config.getMaxThreads() < 0) {
+            return new ThreadState(config, currentThread, Thread.getAllStackTraces(), exc);
+        }
+        // only the stacks of the selected threads are captured
+        return new ThreadState(config, currentThread,
+            captureStackTraces(config, currentThread, enumerateThreads()), exc);
+    }
+
+    /**
+     * Filter and limit threads, then capture the stack of each
+     */
+    private static Map<Thread, StackTraceElement[]> captureStackTraces(
+            Configuration config, Thread currentThread, Thread[] threads) {
+        Arrays.sort(threads, THREAD_ID_COMPARATOR);
+        String[] ignoreThreadNames = config.getIgnoreThreadNames();
+        int maxThreads = config.getMaxThreads();
+        // the current thread is added by the constructor if it is not captured here
+        int remaining = maxThreads < 0 ? Integer.MAX_VALUE : maxThreads - 1;
+        Map<Thread, StackTraceElement[]> traces = new HashMap<>();
+
+        for (Thread thread : threads) {
+            if (remaining <= 0) {
+                break;
+            }
+            if (thread == currentThread || isIgnored(thread.getName(), ignoreThreadNames)) {
+                continue;
+            }
+            StackTraceElement[] trace = thread.getStackTrace();
+            if (thread.isAlive()) {
+                traces.put(thread, trace);
+                remaining--;
+            }
+        }
+        return traces;
+    }
+
+    private static boolean isIgnored(String name, String[] ignoreThreadNames) {
+        if (ignoreThreadNames == null || name == null) {
+            return false;
+        }
+        for (String prefix : ignoreThreadNames) {
+            if (prefix != null && name.startsWith(prefix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Find all live threads from the root thread group, without capturing their stacks
+     */
+    private static Thread[] enumerateThreads() {
+        ThreadGroup group = Thread.currentThread().getThreadGroup();
+        while (group != null && group.getParent() != null) {
+            group = group.getParent();
+        }
+        if (group == null) {
+            return new Thread[0];
+        }
+        Thread[] threads = new Thread[group.activeCount() + 16];
+        int count = group.enumerate(threads, true);
+        while (count == threads.length) { // threads may have started since counting
+            threads = new Thread[threads.length * 2];
+            count = group.enumerate(threads, true);
+        }
+        return Arrays.copyOf(threads, count);
+    }
+
     public ThreadState(@NonNull Configuration config,
                        @NonNull Thread currentThread,
                        @NonNull Map<Thread, StackTraceElement[]> stackTraces,
@@ -24,21 +137,37 @@ class ThreadState implements JsonStream.Streamable {
 
         // API 24/25 don't record the currentThread, add it in manually
         // https://issuetracker.google.com/issues/64122757
-        if (!stackTraces.containsKey(currentThread)) {
-            stackTraces.put(currentThread, currentThread.getStackTrace());
-        }
         if (exc != null) { // unhandled errors use the exception trace
             stackTraces.put(currentThread, exc.getStackTrace());
+        } else if (!stackTraces.containsKey(currentThread)) {
+            stackTraces.put(currentThread, currentThread.getStackTrace());
         }
 
         long currentThreadId = currentThread.getId();
+        int maxFrames = config.getMaxThreadFrames();
+        ProjectPackageMatcher projectPackages = config.getProjectPackageMatcher();
+        Stacktrace.Limits limits = config.getStacktraceLimits();
         Thread[] threads = sortThreadsById(stackTraces);
+        Map<List<StackTraceElement>, SharedStacktrace> distinctStacks = new HashMap<>();
         this.cachedThreads = new CachedThread[threads.length];
+
         for (int i = 0; i < threads.length; i++) {
             Thread thread = threads[i];
-            this.cachedThreads[i] = new CachedThread(config, thread.getId(), thread.getName(),
-                THREAD_TYPE, thread.getId() == currentThreadId,
-                stackTraces.get(thread));
+            StackTraceElement[] frames = stackTraces.get(thread);
+            if (maxFrames >= 0 && frames.length > maxFrames) {
+                frames = Arrays.copyOf(frames, maxFrames);
+            }
+            List<StackTraceElement> key = Arrays.asList(frames);
+            SharedStacktrace stacktrace = distinctStacks.get(key);
+            if (stacktrace == null) {
+                stacktrace = new SharedStacktrace(
+                    new Stacktrace(frames, 0, projectPackages, limits));
+                distinctStacks.put(key, stacktrace);
+            } else {
+                stacktrace.shared = true;
+            }
+            this.cachedThreads[i] = new CachedThread(thread.getId(), thread.getName(),
+                THREAD_TYPE, thread.getId() == currentThreadId, stacktrace);
         }
     }
 
@@ -55,11 +184,7 @@ class ThreadState implements JsonStream.Streamable {
         Set<Thread> threadSet = liveThreads.keySet();
 
         Thread[] threads = threadSet.toArray(new Thread[0]);
-        Arrays.sort(threads, new Comparator<Thread>() {
-            public int compare(@NonNull Thread lhs, @NonNull Thread rhs) {
-                return Long.valueOf(lhs.getId()).compareTo(rhs.getId());
-            }
-        });
+        Arrays.sort(threads, THREAD_ID_COMPARATOR);
         return threads;
     }
 
@@ -71,4 +196,34 @@ class ThreadState implements JsonStream.Streamable {
         }
         writer.endArray();
     }
+
+    /**
+     * A stacktrace which may be shared by several threads. If it is, it is rendered to JSON
+     * the first time it is written and the rendered form is copied for every other thread.
+     */
+    private static final class SharedStacktrace implements JsonStream.Streamable {
+        private final Stacktrace stacktrace;
+        private boolean shared;
+        private String json;
+
+        SharedStacktrace(Stacktrace stacktrace) {
+            this.stacktrace = stacktrace;
+        }
+
+        @Override
+        public synchronized void toStream(@NonNull JsonStream writer) throws IOException {
+            if (!shared) {
+                writer.value(stacktrace);
+                return;
+            }
+            if (json == null) {
+                StringWriter out = new StringWriter();
+                JsonStream stream = new JsonStream(out);
+                stream.value(stacktrace);
+                stream.flush();
+                json = out.toString();
+            }
+            writer.jsonValue(json);
+        }
+    }
 }
@@ -4,12 +4,11 @@ import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
 import java.io.IOException;
-import java.util.Observable;
 
 /**
  * Information about the current user of your application.
  */
-class User extends Observable implements JsonStream.Streamable {
+class User extends EventSource implements JsonStream.Streamable {
 
     @Nullable
     private String id;
@@ -59,9 +58,7 @@ class User extends Observable implements JsonStream.Streamable {
      */
     public void setId(@Nullable String id) {
         this.id = id;
-        setChanged();
-        notifyObservers(new NativeInterface.Message(
-                            NativeInterface.MessageType.UPDATE_USER_ID, id));
+        publish(NativeInterface.MessageType.UPDATE_USER_ID, id);
     }
 
     /**
@@ -79,9 +76,7 @@ class User extends Observable implements JsonStream.Streamable {
      */
     public void setEmail(@Nullable String email) {
         this.email = email;
-        setChanged();
-        notifyObservers(new NativeInterface.Message(
-                            NativeInterface.MessageType.UPDATE_USER_EMAIL, email));
+        publish(NativeInterface.MessageType.UPDATE_USER_EMAIL, email);
     }
 
     /**
@@ -99,8 +94,6 @@ class User extends Observable implements JsonStream.Streamable {
      */
     public void setName(@Nullable String name) {
         this.name = name;
-        setChanged();
-        notifyObservers(new NativeInterface.Message(
-                            NativeInterface.MessageType.UPDATE_USER_NAME, name));
+        publish(NativeInterface.MessageType.UPDATE_USER_NAME, name);
     }
 }
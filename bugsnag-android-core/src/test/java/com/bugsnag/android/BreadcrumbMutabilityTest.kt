@@ -1,9 +1,11 @@
 package com.bugsnag.android
 
+import org.junit.Assert.assertEquals
 import org.junit.Assert.assertFalse
 import org.junit.Assert.assertNotSame
 import org.junit.Assert.assertTrue
 import org.junit.Test
+import java.io.StringWriter
 
 class BreadcrumbMutabilityTest {
 
@@ -23,4 +25,65 @@ class BreadcrumbMutabilityTest {
         breadcrumb.metadata["a"] = "bar"
         assertFalse(breadcrumb.metadata.isEmpty())
     }
+
+    @Test
+    fun breadcrumbMetadataSorted() {
+        val breadcrumb = Breadcrumb("foo", BreadcrumbType.MANUAL, mapOf("b" to "2", "C" to "3"))
+        breadcrumb.metadata["a"] = "1"
+        breadcrumb.metadata.remove("C")
+        assertEquals(listOf("a", "b"), breadcrumb.metadata.keys.toList())
+        assertEquals("2", breadcrumb.metadata["b"])
+    }
+
+    @Test
+    fun encodedPayloadMatchesSerialization() {
+        val breadcrumb = Breadcrumb("foo", BreadcrumbType.STATE, mapOf("b" to "2", "a" to "1"))
+        val json = serialize(breadcrumb)
+        assertEquals(json.length, breadcrumb.encode(4096))
+        assertEquals(json, serialize(breadcrumb))
+        assertEquals(-1, breadcrumb.encode(json.length - 1))
+    }
+
+    @Test
+    fun mutationInvalidatesEncodedPayload() {
+        val breadcrumb = Breadcrumb("foo", BreadcrumbType.MANUAL, mapOf("a" to "1"))
+        breadcrumb.encode(4096)
+        breadcrumb.metadata["a"] = "changed"
+        assertTrue(serialize(breadcrumb).contains("\"a\":\"changed\""))
+    }
+
+    @Test
+    fun repeatCountSerialized() {
+        val breadcrumb = Breadcrumb("foo", BreadcrumbType.MANUAL, mapOf("a" to "1"))
+        breadcrumb.encode(4096)
+        breadcrumb.incrementRepeatCount()
+        assertTrue(serialize(breadcrumb).contains("\"metaData\":{\"a\":\"1\"},\"repeatCount\":2"))
+    }
+
+    @Test
+    fun repeatCountKeepsEncodedPayload() {
+        val breadcrumb = Breadcrumb("foo", BreadcrumbType.MANUAL, mapOf("a" to "1"))
+        val size = breadcrumb.encode(4096)
+        breadcrumb.incrementRepeatCount()
+        breadcrumb.incrementRepeatCount()
+
+        val json = serialize(breadcrumb)
+        assertEquals(size + ",\"repeatCount\":3".length, json.length)
+        assertTrue(json.endsWith("\"metaData\":{\"a\":\"1\"},\"repeatCount\":3}"))
+    }
+
+    @Test
+    fun repeatCountDoesNotOverwriteMetadata() {
+        val breadcrumb = Breadcrumb("foo", BreadcrumbType.MANUAL, mapOf("repeatCount" to "user"))
+        breadcrumb.incrementRepeatCount()
+        val json = serialize(breadcrumb)
+        assertTrue(json.contains("\"metaData\":{\"repeatCount\":\"user\"}"))
+        assertTrue(json.contains("},\"repeatCount\":2}"))
+    }
+
+    private fun serialize(breadcrumb: Breadcrumb): String {
+        val writer = StringWriter()
+        breadcrumb.toStream(JsonStream(writer))
+        return writer.toString()
+    }
 }
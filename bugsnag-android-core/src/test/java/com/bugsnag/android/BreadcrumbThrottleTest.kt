@@ -0,0 +1,73 @@
+package com.bugsnag.android
+
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Test
+
+class BreadcrumbThrottleTest {
+
+    private val throttle = BreadcrumbThrottle()
+
+    @Test
+    fun noLimits() {
+        for (k in 0..100) {
+            assertTrue(throttle.tryAcquire("SCREEN_ON", BreadcrumbType.STATE))
+        }
+        assertFalse(throttle.isThrottled("SCREEN_ON", BreadcrumbType.STATE))
+    }
+
+    @Test
+    fun typeLimit() {
+        throttle.setLimit(BreadcrumbType.STATE, 2, 60000)
+        assertTrue(throttle.tryAcquire("SCREEN_ON", BreadcrumbType.STATE))
+        assertTrue(throttle.tryAcquire("SCREEN_OFF", BreadcrumbType.STATE))
+        assertTrue(throttle.isThrottled("BATTERY_LOW", BreadcrumbType.STATE))
+        assertFalse(throttle.tryAcquire("BATTERY_LOW", BreadcrumbType.STATE))
+
+        // other types are unaffected
+        assertFalse(throttle.isThrottled("MainActivity", BreadcrumbType.NAVIGATION))
+        assertTrue(throttle.tryAcquire("MainActivity", BreadcrumbType.NAVIGATION))
+    }
+
+    @Test
+    fun nameLimit() {
+        throttle.setLimit("SCREEN_ON", 1, 60000)
+        assertTrue(throttle.tryAcquire("SCREEN_ON", BreadcrumbType.STATE))
+        assertFalse(throttle.tryAcquire("SCREEN_ON", BreadcrumbType.STATE))
+        assertTrue(throttle.tryAcquire("SCREEN_OFF", BreadcrumbType.STATE))
+    }
+
+    @Test
+    fun nameLimitDoesNotConsumeTypeLimit() {
+        throttle.setLimit(BreadcrumbType.STATE, 2, 60000)
+        throttle.setLimit("SCREEN_ON", 1, 60000)
+        assertTrue(throttle.tryAcquire("SCREEN_ON", BreadcrumbType.STATE))
+        assertFalse(throttle.tryAcquire("SCREEN_ON", BreadcrumbType.STATE))
+        assertFalse(throttle.tryAcquire("SCREEN_ON", BreadcrumbType.STATE))
+        assertTrue(throttle.tryAcquire("SCREEN_OFF", BreadcrumbType.STATE))
+    }
+
+    @Test
+    fun typeLimitDoesNotConsumeNameLimit() {
+        throttle.setLimit(BreadcrumbType.STATE, 1, 60000)
+        throttle.setLimit("SCREEN_ON", 1, 60000)
+        assertTrue(throttle.tryAcquire("SCREEN_OFF", BreadcrumbType.STATE))
+        assertFalse(throttle.tryAcquire("SCREEN_ON", BreadcrumbType.STATE))
+        assertTrue(throttle.tryAcquire("SCREEN_ON", BreadcrumbType.USER))
+    }
+
+    @Test
+    fun limitResetsAfterPeriod() {
+        throttle.setLimit(BreadcrumbType.LOG, 1, 0)
+        assertTrue(throttle.tryAcquire("foo", BreadcrumbType.LOG))
+        assertTrue(throttle.tryAcquire("foo", BreadcrumbType.LOG))
+    }
+
+    @Test
+    fun removeLimit() {
+        throttle.setLimit(BreadcrumbType.LOG, 0, 60000)
+        assertFalse(throttle.tryAcquire("foo", BreadcrumbType.LOG))
+        throttle.setLimit(BreadcrumbType.LOG, -1, 60000)
+        assertTrue(throttle.tryAcquire("foo", BreadcrumbType.LOG))
+    }
+}
@@ -1,12 +1,15 @@
 package com.bugsnag.android
 
 import com.bugsnag.android.BreadcrumbType.MANUAL
+import org.json.JSONArray
 import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
 
 import org.junit.Assert.assertTrue
 import org.junit.Before
 import org.junit.Test
 
+import java.io.StringWriter
 import java.util.HashMap
 import java.util.Locale
 
@@ -34,7 +37,7 @@ class BreadcrumbsTest {
             + " ut aliquip ex ea commodo consequat."))
 
 
-        val crumbs = breadcrumbs.store.toList()
+        val crumbs = breadcrumbs.snapshot()
         assertEquals(3, crumbs.size)
         assertEquals("Lorem ipsum dolor sit amet, consectetur adipiscing elit, sed do "
             + "eiusmod tempor incididunt ut labore et dolore magna aliqua. Ut enim ad minim",
@@ -52,12 +55,31 @@ class BreadcrumbsTest {
             breadcrumbs.add(Breadcrumb("$k"))
         }
 
-        val crumbs = breadcrumbs.store.toList()
+        val crumbs = breadcrumbs.snapshot()
         assertEquals(config.maxBreadcrumbs, crumbs.size)
         assertEquals("2", crumbs.first().metadata["message"])
         assertEquals("6", crumbs.last().metadata["message"])
     }
 
+    /**
+     * Verifies that changing the max limit resizes the buffer, retaining the newest breadcrumbs
+     */
+    @Test
+    fun testResize() {
+        config.maxBreadcrumbs = 5
+        for (k in 1..5) {
+            breadcrumbs.add(Breadcrumb("$k"))
+        }
+
+        config.maxBreadcrumbs = 3
+        assertEquals(listOf("3", "4", "5"), breadcrumbs.snapshot().map { it.metadata["message"] })
+
+        config.maxBreadcrumbs = 10
+        breadcrumbs.add(Breadcrumb("6"))
+        assertEquals(listOf("3", "4", "5", "6"),
+            breadcrumbs.snapshot().map { it.metadata["message"] })
+    }
+
     /**
      * Verifies that no breadcrumbs are added if the size limit is set to 0
      */
@@ -66,7 +88,7 @@ class BreadcrumbsTest {
         config.maxBreadcrumbs = 0
         breadcrumbs.add(Breadcrumb("1"))
         breadcrumbs.add(Breadcrumb("2"))
-        assertTrue(breadcrumbs.store.isEmpty())
+        assertTrue(breadcrumbs.snapshot().isEmpty())
     }
 
     /**
@@ -76,7 +98,7 @@ class BreadcrumbsTest {
     fun testSetSizeNegative() {
         config.maxBreadcrumbs = -1
         breadcrumbs.add(Breadcrumb("1"))
-        assertEquals(1, breadcrumbs.store.size)
+        assertEquals(1, breadcrumbs.snapshot().size)
     }
 
     /**
@@ -86,7 +108,7 @@ class BreadcrumbsTest {
     fun testClear() {
         breadcrumbs.add(Breadcrumb("1"))
         breadcrumbs.clear()
-        assertTrue(breadcrumbs.store.isEmpty())
+        assertTrue(breadcrumbs.snapshot().isEmpty())
     }
 
     /**
@@ -95,7 +117,7 @@ class BreadcrumbsTest {
     @Test
     fun testDefaultBreadcrumbType() {
         breadcrumbs.add(Breadcrumb("1"))
-        assertEquals(MANUAL, breadcrumbs.store.peek().type)
+        assertEquals(MANUAL, breadcrumbs.snapshot().first().type)
     }
 
     /**
@@ -108,7 +130,7 @@ class BreadcrumbsTest {
             metadata[String.format(Locale.US, "%d", i)] = "!!"
         }
         breadcrumbs.add(Breadcrumb("Rotated Menu", BreadcrumbType.STATE, metadata))
-        assertTrue(breadcrumbs.store.isEmpty())
+        assertTrue(breadcrumbs.snapshot().isEmpty())
     }
 
     /**
@@ -130,4 +152,69 @@ class BreadcrumbsTest {
         config.maxBreadcrumbs = -5
         assertEquals(0, config.maxBreadcrumbs)
     }
+
+    /**
+     * Verifies that rate limits are applied before a breadcrumb is recorded
+     */
+    @Test
+    fun testRateLimit() {
+        config.setBreadcrumbRateLimit(BreadcrumbType.STATE, 1, 60000)
+        assertTrue(breadcrumbs.shouldRecord("SCREEN_ON", BreadcrumbType.STATE, emptyMap()))
+        assertFalse(breadcrumbs.shouldRecord("SCREEN_OFF", BreadcrumbType.STATE, emptyMap()))
+        assertTrue(breadcrumbs.shouldRecordMessage("hello"))
+    }
+
+    /**
+     * Verifies that consecutive identical breadcrumbs are collapsed when enabled
+     */
+    @Test
+    fun testCollapseDuplicates() {
+        val metadata = mapOf("Intent Action" to "android.intent.action.SCREEN_ON")
+        breadcrumbs.add(Breadcrumb("SCREEN_ON", BreadcrumbType.STATE, metadata))
+        assertTrue(breadcrumbs.shouldRecord("SCREEN_ON", BreadcrumbType.STATE, metadata))
+
+        config.collapseDuplicateBreadcrumbs = true
+        assertFalse(breadcrumbs.shouldRecord("SCREEN_ON", BreadcrumbType.STATE, metadata))
+        assertFalse(breadcrumbs.shouldRecord("SCREEN_ON", BreadcrumbType.STATE, metadata))
+        assertTrue(breadcrumbs.shouldRecord("SCREEN_ON", BreadcrumbType.STATE, emptyMap()))
+        assertTrue(breadcrumbs.shouldRecord("SCREEN_OFF", BreadcrumbType.STATE, metadata))
+        assertEquals(3, breadcrumbs.snapshot().single().repeatCount)
+
+        breadcrumbs.add(Breadcrumb("Hello"))
+        assertFalse(breadcrumbs.shouldRecordMessage("Hello"))
+        assertTrue(breadcrumbs.shouldRecordMessage("Hello World"))
+        assertEquals(2, breadcrumbs.snapshot().last().repeatCount)
+    }
+
+    /**
+     * Verifies that collapsed duplicates do not count towards the rate limits
+     */
+    @Test
+    fun testCollapsedDuplicatesAreNotThrottled() {
+        config.collapseDuplicateBreadcrumbs = true
+        config.setBreadcrumbRateLimit(BreadcrumbType.STATE, 2, 60000)
+        assertTrue(breadcrumbs.shouldRecord("SCREEN_ON", BreadcrumbType.STATE, emptyMap()))
+        breadcrumbs.add(Breadcrumb("SCREEN_ON", BreadcrumbType.STATE, emptyMap()))
+
+        assertFalse(breadcrumbs.shouldRecord("SCREEN_ON", BreadcrumbType.STATE, emptyMap()))
+        assertFalse(breadcrumbs.shouldRecord("SCREEN_ON", BreadcrumbType.STATE, emptyMap()))
+        assertTrue(breadcrumbs.shouldRecord("SCREEN_OFF", BreadcrumbType.STATE, emptyMap()))
+        assertEquals(3, breadcrumbs.snapshot().single().repeatCount)
+    }
+
+    /**
+     * Verifies that a copy of the breadcrumbs does not include those left after it was taken
+     */
+    @Test
+    fun testCopyIsNotChangedByLaterBreadcrumbs() {
+        breadcrumbs.add(Breadcrumb("1"))
+        val copy = breadcrumbs.copy()
+        breadcrumbs.add(Breadcrumb("2"))
+
+        val writer = StringWriter()
+        copy.toStream(JsonStream(writer))
+        val json = JSONArray(writer.toString())
+        assertEquals(1, json.length())
+        assertEquals("1", json.getJSONObject(0).getJSONObject("metaData").getString("message"))
+    }
 }
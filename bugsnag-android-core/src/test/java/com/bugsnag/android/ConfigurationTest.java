@@ -246,4 +246,25 @@ public class ConfigurationTest {
         configuration.setVersionCode(577);
         assertEquals(577, (int) configuration.getVersionCode());
     }
+
+    @Test
+    public void testDetectAbnormalTerminations() {
+        assertFalse(config.getDetectAbnormalTerminations());
+        config.setDetectAbnormalTerminations(true);
+        assertTrue(config.getDetectAbnormalTerminations());
+    }
+
+    @Test
+    public void testFreezeThreshold() {
+        assertFalse(config.getDetectFreezes());
+        assertEquals(2000, config.getFreezeThresholdMs());
+
+        config.setFreezeThresholdMs(500);
+        assertEquals(500, config.getFreezeThresholdMs());
+
+        // must be below the ANR threshold
+        config.setFreezeThresholdMs(50);
+        config.setFreezeThresholdMs(5000);
+        assertEquals(500, config.getFreezeThresholdMs());
+    }
 }
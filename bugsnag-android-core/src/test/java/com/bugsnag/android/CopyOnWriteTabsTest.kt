@@ -0,0 +1,66 @@
+package com.bugsnag.android
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertSame
+import org.junit.Assert.assertTrue
+import org.junit.Test
+
+class CopyOnWriteTabsTest {
+
+    @Test
+    fun snapshotIsNotChangedByWrites() {
+        val tabs = CopyOnWriteTabs()
+        tabs["app"] = mutableMapOf("name" to "Foo")
+        val snapshot = tabs.snapshot()
+
+        @Suppress("UNCHECKED_CAST")
+        val app = tabs["app"] as MutableMap<String, Any>
+        app["name"] = "Bar"
+        tabs["extra"] = mutableMapOf("id" to 5)
+
+        assertEquals(mapOf("app" to mapOf("name" to "Foo")), snapshot)
+        assertEquals(mapOf("name" to "Bar"), tabs["app"])
+        assertEquals(mapOf("id" to 5), tabs["extra"])
+    }
+
+    @Test
+    fun writesShareUnchangedTabs() {
+        val tabs = CopyOnWriteTabs()
+        tabs["app"] = mutableMapOf("name" to "Foo")
+        tabs["custom"] = mutableMapOf("count" to 1)
+        val before = tabs.snapshot()
+
+        @Suppress("UNCHECKED_CAST")
+        val custom = tabs["custom"] as MutableMap<String, Any>
+        custom["count"] = 2
+
+        assertSame(before["app"], tabs.snapshot()["app"])
+        assertEquals(mapOf("count" to 1), before["custom"])
+    }
+
+    @Test
+    fun addedTabsAreCopied() {
+        val tab = mutableMapOf<String, Any>("name" to "Foo")
+        val tabs = CopyOnWriteTabs(mapOf("app" to tab))
+        tab["name"] = "Bar"
+        assertEquals(mapOf("name" to "Foo"), tabs["app"])
+    }
+
+    @Test
+    fun removeFromTab() {
+        val tabs = CopyOnWriteTabs()
+        tabs["app"] = mutableMapOf("name" to "Foo", "version" to "1.0")
+
+        @Suppress("UNCHECKED_CAST")
+        val app = tabs["app"] as MutableMap<String, Any>
+        assertEquals("1.0", app.remove("version"))
+        assertNull(app.remove("missing"))
+        assertEquals(mapOf("name" to "Foo"), tabs["app"])
+
+        tabs.remove("app")
+        assertFalse(tabs.containsKey("app"))
+        assertTrue(tabs.isEmpty())
+    }
+}
@@ -0,0 +1,58 @@
+package com.bugsnag.android
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.TimeoutException
+
+class DeliveryFutureTest {
+
+    private val future = DeliveryFuture()
+
+    @Test
+    fun completesOnce() {
+        assertFalse(future.isDone)
+        assertNull(future.outcome)
+
+        assertTrue(future.complete(DeliveryOutcome.STORED))
+        assertFalse(future.complete(DeliveryOutcome.SENT))
+        assertTrue(future.isDone)
+        assertEquals(DeliveryOutcome.STORED, future.get())
+        assertEquals(DeliveryOutcome.STORED, future.get(0, TimeUnit.MILLISECONDS))
+    }
+
+    @Test(expected = TimeoutException::class)
+    fun getTimesOut() {
+        future.get(10, TimeUnit.MILLISECONDS)
+    }
+
+    @Test
+    fun listenersAreCalledOnce() {
+        val outcomes = mutableListOf<DeliveryOutcome>()
+        future.addListener(DeliveryFuture.Listener { outcomes.add(it) })
+        future.complete(DeliveryOutcome.SENT)
+        future.complete(DeliveryOutcome.DROPPED)
+
+        // a listener added once the outcome is known is called immediately
+        future.addListener(DeliveryFuture.Listener { outcomes.add(it) })
+        assertEquals(listOf(DeliveryOutcome.SENT, DeliveryOutcome.SENT), outcomes)
+    }
+
+    @Test
+    fun listenerExceptionsAreCaught() {
+        val outcomes = mutableListOf<DeliveryOutcome>()
+        future.addListener(DeliveryFuture.Listener { throw IllegalStateException() })
+        future.addListener(DeliveryFuture.Listener { outcomes.add(it) })
+        future.complete(DeliveryOutcome.FAILED)
+        assertEquals(listOf(DeliveryOutcome.FAILED), outcomes)
+    }
+
+    @Test
+    fun cannotBeCancelled() {
+        assertFalse(future.cancel(true))
+        assertFalse(future.isCancelled)
+    }
+}
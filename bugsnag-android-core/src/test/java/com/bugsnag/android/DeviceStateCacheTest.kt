@@ -0,0 +1,104 @@
+package com.bugsnag.android
+
+import android.content.BroadcastReceiver
+import android.content.ContentResolver
+import android.content.Context
+import android.content.Intent
+import android.content.IntentFilter
+import android.os.BatteryManager
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.mockito.ArgumentMatchers.any
+import org.mockito.ArgumentMatchers.isNull
+import org.mockito.Mock
+import org.mockito.Mockito.`when`
+import org.mockito.Mockito.times
+import org.mockito.Mockito.verify
+import org.mockito.junit.MockitoJUnitRunner
+
+@RunWith(MockitoJUnitRunner.Silent::class)
+class DeviceStateCacheTest {
+
+    @Mock
+    lateinit var context: Context
+
+    @Mock
+    lateinit var contentResolver: ContentResolver
+
+    @Mock
+    internal lateinit var connectivity: Connectivity
+
+    @Mock
+    lateinit var batteryStatus: Intent
+
+    private lateinit var cache: DeviceStateCache
+
+    @Before
+    fun setUp() {
+        `when`(context.contentResolver).thenReturn(contentResolver)
+        `when`(context.registerReceiver(any(BroadcastReceiver::class.java),
+            any(IntentFilter::class.java))).thenReturn(batteryStatus)
+        `when`(context.registerReceiver(isNull(), any(IntentFilter::class.java)))
+            .thenReturn(batteryStatus)
+        `when`(connectivity.retrieveNetworkAccessState()).thenReturn("wifi")
+        mockBattery(batteryStatus, 50, BatteryManager.BATTERY_STATUS_DISCHARGING)
+        cache = DeviceStateCache(context, connectivity)
+    }
+
+    private fun mockBattery(intent: Intent, level: Int, status: Int) {
+        `when`(intent.getIntExtra("level", -1)).thenReturn(level)
+        `when`(intent.getIntExtra("scale", -1)).thenReturn(100)
+        `when`(intent.getIntExtra("status", -1)).thenReturn(status)
+    }
+
+    @Test
+    fun readsDirectlyUntilRegistered() {
+        assertFalse(cache.isRegistered)
+        assertEquals("wifi", cache.networkAccess)
+        assertEquals("wifi", cache.networkAccess)
+        verify(connectivity, times(2)).retrieveNetworkAccessState()
+        assertEquals(0.5f, cache.batteryLevel!!, 0.001f)
+        assertFalse(cache.isCharging!!)
+    }
+
+    @Test
+    fun readsCachedStateWhenRegistered() {
+        cache.register()
+        assertTrue(cache.isRegistered)
+        repeat(3) {
+            assertEquals("wifi", cache.networkAccess)
+            assertEquals(0.5f, cache.batteryLevel!!, 0.001f)
+        }
+        verify(connectivity, times(1)).retrieveNetworkAccessState()
+        verify(context, times(0)).registerReceiver(isNull(), any(IntentFilter::class.java))
+    }
+
+    @Test
+    fun updatesFromCallbacks() {
+        cache.register()
+
+        val charging = org.mockito.Mockito.mock(Intent::class.java)
+        mockBattery(charging, 80, BatteryManager.BATTERY_STATUS_CHARGING)
+        cache.onReceive(context, charging)
+        assertEquals(0.8f, cache.batteryLevel!!, 0.001f)
+        assertTrue(cache.isCharging!!)
+
+        `when`(connectivity.retrieveNetworkAccessState()).thenReturn("cellular")
+        assertEquals("wifi", cache.networkAccess)
+        cache.onNetworkChanged()
+        assertEquals("cellular", cache.networkAccess)
+    }
+
+    @Test
+    fun unregister() {
+        cache.register()
+        cache.unregister()
+        assertFalse(cache.isRegistered)
+        verify(context).unregisterReceiver(cache)
+        verify(context).unregisterComponentCallbacks(cache)
+    }
+}
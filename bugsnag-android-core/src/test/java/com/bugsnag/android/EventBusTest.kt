@@ -0,0 +1,98 @@
+package com.bugsnag.android
+
+import com.bugsnag.android.NativeInterface.MessageType.ADD_METADATA
+import com.bugsnag.android.NativeInterface.MessageType.CLEAR_METADATA_TAB
+import com.bugsnag.android.NativeInterface.MessageType.UPDATE_CONTEXT
+import com.bugsnag.android.NativeInterface.MessageType.UPDATE_USER_ID
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertSame
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import java.util.Observer
+
+class EventBusTest {
+
+    private val events = mutableListOf<Pair<NativeInterface.MessageType, Any?>>()
+    private val subscriber = EventBus.Subscriber { type, value -> events.add(Pair(type, value)) }
+
+    @Test
+    fun deliversSubscribedTypes() {
+        val bus = EventBus()
+        bus.subscribe(subscriber, UPDATE_CONTEXT)
+        bus.publish(UPDATE_CONTEXT, "Foo")
+        bus.publish(UPDATE_USER_ID, "123")
+
+        assertEquals(listOf(Pair(UPDATE_CONTEXT, "Foo")), events)
+        assertTrue(bus.hasSubscribers(UPDATE_CONTEXT))
+        assertFalse(bus.hasSubscribers(UPDATE_USER_ID))
+    }
+
+    @Test
+    fun subscribesToAllTypesByDefault() {
+        val bus = EventBus()
+        bus.subscribe(subscriber)
+        bus.publish(UPDATE_CONTEXT, "Foo")
+        bus.publish(UPDATE_USER_ID, "123")
+
+        assertEquals(2, events.size)
+        assertEquals(1, bus.countSubscribers())
+    }
+
+    @Test
+    fun unsubscribeStopsDelivery() {
+        val bus = EventBus()
+        bus.subscribe(subscriber, UPDATE_CONTEXT, UPDATE_USER_ID)
+        bus.unsubscribe(subscriber)
+        bus.publish(UPDATE_CONTEXT, "Foo")
+
+        assertTrue(events.isEmpty())
+        assertFalse(bus.isSubscribed(subscriber))
+        assertEquals(0, bus.countSubscribers())
+    }
+
+    @Test
+    fun forwardsEvents() {
+        val source = EventBus()
+        val target = EventBus()
+        target.subscribe(subscriber)
+        source.subscribe(target.forwarder())
+        source.publish(UPDATE_USER_ID, "123")
+
+        assertEquals(listOf(Pair(UPDATE_USER_ID, "123")), events)
+    }
+
+    @Test
+    fun observersReceiveMessages() {
+        val metaData = MetaData()
+        val messages = mutableListOf<NativeInterface.Message>()
+        val observer = Observer { observable, arg ->
+            assertSame(metaData, observable)
+            messages.add(arg as NativeInterface.Message)
+        }
+        metaData.addObserver(observer)
+        metaData.addObserver(observer)
+        metaData.addToTab("custom", "foo", "bar")
+
+        assertEquals(1, metaData.countObservers())
+        assertEquals(1, messages.size)
+        assertEquals(ADD_METADATA, messages[0].type)
+        assertEquals(listOf("custom", "foo", "bar"), messages[0].value)
+
+        metaData.deleteObserver(observer)
+        metaData.clearTab("custom")
+        assertEquals(1, messages.size)
+    }
+
+    @Test
+    fun configurationForwardsMetaDataEvents() {
+        val config = Configuration("api-key")
+        config.bus.subscribe(subscriber, ADD_METADATA, CLEAR_METADATA_TAB)
+        val old = config.metaData
+        config.metaData = MetaData()
+        old.addToTab("custom", "foo", "bar")
+        config.metaData.clearTab("custom")
+
+        assertEquals(listOf(Pair(CLEAR_METADATA_TAB, "custom")), events)
+    }
+}
@@ -64,6 +64,24 @@ public class HandledStateTest {
         assertEquals(Severity.WARNING, unhandled.getCurrentSeverity());
     }
 
+    @Test
+    public void testFreeze() throws Exception {
+        HandledState freeze = HandledState.newInstance(HandledState.REASON_FREEZE);
+        assertNotNull(freeze);
+        assertFalse(freeze.isUnhandled());
+        assertEquals(Severity.WARNING, freeze.getCurrentSeverity());
+        assertEquals("appFreeze", freeze.calculateSeverityReasonType());
+    }
+
+    @Test
+    public void testAbnormalTermination() throws Exception {
+        HandledState state = HandledState.newInstance(HandledState.REASON_ABNORMAL_TERMINATION);
+        assertNotNull(state);
+        assertFalse(state.isUnhandled());
+        assertEquals(Severity.ERROR, state.getCurrentSeverity());
+        assertEquals("abnormalTermination", state.calculateSeverityReasonType());
+    }
+
     @Test
     public void testCallbackSpecified() throws Exception {
         HandledState handled = HandledState.newInstance(HandledState.REASON_HANDLED_EXCEPTION);
@@ -0,0 +1,99 @@
+package com.bugsnag.android
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import java.io.StringWriter
+
+class LayeredMapTest {
+
+    private val base = mutableMapOf<String, Any>(
+        "app" to mutableMapOf("name" to "Foo", "version" to "1.0"),
+        "custom" to mutableMapOf("count" to 1),
+        "flag" to true
+    )
+    private val overrides = mutableMapOf<String, Any>(
+        "app" to mutableMapOf("version" to "2.0"),
+        "flag" to "overridden",
+        "extra" to mutableMapOf("id" to 5)
+    )
+
+    @Test
+    fun laterLayersTakePrecedence() {
+        val map = LayeredMap(base, overrides)
+        assertEquals("overridden", map["flag"])
+        assertEquals(mapOf("id" to 5), map["extra"])
+        assertEquals(mapOf("count" to 1), map["custom"])
+    }
+
+    @Test
+    fun nestedMapsAreMerged() {
+        val map = LayeredMap(base, overrides)
+        assertEquals(mapOf("name" to "Foo", "version" to "2.0"), map["app"])
+        assertEquals(setOf("app", "custom", "flag", "extra"), map.keys)
+        assertEquals(4, map.size)
+    }
+
+    @Test
+    fun nonMapValuesReplaceMaps() {
+        val map = LayeredMap(base, mapOf("app" to "none"))
+        assertEquals("none", map["app"])
+    }
+
+    @Test
+    fun nullValuesDoNotShadowLowerLayers() {
+        val nested = HashMap<String, Any?>()
+        nested["name"] = null
+        val map = LayeredMap(mapOf("app" to mapOf("name" to "Foo")), mapOf("app" to nested))
+        assertEquals(mapOf("name" to "Foo"), map["app"])
+    }
+
+    @Test
+    fun writesDoNotModifyLayers() {
+        val map = LayeredMap(base, overrides)
+        map["flag"] = false
+        map.remove("custom")
+
+        @Suppress("UNCHECKED_CAST")
+        val app = map["app"] as MutableMap<String, Any>
+        app["name"] = "Bar"
+
+        assertEquals(false, map["flag"])
+        assertNull(map["custom"])
+        assertFalse(map.containsKey("custom"))
+        assertEquals(mapOf("name" to "Bar", "version" to "2.0"), map["app"])
+        assertEquals(true, base["flag"])
+        assertEquals(mapOf("name" to "Foo", "version" to "1.0"), base["app"])
+        assertTrue(base.containsKey("custom"))
+    }
+
+    @Test
+    fun clearRemovesAllKeys() {
+        val map = LayeredMap(base, overrides)
+        map.clear()
+        assertTrue(map.isEmpty())
+        assertEquals(3, base.size)
+    }
+
+    @Test
+    fun serializesMergedView() {
+        val first = MetaData()
+        first.addToTab("app", "name", "Foo")
+        first.addToTab("app", "password", "secret")
+        val second = MetaData()
+        second.addToTab("app", "version", "2.0")
+
+        val merged = MetaData.merge(first, second)
+        val writer = StringWriter()
+        val stream = JsonStream(writer)
+        merged.toStream(stream)
+        stream.flush()
+
+        val json = writer.toString()
+        assertTrue(json.contains("\"name\":\"Foo\""))
+        assertTrue(json.contains("\"version\":\"2.0\""))
+        assertTrue(json.contains("\"password\":\"[FILTERED]\""))
+    }
+}
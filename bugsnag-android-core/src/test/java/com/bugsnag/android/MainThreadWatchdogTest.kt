@@ -0,0 +1,116 @@
+package com.bugsnag.android
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import java.util.Arrays
+import java.util.concurrent.Executor
+
+class MainThreadWatchdogTest {
+
+    private val posted = mutableListOf<Runnable>()
+    private val freezes = mutableListOf<Long>()
+    private val mainThread = Thread.currentThread()
+
+    private val watchdog = MainThreadWatchdog(Executor { posted.add(it) }, mainThread, 1000,
+        MainThreadWatchdog.Delegate { durationMs, stacktrace ->
+            freezes.add(durationMs)
+            assert(stacktrace.isNotEmpty())
+        })
+
+    private fun dispatchHeartbeats(nowMs: Long) {
+        if (posted.isNotEmpty()) {
+            posted.clear()
+            watchdog.onHeartbeat(nowMs)
+        }
+    }
+
+    @Test
+    fun checksSeveralTimesPerThreshold() {
+        assertEquals(250, watchdog.check(0))
+        assertEquals(1, posted.size)
+    }
+
+    @Test
+    fun responsiveMainThreadIsNotReported() {
+        for (nowMs in 0L until 10000L step 250) {
+            watchdog.check(nowMs)
+            dispatchHeartbeats(nowMs + 100)
+        }
+        assertEquals(emptyList<Long>(), freezes)
+    }
+
+    @Test
+    fun freezeIsReportedOnceMainThreadRecovers() {
+        watchdog.check(0)
+        watchdog.check(750)
+        watchdog.check(1000)
+        watchdog.check(1250)
+        watchdog.check(3000)
+        assertEquals(emptyList<Long>(), freezes)
+        assertEquals(1, posted.size) // no heartbeat is posted until the last is dispatched
+
+        dispatchHeartbeats(3200)
+        watchdog.check(3250)
+        watchdog.check(3500)
+        assertEquals(listOf(3200L), freezes)
+    }
+
+    @Test
+    fun laterFreezeIsReported() {
+        watchdog.check(0)
+        watchdog.check(1500)
+        dispatchHeartbeats(1600)
+
+        watchdog.check(1750) // reports the first freeze and posts a new heartbeat
+        assertEquals(1, posted.size)
+        watchdog.check(3000)
+        dispatchHeartbeats(3100)
+        watchdog.check(3250)
+        assertEquals(listOf(1600L, 1350L), freezes)
+    }
+
+    @Test
+    fun pausedWatchdogPostsNoHeartbeats() {
+        watchdog.setPaused(true)
+        assertEquals(MainThreadWatchdog.PAUSED, watchdog.check(0))
+        assertTrue(posted.isEmpty())
+
+        watchdog.setPaused(false)
+        assertEquals(250, watchdog.check(100))
+        assertEquals(1, posted.size)
+    }
+
+    @Test
+    fun freezeIsReportedAfterPausing() {
+        watchdog.check(0)
+        watchdog.check(1500)
+        watchdog.setPaused(true)
+        assertEquals(250, watchdog.check(1750)) // the pending heartbeat is still checked
+
+        dispatchHeartbeats(1800)
+        assertEquals(MainThreadWatchdog.PAUSED, watchdog.check(2000))
+        assertEquals(listOf(1800L), freezes)
+    }
+
+    @Test
+    fun pausesInBackground() {
+        val type = NativeInterface.MessageType.UPDATE_IN_FOREGROUND
+        watchdog.onEvent(type, Arrays.asList(false, null))
+        assertTrue(watchdog.isPaused)
+        watchdog.onEvent(type, Arrays.asList(true, "MainActivity"))
+        assertFalse(watchdog.isPaused)
+    }
+
+    @Test
+    fun delegateExceptionsAreCaught() {
+        val failing = MainThreadWatchdog(Executor { posted.add(it) }, mainThread, 100,
+            MainThreadWatchdog.Delegate { _, _ -> throw IllegalStateException() })
+        failing.check(0)
+        failing.check(100)
+        failing.onHeartbeat(150)
+        assertEquals(25, failing.check(175))
+        assertEquals(2, posted.size)
+    }
+}
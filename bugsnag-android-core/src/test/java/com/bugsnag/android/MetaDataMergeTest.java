@@ -1,5 +1,7 @@
 package com.bugsnag.android;
 
+import static org.junit.Assert.assertEquals;
+
 import org.junit.Test;
 
 import java.util.HashMap;
@@ -12,6 +14,33 @@ public class MetaDataMergeTest {
         MetaData.merge(generateMetaData(), generateMetaData());
     }
 
+    @Test
+    public void testMergeNonStringKeys() {
+        Map<Object, Object> first = new HashMap<>();
+        first.put(1, "one");
+        first.put(2, "two");
+        MetaData base = new MetaData();
+        base.addToTab("foo", "ids", first);
+
+        Map<Object, Object> second = new HashMap<>();
+        second.put(2, "TWO");
+        second.put(3, "three");
+        MetaData overrides = new MetaData();
+        overrides.addToTab("foo", "ids", second);
+
+        Map<?, ?> tab = (Map<?, ?>) MetaData.merge(base, overrides).getTab("foo");
+        Map<?, ?> ids = (Map<?, ?>) tab.get("ids");
+        assertEquals("one", ids.get(1));
+        assertEquals("TWO", ids.get(2));
+        assertEquals("three", ids.get(3));
+
+        Map<Object, Object> expected = new HashMap<>();
+        expected.put(1, "one");
+        expected.put(2, "TWO");
+        expected.put(3, "three");
+        assertEquals(expected, new HashMap<>(ids));
+    }
+
     /**
      * Generates a metadata object with a tab value containing a map with a null entry
      */
@@ -1,6 +1,8 @@
 package com.bugsnag.android;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
 
 import org.junit.Test;
 
@@ -59,4 +61,32 @@ public class MetaDataTest {
         Map<String, String> mergedMap = (Map<String, String>) tab.get("map");
         assertEquals("fromOverrides", mergedMap.get("key"));
     }
+
+    @Test
+    public void testCopyIsNotChangedByLaterChanges() {
+        MetaData original = new MetaData();
+        original.addToTab("example", "name", "bob");
+        original.setFilters("secret");
+
+        MetaData copy = original.copy();
+        original.addToTab("example", "name", "alice");
+        original.addToTab("other", "age", 30);
+
+        assertEquals("bob", copy.getTab("example").get("name"));
+        assertNull(copy.store.get("other"));
+        assertArrayEquals(new String[]{"secret"}, copy.getFilters());
+    }
+
+    @Test
+    public void testCopySharesTabs() {
+        MetaData original = new MetaData();
+        original.addToTab("example", "name", "bob");
+
+        MetaData copy = original.copy();
+        copy.addToTab("example", "name", "alice");
+        copy.clearTab("other");
+
+        assertEquals("bob", original.getTab("example").get("name"));
+        assertEquals("alice", copy.getTab("example").get("name"));
+    }
 }
@@ -0,0 +1,85 @@
+package com.bugsnag.android
+
+import org.junit.Assert.assertArrayEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertSame
+import org.junit.Assert.assertTrue
+import org.junit.Test
+
+class ProjectPackageMatcherTest {
+
+    @Test
+    fun noProjectPackages() {
+        val matcher = ProjectPackageMatcher.compile(null, null)
+        assertSame(ProjectPackageMatcher.EMPTY, matcher)
+        assertFalse(matcher.inProject("com.example.Foo"))
+        assertFalse(ProjectPackageMatcher.compile(null, arrayOf("com")).inProject("com.Foo"))
+    }
+
+    @Test
+    fun matchesPrefixes() {
+        val matcher = ProjectPackageMatcher.compile(arrayOf("com.example", null, "org.foo"), null)
+        assertTrue(matcher.inProject("com.example.Foo"))
+        assertTrue(matcher.inProject("com.example"))
+        assertTrue(matcher.inProject("org.foo.bar.Baz"))
+        assertFalse(matcher.inProject("com.exampl"))
+        assertFalse(matcher.inProject("com.other.Foo"))
+        assertFalse(matcher.inProject(""))
+    }
+
+    @Test
+    fun exclusionsWin() {
+        val matcher = ProjectPackageMatcher.compile(arrayOf("com.example"),
+            arrayOf("com.example.thirdparty"))
+        assertTrue(matcher.inProject("com.example.Foo"))
+        assertFalse(matcher.inProject("com.example.thirdparty.Foo"))
+        assertFalse(matcher.inProject("com.example.thirdparty"))
+    }
+
+    @Test
+    fun matchesGlobs() {
+        val matcher = ProjectPackageMatcher.compile(arrayOf("com.*.app", "org.**.core."),
+            arrayOf("com.*.app.generated"))
+        assertTrue(matcher.inProject("com.example.app.Foo"))
+        assertTrue(matcher.inProject("com..app.Foo"))
+        assertFalse(matcher.inProject("com.example.other.app.Foo"))
+        assertFalse(matcher.inProject("com.example.app.generated.Foo"))
+        assertTrue(matcher.inProject("org.a.b.core.Foo"))
+        assertFalse(matcher.inProject("org.core.Foo"))
+        assertFalse(matcher.inProject("net.a.core.Foo"))
+    }
+
+    @Test
+    fun globCharactersAreOnlyWildcards() {
+        val matcher = ProjectPackageMatcher.compile(arrayOf("com.ex$.*"), null)
+        assertTrue(matcher.inProject("com.ex$.Foo"))
+        assertFalse(matcher.inProject("comxex$.Foo"))
+    }
+
+    @Test
+    fun replacesProjectPackagesKeepingExclusions() {
+        val matcher = ProjectPackageMatcher.compile(arrayOf("com.example"), arrayOf("com.other.lib"))
+            .withProjectPackages(arrayOf("com.other"))
+        assertArrayEquals(arrayOf("com.other"), matcher.projectPackages)
+        assertArrayEquals(arrayOf("com.other.lib"), matcher.exclusions)
+        assertTrue(matcher.inProject("com.other.Foo"))
+        assertFalse(matcher.inProject("com.other.lib.Foo"))
+        assertFalse(matcher.inProject("com.example.Foo"))
+    }
+
+    @Test
+    fun configurationRecompiles() {
+        val config = Configuration("api-key")
+        assertNull(config.projectPackages)
+        assertFalse(config.projectPackageMatcher.inProject("com.example.Foo"))
+
+        config.projectPackages = arrayOf("com.example")
+        val matcher = config.projectPackageMatcher
+        assertTrue(matcher.inProject("com.example.vendor.Foo"))
+
+        config.projectPackageExclusions = arrayOf("com.example.vendor")
+        assertFalse(config.projectPackageMatcher.inProject("com.example.vendor.Foo"))
+        assertTrue(matcher.inProject("com.example.vendor.Foo"))
+    }
+}
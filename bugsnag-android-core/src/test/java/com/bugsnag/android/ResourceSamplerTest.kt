@@ -0,0 +1,96 @@
+package com.bugsnag.android
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNotSame
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertSame
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.mockito.Mock
+import org.mockito.Mockito.`when`
+import org.mockito.Mockito.times
+import org.mockito.Mockito.verify
+import org.mockito.junit.MockitoJUnitRunner
+import java.io.File
+
+@RunWith(MockitoJUnitRunner::class)
+class ResourceSamplerTest {
+
+    @Mock
+    internal lateinit var foregroundDetector: ForegroundDetector
+
+    private val config = Configuration("api-key")
+    private val dataDir = File(System.getProperty("java.io.tmpdir"))
+
+    @Before
+    fun setUp() {
+        `when`(foregroundDetector.isInForeground()).thenReturn(true)
+    }
+
+    @Test
+    fun samplesOnFirstRequest() {
+        val sampler = ResourceSampler(config, foregroundDetector, dataDir)
+        assertNull(sampler.getSampleAgeMs(1000))
+
+        val snapshot = sampler.getSnapshot(1000)
+        assertEquals(true, snapshot.inForeground)
+        assertEquals(1000, snapshot.sampledAtMs)
+        assertTrue(snapshot.freeMemory > 0)
+        assertTrue(snapshot.freeDisk > 0)
+        assertEquals(0L, sampler.getSampleAgeMs(1000))
+        assertEquals(250L, sampler.getSampleAgeMs(1250))
+    }
+
+    @Test
+    fun reusesSampleWithinTtl() {
+        config.resourceSampleTtlMs = 1000
+        val sampler = ResourceSampler(config, foregroundDetector, dataDir)
+        val first = sampler.getSnapshot(1000)
+        assertSame(first, sampler.getSnapshot(1500))
+        assertSame(first, sampler.getSnapshot(1999))
+        verify(foregroundDetector, times(1)).isInForeground()
+    }
+
+    @Test
+    fun servesStaleSampleWhileRefreshing() {
+        config.resourceSampleTtlMs = 1000
+        val sampler = ResourceSampler(config, foregroundDetector, dataDir)
+        val first = sampler.getSnapshot(1000)
+        assertSame(first, sampler.getSnapshot(5000))
+        assertEquals(4000L, first.getAgeMs(5000))
+    }
+
+    @Test
+    fun samplesEachRequestWithoutTtl() {
+        config.resourceSampleTtlMs = 0
+        val sampler = ResourceSampler(config, foregroundDetector, dataDir)
+        val first = sampler.getSnapshot(1000)
+        assertNotSame(first, sampler.getSnapshot(1001))
+        verify(foregroundDetector, times(2)).isInForeground()
+
+        val unconfigured = ResourceSampler(null, foregroundDetector, dataDir)
+        assertNotSame(unconfigured.getSnapshot(1000), unconfigured.getSnapshot(1000))
+    }
+
+    @Test
+    fun sampleReplacesSnapshot() {
+        config.resourceSampleTtlMs = 1000
+        val sampler = ResourceSampler(config, foregroundDetector, dataDir)
+        sampler.getSnapshot(1000)
+        `when`(foregroundDetector.isInForeground()).thenReturn(false)
+        val sampled = sampler.sample(1200)
+        assertSame(sampled, sampler.getSnapshot(1300))
+        assertEquals(false, sampled.inForeground)
+    }
+
+    @Test
+    fun configurationTtl() {
+        assertEquals(5000, config.resourceSampleTtlMs)
+        config.resourceSampleTtlMs = -1
+        assertEquals(5000, config.resourceSampleTtlMs)
+        config.resourceSampleTtlMs = 0
+        assertEquals(0, config.resourceSampleTtlMs)
+    }
+}
@@ -0,0 +1,98 @@
+package com.bugsnag.android
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+
+class RingBufferTest {
+
+    @Test
+    fun emptyBuffer() {
+        val buffer = RingBuffer<String>(3)
+        assertTrue(buffer.snapshot().isEmpty())
+    }
+
+    @Test
+    fun zeroCapacity() {
+        val buffer = RingBuffer<String>(0)
+        buffer.add("a")
+        assertTrue(buffer.snapshot().isEmpty())
+    }
+
+    @Test
+    fun evictsOldestItems() {
+        val buffer = RingBuffer<String>(3)
+        listOf("a", "b", "c", "d", "e").forEach { buffer.add(it) }
+        assertEquals(listOf("c", "d", "e"), buffer.snapshot())
+    }
+
+    @Test
+    fun staleWriteDoesNotOverwriteNewerItem() {
+        val buffer = RingBuffer<String>(3)
+        listOf("a", "b", "c", "d").forEach { buffer.add(it) }
+
+        // a producer which claimed sequence 0 and stalled until the slot was reused
+        buffer.write(0, "stale")
+        assertEquals(listOf("b", "c", "d"), buffer.snapshot())
+    }
+
+    @Test
+    fun windowExcludesLaterItems() {
+        val buffer = RingBuffer<String>(3)
+        listOf("a", "b").forEach { buffer.add(it) }
+        val window = buffer.window()
+        buffer.add("c")
+        assertEquals(listOf("a", "b"), window.items())
+    }
+
+    @Test
+    fun windowSkipsOverwrittenItems() {
+        val buffer = RingBuffer<String>(3)
+        listOf("a", "b", "c").forEach { buffer.add(it) }
+        val window = buffer.window()
+        listOf("d", "e").forEach { buffer.add(it) }
+        assertEquals(listOf("c"), window.items())
+    }
+
+    @Test
+    fun clearRemovesItems() {
+        val buffer = RingBuffer<String>(3)
+        listOf("a", "b").forEach { buffer.add(it) }
+        buffer.clear()
+        assertTrue(buffer.snapshot().isEmpty())
+
+        buffer.add("c")
+        assertEquals(listOf("c"), buffer.snapshot())
+    }
+
+    @Test
+    fun clearRemovesLateWriteOfEarlierItem() {
+        val buffer = RingBuffer<String>(3)
+        buffer.add("a")
+        buffer.add("b")
+        buffer.clear()
+
+        // a producer which claimed sequence 1 before the clear but wrote after it
+        buffer.write(1, "late")
+        buffer.add("c")
+        assertEquals(listOf("c"), buffer.snapshot())
+    }
+
+    @Test
+    fun concurrentProducers() {
+        val buffer = RingBuffer<Int>(32)
+        val threads = (0 until 4).map { id ->
+            Thread {
+                for (k in 0 until 10000) {
+                    buffer.add(id * 10000 + k)
+                }
+            }
+        }
+        threads.forEach { it.start() }
+        threads.forEach { it.join() }
+
+        val items = buffer.snapshot()
+        assertEquals(32, items.size)
+        assertEquals(32, items.toSet().size)
+    }
+}
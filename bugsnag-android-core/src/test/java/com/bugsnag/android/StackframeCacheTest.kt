@@ -0,0 +1,83 @@
+package com.bugsnag.android
+
+import org.json.JSONArray
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertNotSame
+import org.junit.Assert.assertSame
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import java.io.StringWriter
+
+class StackframeCacheTest {
+
+    private val cache = StackframeCache(3)
+    private val packages = ProjectPackageMatcher.compile(arrayOf("com.example"), null)
+
+    @Test
+    fun rendersFrame() {
+        val frame = cache.get(StackTraceElement("com.example.Foo", "bar", null, 5), packages)!!
+        assertEquals("com.example.Foo.bar", frame.method)
+        assertEquals("Unknown", frame.file)
+        assertTrue(frame.inProject)
+
+        val noClass = cache.get(StackTraceElement("", "bar", "Foo.kt", 5), packages)!!
+        assertEquals("bar", noClass.method)
+        assertEquals("Foo.kt", noClass.file)
+        assertFalse(noClass.inProject)
+    }
+
+    @Test
+    fun repeatedFramesAreCached() {
+        val first = cache.get(StackTraceElement("android.os.Looper", "loop", "Looper.java", 193),
+            packages)
+        val second = cache.get(StackTraceElement("android.os.Looper", "loop", "Looper.java", 193),
+            packages)
+        assertSame(first, second)
+        assertEquals(1, cache.size())
+    }
+
+    @Test
+    fun rerendersForOtherProjectPackages() {
+        val element = StackTraceElement("com.example.Foo", "bar", "Foo.java", 5)
+        val first = cache.get(element, packages)!!
+        val second = cache.get(element, packages.withProjectPackages(arrayOf("com.other")))!!
+        assertNotSame(first, second)
+        assertFalse(second.inProject)
+        assertSame(second, cache.get(element, second.projectPackages))
+    }
+
+    @Test
+    fun evictsLeastRecentlyUsed() {
+        val elements = (0 until 4).map { StackTraceElement("Foo", "bar", "Foo.java", it) }
+        val first = cache.get(elements[0], packages)
+        cache.get(elements[1], packages)
+        cache.get(elements[2], packages)
+        assertSame(first, cache.get(elements[0], packages)) // now most recently used
+        cache.get(elements[3], packages) // evicts elements[1]
+        assertEquals(3, cache.size())
+        assertSame(first, cache.get(elements[0], packages))
+    }
+
+    @Test
+    fun serializesStacktrace() {
+        val trace = arrayOf(
+            StackTraceElement("com.example.Foo", "bar", "Foo.java", 5),
+            StackTraceElement("android.os.Looper", "loop", "Looper.java", 193)
+        )
+        val writer = StringWriter()
+        Stacktrace(trace, 0, packages, Stacktrace.Limits.DEFAULT, cache)
+            .toStream(JsonStream(writer))
+        val json = JSONArray(writer.toString())
+
+        assertEquals(2, json.length())
+        val first = json.getJSONObject(0)
+        assertEquals("com.example.Foo.bar", first.getString("method"))
+        assertEquals("Foo.java", first.getString("file"))
+        assertEquals(5, first.getInt("lineNumber"))
+        assertTrue(first.getBoolean("inProject"))
+        val second = json.getJSONObject(1)
+        assertEquals(193, second.getInt("lineNumber"))
+        assertFalse(second.has("inProject"))
+    }
+}
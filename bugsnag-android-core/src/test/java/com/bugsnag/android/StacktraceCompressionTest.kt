@@ -0,0 +1,149 @@
+package com.bugsnag.android
+
+import org.json.JSONArray
+import org.json.JSONObject
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Test
+import java.io.StringWriter
+
+class StacktraceCompressionTest {
+
+    private val packages = ProjectPackageMatcher.compile(arrayOf("com.example"), null)
+    private val cache = StackframeCache(64)
+
+    private fun frame(method: String, line: Int = 1) =
+        StackTraceElement("com.example.Foo", method, "Foo.java", line)
+
+    private fun serialize(
+        trace: Array<StackTraceElement>,
+        limits: Stacktrace.Limits = Stacktrace.Limits.DEFAULT,
+        framesInCommon: Int = 0
+    ): JSONArray {
+        val writer = StringWriter()
+        val stream = JsonStream(writer)
+        Stacktrace(trace, framesInCommon, packages, limits, cache).toStream(stream)
+        stream.flush()
+        return JSONArray(writer.toString())
+    }
+
+    private fun methods(json: JSONArray) =
+        (0 until json.length()).map { json.getJSONObject(it).getString("method") }
+
+    @Test
+    fun compressesDirectRecursion() {
+        val trace = Array(1024) { frame("recurse") } + frame("main", 2)
+        assertEquals(listOf(
+            "com.example.Foo.recurse",
+            "... previous frame repeated 1023 more times",
+            "com.example.Foo.main"
+        ), methods(serialize(trace)))
+    }
+
+    @Test
+    fun compressesMutualRecursion() {
+        val cycle = arrayOf(frame("a"), frame("b"), frame("c"))
+        val trace = arrayOf(frame("top")) +
+            (0 until 100).flatMap { cycle.toList() } + frame("main")
+        assertEquals(listOf(
+            "com.example.Foo.top",
+            "com.example.Foo.a",
+            "com.example.Foo.b",
+            "com.example.Foo.c",
+            "... previous 3 frames repeated 99 more times",
+            "com.example.Foo.main"
+        ), methods(serialize(trace)))
+    }
+
+    @Test
+    fun markersOnlyHaveMethod() {
+        val json = serialize(Array(5) { frame("recurse") })
+        val marker = json.getJSONObject(1)
+        assertEquals(1, marker.length())
+        assertFalse(marker.has("inProject"))
+    }
+
+    @Test
+    fun shortRepeatsAreKept() {
+        val trace = arrayOf(frame("a"), frame("a"), frame("b"))
+        assertEquals(3, serialize(trace).length())
+    }
+
+    @Test
+    fun compressionCanBeDisabled() {
+        val trace = Array(10) { frame("recurse") }
+        assertEquals(10, serialize(trace, Stacktrace.Limits(200, 50, 0)).length())
+    }
+
+    @Test
+    fun keepsHeadAndTail() {
+        val trace = Array(100) { frame("distinct", it) }
+        val json = serialize(trace, Stacktrace.Limits(10, 3, 8))
+        assertEquals(10, json.length())
+        assertEquals(5, json.getJSONObject(5).getInt("lineNumber"))
+        assertEquals("... 91 frames omitted", json.getJSONObject(6).getString("method"))
+        assertEquals(97, json.getJSONObject(7).getInt("lineNumber"))
+        assertEquals(99, json.getJSONObject(9).getInt("lineNumber"))
+    }
+
+    @Test
+    fun truncatesWithoutTail() {
+        val trace = Array(100) { frame("distinct", it) }
+        val json = serialize(trace, Stacktrace.Limits(10, 0, 8))
+        assertEquals(10, json.length())
+        assertEquals(9, json.getJSONObject(9).getInt("lineNumber"))
+    }
+
+    @Test
+    fun elidesFramesInCommon() {
+        val enclosing = arrayOf(frame("wrap"), frame("run"), frame("main"))
+        val cause = arrayOf(frame("fail"), frame("call"), frame("run"), frame("main"))
+        val common = Stacktrace.countFramesInCommon(cause, enclosing)
+        assertEquals(2, common)
+        assertEquals(0, Stacktrace.countFramesInCommon(cause, null))
+        assertEquals(listOf("com.example.Foo.fail", "com.example.Foo.call", "... 2 more"),
+            methods(serialize(cause, framesInCommon = common)))
+    }
+
+    @Test
+    fun causesShareFramesWithParent() {
+        val config = Configuration("api-key")
+        val exc = RuntimeException("outer", IllegalStateException("inner"))
+        val writer = StringWriter()
+        val stream = JsonStream(writer)
+        Exceptions(config, BugsnagException(exc)).toStream(stream)
+        stream.flush()
+
+        val json = JSONArray(writer.toString())
+        val outer = json.getJSONObject(0).getJSONArray("stacktrace")
+        val inner = json.getJSONObject(1).getJSONArray("stacktrace")
+        val common = Stacktrace.countFramesInCommon(exc.cause!!.stackTrace, exc.stackTrace)
+        assertEquals(exc.stackTrace.size, outer.length())
+        assertEquals(exc.cause!!.stackTrace.size - common + 1, inner.length())
+        assertEquals("... $common more",
+            (inner.get(inner.length() - 1) as JSONObject).getString("method"))
+    }
+
+    @Test
+    fun configurationLimits() {
+        val config = Configuration("api-key")
+        assertEquals(200, config.maxStackframes)
+        assertEquals(50, config.stackframeTailLength)
+        assertEquals(8, config.maxRecursionCycleLength)
+
+        config.maxStackframes = 0
+        config.stackframeTailLength = -1
+        config.maxRecursionCycleLength = -1
+        assertEquals(200, config.maxStackframes)
+        assertEquals(50, config.stackframeTailLength)
+        assertEquals(8, config.maxRecursionCycleLength)
+
+        config.maxStackframes = 100
+        config.stackframeTailLength = 10
+        config.maxRecursionCycleLength = 0
+        val limits = config.stacktraceLimits
+        assertEquals(100, limits.maxFrames)
+        assertEquals(10, limits.tailLength)
+        assertEquals(0, limits.maxCycleLength)
+    }
+}
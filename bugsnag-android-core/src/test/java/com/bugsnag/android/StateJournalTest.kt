@@ -0,0 +1,221 @@
+package com.bugsnag.android
+
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Test
+import java.io.File
+import java.util.Arrays
+
+class StateJournalTest {
+
+    private lateinit var file: File
+
+    @Before
+    fun setUp() {
+        file = File.createTempFile("bugsnag-journal", null)
+        file.delete()
+    }
+
+    @After
+    fun tearDown() {
+        file.delete()
+    }
+
+    @Test
+    fun firstLaunchHasNoLastRun() {
+        val journal = StateJournal(file)
+        assertTrue(journal.isMapped)
+        assertNull(journal.lastRunInfo)
+        assertEquals(StateJournal.FILE_SIZE.toLong(), file.length())
+    }
+
+    @Test
+    fun invalidFileHasNoLastRun() {
+        file.writeText("not a journal")
+        assertNull(StateJournal(file).lastRunInfo)
+    }
+
+    @Test
+    fun readsStateOfPreviousRun() {
+        val journal = StateJournal(file)
+        journal.setContext("MainActivity")
+        journal.setUserId("123")
+        journal.setInForeground(true, "SettingsActivity")
+        journal.setSessionId("abc-def")
+        journal.markCrashed()
+
+        val info = StateJournal(file).lastRunInfo!!
+        assertEquals("MainActivity", info["context"])
+        assertEquals("123", info["userId"])
+        assertEquals("SettingsActivity", info["activeScreen"])
+        assertEquals("abc-def", info["sessionId"])
+        assertEquals(true, info["inForeground"])
+        assertEquals(true, info["crashed"])
+    }
+
+    @Test
+    fun resetsForCurrentRun() {
+        val journal = StateJournal(file)
+        journal.setContext("MainActivity")
+        journal.setInForeground(true, "MainActivity")
+        journal.addBreadcrumb(Breadcrumb("Hello"))
+        journal.markCrashed()
+        StateJournal(file)
+
+        val info = StateJournal(file).lastRunInfo!!
+        assertFalse(info.containsKey("context"))
+        assertFalse(info.containsKey("activeScreen"))
+        assertEquals(false, info["crashed"])
+        assertEquals(false, info["inForeground"])
+        assertTrue(crumbs(StateJournal(file)).isEmpty())
+    }
+
+    @Test
+    fun detectsAbnormalTermination() {
+        val journal = StateJournal(file)
+        journal.setInForeground(true, "MainActivity")
+
+        val next = StateJournal(file)
+        assertTrue(next.didLastRunTerminateAbnormally())
+        assertEquals(false, next.lastRunInfo!!["crashed"])
+    }
+
+    @Test
+    fun crashIsNotAbnormalTermination() {
+        val journal = StateJournal(file)
+        journal.setInForeground(true, "MainActivity")
+        journal.markCrashed()
+        journal.markCleanExit()
+
+        val next = StateJournal(file)
+        assertFalse(next.didLastRunTerminateAbnormally())
+        assertEquals(true, next.lastRunInfo!!["crashed"])
+    }
+
+    @Test
+    fun cleanExitIsNotAbnormalTermination() {
+        val journal = StateJournal(file)
+        journal.setInForeground(true, "MainActivity")
+        journal.markCleanExit()
+        assertFalse(StateJournal(file).didLastRunTerminateAbnormally())
+    }
+
+    @Test
+    fun backgroundTerminationIsNotAbnormal() {
+        val journal = StateJournal(file)
+        journal.setInForeground(false, null)
+        assertFalse(StateJournal(file).didLastRunTerminateAbnormally())
+    }
+
+    @Test
+    fun fileIsNamedAfterProcess() {
+        val dir = file.parentFile!!
+        val journalFile = StateJournal.getFile(dir)
+        assertEquals(dir, journalFile.parentFile)
+        assertTrue(journalFile.name.startsWith("bugsnag-journal"))
+        assertFalse(journalFile.name.substring("bugsnag-journal".length).contains("/"))
+    }
+
+    @Test
+    fun readsBreadcrumbsOfPreviousRun() {
+        val journal = StateJournal(file)
+        journal.addBreadcrumb(Breadcrumb("Hello"))
+        journal.addBreadcrumb(Breadcrumb("Tap", BreadcrumbType.USER, mapOf("x" to "1", "y" to "2")))
+
+        val crumbs = crumbs(StateJournal(file))
+        assertEquals(2, crumbs.size)
+        assertEquals("manual", crumbs[0]["name"])
+        assertEquals("manual", crumbs[0]["type"])
+        assertEquals(mapOf("message" to "Hello"), crumbs[0]["metaData"])
+        assertEquals("Tap", crumbs[1]["name"])
+        assertEquals("user", crumbs[1]["type"])
+        assertEquals(mapOf("x" to "1", "y" to "2"), crumbs[1]["metaData"])
+    }
+
+    @Test
+    fun retainsNewestBreadcrumbs() {
+        val journal = StateJournal(file)
+        for (k in 0 until StateJournal.CRUMB_CAPACITY + 5) {
+            journal.addBreadcrumb(Breadcrumb("$k", BreadcrumbType.STATE, emptyMap()))
+        }
+        val crumbs = crumbs(StateJournal(file))
+        assertEquals(StateJournal.CRUMB_CAPACITY, crumbs.size)
+        assertEquals("5", crumbs.first()["name"])
+        assertEquals("${StateJournal.CRUMB_CAPACITY + 4}", crumbs.last()["name"])
+    }
+
+    @Test
+    fun clearsBreadcrumbs() {
+        val journal = StateJournal(file)
+        journal.addBreadcrumb(Breadcrumb("Hello"))
+        journal.clearBreadcrumbs()
+        assertTrue(crumbs(StateJournal(file)).isEmpty())
+    }
+
+    @Test
+    fun truncatesLongValues() {
+        val journal = StateJournal(file)
+        val context = "é".repeat(40) // 80 bytes in UTF-8
+        journal.setContext(context)
+        journal.setContext("short")
+        journal.setUserId(context)
+
+        val info = StateJournal(file).lastRunInfo!!
+        assertEquals("short", info["context"])
+        assertEquals(context.substring(0, 31), info["userId"])
+    }
+
+    @Test
+    fun encodesMultiByteCharacters() {
+        val journal = StateJournal(file)
+        val name = "a\u00e9\u20ac\ud83d\ude00\ud800b" // 1, 2, 3, 4 byte and unpaired surrogate
+        val metadata = mapOf("key" to "\u20ac".repeat(30))
+        journal.addBreadcrumb(Breadcrumb(name, BreadcrumbType.USER, metadata))
+
+        val crumb = crumbs(StateJournal(file))[0]
+        assertEquals("a\u00e9\u20ac\ud83d\ude00?b", crumb["name"])
+        assertEquals(mapOf("key" to "\u20ac".repeat(21)), crumb["metaData"])
+    }
+
+    @Test
+    fun recordsBreadcrumbTimestamp() {
+        val journal = StateJournal(file)
+        val crumb = Breadcrumb("Tap", BreadcrumbType.USER, mapOf<String, String>())
+        journal.addBreadcrumb(crumb)
+        assertEquals(crumb.timestamp, crumbs(StateJournal(file))[0]["timestamp"])
+    }
+
+    @Test
+    fun overwrittenSlotsDoNotKeepStaleMetadata() {
+        val journal = StateJournal(file)
+        journal.addBreadcrumb(Breadcrumb("Tap", BreadcrumbType.USER, mapOf("x" to "1", "y" to "2")))
+
+        for (k in 1 until StateJournal.CRUMB_CAPACITY) {
+            journal.addBreadcrumb(Breadcrumb("Filler $k"))
+        }
+        journal.addBreadcrumb(Breadcrumb("Done", BreadcrumbType.USER, mapOf("z" to "3")))
+
+        val crumbs = crumbs(StateJournal(file))
+        assertEquals(mapOf("z" to "3"), crumbs.last()["metaData"])
+    }
+
+    @Test
+    fun receivesEvents() {
+        val journal = StateJournal(file)
+        journal.onEvent(NativeInterface.MessageType.UPDATE_USER_ID, "456")
+        journal.onEvent(NativeInterface.MessageType.UPDATE_IN_FOREGROUND, Arrays.asList(true, "Foo"))
+
+        val info = StateJournal(file).lastRunInfo!!
+        assertEquals("456", info["userId"])
+        assertEquals("Foo", info["activeScreen"])
+    }
+
+    @Suppress("UNCHECKED_CAST")
+    private fun crumbs(journal: StateJournal): List<Map<String, Any>> {
+        return journal.lastRunInfo!!["breadcrumbs"] as List<Map<String, Any>>
+    }
+}
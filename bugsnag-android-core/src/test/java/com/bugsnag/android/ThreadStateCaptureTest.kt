@@ -0,0 +1,174 @@
+package com.bugsnag.android
+
+import org.json.JSONArray
+import org.json.JSONObject
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertNotNull
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Test
+import java.io.StringWriter
+import java.util.concurrent.CountDownLatch
+
+class ThreadStateCaptureTest {
+
+    private val config = Configuration("api-key")
+    private val currentThread = Thread.currentThread()
+    private val release = CountDownLatch(1)
+    private val workers = ArrayList<Thread>()
+
+    @Before
+    fun setUp() {
+        val started = CountDownLatch(4)
+        for (name in listOf("worker-1", "worker-2", "ignored-1", "ignored-2")) {
+            val thread = Thread({
+                started.countDown()
+                release.await()
+            }, name)
+            thread.start()
+            workers.add(thread)
+        }
+        started.await()
+    }
+
+    @After
+    fun tearDown() {
+        release.countDown()
+        workers.forEach { it.join() }
+    }
+
+    @Test
+    fun skippedWhenThreadsAreNotSent() {
+        config.sendThreads = false
+        assertNull(ThreadState.capture(config, currentThread, null, false))
+        assertNull(ThreadState.capture(config, currentThread, RuntimeException(), true))
+    }
+
+    @Test
+    fun neverPolicy() {
+        config.threadCapturePolicy = ThreadCapturePolicy.NEVER
+        assertNull(ThreadState.capture(config, currentThread, RuntimeException(), true))
+    }
+
+    @Test
+    fun unhandledOnlyPolicy() {
+        config.threadCapturePolicy = ThreadCapturePolicy.UNHANDLED_ONLY
+        assertNull(ThreadState.capture(config, currentThread, null, false))
+
+        val threads = capture(RuntimeException())
+        assertTrue(threads.length() > workers.size)
+        assertEquals(4, names(threads).filter { it.startsWith("worker") || it.startsWith("ignored") }.size)
+    }
+
+    @Test
+    fun errorThreadPolicy() {
+        config.threadCapturePolicy = ThreadCapturePolicy.ERROR_THREAD
+        val exc = RuntimeException()
+        val threads = capture(exc)
+        assertEquals(1, threads.length())
+        val thread = threads.getJSONObject(0)
+        assertEquals(currentThread.id, thread.getLong("id"))
+        assertTrue(thread.getBoolean("errorReportingThread"))
+        assertEquals(exc.stackTrace.size, thread.getJSONArray("stacktrace").length())
+    }
+
+    @Test
+    fun ignoredThreadNames() {
+        config.ignoreThreadNames = arrayOf("ignored-")
+        val names = names(capture(null))
+        assertTrue(names.contains("worker-1"))
+        assertTrue(names.contains("worker-2"))
+        assertFalse(names.contains("ignored-1"))
+        assertFalse(names.contains("ignored-2"))
+        assertTrue(names.contains(currentThread.name))
+    }
+
+    @Test
+    fun maxThreads() {
+        config.maxThreads = 2
+        val threads = capture(null)
+        assertEquals(2, threads.length())
+        assertTrue(names(threads).contains(currentThread.name))
+
+        config.maxThreads = 0
+        assertEquals(listOf(currentThread.name), names(capture(null)))
+    }
+
+    @Test
+    fun maxThreadFrames() {
+        config.maxThreadFrames = 3
+        val threads = capture(RuntimeException())
+        for (k in 0 until threads.length()) {
+            assertTrue(threads.getJSONObject(k).getJSONArray("stacktrace").length() <= 3)
+        }
+    }
+
+    @Test
+    fun stacktraceLimits() {
+        config.maxStackframes = 5
+        val frames = Array(20) { StackTraceElement("com.example.Worker", "run$it", "Worker.kt", it) }
+        val traces = HashMap<Thread, Array<StackTraceElement>>()
+        workers.forEach { traces[it] = frames.clone() }
+        val threads = serialize(ThreadState(config, currentThread, traces, null))
+
+        for (k in 0 until threads.length()) {
+            assertTrue(threads.getJSONObject(k).getJSONArray("stacktrace").length() <= 5)
+        }
+    }
+
+    @Test
+    fun handledErrorWithoutThreads() {
+        config.threadCapturePolicy = ThreadCapturePolicy.NEVER
+        val error = Error.Builder(config, RuntimeException(), null, currentThread, false).build()
+        val writer = StringWriter()
+        error.toStream(JsonStream(writer))
+        assertFalse(JSONObject(writer.toString()).has("threads"))
+    }
+
+    @Test
+    fun identicalStacksAreSerializedOnce() {
+        val shared = arrayOf(
+            StackTraceElement("java.lang.Object", "wait", null, -2),
+            StackTraceElement("com.example.Worker", "run", "Worker.kt", 12)
+        )
+        config.projectPackages = arrayOf("com.example")
+        val traces = HashMap<Thread, Array<StackTraceElement>>()
+        workers.forEach { traces[it] = shared.clone() }
+        val state = ThreadState(config, currentThread, traces, RuntimeException())
+
+        val writer = StringWriter()
+        val stream = JsonStream(writer)
+        state.toStream(stream)
+        stream.flush()
+        val threads = JSONArray(writer.toString())
+        assertEquals(workers.size + 1, threads.length())
+
+        val stacks = (0 until threads.length()).map { threads.getJSONObject(it) }
+            .filter { it.getLong("id") != currentThread.id }
+            .map { it.getJSONArray("stacktrace") }
+        for (stack in stacks) {
+            assertEquals(2, stack.length())
+            assertEquals("java.lang.Object.wait", stack.getJSONObject(0).getString("method"))
+            assertTrue(stack.getJSONObject(1).getBoolean("inProject"))
+        }
+    }
+
+    private fun capture(exc: Throwable?): JSONArray {
+        val state = ThreadState.capture(config, currentThread, exc, exc != null)
+        assertNotNull(state)
+        return serialize(state!!)
+    }
+
+    private fun serialize(state: ThreadState): JSONArray {
+        val writer = StringWriter()
+        state.toStream(JsonStream(writer))
+        return JSONArray(writer.toString())
+    }
+
+    private fun names(threads: JSONArray): List<String> {
+        return (0 until threads.length()).map { threads.getJSONObject(it).getString("name") }
+    }
+}
@@ -0,0 +1,90 @@
+package com.bugsnag.android.ndk
+
+import android.util.Log
+import androidx.test.core.app.ApplicationProvider
+import com.bugsnag.android.Client
+import com.bugsnag.android.Configuration
+import com.bugsnag.android.MetaData
+import org.junit.Assert.assertNull
+import org.junit.Test
+
+/**
+ * Measures the cost of replacing metadata with 1000 keys through Client.setMetaData, and of
+ * applying the resulting delta in the native layer.
+ */
+class MetaDataSyncBenchmarkTest {
+
+    companion object {
+        init {
+            System.loadLibrary("bugsnag-ndk")
+        }
+
+        private const val KEYS = 1000
+        private const val ITERATIONS = 20
+    }
+
+    @Test
+    fun setMetaDataWith1kKeys() {
+        val config = Configuration("api-key")
+        config.detectNdkCrashes = true
+        val client = Client(ApplicationProvider.getApplicationContext(), config)
+
+        report("setMetaData, all keys changed", measure { client.metaData = metaData(it) })
+        client.metaData = metaData(0)
+        report("setMetaData, no keys changed", measure { client.metaData = metaData(0) })
+        report("setMetaData, one key changed", measure { client.metaData = metaData(0, it) })
+    }
+
+    @Test
+    fun applyDeltaWith1kKeys() {
+        val config = Configuration("api-key")
+        config.detectNdkCrashes = true
+        Client(ApplicationProvider.getApplicationContext(), config)
+
+        report("sync and apply, all keys changed", measure {
+            val batcher = StateBatcher()
+            batcher.syncMetadata(store(it))
+            val delta = batcher.drain()!!
+            NativeBridge.applyStateDelta(delta, delta.size)
+        })
+
+        val batcher = StateBatcher()
+        batcher.syncMetadata(store(0))
+        batcher.drain()
+        report("sync, no keys changed", measure {
+            batcher.syncMetadata(store(0))
+            assertNull(batcher.drain())
+        })
+    }
+
+    private fun metaData(seed: Int, changedKey: Int = -1): MetaData {
+        val metaData = MetaData()
+        for (k in 0 until KEYS) {
+            val value = if (k == changedKey) "changed" else "value $seed $k"
+            metaData.addToTab("tab ${k % 10}", "key $k", value)
+        }
+        return metaData
+    }
+
+    private fun store(seed: Int): Map<String, Any> {
+        val store = HashMap<String, MutableMap<String, Any>>()
+        for (k in 0 until KEYS) {
+            store.getOrPut("tab ${k % 10}") { HashMap() }["key $k"] = "value $seed $k"
+        }
+        return store
+    }
+
+    private fun measure(action: (Int) -> Unit): LongArray {
+        return LongArray(ITERATIONS) {
+            val start = System.nanoTime()
+            action(it + 1)
+            System.nanoTime() - start
+        }.sortedArray()
+    }
+
+    private fun report(name: String, elapsedNs: LongArray) {
+        val median = elapsedNs[elapsedNs.size / 2] / 1000
+        val best = elapsedNs[0] / 1000
+        Log.i("BugsnagBenchmark", "$name ($KEYS keys): median ${median}us, best ${best}us")
+    }
+}
@@ -0,0 +1,245 @@
+/**
+ * Runs the benchmark suites. Usage:
+ *
+ *   bugsnag-ndk-benchmark [--json PATH] [SUITE...]
+ *
+ * With no suites, every suite is run. Results are printed as a table, and with
+ * --json are also written to PATH ("-" for stdout) in the format:
+ *
+ *   {"context": {"date": ..., "reportVersion": ..., "reportSize": ...},
+ *    "benchmarks": [{"suite": ..., "name": ..., "iterations": ...,
+ *                    "nsPerOp": ..., "bytesPerSecond": ...}]}
+ */
+#include "bench.h"
+
+#include <fcntl.h>
+#include <report_file.h>
+#include <stdio.h>
+#include <stdlib.h>
+#include <string.h>
+#include <time.h>
+#include <unistd.h>
+#include <utils/json_writer.h>
+#include <utils/report_writer.h>
+
+#define BENCH_RESULTS_MAX 64
+
+typedef struct {
+  const char *suite;
+  const char *name;
+  uint64_t ops;
+  double ns_per_op;
+  double bytes_per_second;
+} bench_result;
+
+typedef struct {
+  const char *name;
+  void (*run)(void);
+} bench_suite;
+
+static const bench_suite bench_suites[] = {
+    {"metadata", bench_metadata},     {"breadcrumbs", bench_breadcrumbs},
+    {"serializer", bench_serializer}, {"module_map", bench_module_map},
+    {"crash_path", bench_crash_path},
+};
+
+static bench_result bench_results[BENCH_RESULTS_MAX];
+static int bench_result_count = 0;
+static char bench_dir[64];
+/**
+ * Where the table of results is printed, which is stderr if the JSON results
+ * are written to stdout
+ */
+static FILE *bench_table = NULL;
+
+double bench_now_ns(void) {
+  struct timespec ts;
+  clock_gettime(CLOCK_MONOTONIC, &ts);
+  return ts.tv_sec * 1e9 + ts.tv_nsec;
+}
+
+void bench_record(const char *suite, const char *name, uint64_t ops,
+                  double elapsed_ns, size_t bytes_per_op) {
+  double ns_per_op = elapsed_ns / ops;
+  double bytes_per_second = bytes_per_op * 1e9 / ns_per_op;
+  if (bytes_per_op > 0) {
+    fprintf(bench_table, "%-12s %-36s %12.1f ns/op %10.1f MB/s\n", suite,
+            name, ns_per_op, bytes_per_second / (1024 * 1024));
+  } else {
+    fprintf(bench_table, "%-12s %-36s %12.1f ns/op\n", suite, name, ns_per_op);
+  }
+  if (bench_result_count < BENCH_RESULTS_MAX) {
+    bench_result result = {suite, name, ops, ns_per_op,
+                           bytes_per_op > 0 ? bytes_per_second : 0};
+    bench_results[bench_result_count++] = result;
+  }
+}
+
+void bench_populate_report(bugsnag_report *report) {
+  memset(report, 0, sizeof(bugsnag_report));
+  strcpy(report->context, "MainActivity");
+  strcpy(report->app.name, "PhotoSnap Plus");
+  strcpy(report->app.id, "com.example.PhotoSnapPlus");
+  strcpy(report->app.package_name, "com.example.PhotoSnapPlus");
+  strcpy(report->app.release_stage, "production");
+  strcpy(report->app.version, "2.0.52");
+  strcpy(report->app.version_name, "2.0");
+  strcpy(report->app.build_uuid, "1234-9876-adfe");
+  report->app.version_code = 57;
+  report->app.in_foreground = true;
+  strcpy(report->device.manufacturer, "Google");
+  strcpy(report->device.model, "Pixel 3");
+  strcpy(report->device.brand, "google");
+  strcpy(report->device.locale, "en_GB");
+  strcpy(report->device.os_version, "9");
+  strcpy(report->device.os_build, "PQ3A.190801.002");
+  strcpy(report->device.orientation, "portrait");
+  report->device.api_level = 28;
+  report->device.cpu_abi_count = 2;
+  strcpy(report->device.cpu_abi[0].value, "arm64-v8a");
+  strcpy(report->device.cpu_abi[1].value, "armeabi-v7a");
+  report->device.time = time(NULL);
+  strcpy(report->user.id, "a7c3e91f");
+  strcpy(report->user.email, "fenton@example.com");
+  strcpy(report->user.name, "Fenton");
+  strcpy(report->session_id, "aaf35f6a-4ebe-4be0-a2c8-31b5a0d2e1a3");
+  strcpy(report->session_start, "2019-03-19T12:58:19+00:00");
+  strcpy(report->exception.name, "SIGSEGV");
+  strcpy(report->exception.message, "Segmentation violation (invalid memory "
+                                    "reference)");
+
+  report->exception.frame_count = 32;
+  for (int i = 0; i < report->exception.frame_count; i++) {
+    bsg_stackframe *frame = &report->exception.stacktrace[i];
+    frame->frame_address = 0x7f3a9b2000 + i * 0x1f4;
+    frame->load_address = 0x7f3a900000;
+    frame->line_number = frame->frame_address - frame->load_address;
+    sprintf(frame->filename, "/data/app/com.example.PhotoSnapPlus-1/lib/"
+                             "arm64/libphotosnap.so");
+    if (i % 2 == 0) {
+      sprintf(frame->method, "_ZN9photosnap6Filter5applyEPKhm%d", i);
+    }
+  }
+
+  bugsnag_breadcrumb crumb;
+  memset(&crumb, 0, sizeof(crumb));
+  crumb.type = BSG_CRUMB_NAVIGATION;
+  strcpy(crumb.timestamp, "2019-03-19T12:58:19Z");
+  strcpy(crumb.metadata[0].key, "previous");
+  strcpy(crumb.metadata[0].value, "GalleryActivity");
+  for (int i = 0; i < BUGSNAG_CRUMBS_MAX * 2; i++) {
+    sprintf(crumb.name, "MainActivity#onResume() %d", i);
+    bugsnag_report_add_breadcrumb(report, &crumb);
+  }
+
+  char section[32];
+  char name[32];
+  for (int i = 0; i < 64; i++) {
+    sprintf(section, "section %d", i % 8);
+    sprintf(name, "key %d", i);
+    if (i % 3 == 0) {
+      bugsnag_report_add_metadata_double(report, section, name, i * 1.5);
+    } else if (i % 3 == 1) {
+      bugsnag_report_add_metadata_bool(report, section, name, i % 2 == 0);
+    } else {
+      bugsnag_report_add_metadata_string(report, section, name,
+                                         "some metadata value");
+    }
+  }
+}
+
+const char *bench_temp_dir(void) { return bench_dir; }
+
+static void bench_write_json(int fd) {
+  char buffer[4096];
+  char date[sizeof "2018-10-08T12:07:09Z"];
+  bsg_format_timestamp(time(NULL), date);
+  bsg_json_writer writer;
+  bsg_json_writer_init_fd(&writer, fd, buffer, sizeof(buffer));
+
+  bsg_json_begin_object(&writer);
+  bsg_json_key(&writer, "context");
+  bsg_json_begin_object(&writer);
+  bsg_json_set_string(&writer, "date", date, sizeof(date));
+  bsg_json_set_string(&writer, "compiler", __VERSION__, sizeof(__VERSION__));
+  bsg_json_set_int(&writer, "reportVersion", BUGSNAG_REPORT_VERSION);
+  bsg_json_set_uint(&writer, "reportSize", sizeof(bugsnag_report));
+  bsg_json_set_uint(&writer, "reportFileSize", BSG_REPORT_FILE_SIZE);
+  bsg_json_end_object(&writer);
+
+  bsg_json_key(&writer, "benchmarks");
+  bsg_json_begin_array(&writer);
+  for (int i = 0; i < bench_result_count; i++) {
+    bench_result *result = &bench_results[i];
+    bsg_json_begin_object(&writer);
+    bsg_json_set_string(&writer, "suite", result->suite, SIZE_MAX);
+    bsg_json_set_string(&writer, "name", result->name, SIZE_MAX);
+    bsg_json_set_uint(&writer, "iterations", result->ops);
+    bsg_json_set_double(&writer, "nsPerOp", result->ns_per_op);
+    if (result->bytes_per_second > 0) {
+      bsg_json_set_double(&writer, "bytesPerSecond", result->bytes_per_second);
+    }
+    bsg_json_end_object(&writer);
+  }
+  bsg_json_end_array(&writer);
+  bsg_json_end_object(&writer);
+  bsg_json_writer_flush(&writer);
+  if (write(fd, "\n", 1) != 1 || writer.failed) {
+    fprintf(stderr, "Failed to write benchmark results\n");
+  }
+}
+
+static bool bench_selected(const char *suite, int argc, char **argv) {
+  bool any = false;
+  for (int i = 1; i < argc; i++) {
+    if (strcmp(argv[i], "--json") == 0) {
+      i++;
+    } else {
+      any = true;
+      if (strcmp(argv[i], suite) == 0) {
+        return true;
+      }
+    }
+  }
+  return !any;
+}
+
+int main(int argc, char **argv) {
+  const char *json_path = NULL;
+  for (int i = 1; i < argc - 1; i++) {
+    if (strcmp(argv[i], "--json") == 0) {
+      json_path = argv[i + 1];
+    }
+  }
+  bench_table =
+      json_path != NULL && strcmp(json_path, "-") == 0 ? stderr : stdout;
+  const char *tmp = getenv("TMPDIR");
+  snprintf(bench_dir, sizeof(bench_dir), "%s/bugsnag-bench-XXXXXX",
+           tmp != NULL && strlen(tmp) < 32 ? tmp : "/tmp");
+  if (mkdtemp(bench_dir) == NULL) {
+    perror("Failed to create a temporary directory");
+    return 1;
+  }
+
+  for (size_t i = 0; i < sizeof(bench_suites) / sizeof(bench_suite); i++) {
+    if (bench_selected(bench_suites[i].name, argc, argv)) {
+      bench_suites[i].run();
+    }
+  }
+  rmdir(bench_dir);
+
+  if (json_path != NULL) {
+    int fd = strcmp(json_path, "-") == 0
+                 ? STDOUT_FILENO
+                 : open(json_path, O_WRONLY | O_CREAT | O_TRUNC, 0644);
+    if (fd == -1) {
+      perror("Failed to open results file");
+      return 1;
+    }
+    bench_write_json(fd);
+    if (fd != STDOUT_FILENO) {
+      close(fd);
+    }
+  }
+  return 0;
+}
@@ -0,0 +1,48 @@
+/**
+ * Benchmarks of the native crash reporting code, built for the host rather
+ * than a device so that results are comparable over time. Each suite records
+ * its results with bench_record(), which are printed as a table and can also
+ * be written as JSON for tracking.
+ */
+#ifndef BUGSNAG_BENCH_H
+#define BUGSNAG_BENCH_H
+
+#include <report.h>
+#include <stddef.h>
+#include <stdint.h>
+
+/**
+ * Current time in nanoseconds from a monotonic clock
+ */
+double bench_now_ns(void);
+
+/**
+ * Record the result of a benchmark
+ *
+ * @param suite         the group the benchmark belongs to
+ * @param name          a name which is stable across runs
+ * @param ops           number of operations which were timed
+ * @param elapsed_ns    total time taken by the operations
+ * @param bytes_per_op  bytes produced or copied by each operation, or 0
+ */
+void bench_record(const char *suite, const char *name, uint64_t ops,
+                  double elapsed_ns, size_t bytes_per_op);
+
+/**
+ * Fill a report as if it had been populated by a busy app: every field set,
+ * a full breadcrumb ring and a metadata table with 64 entries
+ */
+void bench_populate_report(bugsnag_report *report);
+
+/**
+ * @return a scratch directory for files written by benchmarks
+ */
+const char *bench_temp_dir(void);
+
+void bench_metadata(void);
+void bench_breadcrumbs(void);
+void bench_serializer(void);
+void bench_module_map(void);
+void bench_crash_path(void);
+
+#endif
@@ -0,0 +1,58 @@
+/**
+ * Benchmark of the breadcrumb ring in a report, and of copying the ring
+ * written by the JVM layer into the journal, which happens on the crash path.
+ */
+#include "bench.h"
+
+#include <journal.h>
+#include <stdio.h>
+#include <stdlib.h>
+#include <string.h>
+
+#define ROUNDS 20000
+
+static void fill_journal(bsg_journal *journal) {
+  journal->header.magic = BSG_JOURNAL_MAGIC;
+  journal->header.version = BSG_JOURNAL_VERSION;
+  journal->header.crumb_capacity = BSG_JOURNAL_CRUMB_CAPACITY;
+  for (int64_t seq = 0; seq < BSG_JOURNAL_CRUMB_CAPACITY * 2; seq++) {
+    bsg_journal_slot *slot = &journal->slots[seq % BSG_JOURNAL_CRUMB_CAPACITY];
+    memset(&slot->crumb, 0, sizeof(bugsnag_breadcrumb));
+    sprintf(slot->crumb.name, "MainActivity#onResume() %d", (int)seq);
+    slot->timestamp = 1553000299000;
+    slot->crumb.type = BSG_CRUMB_NAVIGATION;
+    slot->seq = seq;
+    journal->header.crumb_head = seq + 1;
+  }
+}
+
+void bench_breadcrumbs(void) {
+  bugsnag_report *report = calloc(1, sizeof(bugsnag_report));
+  bugsnag_breadcrumb crumb;
+  memset(&crumb, 0, sizeof(crumb));
+  crumb.type = BSG_CRUMB_STATE;
+  strcpy(crumb.name, "Orientation changed");
+  strcpy(crumb.timestamp, "2019-03-19T12:58:19Z");
+  strcpy(crumb.metadata[0].key, "to");
+  strcpy(crumb.metadata[0].value, "landscape");
+
+  double start = bench_now_ns();
+  for (int r = 0; r < ROUNDS; r++) {
+    bugsnag_report_add_breadcrumb(report, &crumb);
+  }
+  bench_record("breadcrumbs", "add to report ring", ROUNDS,
+               bench_now_ns() - start, sizeof(bugsnag_breadcrumb));
+
+  bsg_journal *journal = calloc(1, sizeof(bsg_journal));
+  fill_journal(journal);
+  start = bench_now_ns();
+  for (int r = 0; r < ROUNDS; r++) {
+    bsg_journal_copy_breadcrumbs(journal, report);
+  }
+  bench_record("breadcrumbs", "copy ring from journal", ROUNDS,
+               bench_now_ns() - start,
+               sizeof(bugsnag_breadcrumb) * BUGSNAG_CRUMBS_MAX);
+
+  free(journal);
+  free(report);
+}
@@ -0,0 +1,168 @@
+/**
+ * Benchmark of the work done by the signal handler once a crash occurs:
+ * populating the report from the journal, unwinding, finding the file of each
+ * frame and writing the report, either into the pre-allocated mapping or to a
+ * file opened when handling the crash.
+ */
+#include "bench.h"
+
+#include <stdio.h>
+#include <stdlib.h>
+#include <string.h>
+#include <ucontext.h>
+#include <report_compact.h>
+#include <unistd.h>
+#include <utils/crash_info.h>
+#include <utils/module_map.h>
+#include <utils/serializer.h>
+#include <utils/stack_unwinder_simple.h>
+#include <utils/string.h>
+
+#define ROUNDS 200
+
+static void release_report_file(bsg_environment *env) {
+  if (env->report_file != NULL) {
+    bsg_report_file_unmap(env->report_file);
+    env->report_file = NULL;
+  }
+}
+
+/**
+ * Mirrors the lookup in bsg_unwind_stack, which is built with the unwinding
+ * libraries rather than for the host
+ */
+static void insert_fileinfo(bugsnag_report *report) {
+  const bsg_module_map *map = bsg_module_map_current();
+  for (int i = 0; i < report->exception.frame_count; i++) {
+    bsg_stackframe *frame = &report->exception.stacktrace[i];
+    const bsg_module *module = bsg_module_map_find(map, frame->frame_address);
+    if (module != NULL) {
+      frame->load_address = module->load_address;
+      frame->line_number = frame->frame_address - module->load_address;
+      bsg_strncpy(frame->filename, (char *)bsg_module_filename(map, module),
+                  sizeof(frame->filename) - 2);
+      frame->filename[sizeof(frame->filename) - 1] = '\0';
+    }
+  }
+}
+
+static void handle_crash(bsg_environment *env, ucontext_t *context) {
+  bsg_populate_report_as(env);
+  bsg_exception *exception = &env->next_report.exception;
+  bsg_unwind_stack_simple(exception->stacktrace, NULL, context);
+  insert_fileinfo(&env->next_report);
+  bsg_serialize_report_to_payload_file(env);
+}
+
+/**
+ * The copy which wrote the report in the binary layout before version 4
+ */
+static double time_struct_copies(const bugsnag_report *report) {
+  bugsnag_report *copy = malloc(sizeof(bugsnag_report));
+  double start = bench_now_ns();
+  for (int r = 0; r < ROUNDS; r++) {
+    memcpy(copy, report, sizeof(bugsnag_report));
+    __asm__ volatile("" : : "r"(copy) : "memory");
+  }
+  double elapsed = bench_now_ns() - start;
+  free(copy);
+  return elapsed;
+}
+
+/**
+ * Time handling crashes, and when mapped, finishing the payload on delivery
+ * separately, as that is no longer done by the crash handler
+ */
+static double time_crashes(bsg_environment *env, bool mapped,
+                           double *delivery) {
+  ucontext_t context;
+  getcontext(&context);
+  double elapsed = 0;
+  for (int r = 0; r < ROUNDS; r++) {
+    if (mapped) {
+      env->report_file = bsg_report_file_map(env->next_report_path);
+    }
+    double start = bench_now_ns();
+    handle_crash(env, &context);
+    elapsed += bench_now_ns() - start;
+    if (mapped) {
+      start = bench_now_ns();
+      bsg_report_file_finish_json(env->next_report_path,
+                                  env->next_payload_path);
+      *delivery += bench_now_ns() - start;
+    }
+    release_report_file(env);
+    unlink(env->next_payload_path);
+    unlink(env->next_report_path);
+  }
+  return elapsed;
+}
+
+void bench_crash_path(void) {
+  bsg_environment *env = calloc(1, sizeof(bsg_environment));
+  env->report_header.version = BUGSNAG_REPORT_VERSION;
+  bench_populate_report(&env->next_report);
+  snprintf(env->next_report_path, sizeof(env->next_report_path),
+           "%s/next.crash", bench_temp_dir());
+  snprintf(env->next_payload_path, sizeof(env->next_payload_path), "%s.json",
+           env->next_report_path);
+  time(&env->start_time);
+  bsg_module_map_refresh();
+
+  // frames which the unwinder would find in the loaded objects
+  void *addresses[] = {(void *)&printf, (void *)&malloc, (void *)&handle_crash,
+                       (void *)&bsg_serialize_report_to_payload_file};
+  for (int i = 0; i < env->next_report.exception.frame_count; i++) {
+    env->next_report.exception.stacktrace[i].frame_address =
+        (uintptr_t)addresses[i % 4];
+  }
+
+  bsg_journal *journal = calloc(1, sizeof(bsg_journal));
+  journal->header.magic = BSG_JOURNAL_MAGIC;
+  journal->header.version = BSG_JOURNAL_VERSION;
+  journal->header.crumb_capacity = BSG_JOURNAL_CRUMB_CAPACITY;
+  for (int64_t seq = 0; seq < BSG_JOURNAL_CRUMB_CAPACITY; seq++) {
+    bsg_journal_slot *slot = &journal->slots[seq];
+    sprintf(slot->crumb.name, "MainActivity#onResume() %d", (int)seq);
+    slot->crumb.type = BSG_CRUMB_NAVIGATION;
+    slot->timestamp = 1553000299000;
+    slot->seq = seq;
+    journal->header.crumb_head = seq + 1;
+  }
+  env->journal = journal;
+
+  double delivery = 0;
+  bench_record("crash_path", "handle crash (mapped file)", ROUNDS,
+               time_crashes(env, true, &delivery), 0);
+  bench_record("crash_path", "finish mapped payload on delivery", ROUNDS,
+               delivery, 0);
+  bench_record("crash_path", "handle crash (unmapped file)", ROUNDS,
+               time_crashes(env, false, NULL), 0);
+
+  // the binary layout which is written when the payload does not fit
+  static uint8_t arena[BSG_REPORT_FILE_SIZE];
+  size_t compact_size =
+      bsg_report_compact_encode(&env->next_report, arena, sizeof(arena));
+  env->report_file = bsg_report_file_map(env->next_report_path);
+  double start = bench_now_ns();
+  for (int r = 0; r < ROUNDS; r++) {
+    bsg_report_file_write(env->report_file, &env->report_header,
+                          &env->next_report);
+  }
+  bench_record("crash_path", "write compact report (mapped file)", ROUNDS,
+               bench_now_ns() - start, compact_size);
+  release_report_file(env);
+
+  start = bench_now_ns();
+  for (int r = 0; r < ROUNDS; r++) {
+    bsg_serialize_report_to_file(env);
+  }
+  bench_record("crash_path", "write compact report (write)", ROUNDS,
+               bench_now_ns() - start, compact_size);
+  bench_record("crash_path", "copy report struct", ROUNDS,
+               time_struct_copies(&env->next_report), sizeof(bugsnag_report));
+  unlink(env->next_report_path);
+
+  free(journal);
+  free(env);
+}
@@ -0,0 +1,92 @@
+/**
+ * Benchmark of the native metadata table. Each operation is timed over a
+ * table filled to BUGSNAG_METADATA_MAX entries, alongside the linear scan over
+ * (section, name) which the index replaced.
+ */
+#include "bench.h"
+
+#include <stdio.h>
+#include <stdlib.h>
+#include <string.h>
+
+#define ROUNDS 2000
+
+static char sections[BUGSNAG_METADATA_MAX][32];
+static char names[BUGSNAG_METADATA_MAX][32];
+
+static int linear_find(bugsnag_report *report, char *section, char *name) {
+  for (int i = 0; i < report->metadata.value_count; i++) {
+    if (strcmp(report->metadata.values[i].section, section) == 0 &&
+        strcmp(report->metadata.values[i].name, name) == 0) {
+      return i;
+    }
+  }
+  return -1;
+}
+
+static void fill(bugsnag_report *report) {
+  bugsnag_report_clear_metadata(report);
+  for (int i = 0; i < BUGSNAG_METADATA_MAX; i++) {
+    bugsnag_report_add_metadata_double(report, sections[i], names[i], i);
+  }
+}
+
+void bench_metadata(void) {
+  bugsnag_report *report = calloc(1, sizeof(bugsnag_report));
+  volatile int sink = 0;
+  for (int i = 0; i < BUGSNAG_METADATA_MAX; i++) {
+    sprintf(sections[i], "section %d", i % 8);
+    sprintf(names[i], "metadata key %d", i);
+  }
+
+  double start = bench_now_ns();
+  for (int r = 0; r < ROUNDS; r++) {
+    fill(report);
+  }
+  bench_record("metadata", "fill", ROUNDS * BUGSNAG_METADATA_MAX,
+               bench_now_ns() - start, 0);
+
+  fill(report);
+  start = bench_now_ns();
+  for (int r = 0; r < ROUNDS; r++) {
+    for (int i = 0; i < BUGSNAG_METADATA_MAX; i++) {
+      bugsnag_report_add_metadata_double(report, sections[i], names[i], r);
+    }
+  }
+  bench_record("metadata", "replace (indexed)", ROUNDS * BUGSNAG_METADATA_MAX,
+               bench_now_ns() - start, 0);
+
+  start = bench_now_ns();
+  for (int r = 0; r < ROUNDS; r++) {
+    for (int i = 0; i < BUGSNAG_METADATA_MAX; i++) {
+      sink += linear_find(report, sections[i], names[i]);
+    }
+  }
+  bench_record("metadata", "find (linear scan)", ROUNDS * BUGSNAG_METADATA_MAX,
+               bench_now_ns() - start, 0);
+
+  double elapsed = 0;
+  for (int r = 0; r < ROUNDS; r++) {
+    fill(report);
+    start = bench_now_ns();
+    for (int i = 0; i < BUGSNAG_METADATA_MAX; i++) {
+      bugsnag_report_remove_metadata(report, sections[i], names[i]);
+    }
+    elapsed += bench_now_ns() - start;
+  }
+  bench_record("metadata", "remove (indexed)", ROUNDS * BUGSNAG_METADATA_MAX,
+               elapsed, 0);
+
+  elapsed = 0;
+  for (int r = 0; r < ROUNDS; r++) {
+    fill(report);
+    start = bench_now_ns();
+    for (int s = 0; s < 8; s++) {
+      bugsnag_report_remove_metadata_tab(report, sections[s]);
+    }
+    elapsed += bench_now_ns() - start;
+  }
+  bench_record("metadata", "remove tab", ROUNDS * 8, elapsed, 0);
+
+  free(report);
+}
@@ -0,0 +1,54 @@
+/**
+ * Benchmark of finding the file containing a frame in the module map, which
+ * replaced calling dladdr() from the crash handler, and of refreshing the map.
+ */
+#include "bench.h"
+
+#include <dlfcn.h>
+#include <stdio.h>
+#include <stdlib.h>
+#include <string.h>
+#include <utils/module_map.h>
+
+#define ROUNDS 200000
+#define REFRESH_ROUNDS 2000
+
+void bench_module_map(void) {
+  // addresses spread across the objects which are loaded
+  void *addresses[] = {(void *)&printf,       (void *)&malloc,
+                       (void *)&strlen,       (void *)&bench_module_map,
+                       (void *)&dladdr,       (void *)&bsg_module_map_find};
+  size_t count = sizeof(addresses) / sizeof(void *);
+  volatile uintptr_t sink = 0;
+
+  double start = bench_now_ns();
+  bsg_module_map_refresh();
+  bench_record("module_map", "build", 1, bench_now_ns() - start, 0);
+
+  start = bench_now_ns();
+  for (int r = 0; r < REFRESH_ROUNDS; r++) {
+    bsg_module_map_refresh();
+  }
+  bench_record("module_map", "refresh (unchanged)", REFRESH_ROUNDS,
+               bench_now_ns() - start, 0);
+
+  const bsg_module_map *map = bsg_module_map_current();
+  start = bench_now_ns();
+  for (int r = 0; r < ROUNDS; r++) {
+    const bsg_module *module =
+        bsg_module_map_find(map, (uintptr_t)addresses[r % count]);
+    sink += module == NULL ? 0 : module->load_address;
+  }
+  bench_record("module_map", "find frame file (module map)", ROUNDS,
+               bench_now_ns() - start, 0);
+
+  Dl_info info;
+  start = bench_now_ns();
+  for (int r = 0; r < ROUNDS; r++) {
+    if (dladdr(addresses[r % count], &info) != 0) {
+      sink += (uintptr_t)info.dli_fbase;
+    }
+  }
+  bench_record("module_map", "find frame file (dladdr)", ROUNDS,
+               bench_now_ns() - start, 0);
+}
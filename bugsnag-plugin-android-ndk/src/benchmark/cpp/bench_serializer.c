@@ -0,0 +1,70 @@
+/**
+ * Benchmark of encoding a report as its JSON payload with the streaming
+ * writer used on the crash path and with parson, and of converting a report
+ * in the binary layout into a payload when it is delivered.
+ */
+#include "bench.h"
+
+#include <stdio.h>
+#include <stdlib.h>
+#include <string.h>
+#include <unistd.h>
+#include <utils/json_writer.h>
+#include <utils/report_writer.h>
+#include <utils/serializer.h>
+
+#define ROUNDS 2000
+#define FILE_ROUNDS 200
+
+void bench_serializer(void) {
+  bugsnag_report *report = malloc(sizeof(bugsnag_report));
+  bench_populate_report(report);
+  size_t capacity = 1024 * 1024;
+  char *buffer = malloc(capacity);
+  bsg_json_writer writer;
+
+  double start = bench_now_ns();
+  for (int r = 0; r < ROUNDS; r++) {
+    bsg_json_writer_init(&writer, buffer, capacity);
+    bsg_report_write_json(&writer, report);
+  }
+  bench_record("serializer", "json (streaming writer)", ROUNDS,
+               bench_now_ns() - start, writer.written);
+
+  size_t length = 0;
+  start = bench_now_ns();
+  for (int r = 0; r < ROUNDS; r++) {
+    char *json = bsg_serialize_report_to_json_string(report);
+    length = strlen(json);
+    free(json);
+  }
+  bench_record("serializer", "json (parson)", ROUNDS, bench_now_ns() - start,
+               length);
+
+  bsg_environment *env = calloc(1, sizeof(bsg_environment));
+  env->report_header.version = BUGSNAG_REPORT_VERSION;
+  memcpy(&env->next_report, report, sizeof(bugsnag_report));
+  char payload_path[sizeof(env->next_report_path) + 8];
+  snprintf(env->next_report_path, sizeof(env->next_report_path),
+           "%s/binary.crash", bench_temp_dir());
+  snprintf(payload_path, sizeof(payload_path), "%s.json",
+           env->next_report_path);
+  double elapsed = 0;
+  for (int r = 0; r < FILE_ROUNDS; r++) {
+    bsg_serialize_report_to_file(env);
+    start = bench_now_ns();
+    bugsnag_report *read = bsg_deserialize_report_from_file(
+        env->next_report_path);
+    bsg_serialize_report_to_payload_path(read, payload_path);
+    free(read);
+    elapsed += bench_now_ns() - start;
+  }
+  bench_record("serializer", "binary report to payload", FILE_ROUNDS, elapsed,
+               0);
+  unlink(env->next_report_path);
+  unlink(payload_path);
+
+  free(env);
+  free(buffer);
+  free(report);
+}
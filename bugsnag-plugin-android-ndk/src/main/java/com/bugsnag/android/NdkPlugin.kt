@@ -19,8 +19,11 @@ internal class NdkPlugin : BugsnagPlugin {
 
     override fun loadPlugin(client: Client) {
         if (nativeBridge == null) {
-            nativeBridge = NativeBridge()
-            client.addObserver(nativeBridge)
+            val bridge = NativeBridge()
+            nativeBridge = bridge
+
+            // subscribed directly rather than as an Observer, which allocates a Message per event
+            client.bus.subscribe(EventBus.Subscriber { type, value -> bridge.onEvent(type, value) })
             client.sendNativeSetupNotification()
         }
         enableCrashReporting()
@@ -6,11 +6,13 @@ import com.bugsnag.android.MetaData;
 import com.bugsnag.android.NativeInterface;
 
 import android.os.Build;
+import android.os.Process;
 import android.util.Log;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
 import java.io.File;
+import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
 import java.util.HashMap;
 import java.util.List;
@@ -18,6 +20,11 @@ import java.util.Map;
 import java.util.Observable;
 import java.util.Observer;
 import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
@@ -31,9 +38,20 @@ public class NativeBridge implements Observer {
     private static final int METADATA_KEY = 1;
     private static final int METADATA_VALUE = 2;
     private static final String LOG_TAG = "BugsnagNDK:NativeBridge";
+
+    /**
+     * How long changes are batched before being sent to the native layer. Bounds how stale the
+     * state in a native crash report can be.
+     */
+    private static final long FLUSH_DELAY_MS = 100;
     private static final Lock lock = new ReentrantLock();
     private static final AtomicBoolean installed = new AtomicBoolean(false);
 
+    /**
+     * Retained for the lifetime of the process, as the native layer holds its address
+     */
+    private static final StateRegion stateRegion = new StateRegion();
+
     public static native void install(@NonNull String reportingDirectory, boolean autoNotify,
                                       int apiLevel, boolean is32bit);
 
@@ -43,6 +61,14 @@ public class NativeBridge implements Observer {
 
     public static native void deliverReportAtPath(@NonNull String filePath);
 
+    public static native boolean prepareReportFile();
+
+    public static native void refreshModuleMap();
+
+    public static native boolean mapStateJournal(@NonNull String journalPath);
+
+    public static native boolean attachStateRegion(@NonNull ByteBuffer buffer);
+
     public static native void addBreadcrumb(@NonNull String name, @NonNull String type,
                                             @NonNull String timestamp, @NonNull Object metadata);
 
@@ -85,6 +111,8 @@ public class NativeBridge implements Observer {
 
     public static native void updateMetadata(@NonNull Object metadata);
 
+    public static native void applyStateDelta(@NonNull byte[] delta, int length);
+
     public static native void updateReleaseStage(@NonNull String releaseStage);
 
     public static native void updateUserId(@NonNull String newValue);
@@ -94,7 +122,46 @@ public class NativeBridge implements Observer {
     public static native void updateUserName(@NonNull String newValue);
 
     private boolean loggingEnabled = true;
+    private volatile boolean journalMapped = false;
+    private volatile boolean regionAttached = false;
+    private volatile boolean reportFilePrepared = false;
+    private volatile String reportFileName;
     private final String reportDirectory;
+    private final StateBatcher batcher = new StateBatcher();
+    private final Object flushLock = new Object();
+    private final ScheduledExecutorService flushExecutor =
+        Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(@NonNull Runnable runnable) {
+                Thread thread = new Thread(runnable, "Bugsnag NDK state");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    private final Runnable flushTask = new Runnable() {
+        @Override
+        public void run() {
+            flushPendingState();
+        }
+    };
+    private final AtomicBoolean moduleMapRefreshScheduled = new AtomicBoolean(false);
+    private final Runnable moduleMapTask = new Runnable() {
+        @Override
+        public void run() {
+            moduleMapRefreshScheduled.set(false);
+            // picks up libraries loaded since the last refresh, so that a crash handler can
+            // find them. This only counts the loaded objects if none have changed.
+            refreshModuleMap();
+        }
+    };
+    private final Runnable prepareReportFileTask = new Runnable() {
+        @Override
+        public void run() {
+            if (!reportFilePrepared) {
+                reportFilePrepared = prepareReportFile();
+            }
+        }
+    };
 
     /**
      * Creates a new native bridge for interacting with native components.
@@ -113,12 +180,139 @@ public class NativeBridge implements Observer {
     @Override
     public void update(@NonNull Observable observable, @Nullable Object rawMessage) {
         NativeInterface.Message message = parseMessage(rawMessage);
-        if (message == null) {
+        if (message != null) {
+            onEvent(message.type, message.value);
+        }
+    }
+
+    /**
+     * Applies a change in the notifier's state to the native layer. The NDK plugin subscribes
+     * this directly to the client's events, so no {@link NativeInterface.Message} is allocated
+     * for each change.
+     */
+    public void onEvent(@NonNull NativeInterface.MessageType type, @Nullable Object arg) {
+        if (type != NativeInterface.MessageType.INSTALL && !installed.get()) {
+            warn("Received message before INSTALL: " + type);
             return;
         }
-        Object arg = message.value;
+        if (!enqueueStateChange(type, arg)) {
+            // anything which is not batched must observe the changes which preceded it
+            synchronized (flushLock) {
+                flushPendingStateLocked();
+                dispatch(type, arg);
+            }
+        }
+        // app code which sends a message may just have loaded a library
+        scheduleModuleMapRefresh();
+    }
+
+    /**
+     * Sends any batched state changes to the native layer immediately. This must be called
+     * before the native layer takes a snapshot of its state, for example to write a report.
+     */
+    public void flushPendingState() {
+        synchronized (flushLock) {
+            flushPendingStateLocked();
+        }
+    }
+
+    private void flushPendingStateLocked() {
+        byte[] delta = batcher.drain();
+
+        if (delta != null) {
+            applyStateDelta(delta, delta.length);
+        }
+    }
+
+    /**
+     * Writes a field to the state region if it is attached, or otherwise adds it to the batch
+     */
+    private void updateField(byte field, @NonNull String value) {
+        if (!regionAttached || !stateRegion.setField(field, value)) {
+            scheduleFlush(batcher.setField(field, value));
+        }
+    }
+
+    private void scheduleFlush(boolean wasEmpty) {
+        if (!wasEmpty) {
+            return; // a flush is already scheduled for this batch
+        }
+        try {
+            flushExecutor.schedule(flushTask, FLUSH_DELAY_MS, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException ex) {
+            warn("Failed to schedule state flush, flushing immediately: " + ex);
+            flushPendingState();
+        }
+    }
+
+    private void scheduleModuleMapRefresh() {
+        if (!installed.get() || !moduleMapRefreshScheduled.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            flushExecutor.schedule(moduleMapTask, FLUSH_DELAY_MS, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException ex) {
+            moduleMapRefreshScheduled.set(false);
+        }
+    }
+
+    /**
+     * Adds changes which only update a value in the native report to the batch
+     *
+     * @return true if the change was handled
+     */
+    private boolean enqueueStateChange(NativeInterface.MessageType type, Object arg) {
+        switch (type) {
+            case ADD_BREADCRUMB:
+            case CLEAR_BREADCRUMBS:
+                // breadcrumbs are read from the journal at crash time if it is mapped
+                return journalMapped;
+            case ADD_METADATA:
+                handleAddMetadata(arg);
+                return true;
+            case CLEAR_METADATA_TAB:
+                handleClearMetadataTab(arg);
+                return true;
+            case UPDATE_METADATA:
+                handleUpdateMetadata(arg);
+                return true;
+            case REMOVE_METADATA:
+                handleRemoveMetadata(arg);
+                return true;
+            case UPDATE_APP_VERSION:
+                handleAppVersionChange(arg);
+                return true;
+            case UPDATE_BUILD_UUID:
+                handleBuildUUIDChange(arg);
+                return true;
+            case UPDATE_CONTEXT:
+                handleContextChange(arg);
+                return true;
+            case UPDATE_IN_FOREGROUND:
+                handleForegroundActivityChange(arg);
+                return true;
+            case UPDATE_LOW_MEMORY:
+                handleLowMemoryChange(arg);
+                return true;
+            case UPDATE_ORIENTATION:
+                handleOrientationChange(arg);
+                return true;
+            case UPDATE_USER_ID:
+                handleUserIdChange(arg);
+                return true;
+            case UPDATE_USER_NAME:
+                handleUserNameChange(arg);
+                return true;
+            case UPDATE_USER_EMAIL:
+                handleUserEmailChange(arg);
+                return true;
+            default:
+                return false;
+        }
+    }
 
-        switch (message.type) {
+    private void dispatch(NativeInterface.MessageType type, Object arg) {
+        switch (type) {
             case INSTALL:
                 handleInstallMessage(arg);
                 break;
@@ -134,66 +328,27 @@ public class NativeBridge implements Observer {
             case ADD_BREADCRUMB:
                 handleAddBreadcrumb(arg);
                 break;
-            case ADD_METADATA:
-                handleAddMetadata(arg);
-                break;
             case CLEAR_BREADCRUMBS:
                 clearBreadcrumbs();
                 break;
-            case CLEAR_METADATA_TAB:
-                handleClearMetadataTab(arg);
-                break;
             case NOTIFY_HANDLED:
                 addHandledEvent();
                 break;
             case NOTIFY_UNHANDLED:
                 addUnhandledEvent();
                 break;
-            case REMOVE_METADATA:
-                handleRemoveMetadata(arg);
-                break;
             case START_SESSION:
                 handleStartSession(arg);
                 break;
             case STOP_SESSION:
                 stoppedSession();
                 break;
-            case UPDATE_APP_VERSION:
-                handleAppVersionChange(arg);
-                break;
-            case UPDATE_BUILD_UUID:
-                handleBuildUUIDChange(arg);
-                break;
-            case UPDATE_CONTEXT:
-                handleContextChange(arg);
-                break;
-            case UPDATE_IN_FOREGROUND:
-                handleForegroundActivityChange(arg);
-                break;
-            case UPDATE_LOW_MEMORY:
-                handleLowMemoryChange(arg);
-                break;
-            case UPDATE_METADATA:
-                handleUpdateMetadata(arg);
-                break;
-            case UPDATE_ORIENTATION:
-                handleOrientationChange(arg);
-                break;
             case UPDATE_RELEASE_STAGE:
                 handleReleaseStageChange(arg);
                 break;
             case UPDATE_NOTIFY_RELEASE_STAGES:
                 handleNotifyReleaseStagesChange(arg);
                 break;
-            case UPDATE_USER_ID:
-                handleUserIdChange(arg);
-                break;
-            case UPDATE_USER_NAME:
-                handleUserNameChange(arg);
-                break;
-            case UPDATE_USER_EMAIL:
-                handleUserEmailChange(arg);
-                break;
             default:
         }
     }
@@ -201,12 +356,7 @@ public class NativeBridge implements Observer {
     @Nullable
     private NativeInterface.Message parseMessage(@Nullable Object rawMessage) {
         if (rawMessage instanceof NativeInterface.Message) {
-            NativeInterface.Message message = (NativeInterface.Message)rawMessage;
-            if (message.type != NativeInterface.MessageType.INSTALL && !installed.get()) {
-                warn("Received message before INSTALL: " + message.type);
-                return null;
-            }
-            return message;
+            return (NativeInterface.Message)rawMessage;
         } else {
             if (rawMessage == null) {
                 warn("Received observable update with null Message");
@@ -226,9 +376,16 @@ public class NativeBridge implements Observer {
                 File[] fileList = outDir.listFiles();
                 if (fileList != null) {
                     for (final File file : fileList) {
-                        deliverReportAtPath(file.getAbsolutePath());
+                        // the file for this process is pre-allocated and written on crash
+                        if (!file.getName().equals(reportFileName)) {
+                            deliverReportAtPath(file.getAbsolutePath());
+                        }
                     }
                 }
+                // retry, as delivering reports may have freed enough space for the file
+                if (installed.get()) {
+                    prepareReportFileTask.run();
+                }
             } else {
                 warn("Report directory does not exist, cannot read pending reports");
             }
@@ -249,9 +406,24 @@ public class NativeBridge implements Observer {
                 List<Object> values = (List<Object>)arg;
                 if (values.size() > 0 && values.get(0) instanceof Configuration) {
                     Configuration config = (Configuration)values.get(0);
-                    String reportPath = reportDirectory + UUID.randomUUID().toString() + ".crash";
+                    // the pid lets other processes of the app tell whether the file is in use
+                    reportFileName = UUID.randomUUID().toString() + "." + Process.myPid()
+                        + ".crash";
+                    String reportPath = reportDirectory + reportFileName;
                     install(reportPath, config.getDetectNdkCrashes(), Build.VERSION.SDK_INT,
                         is32bit());
+                    prepareReportFileInBackground();
+
+                    // breadcrumbs are read from the journal at crash time rather than copied
+                    String journalPath = NativeInterface.getStateJournalPath();
+                    journalMapped = journalPath != null && mapStateJournal(journalPath);
+
+                    // user, context and app state are read from the region at crash time
+                    regionAttached = attachStateRegion(stateRegion.getBuffer());
+
+                    // metadata is sent as a delta, after which only changed keys are sent
+                    batcher.syncMetadata(NativeInterface.getMetaData());
+                    flushPendingStateLocked();
                     installed.set(true);
                 }
             } else {
@@ -262,6 +434,17 @@ public class NativeBridge implements Observer {
         }
     }
 
+    /**
+     * Prepares the report file on the state executor, as the whole file is written and synced
+     */
+    private void prepareReportFileInBackground() {
+        try {
+            flushExecutor.execute(prepareReportFileTask);
+        } catch (RejectedExecutionException ex) {
+            warn("Failed to prepare report file, it will be written on crash: " + ex);
+        }
+    }
+
     private boolean is32bit() {
         String[] abis = NativeInterface.getCpuAbi();
 
@@ -300,27 +483,20 @@ public class NativeBridge implements Observer {
             List<Object> values = (List<Object>) arg;
             if (values.size() == 3 && values.get(METADATA_SECTION) instanceof String
                 && values.get(METADATA_KEY) instanceof String) {
-                String section = makeSafe((String)values.get(METADATA_SECTION));
-                String key = makeSafe((String)values.get(METADATA_KEY));
+                String section = (String) values.get(METADATA_SECTION);
+                String key = (String) values.get(METADATA_KEY);
+                Object value = values.get(METADATA_VALUE);
 
-                if (values.get(METADATA_VALUE) instanceof String) {
-                    addMetadataString(section, key,
-                        makeSafe((String) values.get(METADATA_VALUE)));
-                    return;
-                } else if (values.get(METADATA_VALUE) instanceof Boolean) {
-                    addMetadataBoolean(section, key,
-                        (Boolean) values.get(METADATA_VALUE));
-                    return;
-                } else if (values.get(METADATA_VALUE) instanceof Number) {
-                    addMetadataDouble(section, key,
-                        ((Number) values.get(METADATA_VALUE)).doubleValue());
+                if (value instanceof String || value instanceof Boolean
+                    || value instanceof Number) {
+                    scheduleFlush(batcher.setMetadata(section, key, value));
                     return;
                 }
             } else if (values.size() == 2 && values.get(METADATA_SECTION) instanceof String
                     && values.get(METADATA_KEY) instanceof String) {
-                String section = makeSafe((String)values.get(METADATA_SECTION));
-                String key = makeSafe((String)values.get(METADATA_KEY));
-                removeMetadata(section, key);
+                String section = (String) values.get(METADATA_SECTION);
+                String key = (String) values.get(METADATA_KEY);
+                scheduleFlush(batcher.setMetadata(section, key, null));
                 return;
             }
         }
@@ -330,7 +506,7 @@ public class NativeBridge implements Observer {
 
     private void handleClearMetadataTab(Object arg) {
         if (arg instanceof String) {
-            clearMetadataTab(makeSafe((String)arg));
+            scheduleFlush(batcher.clearMetadataTab((String) arg));
         } else {
             warn("CLEAR_METADATA_TAB object is invalid: " + arg);
         }
@@ -338,7 +514,7 @@ public class NativeBridge implements Observer {
 
     private void handleAppVersionChange(Object arg) {
         if (arg instanceof String) {
-            updateAppVersion(makeSafe((String)arg));
+            updateField(StateBatcher.APP_VERSION, (String) arg);
         } else {
             warn("UPDATE_APP_VERSION object is invalid: " + arg);
         }
@@ -349,8 +525,8 @@ public class NativeBridge implements Observer {
             @SuppressWarnings("unchecked")
             List<String> metadata = (List<String>)arg;
             if (metadata.size() == 2) {
-                removeMetadata(makeSafe(metadata.get(METADATA_SECTION)),
-                    makeSafe(metadata.get(METADATA_KEY)));
+                scheduleFlush(batcher.setMetadata(metadata.get(METADATA_SECTION),
+                    metadata.get(METADATA_KEY), null));
                 return;
             }
         }
@@ -388,7 +564,7 @@ public class NativeBridge implements Observer {
         if (arg instanceof Configuration) {
             Configuration config = (Configuration) arg;
             String releaseStage = config.getReleaseStage();
-            updateReleaseStage(makeSafe(releaseStage));
+            updateField(StateBatcher.RELEASE_STAGE, releaseStage == null ? "" : releaseStage);
             enableOrDisableReportingIfNeeded(config);
         } else {
             warn("UPDATE_RELEASE_STAGE object is invalid: " + arg);
@@ -416,7 +592,11 @@ public class NativeBridge implements Observer {
 
     private void handleOrientationChange(Object arg) {
         if (arg instanceof Integer) {
-            updateOrientation((int) arg);
+            if (regionAttached) {
+                stateRegion.setOrientation((int) arg);
+            } else {
+                scheduleFlush(batcher.setOrientation((int) arg));
+            }
         } else if (arg == null) {
             warn("UPDATE_ORIENTATION object is null");
         } else {
@@ -429,7 +609,14 @@ public class NativeBridge implements Observer {
             @SuppressWarnings("unchecked")
             List<Object> metadata = (List<Object>)arg;
             if (metadata.size() == 2) {
-                updateInForeground((boolean) metadata.get(0), makeSafe((String) metadata.get(1)));
+                boolean inForeground = (boolean) metadata.get(0);
+                String activity = metadata.get(1) == null ? "" : (String) metadata.get(1);
+
+                if (regionAttached) {
+                    stateRegion.setInForeground(inForeground, activity);
+                } else {
+                    scheduleFlush(batcher.setInForeground(inForeground, activity));
+                }
                 return;
             }
         }
@@ -439,9 +626,9 @@ public class NativeBridge implements Observer {
 
     private void handleUserIdChange(Object arg) {
         if (arg == null) {
-            updateUserId("");
+            updateField(StateBatcher.USER_ID, "");
         } else if (arg instanceof String) {
-            updateUserId(makeSafe((String)arg));
+            updateField(StateBatcher.USER_ID, (String) arg);
         } else {
             warn("UPDATE_USER_ID object is invalid: " + arg);
         }
@@ -449,9 +636,9 @@ public class NativeBridge implements Observer {
 
     private void handleUserNameChange(Object arg) {
         if (arg == null) {
-            updateUserName("");
+            updateField(StateBatcher.USER_NAME, "");
         } else if (arg instanceof String) {
-            updateUserName(makeSafe((String)arg));
+            updateField(StateBatcher.USER_NAME, (String) arg);
         } else {
             warn("UPDATE_USER_NAME object is invalid: " + arg);
         }
@@ -459,9 +646,9 @@ public class NativeBridge implements Observer {
 
     private void handleUserEmailChange(Object arg) {
         if (arg == null) {
-            updateUserEmail("");
+            updateField(StateBatcher.USER_EMAIL, "");
         } else if (arg instanceof String) {
-            updateUserEmail(makeSafe((String)arg));
+            updateField(StateBatcher.USER_EMAIL, (String) arg);
         } else {
             warn("UPDATE_USER_EMAIL object is invalid: " + arg);
         }
@@ -469,9 +656,9 @@ public class NativeBridge implements Observer {
 
     private void handleBuildUUIDChange(Object arg) {
         if (arg == null) {
-            updateBuildUUID("");
+            updateField(StateBatcher.BUILD_UUID, "");
         } else if (arg instanceof String) {
-            updateBuildUUID(makeSafe((String)arg));
+            updateField(StateBatcher.BUILD_UUID, (String) arg);
         } else {
             warn("UPDATE_BUILD_UUID object is invalid: " + arg);
         }
@@ -479,9 +666,9 @@ public class NativeBridge implements Observer {
 
     private void handleContextChange(Object arg) {
         if (arg == null) {
-            updateContext("");
+            updateField(StateBatcher.CONTEXT, "");
         } else if (arg instanceof String) {
-            updateContext(makeSafe((String)arg));
+            updateField(StateBatcher.CONTEXT, (String) arg);
         } else {
             warn("UPDATE_CONTEXT object is invalid: " + arg);
         }
@@ -489,7 +676,11 @@ public class NativeBridge implements Observer {
 
     private void handleLowMemoryChange(Object arg) {
         if (arg instanceof Boolean) {
-            updateLowMemory((Boolean)arg);
+            if (regionAttached) {
+                stateRegion.setLowMemory((Boolean) arg);
+            } else {
+                scheduleFlush(batcher.setLowMemory((Boolean) arg));
+            }
         } else {
             warn("UPDATE_LOW_MEMORY object is invalid: " + arg);
         }
@@ -497,7 +688,9 @@ public class NativeBridge implements Observer {
 
     private void handleUpdateMetadata(Object arg) {
         if (arg instanceof Map) {
-            updateMetadata(arg);
+            @SuppressWarnings("unchecked")
+            Map<String, Object> metadata = (Map<String, Object>) arg;
+            scheduleFlush(batcher.syncMetadata(metadata));
         } else {
             warn("UPDATE_METADATA object is invalid: " + arg);
         }
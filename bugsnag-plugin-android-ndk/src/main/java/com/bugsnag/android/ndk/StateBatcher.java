@@ -0,0 +1,343 @@
+package com.bugsnag.android.ndk;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Coalesces changes to the state which is copied to the native layer, so that a burst of
+ * changes can be sent in a single JNI call. Only the most recent value of each field or
+ * metadata key is retained until the batch is drained.
+ * <p/>
+ * A drained batch is serialized as a delta which is decoded by state_delta.c: each operation is
+ * a one byte opcode followed by its arguments in native byte order. Strings are written as an
+ * int length, their UTF-8 bytes and a null terminator.
+ * <p/>
+ * The batcher also mirrors the metadata which the native layer holds once pending changes are
+ * applied, so that replacing the metadata only sends the keys which differ, and setting a key to
+ * its current value sends nothing.
+ */
+final class StateBatcher {
+
+    // opcodes, which must match bsg_delta_op in state_delta.h
+    static final byte CONTEXT = 1;
+    static final byte USER_ID = 2;
+    static final byte USER_NAME = 3;
+    static final byte USER_EMAIL = 4;
+    static final byte ORIENTATION = 5;
+    static final byte IN_FOREGROUND = 6;
+    static final byte LOW_MEMORY = 7;
+    static final byte APP_VERSION = 8;
+    static final byte BUILD_UUID = 9;
+    static final byte RELEASE_STAGE = 10;
+    static final byte METADATA_STRING = 11;
+    static final byte METADATA_DOUBLE = 12;
+    static final byte METADATA_BOOL = 13;
+    static final byte METADATA_REMOVE = 14;
+    static final byte METADATA_CLEAR_TAB = 15;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /**
+     * Pending values of the scalar fields, indexed by opcode, or null if unchanged
+     */
+    private final Object[] fields = new Object[RELEASE_STAGE + 1];
+
+    /**
+     * Pending metadata operations in the order they must be applied. Changes to a key replace
+     * any pending change to the same key, and clearing a tab discards the pending changes to
+     * its keys.
+     */
+    private final Map<String, MetadataChange> metadata = new LinkedHashMap<>();
+
+    /**
+     * The metadata held by the native layer once the pending changes are applied, containing
+     * only the String, Boolean and Double values which the native layer supports
+     */
+    private final Map<String, Map<String, Object>> mirror = new HashMap<>();
+
+    private boolean empty = true;
+
+    /**
+     * Records the new value of a scalar field
+     *
+     * @return true if the batch was previously empty, and so needs to be flushed
+     */
+    synchronized boolean setField(byte opcode, @NonNull String value) {
+        return putField(opcode, value);
+    }
+
+    synchronized boolean setOrientation(int orientation) {
+        return putField(ORIENTATION, orientation);
+    }
+
+    synchronized boolean setLowMemory(boolean lowMemory) {
+        return putField(LOW_MEMORY, lowMemory);
+    }
+
+    synchronized boolean setInForeground(boolean inForeground, @NonNull String activity) {
+        return putField(IN_FOREGROUND, new Object[]{inForeground, activity});
+    }
+
+    /**
+     * Records a metadata value, which is a String, Boolean or Number. A null value removes the
+     * key.
+     *
+     * @return true if the batch was previously empty, and so needs to be flushed
+     */
+    synchronized boolean setMetadata(@NonNull String tab, @NonNull String key,
+                                     @Nullable Object value) {
+        boolean wasEmpty = empty;
+        putMetadata(tab, key, value);
+        return wasEmpty && !empty;
+    }
+
+    synchronized boolean clearMetadataTab(@NonNull String tab) {
+        boolean wasEmpty = empty;
+        removeMetadataTab(tab);
+        return wasEmpty && !empty;
+    }
+
+    /**
+     * Records the changes needed for the native metadata to match a replacement, which maps tab
+     * names to maps of values. Only the keys which differ from the mirrored metadata are sent.
+     *
+     * @return true if the batch was previously empty, and so needs to be flushed
+     */
+    synchronized boolean syncMetadata(@NonNull Map<String, Object> store) {
+        boolean wasEmpty = empty;
+        Iterator<Map.Entry<String, Map<String, Object>>> tabs = mirror.entrySet().iterator();
+
+        while (tabs.hasNext()) {
+            Map.Entry<String, Map<String, Object>> tab = tabs.next();
+            Object replacement = store.get(tab.getKey());
+
+            if (!(replacement instanceof Map)) {
+                tabs.remove();
+                enqueueClear(tab.getKey());
+                continue;
+            }
+            Iterator<String> keys = tab.getValue().keySet().iterator();
+
+            while (keys.hasNext()) {
+                String key = keys.next();
+
+                if (normalize(((Map<?, ?>) replacement).get(key)) == null) {
+                    keys.remove();
+                    enqueue(new MetadataChange(tab.getKey(), key, null));
+                }
+            }
+        }
+        for (Map.Entry<String, Object> tab : store.entrySet()) {
+            if (tab.getKey() == null || !(tab.getValue() instanceof Map)) {
+                continue;
+            }
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) tab.getValue()).entrySet()) {
+                Object value = normalize(entry.getValue());
+
+                if (entry.getKey() instanceof String && value != null) {
+                    putMetadata(tab.getKey(), (String) entry.getKey(), value);
+                }
+            }
+        }
+        return wasEmpty && !empty;
+    }
+
+    private void putMetadata(String tab, String key, Object value) {
+        value = normalize(value);
+        Map<String, Object> values = mirror.get(tab);
+        Object current = values == null ? null : values.get(key);
+
+        if (value == null ? current == null : value.equals(current)) {
+            return; // the native layer already holds this value
+        }
+        if (value == null) {
+            values.remove(key);
+        } else {
+            if (values == null) {
+                values = new HashMap<>();
+                mirror.put(tab, values);
+            }
+            values.put(key, value);
+        }
+        enqueue(new MetadataChange(tab, key, value));
+    }
+
+    private void removeMetadataTab(String tab) {
+        mirror.remove(tab);
+        enqueueClear(tab);
+    }
+
+    private void enqueue(MetadataChange change) {
+        String id = change.tab + '\u0000' + change.key;
+        metadata.remove(id); // re-insert so that the change follows any clear of its tab
+        metadata.put(id, change);
+        markChanged();
+    }
+
+    private void enqueueClear(String tab) {
+        Iterator<MetadataChange> iterator = metadata.values().iterator();
+
+        while (iterator.hasNext()) {
+            if (iterator.next().tab.equals(tab)) {
+                iterator.remove();
+            }
+        }
+        metadata.put(tab, new MetadataChange(tab, null, null));
+        markChanged();
+    }
+
+    /**
+     * Converts a value to the form the native layer holds, or null if it is not supported
+     */
+    @Nullable
+    private static Object normalize(@Nullable Object value) {
+        if (value instanceof String || value instanceof Boolean) {
+            return value;
+        } else if (value instanceof Number) {
+            return value instanceof Double ? value : ((Number) value).doubleValue();
+        }
+        return null;
+    }
+
+    synchronized boolean isEmpty() {
+        return empty;
+    }
+
+    /**
+     * Serializes the pending changes and resets the batch
+     *
+     * @return the delta, or null if there are no pending changes
+     */
+    @Nullable
+    synchronized byte[] drain() {
+        if (empty) {
+            return null;
+        }
+        DeltaWriter writer = new DeltaWriter();
+
+        for (byte opcode = CONTEXT; opcode < fields.length; opcode++) {
+            Object value = fields[opcode];
+
+            if (value == null) {
+                continue;
+            }
+            writer.opcode(opcode);
+
+            if (opcode == ORIENTATION) {
+                writer.integer((Integer) value);
+            } else if (opcode == LOW_MEMORY) {
+                writer.bool((Boolean) value);
+            } else if (opcode == IN_FOREGROUND) {
+                Object[] values = (Object[]) value;
+                writer.bool((Boolean) values[0]);
+                writer.string((String) values[1]);
+            } else {
+                writer.string((String) value);
+            }
+            fields[opcode] = null;
+        }
+        for (MetadataChange change : metadata.values()) {
+            change.write(writer);
+        }
+        metadata.clear();
+        empty = true;
+        return writer.toByteArray();
+    }
+
+    private boolean putField(byte opcode, @NonNull Object value) {
+        fields[opcode] = value;
+        return markChanged();
+    }
+
+    private boolean markChanged() {
+        boolean wasEmpty = empty;
+        empty = false;
+        return wasEmpty;
+    }
+
+    private static final class MetadataChange {
+
+        final String tab;
+        final String key;
+        final Object value;
+
+        MetadataChange(String tab, String key, Object value) {
+            this.tab = tab;
+            this.key = key;
+            this.value = value;
+        }
+
+        void write(DeltaWriter writer) {
+            if (key == null) {
+                writer.opcode(METADATA_CLEAR_TAB);
+                writer.string(tab);
+                return;
+            }
+            if (value instanceof String) {
+                writer.opcode(METADATA_STRING);
+            } else if (value instanceof Boolean) {
+                writer.opcode(METADATA_BOOL);
+            } else if (value instanceof Double) {
+                writer.opcode(METADATA_DOUBLE);
+            } else {
+                writer.opcode(METADATA_REMOVE);
+            }
+            writer.string(tab);
+            writer.string(key);
+
+            if (value instanceof String) {
+                writer.string((String) value);
+            } else if (value instanceof Boolean) {
+                writer.bool((Boolean) value);
+            } else if (value instanceof Double) {
+                writer.number((Double) value);
+            }
+        }
+    }
+
+    private static final class DeltaWriter {
+
+        private final ByteArrayOutputStream out = new ByteArrayOutputStream(256);
+        private final ByteBuffer scratch = ByteBuffer.allocate(8).order(ByteOrder.nativeOrder());
+
+        void opcode(byte opcode) {
+            out.write(opcode);
+        }
+
+        void bool(boolean value) {
+            out.write(value ? 1 : 0);
+        }
+
+        void integer(int value) {
+            scratch.clear();
+            scratch.putInt(value);
+            out.write(scratch.array(), 0, 4);
+        }
+
+        void number(double value) {
+            scratch.clear();
+            scratch.putDouble(value);
+            out.write(scratch.array(), 0, 8);
+        }
+
+        void string(String value) {
+            byte[] bytes = value.getBytes(UTF8);
+            integer(bytes.length);
+            out.write(bytes, 0, bytes.length);
+            out.write(0);
+        }
+
+        byte[] toByteArray() {
+            return out.toByteArray();
+        }
+    }
+}
@@ -0,0 +1,178 @@
+package com.bugsnag.android.ndk;
+
+import androidx.annotation.NonNull;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.Charset;
+
+/**
+ * Holds the user, context and app state which the native layer adds to crash reports in an
+ * off-heap buffer, so that changes are plain memory stores rather than JNI calls. The signal
+ * handler copies the buffer into the report when handling a crash.
+ * <p/>
+ * The layout matches bsg_state_region in state_region.h, and any change to the offsets below
+ * must be made in both places and the version incremented. Writes are guarded by a sequence
+ * lock so that the signal handler can detect a copy which was read during a write.
+ */
+final class StateRegion {
+
+    static final int VERSION = 1;
+    static final int SIZE = 512;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private static final int SEQ_OFFSET = 0;
+    private static final int VERSION_OFFSET = 4;
+    private static final int FOREGROUND_START_OFFSET = 8;
+    private static final int CHANGED_OFFSET = 16;
+    private static final int ORIENTATION_OFFSET = 20;
+    private static final int IN_FOREGROUND_OFFSET = 24;
+    private static final int LOW_MEMORY_OFFSET = 28;
+    private static final int CONTEXT_OFFSET = 32;
+    private static final int USER_ID_OFFSET = 96;
+    private static final int USER_NAME_OFFSET = 160;
+    private static final int USER_EMAIL_OFFSET = 224;
+    private static final int ACTIVE_SCREEN_OFFSET = 288;
+    private static final int APP_VERSION_OFFSET = 352;
+    private static final int BUILD_UUID_OFFSET = 384;
+    private static final int RELEASE_STAGE_OFFSET = 448;
+
+    // bits of the changed field, which must match state_region.h
+    private static final int CONTEXT = 1;
+    private static final int USER_ID = 1 << 1;
+    private static final int USER_NAME = 1 << 2;
+    private static final int USER_EMAIL = 1 << 3;
+    private static final int ORIENTATION = 1 << 4;
+    private static final int IN_FOREGROUND = 1 << 5;
+    private static final int LOW_MEMORY = 1 << 6;
+    private static final int APP_VERSION = 1 << 7;
+    private static final int BUILD_UUID = 1 << 8;
+    private static final int RELEASE_STAGE = 1 << 9;
+    private static final int LEFT_FOREGROUND = 1 << 10;
+
+    private final ByteBuffer buffer;
+    private int seq = 0;
+    private int changed = 0;
+    private boolean inForeground = false;
+
+    /**
+     * Written after the sequence number is made odd and before it is made even again, so that
+     * the stores to the buffer on either side of it are ordered.
+     * <p/>
+     * The Java memory model does not promise this: it only orders a volatile store against
+     * other accesses to Java variables, and the native reader is not a Java thread. This relies
+     * on ART, which emits a full barrier (dmb ish on ARM) for a volatile store and compiles
+     * {@link ByteBuffer#putInt(int, int)} on a direct buffer to a plain store, so the barrier
+     * also orders the stores to the buffer as the native reader sees them. Should that change,
+     * the signal handler could copy a torn write, which at worst attaches a mix of old and new
+     * values to the report, as every string is copied with a bounded length.
+     */
+    private volatile int barrier;
+
+    StateRegion() {
+        buffer = ByteBuffer.allocateDirect(SIZE).order(ByteOrder.nativeOrder());
+        buffer.putInt(VERSION_OFFSET, VERSION);
+    }
+
+    @NonNull
+    ByteBuffer getBuffer() {
+        return buffer;
+    }
+
+    /**
+     * Writes a string field, given as a {@link StateBatcher} opcode
+     *
+     * @return false if the field is not held in the region
+     */
+    synchronized boolean setField(byte opcode, @NonNull String value) {
+        switch (opcode) {
+            case StateBatcher.CONTEXT:
+                writeString(CONTEXT, CONTEXT_OFFSET, 64, value);
+                return true;
+            case StateBatcher.USER_ID:
+                writeString(USER_ID, USER_ID_OFFSET, 64, value);
+                return true;
+            case StateBatcher.USER_NAME:
+                writeString(USER_NAME, USER_NAME_OFFSET, 64, value);
+                return true;
+            case StateBatcher.USER_EMAIL:
+                writeString(USER_EMAIL, USER_EMAIL_OFFSET, 64, value);
+                return true;
+            case StateBatcher.APP_VERSION:
+                writeString(APP_VERSION, APP_VERSION_OFFSET, 32, value);
+                return true;
+            case StateBatcher.BUILD_UUID:
+                writeString(BUILD_UUID, BUILD_UUID_OFFSET, 64, value);
+                return true;
+            case StateBatcher.RELEASE_STAGE:
+                writeString(RELEASE_STAGE, RELEASE_STAGE_OFFSET, 64, value);
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    synchronized void setOrientation(int orientation) {
+        beginWrite(ORIENTATION);
+        buffer.putInt(ORIENTATION_OFFSET, orientation);
+        endWrite();
+    }
+
+    synchronized void setLowMemory(boolean lowMemory) {
+        beginWrite(LOW_MEMORY);
+        buffer.putInt(LOW_MEMORY_OFFSET, lowMemory ? 1 : 0);
+        endWrite();
+    }
+
+    synchronized void setInForeground(boolean inForeground, @NonNull String activity) {
+        beginWrite(inForeground ? IN_FOREGROUND : IN_FOREGROUND | LEFT_FOREGROUND);
+        buffer.putInt(IN_FOREGROUND_OFFSET, inForeground ? 1 : 0);
+        putString(ACTIVE_SCREEN_OFFSET, 64, activity);
+
+        if (!inForeground) {
+            buffer.putLong(FOREGROUND_START_OFFSET, 0);
+        } else if (!this.inForeground) {
+            // matches time(), which the native layer otherwise uses
+            buffer.putLong(FOREGROUND_START_OFFSET, System.currentTimeMillis() / 1000);
+        }
+        this.inForeground = inForeground;
+        endWrite();
+    }
+
+    private void writeString(int field, int offset, int length, String value) {
+        beginWrite(field);
+        putString(offset, length, value);
+        endWrite();
+    }
+
+    private void beginWrite(int field) {
+        // the odd sequence number must be visible before any of the fields change
+        buffer.putInt(SEQ_OFFSET, ++seq);
+        barrier = seq;
+        changed |= field;
+        buffer.putInt(CHANGED_OFFSET, changed);
+    }
+
+    private void endWrite() {
+        // the fields must be visible before the even sequence number
+        barrier = seq;
+        buffer.putInt(SEQ_OFFSET, ++seq);
+    }
+
+    /**
+     * Writes a null-terminated string, truncating it on a character boundary to fit the field
+     */
+    private void putString(int offset, int length, String value) {
+        byte[] bytes = value.getBytes(UTF8);
+        int count = Math.min(bytes.length, length - 1);
+
+        // don't split a multi-byte character
+        while (count > 0 && count < bytes.length && (bytes[count] & 0xC0) == 0x80) {
+            count--;
+        }
+        for (int k = 0; k < length; k++) {
+            buffer.put(offset + k, k < count ? bytes[k] : 0);
+        }
+    }
+}
@@ -83,6 +83,8 @@ void bugsnag_notify_env(JNIEnv *env, char *name, char *message,
   bsg_stackframe stacktrace[BUGSNAG_FRAMES_MAX];
   ssize_t frame_count =
       bsg_unwind_stack(bsg_configured_unwind_style(), stacktrace, NULL, NULL);
+  // not handling a crash, so method names can be resolved immediately
+  bsg_insert_symbols(frame_count, stacktrace);
 
   jclass interface_class =
       (*env)->FindClass(env, "com/bugsnag/android/NativeInterface");
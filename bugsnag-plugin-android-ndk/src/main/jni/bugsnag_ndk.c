@@ -10,6 +10,8 @@
 #include "handlers/cpp_handler.h"
 #include "metadata.h"
 #include "report.h"
+#include "state_delta.h"
+#include "utils/module_map.h"
 #include "utils/serializer.h"
 #include "utils/string.h"
 
@@ -86,6 +88,10 @@ JNIEXPORT void JNICALL Java_com_bugsnag_android_ndk_NativeBridge_install(
   bugsnag_env->report_header.version = BUGSNAG_REPORT_VERSION;
   const char *report_path = (*env)->GetStringUTFChars(env, _report_path, 0);
   sprintf(bugsnag_env->next_report_path, "%s", report_path);
+  snprintf(bugsnag_env->next_payload_path,
+           sizeof(bugsnag_env->next_payload_path), "%s.json", report_path);
+  // frames are looked up in the module map when handling a crash
+  bsg_module_map_refresh();
 
   if ((bool)auto_notify) {
     bsg_handler_install_signal(bugsnag_env);
@@ -111,45 +117,157 @@ JNIEXPORT void JNICALL Java_com_bugsnag_android_ndk_NativeBridge_install(
   BUGSNAG_LOG("Initialization complete!");
 }
 
+JNIEXPORT jboolean JNICALL
+Java_com_bugsnag_android_ndk_NativeBridge_mapStateJournal(
+    JNIEnv *env, jobject _this, jstring _journal_path) {
+  if (bsg_global_env == NULL)
+    return JNI_FALSE;
+  const char *journal_path = (*env)->GetStringUTFChars(env, _journal_path, 0);
+  bsg_journal *journal = bsg_journal_map(journal_path);
+  (*env)->ReleaseStringUTFChars(env, _journal_path, journal_path);
+  if (journal == NULL) {
+    BUGSNAG_LOG("Failed to map state journal, breadcrumbs will be copied");
+    return JNI_FALSE;
+  }
+  bsg_request_env_write_lock();
+  bsg_global_env->journal = journal;
+  bsg_release_env_write_lock();
+  return JNI_TRUE;
+}
+
+JNIEXPORT jboolean JNICALL
+Java_com_bugsnag_android_ndk_NativeBridge_attachStateRegion(JNIEnv *env,
+                                                            jobject _this,
+                                                            jobject buffer) {
+  if (bsg_global_env == NULL)
+    return JNI_FALSE;
+  bsg_state_region *region =
+      bsg_state_region_attach((*env)->GetDirectBufferAddress(env, buffer),
+                              (*env)->GetDirectBufferCapacity(env, buffer));
+  if (region == NULL) {
+    BUGSNAG_LOG("Failed to attach state region, state will be copied");
+    return JNI_FALSE;
+  }
+  bsg_request_env_write_lock();
+  bsg_global_env->state_region = region;
+  bsg_release_env_write_lock();
+  return JNI_TRUE;
+}
+
+JNIEXPORT jboolean JNICALL
+Java_com_bugsnag_android_ndk_NativeBridge_prepareReportFile(JNIEnv *env,
+                                                            jobject _this) {
+  if (bsg_global_env == NULL)
+    return JNI_FALSE;
+  bsg_request_env_write_lock();
+  if (bsg_global_env->report_file == NULL) {
+    // published with release semantics as the signal handler does not lock
+    __atomic_store_n(&bsg_global_env->report_file,
+                     bsg_report_file_map(bsg_global_env->next_report_path),
+                     __ATOMIC_RELEASE);
+    if (bsg_global_env->report_file == NULL) {
+      BUGSNAG_LOG("Failed to prepare report file, it will be written on crash");
+    }
+  }
+  bool prepared = bsg_global_env->report_file != NULL;
+  bsg_release_env_write_lock();
+  return (jboolean)prepared;
+}
+
 JNIEXPORT void JNICALL
-Java_com_bugsnag_android_ndk_NativeBridge_deliverReportAtPath(
-    JNIEnv *env, jobject _this, jstring _report_path) {
-  static pthread_mutex_t bsg_native_delivery_mutex = PTHREAD_MUTEX_INITIALIZER;
-  pthread_mutex_lock(&bsg_native_delivery_mutex);
-  const char *report_path = (*env)->GetStringUTFChars(env, _report_path, 0);
+Java_com_bugsnag_android_ndk_NativeBridge_refreshModuleMap(JNIEnv *env,
+                                                           jobject _this) {
+  bsg_module_map_refresh();
+}
+
+/**
+ * Ensure the report at a path is a JSON payload, finishing a payload written
+ * into a prepared file or converting it from the binary layout if needed
+ *
+ * @param release_stage set to the release stage which the report was captured
+ *                      in, so that delivery can be filtered by it
+ * @return the path of the payload, or NULL if there is no report to deliver.
+ *         The caller must free the path.
+ */
+static char *bsg_prepare_payload(const char *report_path, char *release_stage,
+                                 size_t release_stage_size) {
+  size_t length = strlen(report_path);
+  char *payload_path;
+  release_stage[0] = '\0';
+  if (length > 5 && strcmp(report_path + length - 5, ".json") == 0) {
+    bsg_report_file_read_release_stage(report_path, release_stage,
+                                       release_stage_size);
+    return strdup(report_path);
+  }
+  if (bsg_report_file_is_json(report_path)) {
+    payload_path = malloc(length + sizeof(".json"));
+    sprintf(payload_path, "%s.json", report_path);
+    if (bsg_report_file_finish_json(report_path, payload_path)) {
+      bsg_report_file_read_release_stage(payload_path, release_stage,
+                                         release_stage_size);
+      return payload_path;
+    }
+    BUGSNAG_LOG("Failed to finish JSON payload: %s", report_path);
+    free(payload_path);
+    remove(report_path);
+    return NULL;
+  }
+  if (bsg_report_file_is_incomplete(report_path)) {
+    // a report was never written, or was interrupted, unless the file belongs
+    // to another process of the app which is still running
+    if (!bsg_report_file_owner_alive(report_path)) {
+      remove(report_path);
+    }
+    return NULL;
+  }
   bugsnag_report *report =
       bsg_deserialize_report_from_file((char *)report_path);
+  payload_path = NULL;
 
   if (report != NULL) {
-    char *payload = bsg_serialize_report_to_json_string(report);
-    if (payload != NULL) {
-      jclass interface_class =
-          (*env)->FindClass(env, "com/bugsnag/android/NativeInterface");
-      jmethodID jdeliver_method =
-          (*env)->GetStaticMethodID(env, interface_class, "deliverReport",
-                                    "([B[B)V");
-      size_t payload_length = bsg_strlen(payload);
-      jbyteArray jpayload = (*env)->NewByteArray(env, payload_length);
-      (*env)->SetByteArrayRegion(env, jpayload, 0, payload_length, (jbyte *)payload);
-
-      size_t stage_length = bsg_strlen(report->app.release_stage);
-      jbyteArray jstage = (*env)->NewByteArray(env, stage_length);
-      (*env)->SetByteArrayRegion(env, jstage, 0, stage_length, (jbyte *)report->app.release_stage);
-
-      (*env)->CallStaticVoidMethod(env, interface_class, jdeliver_method,
-                                   jstage, jpayload);
-      (*env)->ReleaseByteArrayElements(env, jpayload, (jbyte *)payload, 0); // <-- frees payload
-      (*env)->ReleaseByteArrayElements(env, jstage, (jbyte *)report->app.release_stage, JNI_COMMIT);
-      (*env)->DeleteLocalRef(env, jpayload);
-      (*env)->DeleteLocalRef(env, jstage);
-    } else {
+    bsg_strncpy_safe(release_stage, report->app.release_stage,
+                     (int)release_stage_size);
+    payload_path = malloc(length + sizeof(".json"));
+    sprintf(payload_path, "%s.json", report_path);
+    if (!bsg_serialize_report_to_payload_path(report, payload_path)) {
       BUGSNAG_LOG("Failed to serialize report as JSON: %s", report_path);
+      free(payload_path);
+      payload_path = NULL;
     }
     free(report);
   } else {
     BUGSNAG_LOG("Failed to read report at file: %s", report_path);
   }
   remove(report_path);
+  return payload_path;
+}
+
+JNIEXPORT void JNICALL
+Java_com_bugsnag_android_ndk_NativeBridge_deliverReportAtPath(
+    JNIEnv *env, jobject _this, jstring _report_path) {
+  static pthread_mutex_t bsg_native_delivery_mutex = PTHREAD_MUTEX_INITIALIZER;
+  pthread_mutex_lock(&bsg_native_delivery_mutex);
+  const char *report_path = (*env)->GetStringUTFChars(env, _report_path, 0);
+  char release_stage[sizeof(((bsg_app_info *)0)->release_stage)];
+  char *payload_path =
+      bsg_prepare_payload(report_path, release_stage, sizeof(release_stage));
+
+  if (payload_path != NULL) {
+    // the payload file is moved into the error store rather than copied
+    jclass interface_class =
+        (*env)->FindClass(env, "com/bugsnag/android/NativeInterface");
+    jmethodID jdeliver_method = (*env)->GetStaticMethodID(
+        env, interface_class, "deliverReportFile",
+        "(Ljava/lang/String;Ljava/lang/String;)V");
+    jstring jrelease_stage = (*env)->NewStringUTF(env, release_stage);
+    jstring jpayload_path = (*env)->NewStringUTF(env, payload_path);
+    (*env)->CallStaticVoidMethod(env, interface_class, jdeliver_method,
+                                 jrelease_stage, jpayload_path);
+    (*env)->DeleteLocalRef(env, jrelease_stage);
+    (*env)->DeleteLocalRef(env, jpayload_path);
+    (*env)->DeleteLocalRef(env, interface_class);
+    free(payload_path);
+  }
   (*env)->ReleaseStringUTFChars(env, _report_path, report_path);
   pthread_mutex_unlock(&bsg_native_delivery_mutex);
 }
@@ -316,18 +434,7 @@ Java_com_bugsnag_android_ndk_NativeBridge_updateInForeground(
                        ? NULL
                        : (char *)(*env)->GetStringUTFChars(env, activity_, 0);
   bsg_request_env_write_lock();
-  bool was_in_foreground = bsg_global_env->next_report.app.in_foreground;
-  bsg_global_env->next_report.app.in_foreground = (bool)new_value;
-  bsg_strncpy_safe(bsg_global_env->next_report.app.active_screen, activity,
-                   sizeof(bsg_global_env->next_report.app.active_screen));
-  if ((bool)new_value) {
-    if (!was_in_foreground) {
-      time(&bsg_global_env->foreground_start_time);
-    }
-  } else {
-    bsg_global_env->foreground_start_time = 0;
-    bsg_global_env->next_report.app.duration_in_foreground_ms_offset = 0;
-  }
+  bsg_set_in_foreground(bsg_global_env, (bool)new_value, activity);
   bsg_release_env_write_lock();
   if (activity_ != NULL) {
     (*env)->ReleaseStringUTFChars(env, activity_, activity);
@@ -495,6 +602,26 @@ JNIEXPORT void JNICALL Java_com_bugsnag_android_ndk_NativeBridge_removeMetadata(
   (*env)->ReleaseStringUTFChars(env, key_, key);
 }
 
+JNIEXPORT void JNICALL
+Java_com_bugsnag_android_ndk_NativeBridge_applyStateDelta(JNIEnv *env,
+                                                          jobject _this,
+                                                          jbyteArray delta_,
+                                                          jint length) {
+  if (bsg_global_env == NULL)
+    return;
+  jbyte *delta = (*env)->GetByteArrayElements(env, delta_, NULL);
+  if (delta == NULL)
+    return;
+  bsg_request_env_write_lock();
+  bool applied =
+      bsg_apply_state_delta(bsg_global_env, (uint8_t *)delta, (size_t)length);
+  bsg_release_env_write_lock();
+  (*env)->ReleaseByteArrayElements(env, delta_, delta, JNI_ABORT);
+  if (!applied) {
+    BUGSNAG_LOG("Failed to apply malformed state delta");
+  }
+}
+
 JNIEXPORT void JNICALL Java_com_bugsnag_android_ndk_NativeBridge_updateMetadata(
     JNIEnv *env, jobject _this, jobject metadata) {
   if (bsg_global_env == NULL)
@@ -4,15 +4,28 @@
 #ifndef BUGSNAG_NDK_H
 #define BUGSNAG_NDK_H
 
-#include <android/log.h>
 #include <stdbool.h>
+#ifdef __ANDROID__
+#include <android/log.h>
+#else
+#include <stdio.h>
+#endif
 
+#include "journal.h"
 #include "report.h"
+#include "report_file.h"
+#include "state_region.h"
 #include "utils/stack_unwinder.h"
 
 #ifndef BUGSNAG_LOG
+#ifdef __ANDROID__
 #define BUGSNAG_LOG(fmt, ...)                                                  \
   __android_log_print(ANDROID_LOG_WARN, "BugsnagNDK", fmt, ##__VA_ARGS__)
+#else
+// host builds, such as the benchmarks, log to stderr
+#define BUGSNAG_LOG(fmt, ...)                                                  \
+  fprintf(stderr, "BugsnagNDK: " fmt "\n", ##__VA_ARGS__)
+#endif
 #endif
 
 #ifdef __cplusplus
@@ -33,10 +46,32 @@ typedef struct {
      * File path on disk where the next crash report will be written if needed.
      */
     char next_report_path[384];
+    /**
+     * File path which the report is moved to once it has been written as a
+     * JSON payload
+     */
+    char next_payload_path[400];
+    /**
+     * Pre-allocated mapping of the file at next_report_path, or NULL until it
+     * has been prepared in the background or if it could not be, in which
+     * case the report is written to the file when handling a crash.
+     */
+    bsg_report_file *report_file;
     /**
      * Cache of static metadata and report info. Exception/time information is populated at crash time.
      */
     bugsnag_report next_report;
+    /**
+     * State journal shared with the JVM layer, or NULL if it could not be
+     * mapped. Breadcrumbs are read from the journal when handling a crash.
+     */
+    bsg_journal *journal;
+    /**
+     * State region written by the JVM layer, or NULL if it could not be
+     * attached. User, context and app state are read from the region when
+     * handling a crash.
+     */
+    bsg_state_region *state_region;
     /**
      * Time when installed
      */
@@ -107,7 +107,7 @@ void bsg_handle_cpp_terminate() {
   bsg_strncpy(bsg_global_env->next_report.exception.message, (char *)message,
               message_length);
 
-  bsg_serialize_report_to_file(bsg_global_env);
+  bsg_serialize_report_to_payload_file(bsg_global_env);
   bsg_global_env->crash_handled = true;
   bsg_handler_uninstall_cpp();
   if (bsg_global_terminate_previous != NULL) {
@@ -195,7 +195,7 @@ void bsg_handle_signal(int signum, siginfo_t *info,
       break;
     }
   }
-  bsg_serialize_report_to_file(bsg_global_env);
+  bsg_serialize_report_to_payload_file(bsg_global_env);
   bsg_handler_uninstall_signal();
   bsg_invoke_previous_signal_handler(signum, info, user_context);
 }
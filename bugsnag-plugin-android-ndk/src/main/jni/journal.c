@@ -0,0 +1,70 @@
+#include "journal.h"
+
+#include <fcntl.h>
+#include <string.h>
+#include <sys/mman.h>
+#include <sys/stat.h>
+#include <unistd.h>
+
+#include "utils/report_writer.h"
+
+// the JVM layer writes at fixed offsets, see StateJournal.java
+_Static_assert(sizeof(bsg_journal_header) == 280, "journal header size");
+_Static_assert(sizeof(bsg_journal_slot) == 1120, "journal slot size");
+
+bsg_journal *bsg_journal_map(const char *path) {
+  int fd = open(path, O_RDWR);
+  if (fd == -1) {
+    return NULL;
+  }
+  struct stat info;
+  if (fstat(fd, &info) != 0 || info.st_size < sizeof(bsg_journal)) {
+    close(fd);
+    return NULL;
+  }
+  void *addr = mmap(NULL, sizeof(bsg_journal), PROT_READ | PROT_WRITE,
+                    MAP_SHARED, fd, 0);
+  close(fd); // the mapping remains valid once the descriptor is closed
+  if (addr == MAP_FAILED) {
+    return NULL;
+  }
+
+  bsg_journal *journal = (bsg_journal *)addr;
+  if (journal->header.magic != BSG_JOURNAL_MAGIC ||
+      journal->header.version != BSG_JOURNAL_VERSION ||
+      journal->header.crumb_capacity != BSG_JOURNAL_CRUMB_CAPACITY) {
+    munmap(addr, sizeof(bsg_journal));
+    return NULL;
+  }
+  return journal;
+}
+
+void bsg_journal_copy_breadcrumbs(bsg_journal *journal,
+                                  bugsnag_report *report) {
+  bugsnag_report_clear_breadcrumbs(report);
+  int64_t end = __atomic_load_n(&journal->header.crumb_head, __ATOMIC_ACQUIRE);
+  int64_t start = end - BSG_JOURNAL_CRUMB_CAPACITY;
+  if (start < 0) {
+    start = 0;
+  }
+
+  static bugsnag_breadcrumb crumb;
+  for (int64_t seq = start; seq < end; seq++) {
+    bsg_journal_slot *slot = &journal->slots[seq % BSG_JOURNAL_CRUMB_CAPACITY];
+    if (__atomic_load_n(&slot->seq, __ATOMIC_ACQUIRE) != seq) {
+      continue;
+    }
+    memcpy(&crumb, &slot->crumb, sizeof(bugsnag_breadcrumb));
+    int64_t timestamp = slot->timestamp;
+
+    // discard the copy if the slot was rewritten while it was being read
+    if (__atomic_load_n(&slot->seq, __ATOMIC_ACQUIRE) == seq) {
+      bsg_format_timestamp((time_t)(timestamp / 1000), crumb.timestamp);
+      bugsnag_report_add_breadcrumb(report, &crumb);
+    }
+  }
+}
+
+void bsg_journal_mark_crashed(bsg_journal *journal) {
+  __atomic_store_n(&journal->header.crashed, 1, __ATOMIC_RELEASE);
+}
@@ -0,0 +1,118 @@
+/**
+ * Reader for the state journal written by the JVM layer (StateJournal.java).
+ *
+ * The journal is a file which both layers map into memory. The JVM layer
+ * writes breadcrumbs and app state into it as they change, so the most recent
+ * state survives the process being killed without either layer having to
+ * write to disk. The signal handler reads breadcrumbs directly from the
+ * mapping rather than keeping its own copy in the report.
+ */
+#ifndef BUGSNAG_JOURNAL_H
+#define BUGSNAG_JOURNAL_H
+
+#include <stdbool.h>
+#include <stdint.h>
+
+#include "report.h"
+#include "utils/build.h"
+
+/**
+ * Identifies a journal file, "BSGJ"
+ */
+#define BSG_JOURNAL_MAGIC 0x4253474A
+/**
+ * Version of the journal layout. Must match StateJournal.VERSION
+ */
+#define BSG_JOURNAL_VERSION 2
+/**
+ * Number of breadcrumb slots in the journal. Must match
+ * StateJournal.CRUMB_CAPACITY
+ */
+#define BSG_JOURNAL_CRUMB_CAPACITY 32
+/**
+ * Sequence value of a slot which is empty or being written
+ */
+#define BSG_JOURNAL_SEQ_INVALID -1
+
+#ifdef __cplusplus
+extern "C" {
+#endif
+
+typedef struct {
+  int32_t magic;
+  int32_t version;
+  /**
+   * 0 if big endian
+   */
+  int32_t big_endian;
+  int32_t crumb_capacity;
+  /**
+   * Sequence number of the next breadcrumb to be written
+   */
+  int64_t crumb_head;
+  /**
+   * Time in ms when the process which owns the journal started
+   */
+  int64_t start_time;
+  /**
+   * Time in ms when the journal was last written
+   */
+  int64_t last_update;
+  int32_t in_foreground;
+  /**
+   * How the process exited: 0 while running, 1 once an unhandled error has been
+   * captured, and 2 once it has exited cleanly
+   */
+  int32_t crashed;
+  char context[64];
+  char user_id[64];
+  char active_screen[64];
+  char session_id[40];
+} bsg_journal_header;
+
+typedef struct {
+  /**
+   * Sequence number of the breadcrumb held in this slot, or
+   * BSG_JOURNAL_SEQ_INVALID while the slot is empty or being written
+   */
+  int64_t seq;
+  /**
+   * Time in ms when the breadcrumb was left. The JVM layer leaves the
+   * timestamp of the crumb empty, and it is formatted from this when the
+   * breadcrumb is copied into a report
+   */
+  int64_t timestamp;
+  bugsnag_breadcrumb crumb;
+  /**
+   * Pads the slot to the same size on every ABI
+   */
+  int32_t reserved;
+} bsg_journal_slot;
+
+typedef struct {
+  bsg_journal_header header;
+  bsg_journal_slot slots[BSG_JOURNAL_CRUMB_CAPACITY];
+} bsg_journal;
+
+/**
+ * Map the journal at a path which has been created by the JVM layer
+ *
+ * @return the mapped journal or NULL if the file is missing or invalid
+ */
+bsg_journal *bsg_journal_map(const char *path);
+
+/**
+ * Replace the breadcrumbs in a report with those in the journal, oldest first
+ */
+void bsg_journal_copy_breadcrumbs(bsg_journal *journal,
+                                  bugsnag_report *report) __asyncsafe;
+
+/**
+ * Record in the journal that the process is terminating due to a crash
+ */
+void bsg_journal_mark_crashed(bsg_journal *journal) __asyncsafe;
+
+#ifdef __cplusplus
+}
+#endif
+#endif
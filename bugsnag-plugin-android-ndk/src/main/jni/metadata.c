@@ -411,7 +411,7 @@ void bsg_populate_metadata(JNIEnv *env, bugsnag_report *report,
     (*env)->DeleteLocalRef(env, keyset);
     (*env)->DeleteLocalRef(env, keylist);
   } else {
-    report->metadata.value_count = 0;
+    bugsnag_report_clear_metadata(report);
   }
   free(jni_cache);
 }
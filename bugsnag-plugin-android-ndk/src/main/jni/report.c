@@ -2,34 +2,126 @@
 #include "utils/string.h"
 #include <string.h>
 
-int bsg_find_next_free_metadata_index(bugsnag_report *report) {
-  if (report->metadata.value_count < BUGSNAG_METADATA_MAX) {
-    return report->metadata.value_count;
-  } else {
-    for (int i = 0; i < report->metadata.value_count; i++) {
-      if (report->metadata.values[i].type == BSG_NONE_VALUE) {
-        return i;
-      }
+_Static_assert((BUGSNAG_METADATA_INDEX_SIZE &
+                (BUGSNAG_METADATA_INDEX_SIZE - 1)) == 0,
+               "metadata index size must be a power of two");
+_Static_assert(BUGSNAG_METADATA_INDEX_SIZE > BUGSNAG_METADATA_MAX,
+               "metadata index must have a free slot");
+
+#define BSG_METADATA_INDEX_MASK (BUGSNAG_METADATA_INDEX_SIZE - 1)
+#define BSG_METADATA_KEY_LEN (sizeof(((bsg_metadata_value *)0)->name) - 1)
+
+/**
+ * FNV-1a hash of a section and name, as truncated when they are stored
+ */
+static uint32_t bsg_metadata_hash(const char *section, const char *name) {
+  uint32_t hash = 2166136261u;
+  for (size_t i = 0; i < BSG_METADATA_KEY_LEN && section[i] != '\0'; i++) {
+    hash = (hash ^ (uint8_t)section[i]) * 16777619u;
+  }
+  hash = (hash ^ 0xff) * 16777619u; // no UTF-8 string contains 0xff
+  for (size_t i = 0; i < BSG_METADATA_KEY_LEN && name[i] != '\0'; i++) {
+    hash = (hash ^ (uint8_t)name[i]) * 16777619u;
+  }
+  return hash;
+}
+
+static bool bsg_metadata_key_equals(bsg_metadata_value *value,
+                                    const char *section, const char *name) {
+  return strncmp(value->section, section, BSG_METADATA_KEY_LEN) == 0 &&
+         strncmp(value->name, name, BSG_METADATA_KEY_LEN) == 0;
+}
+
+/**
+ * Find the index slot holding a key, or the empty slot where it would be
+ * inserted. As the index is larger than the metadata it always contains an
+ * empty slot.
+ */
+static int bsg_metadata_find_slot(bugsnag_metadata *metadata,
+                                  const char *section, const char *name) {
+  int slot = bsg_metadata_hash(section, name) & BSG_METADATA_INDEX_MASK;
+  for (int i = 0; i < BUGSNAG_METADATA_INDEX_SIZE; i++) {
+    int entry = metadata->index[slot];
+    if (entry <= 0 || entry > metadata->value_count ||
+        bsg_metadata_key_equals(&metadata->values[entry - 1], section, name)) {
+      return slot;
     }
+    slot = (slot + 1) & BSG_METADATA_INDEX_MASK;
   }
   return -1;
 }
 
+/**
+ * Empty an index slot, shifting back any later entries in the same probe
+ * sequence so that lookups do not stop at the gap
+ */
+static void bsg_metadata_clear_slot(bugsnag_metadata *metadata, int slot) {
+  int hole = slot;
+  int next = (slot + 1) & BSG_METADATA_INDEX_MASK;
+
+  for (int i = 0; i < BUGSNAG_METADATA_INDEX_SIZE && metadata->index[next] != 0;
+       i++) {
+    bsg_metadata_value *value = &metadata->values[metadata->index[next] - 1];
+    int home = bsg_metadata_hash(value->section, value->name) &
+               BSG_METADATA_INDEX_MASK;
+
+    // the entry can move if the hole lies between its home slot and its slot
+    if (((next - home) & BSG_METADATA_INDEX_MASK) >=
+        ((next - hole) & BSG_METADATA_INDEX_MASK)) {
+      metadata->index[hole] = metadata->index[next];
+      hole = next;
+    }
+    next = (next + 1) & BSG_METADATA_INDEX_MASK;
+  }
+  metadata->index[hole] = 0;
+}
+
+/**
+ * Remove the value referenced by an index slot, moving the last value into
+ * its place
+ */
+static void bsg_metadata_remove_slot(bugsnag_metadata *metadata, int slot) {
+  int position = metadata->index[slot] - 1;
+  int last = metadata->value_count - 1;
+  bsg_metadata_clear_slot(metadata, slot);
+
+  if (position != last) {
+    int moved = bsg_metadata_find_slot(metadata, metadata->values[last].section,
+                                       metadata->values[last].name);
+    memcpy(&metadata->values[position], &metadata->values[last],
+           sizeof(bsg_metadata_value));
+    if (moved >= 0) {
+      metadata->index[moved] = (int16_t)(position + 1);
+    }
+  }
+  metadata->values[last].type = BSG_NONE_VALUE;
+  metadata->value_count--;
+}
+
 int bugsnag_report_add_metadata_value(bugsnag_report *report, char *section,
                                       char *name) {
-  int index = bsg_find_next_free_metadata_index(report);
-  if (index < 0) {
-    return index;
+  bugsnag_metadata *metadata = &report->metadata;
+  int slot = bsg_metadata_find_slot(metadata, section, name);
+  if (slot < 0) {
+    return -1;
   }
-  bsg_strncpy_safe(report->metadata.values[index].section, section,
-                   sizeof(report->metadata.values[index].section));
-  bsg_strncpy_safe(report->metadata.values[index].name, name,
-                   sizeof(report->metadata.values[index].name));
-  if (report->metadata.value_count < BUGSNAG_METADATA_MAX) {
-    report->metadata.value_count = index + 1;
+  int entry = metadata->index[slot];
+  if (entry > 0 && entry <= metadata->value_count) {
+    return entry - 1; // replace the existing value
   }
-  return index;
+  if (metadata->value_count >= BUGSNAG_METADATA_MAX) {
+    return -1;
+  }
+  int position = metadata->value_count;
+  bsg_strncpy_safe(metadata->values[position].section, section,
+                   sizeof(metadata->values[position].section));
+  bsg_strncpy_safe(metadata->values[position].name, name,
+                   sizeof(metadata->values[position].name));
+  metadata->index[slot] = (int16_t)(position + 1);
+  metadata->value_count = position + 1;
+  return position;
 }
+
 void bugsnag_report_add_metadata_double(bugsnag_report *report, char *section,
                                         char *name, double value) {
   int index = bugsnag_report_add_metadata_value(report, section, name);
@@ -60,28 +152,34 @@ void bugsnag_report_add_metadata_bool(bugsnag_report *report, char *section,
 
 void bugsnag_report_remove_metadata(bugsnag_report *report, char *section,
                                     char *name) {
-  for (int i = 0; i < report->metadata.value_count; ++i) {
-    if (strcmp(report->metadata.values[i].section, section) == 0 &&
-        strcmp(report->metadata.values[i].name, name) == 0) {
-      memcpy(&report->metadata.values[i],
-             &report->metadata.values[report->metadata.value_count - 1],
-             sizeof(bsg_metadata_value));
-      report->metadata.values[report->metadata.value_count - 1].type =
-          BSG_NONE_VALUE;
-      report->metadata.value_count--;
-      break;
-    }
+  bugsnag_metadata *metadata = &report->metadata;
+  int slot = bsg_metadata_find_slot(metadata, section, name);
+  if (slot >= 0 && metadata->index[slot] > 0 &&
+      metadata->index[slot] <= metadata->value_count) {
+    bsg_metadata_remove_slot(metadata, slot);
   }
 }
 
 void bugsnag_report_remove_metadata_tab(bugsnag_report *report, char *section) {
-  for (int i = 0; i < report->metadata.value_count; ++i) {
-    if (strcmp(report->metadata.values[i].section, section) == 0) {
-      report->metadata.values[i].type = BSG_NONE_VALUE;
+  bugsnag_metadata *metadata = &report->metadata;
+  // iterate backwards so that the value moved into a removed position has
+  // already been checked
+  for (int i = metadata->value_count - 1; i >= 0; i--) {
+    bsg_metadata_value *value = &metadata->values[i];
+    if (strncmp(value->section, section, BSG_METADATA_KEY_LEN) == 0) {
+      int slot = bsg_metadata_find_slot(metadata, value->section, value->name);
+      if (slot >= 0 && metadata->index[slot] == i + 1) {
+        bsg_metadata_remove_slot(metadata, slot);
+      }
     }
   }
 }
 
+void bugsnag_report_clear_metadata(bugsnag_report *report) {
+  report->metadata.value_count = 0;
+  memset(report->metadata.index, 0, sizeof(report->metadata.index));
+}
+
 void bugsnag_report_start_session(bugsnag_report *report, char *session_id,
                                   char *started_at, int handled_count, int unhandled_count) {
   bsg_strncpy_safe(report->session_id, session_id, sizeof(report->session_id));
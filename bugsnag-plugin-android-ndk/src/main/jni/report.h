@@ -2,6 +2,7 @@
 #define BUGSNAG_REPORT_H
 
 #include <stdbool.h>
+#include <stdint.h>
 #include <sys/types.h>
 #ifndef BUGSNAG_METADATA_MAX
 /**
@@ -10,6 +11,13 @@
  */
 #define BUGSNAG_METADATA_MAX 128
 #endif
+#ifndef BUGSNAG_METADATA_INDEX_SIZE
+/**
+ * Number of slots in the metadata hash index. Must be a power of two larger
+ * than BUGSNAG_METADATA_MAX. Configures a default if not defined.
+ */
+#define BUGSNAG_METADATA_INDEX_SIZE 256
+#endif
 #ifndef BUGSNAG_FRAMES_MAX
 /**
  *  Number of frames in a stacktrace. Configures a default if not defined.
@@ -29,9 +37,11 @@
 #define BUGSNAG_DEFAULT_EX_TYPE "c"
 #endif
 /**
- * Version of the bugsnag_report struct. Serialized to report header.
+ * Version of the report file layout. Serialized to report header. Versions 1
+ * to 3 held the bugsnag_report struct of the time, and version 4 holds the
+ * compact layout described in report_compact.h.
  */
-#define BUGSNAG_REPORT_VERSION 2
+#define BUGSNAG_REPORT_VERSION 4
 
 #define BUGSNAG_USER_INFO_LEN 64
 #ifdef __cplusplus
@@ -121,7 +131,8 @@ typedef struct {
  */
 typedef struct {
   /**
-   * The value of BUGSNAG_REPORT_VERSION
+   * The value of BUGSNAG_REPORT_VERSION, or BSG_REPORT_INCOMPLETE in a
+   * pre-allocated report file which a crash has not been written to
    */
   int version;
   /**
@@ -222,6 +233,13 @@ typedef struct {
   /** The number of values in use */
   int value_count;
   bsg_metadata_value values[BUGSNAG_METADATA_MAX];
+  /**
+   * An open-addressing hash index over (section, name). Each slot holds the
+   * position of a value plus one, or zero if the slot is empty. Collisions are
+   * resolved by linear probing, and removals shift later entries back rather
+   * than leaving tombstones.
+   */
+  int16_t index[BUGSNAG_METADATA_INDEX_SIZE];
 } bugsnag_metadata;
 
 typedef struct {
@@ -295,6 +313,14 @@ typedef struct {
   int unhandled_events;
 } bugsnag_report;
 
+/**
+ * Find the value for a section and name, allocating it if the key is not
+ * present
+ *
+ * @return the position of the value, or -1 if the metadata is full
+ */
+int bugsnag_report_add_metadata_value(bugsnag_report *report, char *section,
+                                      char *name);
 void bugsnag_report_add_metadata_double(bugsnag_report *report, char *section,
                                         char *name, double value);
 void bugsnag_report_add_metadata_string(bugsnag_report *report, char *section,
@@ -307,6 +333,7 @@ void bugsnag_report_clear_breadcrumbs(bugsnag_report *report);
 void bugsnag_report_remove_metadata(bugsnag_report *report, char *section,
                                     char *name);
 void bugsnag_report_remove_metadata_tab(bugsnag_report *report, char *section);
+void bugsnag_report_clear_metadata(bugsnag_report *report);
 void bugsnag_report_set_context(bugsnag_report *report, char *value);
 void bugsnag_report_set_orientation(bugsnag_report *report, int value);
 void bugsnag_report_set_app_version(bugsnag_report *report, char *value);
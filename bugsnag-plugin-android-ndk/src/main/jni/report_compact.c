@@ -0,0 +1,498 @@
+#include "report_compact.h"
+
+#include <stddef.h>
+#include <string.h>
+
+_Static_assert((BSG_COMPACT_INTERN_SLOTS & (BSG_COMPACT_INTERN_SLOTS - 1)) ==
+                   0,
+               "intern table size must be a power of two");
+
+typedef enum {
+  /** A char array, encoded as a reference into the string pool */
+  BSG_FIELD_STRING,
+  /** Any other value, copied as is */
+  BSG_FIELD_VALUE,
+} bsg_field_kind;
+
+typedef struct {
+  uint32_t offset;
+  uint16_t size;
+  uint16_t kind;
+} bsg_compact_field;
+
+#define BSG_FIELD(field, kind)                                                 \
+  { offsetof(bugsnag_report, field), sizeof(((bugsnag_report *)0)->field), kind }
+#define BSG_STRING(field) BSG_FIELD(field, BSG_FIELD_STRING)
+#define BSG_VALUE(field) BSG_FIELD(field, BSG_FIELD_VALUE)
+
+/**
+ * The scalar fields of a report, in the order they are encoded. Fields added
+ * to bugsnag_report need to be added here, and changing the list requires a
+ * new report version.
+ */
+static const bsg_compact_field bsg_report_fields[] = {
+    BSG_STRING(notifier.name),
+    BSG_STRING(notifier.version),
+    BSG_STRING(notifier.url),
+    BSG_STRING(app.name),
+    BSG_STRING(app.id),
+    BSG_STRING(app.package_name),
+    BSG_STRING(app.release_stage),
+    BSG_STRING(app.type),
+    BSG_STRING(app.version),
+    BSG_STRING(app.version_name),
+    BSG_STRING(app.active_screen),
+    BSG_VALUE(app.version_code),
+    BSG_STRING(app.build_uuid),
+    BSG_VALUE(app.duration),
+    BSG_VALUE(app.duration_in_foreground),
+    BSG_VALUE(app.duration_ms_offset),
+    BSG_VALUE(app.duration_in_foreground_ms_offset),
+    BSG_VALUE(app.in_foreground),
+    BSG_VALUE(app.low_memory),
+    BSG_VALUE(app.memory_usage),
+    BSG_STRING(app.binaryArch),
+    BSG_VALUE(device.api_level),
+    BSG_VALUE(device.battery_level),
+    BSG_STRING(device.brand),
+    BSG_VALUE(device.cpu_abi_count),
+    BSG_STRING(device.cpu_abi[0].value),
+    BSG_STRING(device.cpu_abi[1].value),
+    BSG_STRING(device.cpu_abi[2].value),
+    BSG_STRING(device.cpu_abi[3].value),
+    BSG_STRING(device.cpu_abi[4].value),
+    BSG_STRING(device.cpu_abi[5].value),
+    BSG_STRING(device.cpu_abi[6].value),
+    BSG_STRING(device.cpu_abi[7].value),
+    BSG_VALUE(device.dpi),
+    BSG_VALUE(device.emulator),
+    BSG_STRING(device.orientation),
+    BSG_VALUE(device.time),
+    BSG_STRING(device.id),
+    BSG_VALUE(device.jailbroken),
+    BSG_STRING(device.locale),
+    BSG_STRING(device.location_status),
+    BSG_STRING(device.manufacturer),
+    BSG_STRING(device.model),
+    BSG_STRING(device.network_access),
+    BSG_STRING(device.os_build),
+    BSG_STRING(device.os_version),
+    BSG_VALUE(device.screen_density),
+    BSG_STRING(device.screen_resolution),
+    BSG_VALUE(device.total_memory),
+    BSG_STRING(user.name),
+    BSG_STRING(user.email),
+    BSG_STRING(user.id),
+    BSG_STRING(exception.name),
+    BSG_STRING(exception.message),
+    BSG_STRING(exception.type),
+    BSG_STRING(context),
+    BSG_VALUE(severity),
+    BSG_STRING(session_id),
+    BSG_STRING(session_start),
+    BSG_VALUE(handled_events),
+    BSG_VALUE(unhandled_events),
+};
+
+#define BSG_FIELD_COUNT (sizeof(bsg_report_fields) / sizeof(bsg_compact_field))
+#define BSG_CRUMB_PAIRS_MAX                                                    \
+  (sizeof(((bugsnag_breadcrumb *)0)->metadata) / sizeof(bsg_char_metadata_pair))
+
+typedef struct {
+  uint8_t *base;
+  size_t capacity;
+  /** The end of the records, which grow from the start of the arena */
+  size_t head;
+  /** The start of the string pool, which grows from the end of the arena */
+  size_t tail;
+} bsg_arena;
+
+typedef struct {
+  uint32_t hash;
+  uint32_t ref;
+} bsg_intern_slot;
+
+/**
+ * Strings stored while encoding, by hash. Static rather than on the stack as
+ * the encoder runs on the signal stack, and as only one report is encoded
+ * at a time.
+ */
+static bsg_intern_slot bsg_intern_table[BSG_COMPACT_INTERN_SLOTS];
+
+static uint32_t bsg_string_hash(const char *str, size_t length) {
+  uint32_t hash = 2166136261u;
+  for (size_t i = 0; i < length; i++) {
+    hash = (hash ^ (uint8_t)str[i]) * 16777619u;
+  }
+  return hash;
+}
+
+static bool bsg_arena_write(bsg_arena *arena, const void *value,
+                            size_t length) {
+  if (arena->tail - arena->head < length) {
+    return false;
+  }
+  memcpy(arena->base + arena->head, value, length);
+  arena->head += length;
+  return true;
+}
+
+/**
+ * @return true if a reference points at a string stored in the pool which is
+ *         equal to str. References can be stale if the record which stored
+ *         them was rolled back.
+ */
+static bool bsg_arena_has_string(bsg_arena *arena, uint32_t ref,
+                                 const char *str, size_t length) {
+  if (ref <= length || ref > arena->capacity - arena->tail) {
+    return false;
+  }
+  const char *stored = (const char *)arena->base + arena->capacity - ref;
+  return memcmp(stored, str, length) == 0 && stored[length] == '\0';
+}
+
+/**
+ * Write a reference to a string, storing the string in the pool unless an
+ * equal string is already there
+ */
+static bool bsg_arena_write_string(bsg_arena *arena, const char *str,
+                                   size_t size) {
+  size_t length = strnlen(str, size);
+  uint32_t ref = 0;
+  if (length > 0) {
+    uint32_t hash = bsg_string_hash(str, length);
+    bsg_intern_slot *slot = NULL;
+    for (int i = 0; i < BSG_COMPACT_INTERN_SLOTS; i++) {
+      bsg_intern_slot *candidate =
+          &bsg_intern_table[(hash + i) & (BSG_COMPACT_INTERN_SLOTS - 1)];
+      if (candidate->ref == 0 ||
+          (candidate->hash == hash &&
+           bsg_arena_has_string(arena, candidate->ref, str, length))) {
+        slot = candidate;
+        break;
+      }
+    }
+    if (slot != NULL && slot->ref != 0) {
+      ref = slot->ref;
+    } else {
+      if (arena->tail - arena->head < length + 1 + sizeof(ref)) {
+        return false;
+      }
+      arena->tail -= length + 1;
+      memcpy(arena->base + arena->tail, str, length);
+      arena->base[arena->tail + length] = '\0';
+      ref = (uint32_t)(arena->capacity - arena->tail);
+      if (slot != NULL) {
+        slot->hash = hash;
+        slot->ref = ref;
+      }
+    }
+  }
+  return bsg_arena_write(arena, &ref, sizeof(ref));
+}
+
+static bool bsg_write_fields(bsg_arena *arena, const bugsnag_report *report) {
+  for (size_t i = 0; i < BSG_FIELD_COUNT; i++) {
+    const bsg_compact_field *field = &bsg_report_fields[i];
+    const uint8_t *value = (const uint8_t *)report + field->offset;
+    bool written = field->kind == BSG_FIELD_STRING
+                       ? bsg_arena_write_string(arena, (const char *)value,
+                                                field->size)
+                       : bsg_arena_write(arena, value, field->size);
+    if (!written) {
+      return false;
+    }
+  }
+  return true;
+}
+
+static bool bsg_write_frame(bsg_arena *arena, const bsg_stackframe *frame) {
+  return bsg_arena_write(arena, &frame->frame_address, sizeof(uintptr_t)) &&
+         bsg_arena_write(arena, &frame->symbol_address, sizeof(uintptr_t)) &&
+         bsg_arena_write(arena, &frame->load_address, sizeof(uintptr_t)) &&
+         bsg_arena_write(arena, &frame->line_number, sizeof(uintptr_t)) &&
+         bsg_arena_write_string(arena, frame->filename,
+                                sizeof(frame->filename)) &&
+         bsg_arena_write_string(arena, frame->method, sizeof(frame->method));
+}
+
+static bool bsg_write_metadata_value(bsg_arena *arena,
+                                     const bsg_metadata_value *value) {
+  uint8_t type = (uint8_t)value->type;
+  if (!bsg_arena_write_string(arena, value->section, sizeof(value->section)) ||
+      !bsg_arena_write_string(arena, value->name, sizeof(value->name)) ||
+      !bsg_arena_write(arena, &type, sizeof(type))) {
+    return false;
+  }
+  switch (value->type) {
+  case BSG_BOOL_VALUE:
+    return bsg_arena_write(arena, &value->bool_value, sizeof(bool));
+  case BSG_CHAR_VALUE:
+    return bsg_arena_write_string(arena, value->char_value,
+                                  sizeof(value->char_value));
+  case BSG_NUMBER_VALUE:
+    return bsg_arena_write(arena, &value->double_value, sizeof(double));
+  default:
+    return true;
+  }
+}
+
+static bool bsg_write_breadcrumb(bsg_arena *arena,
+                                 const bugsnag_breadcrumb *crumb) {
+  uint8_t type = (uint8_t)crumb->type;
+  uint8_t pair_count = 0;
+  for (size_t i = 0; i < BSG_CRUMB_PAIRS_MAX; i++) {
+    if (crumb->metadata[i].key[0] != '\0') {
+      pair_count++;
+    }
+  }
+  if (!bsg_arena_write_string(arena, crumb->name, sizeof(crumb->name)) ||
+      !bsg_arena_write_string(arena, crumb->timestamp,
+                              sizeof(crumb->timestamp)) ||
+      !bsg_arena_write(arena, &type, sizeof(type)) ||
+      !bsg_arena_write(arena, &pair_count, sizeof(pair_count))) {
+    return false;
+  }
+  for (size_t i = 0; i < BSG_CRUMB_PAIRS_MAX; i++) {
+    const bsg_char_metadata_pair *pair = &crumb->metadata[i];
+    if (pair->key[0] != '\0' &&
+        (!bsg_arena_write_string(arena, pair->key, sizeof(pair->key)) ||
+         !bsg_arena_write_string(arena, pair->value, sizeof(pair->value)))) {
+      return false;
+    }
+  }
+  return true;
+}
+
+size_t bsg_report_compact_encode(const bugsnag_report *report, void *buffer,
+                                 size_t capacity) {
+  if (capacity < sizeof(bsg_compact_header) || capacity > UINT32_MAX) {
+    return 0;
+  }
+  bsg_arena arena = {.base = (uint8_t *)buffer,
+                     .capacity = capacity,
+                     .head = sizeof(bsg_compact_header),
+                     .tail = capacity};
+  bsg_compact_header header = {0};
+  memset(bsg_intern_table, 0, sizeof(bsg_intern_table));
+
+  if (!bsg_write_fields(&arena, report)) {
+    return 0;
+  }
+
+  // each record is rolled back if it does not fit, after which the rest of
+  // its section is dropped
+  size_t head = arena.head, tail = arena.tail;
+  ssize_t frame_count = report->exception.frame_count;
+  for (ssize_t i = 0; i < frame_count && i < BUGSNAG_FRAMES_MAX; i++) {
+    if (!bsg_write_frame(&arena, &report->exception.stacktrace[i])) {
+      header.flags |= BSG_COMPACT_TRUNCATED;
+      break;
+    }
+    header.frame_count++;
+    head = arena.head, tail = arena.tail;
+  }
+  arena.head = head, arena.tail = tail;
+
+  for (int i = 0; i < report->metadata.value_count && i < BUGSNAG_METADATA_MAX;
+       i++) {
+    if (!bsg_write_metadata_value(&arena, &report->metadata.values[i])) {
+      header.flags |= BSG_COMPACT_TRUNCATED;
+      break;
+    }
+    header.metadata_count++;
+    head = arena.head, tail = arena.tail;
+  }
+  arena.head = head, arena.tail = tail;
+
+  // written from the most recent, so that the oldest are dropped first
+  int crumb_count = report->crumb_count < BUGSNAG_CRUMBS_MAX
+                        ? report->crumb_count
+                        : BUGSNAG_CRUMBS_MAX;
+  for (int i = crumb_count - 1; i >= 0; i--) {
+    int index = (report->crumb_first_index + i) % BUGSNAG_CRUMBS_MAX;
+    if (!bsg_write_breadcrumb(&arena, &report->breadcrumbs[index])) {
+      header.flags |= BSG_COMPACT_TRUNCATED;
+      break;
+    }
+    header.crumb_count++;
+    head = arena.head, tail = arena.tail;
+  }
+  arena.head = head, arena.tail = tail;
+
+  size_t strings_length = capacity - arena.tail;
+  memmove(arena.base + arena.head, arena.base + arena.tail, strings_length);
+  header.strings_offset = (uint32_t)arena.head;
+  header.strings_length = (uint32_t)strings_length;
+  header.length = (uint32_t)(arena.head + strings_length);
+  memcpy(buffer, &header, sizeof(header));
+  return header.length;
+}
+
+typedef struct {
+  const uint8_t *data;
+  /** The end of the records */
+  size_t end;
+  size_t position;
+  const char *strings;
+  size_t strings_length;
+} bsg_reader;
+
+static bool bsg_read(bsg_reader *reader, void *value, size_t length) {
+  if (reader->end - reader->position < length) {
+    return false;
+  }
+  memcpy(value, reader->data + reader->position, length);
+  reader->position += length;
+  return true;
+}
+
+static bool bsg_read_string(bsg_reader *reader, char *dst, size_t size) {
+  uint32_t ref;
+  if (!bsg_read(reader, &ref, sizeof(ref)) || ref > reader->strings_length) {
+    return false;
+  }
+  if (ref == 0) {
+    dst[0] = '\0';
+    return true;
+  }
+  const char *str = reader->strings + reader->strings_length - ref;
+  size_t length = strnlen(str, ref);
+  if (length == ref) {
+    return false; // not terminated within the pool
+  }
+  if (length >= size) {
+    length = size - 1;
+  }
+  memcpy(dst, str, length);
+  dst[length] = '\0';
+  return true;
+}
+
+static bool bsg_read_fields(bsg_reader *reader, bugsnag_report *report) {
+  for (size_t i = 0; i < BSG_FIELD_COUNT; i++) {
+    const bsg_compact_field *field = &bsg_report_fields[i];
+    uint8_t *value = (uint8_t *)report + field->offset;
+    bool read = field->kind == BSG_FIELD_STRING
+                    ? bsg_read_string(reader, (char *)value, field->size)
+                    : bsg_read(reader, value, field->size);
+    if (!read) {
+      return false;
+    }
+  }
+  return true;
+}
+
+static bool bsg_read_frame(bsg_reader *reader, bsg_stackframe *frame) {
+  return bsg_read(reader, &frame->frame_address, sizeof(uintptr_t)) &&
+         bsg_read(reader, &frame->symbol_address, sizeof(uintptr_t)) &&
+         bsg_read(reader, &frame->load_address, sizeof(uintptr_t)) &&
+         bsg_read(reader, &frame->line_number, sizeof(uintptr_t)) &&
+         bsg_read_string(reader, frame->filename, sizeof(frame->filename)) &&
+         bsg_read_string(reader, frame->method, sizeof(frame->method));
+}
+
+static bool bsg_read_metadata_value(bsg_reader *reader,
+                                    bugsnag_report *report) {
+  bsg_metadata_value value = {0};
+  uint8_t type;
+  if (!bsg_read_string(reader, value.section, sizeof(value.section)) ||
+      !bsg_read_string(reader, value.name, sizeof(value.name)) ||
+      !bsg_read(reader, &type, sizeof(type))) {
+    return false;
+  }
+  value.type = (bsg_metadata_t)type;
+  bool read = true;
+  switch (value.type) {
+  case BSG_BOOL_VALUE:
+    read = bsg_read(reader, &value.bool_value, sizeof(bool));
+    break;
+  case BSG_CHAR_VALUE:
+    read = bsg_read_string(reader, value.char_value, sizeof(value.char_value));
+    break;
+  case BSG_NUMBER_VALUE:
+    read = bsg_read(reader, &value.double_value, sizeof(double));
+    break;
+  default:
+    break;
+  }
+  if (read) {
+    int index =
+        bugsnag_report_add_metadata_value(report, value.section, value.name);
+    if (index >= 0) {
+      memcpy(&report->metadata.values[index], &value, sizeof(value));
+    }
+  }
+  return read;
+}
+
+static bool bsg_read_breadcrumb(bsg_reader *reader, bugsnag_breadcrumb *crumb) {
+  uint8_t type, pair_count;
+  if (!bsg_read_string(reader, crumb->name, sizeof(crumb->name)) ||
+      !bsg_read_string(reader, crumb->timestamp, sizeof(crumb->timestamp)) ||
+      !bsg_read(reader, &type, sizeof(type)) ||
+      !bsg_read(reader, &pair_count, sizeof(pair_count)) ||
+      pair_count > BSG_CRUMB_PAIRS_MAX) {
+    return false;
+  }
+  crumb->type = (bsg_breadcrumb_t)type;
+  for (uint8_t i = 0; i < pair_count; i++) {
+    bsg_char_metadata_pair *pair = &crumb->metadata[i];
+    if (!bsg_read_string(reader, pair->key, sizeof(pair->key)) ||
+        !bsg_read_string(reader, pair->value, sizeof(pair->value))) {
+      return false;
+    }
+  }
+  return true;
+}
+
+bool bsg_report_compact_decode(const void *data, size_t length,
+                               bugsnag_report *report) {
+  bsg_compact_header header;
+  if (length < sizeof(header)) {
+    return false;
+  }
+  memcpy(&header, data, sizeof(header));
+  if (header.length > length || header.strings_offset < sizeof(header) ||
+      header.strings_offset > header.length ||
+      header.strings_length != header.length - header.strings_offset ||
+      header.frame_count > BUGSNAG_FRAMES_MAX ||
+      header.metadata_count > BUGSNAG_METADATA_MAX ||
+      header.crumb_count > BUGSNAG_CRUMBS_MAX) {
+    return false;
+  }
+  bsg_reader reader = {
+      .data = (const uint8_t *)data,
+      .end = header.strings_offset,
+      .position = sizeof(header),
+      .strings = (const char *)data + header.strings_offset,
+      .strings_length = header.strings_length,
+  };
+  if (!bsg_read_fields(&reader, report)) {
+    return false;
+  }
+
+  report->exception.frame_count = header.frame_count;
+  for (int i = 0; i < header.frame_count; i++) {
+    if (!bsg_read_frame(&reader, &report->exception.stacktrace[i])) {
+      return false;
+    }
+  }
+
+  bugsnag_report_clear_metadata(report);
+  for (int i = 0; i < header.metadata_count; i++) {
+    if (!bsg_read_metadata_value(&reader, report)) {
+      return false;
+    }
+  }
+
+  // encoded from the most recent
+  report->crumb_count = header.crumb_count;
+  report->crumb_first_index = 0;
+  for (int i = header.crumb_count - 1; i >= 0; i--) {
+    if (!bsg_read_breadcrumb(&reader, &report->breadcrumbs[i])) {
+      return false;
+    }
+  }
+  return true;
+}
@@ -0,0 +1,91 @@
+/**
+ * Compact binary layout of a report, written from version 4 of the report
+ * format.
+ *
+ * Earlier versions wrote the bugsnag_report struct as is, so every report
+ * file held the full capacity of each stacktrace, breadcrumb and metadata
+ * table, padded out to the size of each string field. The compact layout is
+ * encoded into a single pre-allocated arena instead:
+ *
+ * - a bsg_compact_header
+ * - the scalar fields of the report, with each string replaced by a reference
+ *   into the string pool
+ * - variable-length records for the frames, metadata values and breadcrumbs
+ *   which are in use
+ * - the string pool, in which each distinct string is stored once
+ *
+ * While encoding, records are written from the start of the arena and strings
+ * from its end, so that both can grow until the arena is full. The pool is
+ * then moved to follow the records. If the arena fills up, the frames,
+ * metadata or breadcrumbs which do not fit are dropped and the report is
+ * flagged as truncated.
+ *
+ * A string reference is the distance of the string from the end of the pool,
+ * which does not change when the pool is moved. Zero refers to an empty
+ * string.
+ */
+#ifndef BUGSNAG_REPORT_COMPACT_H
+#define BUGSNAG_REPORT_COMPACT_H
+
+#include <stdbool.h>
+#include <stddef.h>
+#include <stdint.h>
+
+#include "report.h"
+#include "utils/build.h"
+
+#ifndef BSG_COMPACT_INTERN_SLOTS
+/**
+ * Number of strings which are remembered for interning while encoding. Must
+ * be a power of two. Strings which do not fit into the table are stored
+ * without being interned. Configures a default if not defined.
+ */
+#define BSG_COMPACT_INTERN_SLOTS 512
+#endif
+
+/**
+ * Set in bsg_compact_header.flags if records were dropped to fit the arena
+ */
+#define BSG_COMPACT_TRUNCATED 1
+
+#ifdef __cplusplus
+extern "C" {
+#endif
+
+typedef struct {
+  /**
+   * The number of bytes in the encoded report, including this header
+   */
+  uint32_t length;
+  /**
+   * The position of the string pool from the start of this header
+   */
+  uint32_t strings_offset;
+  uint32_t strings_length;
+  uint16_t frame_count;
+  uint16_t metadata_count;
+  uint16_t crumb_count;
+  uint16_t flags;
+} bsg_compact_header;
+
+/**
+ * Encode a report into an arena in the compact layout
+ *
+ * @return the number of bytes used, or 0 if the scalar fields of the report
+ *         do not fit into the arena
+ */
+size_t bsg_report_compact_encode(const bugsnag_report *report, void *arena,
+                                 size_t capacity) __asyncsafe;
+
+/**
+ * Decode a report in the compact layout into a zeroed report
+ *
+ * @return false if the encoded report is malformed or exceeds length
+ */
+bool bsg_report_compact_decode(const void *data, size_t length,
+                               bugsnag_report *report);
+
+#ifdef __cplusplus
+}
+#endif
+#endif
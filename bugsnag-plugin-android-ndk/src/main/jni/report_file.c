@@ -0,0 +1,220 @@
+#include "report_file.h"
+
+#include <ctype.h>
+#include <fcntl.h>
+#include <signal.h>
+#include <stddef.h>
+#include <stdio.h>
+#include <stdlib.h>
+#include <string.h>
+#include <sys/mman.h>
+#include <unistd.h>
+
+#include "report_compact.h"
+#include "utils/report_writer.h"
+
+// the report is read back as a header followed by the compact report
+_Static_assert(offsetof(bsg_report_record, body) == sizeof(bsg_report_header),
+               "report file layout");
+
+/**
+ * Write zeroes to the whole file so that its blocks are allocated now rather
+ * than when the mapping is written back, which could fail on a full disk.
+ * posix_fallocate is not available on every supported API level.
+ */
+static bool bsg_report_file_reserve(int fd) {
+  static const char zeroes[4096];
+  size_t remaining = sizeof(bsg_report_record);
+
+  while (remaining > 0) {
+    size_t length = remaining < sizeof(zeroes) ? remaining : sizeof(zeroes);
+    ssize_t written = write(fd, zeroes, length);
+    if (written <= 0) {
+      return false;
+    }
+    remaining -= written;
+  }
+  return fsync(fd) == 0;
+}
+
+/**
+ * Fault in every page of the mapping now, so that the first write to each page
+ * does not fault while handling a crash. MADV_WILLNEED reads the pages ahead,
+ * and writing to each of them also sets up its writable page table entry.
+ */
+static void bsg_report_file_prefault(void *addr) {
+  madvise(addr, sizeof(bsg_report_record), MADV_WILLNEED);
+  long page_size = sysconf(_SC_PAGESIZE);
+  if (page_size <= 0) {
+    page_size = 4096;
+  }
+  volatile char *bytes = (volatile char *)addr;
+  for (size_t offset = 0; offset < sizeof(bsg_report_record);
+       offset += (size_t)page_size) {
+    bytes[offset] = 0;
+  }
+}
+
+bsg_report_file *bsg_report_file_map(const char *path) {
+  int fd = open(path, O_RDWR | O_CREAT | O_TRUNC, 0644);
+  if (fd == -1) {
+    return NULL;
+  }
+  void *addr = MAP_FAILED;
+  if (bsg_report_file_reserve(fd)) {
+    addr = mmap(NULL, sizeof(bsg_report_record), PROT_READ | PROT_WRITE,
+                MAP_SHARED, fd, 0);
+  }
+  // the mapping remains valid once the descriptor is closed
+  close(fd);
+  bsg_report_file *file =
+      addr == MAP_FAILED ? NULL : malloc(sizeof(bsg_report_file));
+  if (file == NULL) {
+    if (addr != MAP_FAILED) {
+      munmap(addr, sizeof(bsg_report_record));
+    }
+    unlink(path);
+    return NULL;
+  }
+  bsg_report_file_prefault(addr);
+  file->record = (bsg_report_record *)addr;
+  return file;
+}
+
+void bsg_report_file_unmap(bsg_report_file *file) {
+  munmap(file->record, sizeof(bsg_report_record));
+  free(file);
+}
+
+bool bsg_report_file_write_json(bsg_report_file *file,
+                                const bugsnag_report *report) {
+  char *bytes = (char *)file->record;
+  bsg_json_writer writer;
+  // leave the first byte for the marker and the last for a terminating zero
+  bsg_json_writer_init(&writer, bytes + 1, sizeof(bsg_report_record) - 2);
+  if (!bsg_report_write_json(&writer, report)) {
+    return false;
+  }
+  bytes[1 + writer.written] = '\0';
+  __atomic_store_n(bytes, BSG_REPORT_JSON_MARKER, __ATOMIC_RELEASE);
+  return true;
+}
+
+bool bsg_report_file_write(bsg_report_file *file, bsg_report_header *header,
+                           bugsnag_report *report) {
+  bsg_report_record *record = file->record;
+  __atomic_store_n(&record->header.version, BSG_REPORT_INCOMPLETE,
+                   __ATOMIC_RELAXED);
+  if (bsg_report_compact_encode(report, record->body, sizeof(record->body)) ==
+      0) {
+    return false;
+  }
+  record->header.big_endian = header->big_endian;
+  memcpy(record->header.os_build, header->os_build, sizeof(header->os_build));
+  __atomic_store_n(&record->header.version, header->version, __ATOMIC_RELEASE);
+  return true;
+}
+
+bool bsg_report_file_is_incomplete(const char *path) {
+  int fd = open(path, O_RDONLY);
+  if (fd == -1) {
+    return false;
+  }
+  bsg_report_header header;
+  ssize_t len = read(fd, &header, sizeof(bsg_report_header));
+  close(fd);
+  return len != sizeof(bsg_report_header) || header.version < 1 ||
+         header.version > BUGSNAG_REPORT_VERSION;
+}
+
+bool bsg_report_file_is_json(const char *path) {
+  int fd = open(path, O_RDONLY);
+  if (fd == -1) {
+    return false;
+  }
+  char marker = 0;
+  ssize_t len = read(fd, &marker, 1);
+  close(fd);
+  return len == 1 && marker == BSG_REPORT_JSON_MARKER;
+}
+
+bool bsg_report_file_finish_json(const char *path, const char *payload_path) {
+  int fd = open(path, O_RDWR);
+  if (fd == -1) {
+    return false;
+  }
+  // the payload cannot contain a zero, as control characters are escaped
+  char buffer[4096];
+  off_t length = 0;
+  bool terminated = false;
+  ssize_t len;
+  while (!terminated && (len = read(fd, buffer, sizeof(buffer))) > 0) {
+    char *end = memchr(buffer, 0, (size_t)len);
+    terminated = end != NULL;
+    length += terminated ? end - buffer : len;
+  }
+  bool truncated = terminated && ftruncate(fd, length) == 0;
+  close(fd);
+  return truncated && rename(path, payload_path) == 0;
+}
+
+bool bsg_report_file_read_release_stage(const char *payload_path,
+                                        char *release_stage, size_t size) {
+  // quotes inside strings are escaped, so these can only match keys
+  static const char app_key[] = "\"app\":{";
+  static const char stage_key[] = "\"releaseStage\":\"";
+  release_stage[0] = '\0';
+  int fd = open(payload_path, O_RDONLY);
+  if (fd == -1) {
+    return false;
+  }
+  off_t length = lseek(fd, 0, SEEK_END);
+  char *payload = length > 0 ? malloc((size_t)length + 1) : NULL;
+  bool read_all =
+      payload != NULL && pread(fd, payload, (size_t)length, 0) == length;
+  close(fd);
+  if (!read_all) {
+    free(payload);
+    return false;
+  }
+  payload[length] = '\0';
+
+  const char *app = strstr(payload, app_key);
+  const char *value = app == NULL ? NULL : strstr(app, stage_key);
+  if (value != NULL) {
+    value += sizeof(stage_key) - 1;
+    size_t count = 0;
+    while (*value != '\0' && *value != '"' && count < size - 1) {
+      if (*value == '\\' && value[1] != '\0') {
+        value++;
+      }
+      release_stage[count++] = *value++;
+    }
+    release_stage[count] = '\0';
+  }
+  free(payload);
+  return true;
+}
+
+bool bsg_report_file_owner_alive(const char *path) {
+  static const char suffix[] = ".crash";
+  const size_t suffix_len = sizeof(suffix) - 1;
+  const char *name = strrchr(path, '/');
+  name = name == NULL ? path : name + 1;
+  size_t len = strlen(name);
+  if (len <= suffix_len || strcmp(name + len - suffix_len, suffix) != 0) {
+    return false;
+  }
+  // files are named <uuid>.<pid>.crash, older files have no pid
+  const char *end = name + len - suffix_len;
+  const char *start = end;
+  while (start > name && isdigit((unsigned char)start[-1])) {
+    start--;
+  }
+  if (start == end || start == name || start[-1] != '.') {
+    return false;
+  }
+  pid_t pid = (pid_t)strtol(start, NULL, 10);
+  // EPERM means the pid has been reused by another app
+  return pid > 0 && kill(pid, 0) == 0;
+}
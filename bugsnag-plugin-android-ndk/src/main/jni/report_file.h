@@ -0,0 +1,145 @@
+/**
+ * Pre-allocated file which the next native crash report is written to.
+ *
+ * The file is created, filled with zeroes and mapped into memory in the
+ * background after the library is installed, so that handling a crash does
+ * not need to open or write to a file: the report is encoded into the mapping,
+ * and the kernel writes the pages back once the process has terminated. As the
+ * disk blocks are reserved in advance, a crash is still captured if the disk
+ * has since filled up. Every page of the mapping is faulted in when it is
+ * prepared, so that writing the report does not take page faults either.
+ *
+ * A crash is written as the JSON payload which is delivered to Bugsnag,
+ * starting at the second byte of the file and terminated by the zeroes which
+ * follow it. BSG_REPORT_JSON_MARKER is stored into the first byte once the
+ * payload is complete. Truncating the file to the length of the payload and
+ * renaming it is left until it is delivered, so that the crash handler makes
+ * no system calls.
+ *
+ * Prepared files are named <uuid>.<pid>.crash, so that the file of another
+ * running process of the app is not mistaken for an abandoned one.
+ *
+ * If the payload does not fit, the report is written in the binary layout
+ * instead: a bsg_report_header followed by the report in the compact layout
+ * described in report_compact.h. The version in
+ * the header doubles as a completion flag, as it is BSG_REPORT_INCOMPLETE
+ * until the rest of the report has been copied and is written last.
+ */
+#ifndef BUGSNAG_REPORT_FILE_H
+#define BUGSNAG_REPORT_FILE_H
+
+#include <stdbool.h>
+#include <stdint.h>
+
+#include "report.h"
+#include "utils/build.h"
+
+/**
+ * Header version of a report file which has not been written
+ */
+#define BSG_REPORT_INCOMPLETE 0
+
+/**
+ * First byte of a report file which holds a complete JSON payload. This is
+ * whitespace, so the payload is valid JSON whether or not it is stripped, and
+ * cannot be mistaken for the first byte of a header version.
+ */
+#define BSG_REPORT_JSON_MARKER ' '
+
+#ifndef BSG_REPORT_FILE_SIZE
+/**
+ * Size of the pre-allocated report file, which bounds the size of the JSON
+ * payload and of the compact report. Configures a default if not defined.
+ */
+#define BSG_REPORT_FILE_SIZE (64 * 1024)
+#endif
+
+#ifdef __cplusplus
+extern "C" {
+#endif
+
+typedef struct {
+  bsg_report_header header;
+  /**
+   * The report in the compact layout
+   */
+  uint8_t body[BSG_REPORT_FILE_SIZE - sizeof(bsg_report_header)];
+} bsg_report_record;
+
+typedef struct {
+  bsg_report_record *record;
+} bsg_report_file;
+
+/**
+ * Create, reserve, map and pre-fault the report file at a path. This writes
+ * and syncs the whole file, so must not be called on the main thread.
+ *
+ * @return the mapped file, or NULL if the file could not be prepared, in which
+ *         case no file is left at the path
+ */
+bsg_report_file *bsg_report_file_map(const char *path);
+
+/**
+ * Unmap a file prepared by bsg_report_file_map and free it
+ */
+void bsg_report_file_unmap(bsg_report_file *file);
+
+/**
+ * Encode a report into a mapped file as its JSON payload, storing
+ * BSG_REPORT_JSON_MARKER into the first byte once it is complete
+ *
+ * @return false if the payload does not fit into the file
+ */
+bool bsg_report_file_write_json(bsg_report_file *file,
+                                const bugsnag_report *report) __asyncsafe;
+
+/**
+ * Encode a report into a mapped file in the binary layout, writing the header
+ * version last so that a partially written file is recognised as incomplete
+ *
+ * @return false if the report does not fit into the file
+ */
+bool bsg_report_file_write(bsg_report_file *file, bsg_report_header *header,
+                           bugsnag_report *report) __asyncsafe;
+
+/**
+ * @return true if the file at a path does not hold a complete report in the
+ *         binary layout, because a report was never written to it or the
+ *         write was interrupted
+ */
+bool bsg_report_file_is_incomplete(const char *path);
+
+/**
+ * @return true if the file at a path holds a complete JSON payload written by
+ *         bsg_report_file_write_json
+ */
+bool bsg_report_file_is_json(const char *path);
+
+/**
+ * Truncate a file holding a JSON payload to the length of the payload, and
+ * rename it to payload_path
+ */
+bool bsg_report_file_finish_json(const char *path, const char *payload_path);
+
+/**
+ * Read the release stage of the app from a JSON payload, without parsing the
+ * rest of it. The payload must have been written by bsg_report_write_json,
+ * which writes the app section before any user metadata.
+ *
+ * @param release_stage set to the release stage, or an empty string if the
+ *                      payload has none
+ * @return false if the payload could not be read
+ */
+bool bsg_report_file_read_release_stage(const char *payload_path,
+                                        char *release_stage, size_t size);
+
+/**
+ * @return true if the process which prepared the file at a path is still
+ *         running, in which case the file may yet be written to
+ */
+bool bsg_report_file_owner_alive(const char *path);
+
+#ifdef __cplusplus
+}
+#endif
+#endif
@@ -0,0 +1,191 @@
+#include "state_delta.h"
+
+#include <string.h>
+#include <time.h>
+
+#include "utils/string.h"
+
+typedef struct {
+  const uint8_t *pos;
+  const uint8_t *end;
+  bool valid;
+} bsg_delta_reader;
+
+static bool bsg_delta_has(bsg_delta_reader *reader, size_t count) {
+  if (reader->valid && (size_t)(reader->end - reader->pos) >= count) {
+    return true;
+  }
+  reader->valid = false;
+  return false;
+}
+
+static bool bsg_delta_read_bool(bsg_delta_reader *reader) {
+  if (!bsg_delta_has(reader, 1)) {
+    return false;
+  }
+  return *reader->pos++ != 0;
+}
+
+static int32_t bsg_delta_read_int(bsg_delta_reader *reader) {
+  int32_t value = 0;
+  if (bsg_delta_has(reader, sizeof(value))) {
+    memcpy(&value, reader->pos, sizeof(value));
+    reader->pos += sizeof(value);
+  }
+  return value;
+}
+
+static double bsg_delta_read_double(bsg_delta_reader *reader) {
+  double value = 0;
+  if (bsg_delta_has(reader, sizeof(value))) {
+    memcpy(&value, reader->pos, sizeof(value));
+    reader->pos += sizeof(value);
+  }
+  return value;
+}
+
+/**
+ * Strings are null terminated within the delta, so are used in place
+ */
+static char *bsg_delta_read_string(bsg_delta_reader *reader) {
+  int32_t length = bsg_delta_read_int(reader);
+  if (length < 0 || !bsg_delta_has(reader, (size_t)length + 1) ||
+      reader->pos[length] != '\0') {
+    reader->valid = false;
+    return NULL;
+  }
+  char *value = (char *)reader->pos;
+  reader->pos += length + 1;
+  return value;
+}
+
+void bsg_set_in_foreground(bsg_environment *env, bool in_foreground,
+                           const char *activity) {
+  bool was_in_foreground = env->next_report.app.in_foreground;
+  env->next_report.app.in_foreground = in_foreground;
+  bsg_strncpy_safe(env->next_report.app.active_screen, (char *)activity,
+                   sizeof(env->next_report.app.active_screen));
+  if (in_foreground) {
+    if (!was_in_foreground) {
+      time(&env->foreground_start_time);
+    }
+  } else {
+    env->foreground_start_time = 0;
+    env->next_report.app.duration_in_foreground_ms_offset = 0;
+  }
+}
+
+static void bsg_apply_metadata_op(bugsnag_report *report, uint8_t op,
+                                  bsg_delta_reader *reader) {
+  char *tab = bsg_delta_read_string(reader);
+  if (op == BSG_DELTA_METADATA_CLEAR_TAB) {
+    if (reader->valid) {
+      bugsnag_report_remove_metadata_tab(report, tab);
+    }
+    return;
+  }
+  char *key = bsg_delta_read_string(reader);
+
+  switch (op) {
+  case BSG_DELTA_METADATA_STRING: {
+    char *value = bsg_delta_read_string(reader);
+    if (reader->valid) {
+      bugsnag_report_add_metadata_string(report, tab, key, value);
+    }
+    break;
+  }
+  case BSG_DELTA_METADATA_DOUBLE: {
+    double value = bsg_delta_read_double(reader);
+    if (reader->valid) {
+      bugsnag_report_add_metadata_double(report, tab, key, value);
+    }
+    break;
+  }
+  case BSG_DELTA_METADATA_BOOL: {
+    bool value = bsg_delta_read_bool(reader);
+    if (reader->valid) {
+      bugsnag_report_add_metadata_bool(report, tab, key, value);
+    }
+    break;
+  }
+  default: // BSG_DELTA_METADATA_REMOVE
+    if (reader->valid) {
+      bugsnag_report_remove_metadata(report, tab, key);
+    }
+    break;
+  }
+}
+
+bool bsg_apply_state_delta(bsg_environment *env, const uint8_t *delta,
+                           size_t length) {
+  bsg_delta_reader reader = {delta, delta + length, true};
+  bugsnag_report *report = &env->next_report;
+
+  while (reader.valid && reader.pos < reader.end) {
+    uint8_t op = *reader.pos++;
+
+    switch (op) {
+    case BSG_DELTA_CONTEXT:
+    case BSG_DELTA_USER_ID:
+    case BSG_DELTA_USER_NAME:
+    case BSG_DELTA_USER_EMAIL:
+    case BSG_DELTA_APP_VERSION:
+    case BSG_DELTA_BUILD_UUID:
+    case BSG_DELTA_RELEASE_STAGE: {
+      char *value = bsg_delta_read_string(&reader);
+      if (!reader.valid) {
+        break;
+      }
+      if (op == BSG_DELTA_CONTEXT) {
+        bugsnag_report_set_context(report, value);
+      } else if (op == BSG_DELTA_USER_ID) {
+        bugsnag_report_set_user_id(report, value);
+      } else if (op == BSG_DELTA_USER_NAME) {
+        bugsnag_report_set_user_name(report, value);
+      } else if (op == BSG_DELTA_USER_EMAIL) {
+        bugsnag_report_set_user_email(report, value);
+      } else if (op == BSG_DELTA_APP_VERSION) {
+        bugsnag_report_set_app_version(report, value);
+      } else if (op == BSG_DELTA_BUILD_UUID) {
+        bugsnag_report_set_build_uuid(report, value);
+      } else {
+        bugsnag_report_set_release_stage(report, value);
+      }
+      break;
+    }
+    case BSG_DELTA_ORIENTATION: {
+      int32_t orientation = bsg_delta_read_int(&reader);
+      if (reader.valid) {
+        bugsnag_report_set_orientation(report, orientation);
+      }
+      break;
+    }
+    case BSG_DELTA_IN_FOREGROUND: {
+      bool in_foreground = bsg_delta_read_bool(&reader);
+      char *activity = bsg_delta_read_string(&reader);
+      if (reader.valid) {
+        bsg_set_in_foreground(env, in_foreground, activity);
+      }
+      break;
+    }
+    case BSG_DELTA_LOW_MEMORY: {
+      bool low_memory = bsg_delta_read_bool(&reader);
+      if (reader.valid) {
+        report->app.low_memory = low_memory;
+      }
+      break;
+    }
+    case BSG_DELTA_METADATA_STRING:
+    case BSG_DELTA_METADATA_DOUBLE:
+    case BSG_DELTA_METADATA_BOOL:
+    case BSG_DELTA_METADATA_REMOVE:
+    case BSG_DELTA_METADATA_CLEAR_TAB:
+      bsg_apply_metadata_op(report, op, &reader);
+      break;
+    default:
+      reader.valid = false;
+      break;
+    }
+  }
+  return reader.valid;
+}
@@ -0,0 +1,68 @@
+/**
+ * Decoder for batches of state changes sent by the JVM layer
+ * (StateBatcher.java).
+ *
+ * Changes to metadata, user, context and app state are coalesced in the JVM
+ * layer and sent as a single delta, so that a burst of changes takes one JNI
+ * call and one acquisition of the environment write lock.
+ *
+ * A delta is a sequence of operations, each a one byte opcode followed by its
+ * arguments in native byte order. Strings are an int32 length followed by
+ * that many bytes of UTF-8 and a null terminator, which is not included in the
+ * length. Booleans are a single byte.
+ */
+#ifndef BUGSNAG_STATE_DELTA_H
+#define BUGSNAG_STATE_DELTA_H
+
+#include <stdbool.h>
+#include <stddef.h>
+#include <stdint.h>
+
+#include "bugsnag_ndk.h"
+
+/**
+ * Opcodes of a delta. Must match the constants in StateBatcher
+ */
+typedef enum {
+  BSG_DELTA_CONTEXT = 1,           // string
+  BSG_DELTA_USER_ID = 2,           // string
+  BSG_DELTA_USER_NAME = 3,         // string
+  BSG_DELTA_USER_EMAIL = 4,        // string
+  BSG_DELTA_ORIENTATION = 5,       // int32
+  BSG_DELTA_IN_FOREGROUND = 6,     // bool, string
+  BSG_DELTA_LOW_MEMORY = 7,        // bool
+  BSG_DELTA_APP_VERSION = 8,       // string
+  BSG_DELTA_BUILD_UUID = 9,        // string
+  BSG_DELTA_RELEASE_STAGE = 10,    // string
+  BSG_DELTA_METADATA_STRING = 11,  // string tab, string key, string
+  BSG_DELTA_METADATA_DOUBLE = 12,  // string tab, string key, double
+  BSG_DELTA_METADATA_BOOL = 13,    // string tab, string key, bool
+  BSG_DELTA_METADATA_REMOVE = 14,  // string tab, string key
+  BSG_DELTA_METADATA_CLEAR_TAB = 15 // string tab
+} bsg_delta_op;
+
+#ifdef __cplusplus
+extern "C" {
+#endif
+
+/**
+ * Apply a delta to the environment. The caller must hold the environment
+ * write lock.
+ *
+ * @return false if the delta is malformed, in which case the operations
+ *         before the malformed one have been applied
+ */
+bool bsg_apply_state_delta(bsg_environment *env, const uint8_t *delta,
+                           size_t length);
+
+/**
+ * Update whether the app is in the foreground, tracking the time at which it
+ * last entered the foreground. The caller must hold the environment write lock.
+ */
+void bsg_set_in_foreground(bsg_environment *env, bool in_foreground,
+                           const char *activity);
+
+#ifdef __cplusplus
+}
+#endif
+#endif
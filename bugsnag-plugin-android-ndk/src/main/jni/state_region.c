@@ -0,0 +1,72 @@
+#include "state_region.h"
+
+#include <string.h>
+
+#include "utils/string.h"
+
+// the JVM layer writes at fixed offsets, see StateRegion.java
+_Static_assert(sizeof(bsg_state_region) == 512, "state region size");
+
+bsg_state_region *bsg_state_region_attach(void *addr, int64_t capacity) {
+  if (addr == NULL || capacity < (int64_t)sizeof(bsg_state_region)) {
+    return NULL;
+  }
+  bsg_state_region *region = (bsg_state_region *)addr;
+  if (region->version != BSG_STATE_REGION_VERSION) {
+    return NULL;
+  }
+  return region;
+}
+
+bool bsg_state_region_copy(bsg_state_region *region, bugsnag_report *report,
+                           time_t *foreground_start_time) {
+  static bsg_state_region copy;
+  bool consistent = false;
+
+  for (int i = 0; i < BSG_STATE_REGION_READ_ATTEMPTS && !consistent; i++) {
+    uint32_t seq = __atomic_load_n(&region->seq, __ATOMIC_ACQUIRE);
+    memcpy(&copy, region, sizeof(bsg_state_region));
+    __atomic_thread_fence(__ATOMIC_ACQUIRE);
+    consistent = (seq & 1) == 0 &&
+                 __atomic_load_n(&region->seq, __ATOMIC_RELAXED) == seq;
+  }
+
+  int32_t changed = copy.changed;
+  if (changed & BSG_STATE_CONTEXT) {
+    bugsnag_report_set_context(report, copy.context);
+  }
+  if (changed & BSG_STATE_USER_ID) {
+    bugsnag_report_set_user_id(report, copy.user_id);
+  }
+  if (changed & BSG_STATE_USER_NAME) {
+    bugsnag_report_set_user_name(report, copy.user_name);
+  }
+  if (changed & BSG_STATE_USER_EMAIL) {
+    bugsnag_report_set_user_email(report, copy.user_email);
+  }
+  if (changed & BSG_STATE_ORIENTATION) {
+    bugsnag_report_set_orientation(report, copy.orientation);
+  }
+  if (changed & BSG_STATE_IN_FOREGROUND) {
+    report->app.in_foreground = copy.in_foreground != 0;
+    bsg_strncpy_safe(report->app.active_screen, copy.active_screen,
+                     sizeof(report->app.active_screen));
+    *foreground_start_time = (time_t)copy.foreground_start_time;
+  }
+  if (changed & BSG_STATE_LEFT_FOREGROUND) {
+    report->app.duration_in_foreground_ms_offset = 0;
+  }
+  if (changed & BSG_STATE_LOW_MEMORY) {
+    report->app.low_memory = copy.low_memory != 0;
+  }
+  if (changed & BSG_STATE_APP_VERSION) {
+    bugsnag_report_set_app_version(report, copy.app_version);
+  }
+  if (changed & BSG_STATE_BUILD_UUID) {
+    bugsnag_report_set_build_uuid(report, copy.build_uuid);
+  }
+  if (changed & BSG_STATE_RELEASE_STAGE) {
+    bugsnag_report_set_release_stage(report, copy.release_stage);
+  }
+  return consistent;
+}
@@ -0,0 +1,101 @@
+/**
+ * Reader for the state region written by the JVM layer (StateRegion.java).
+ *
+ * The region is a direct ByteBuffer which the JVM layer allocates and writes
+ * with plain stores whenever the user, context or app state changes, so that
+ * no JNI call is needed for these changes. The signal handler copies the
+ * region into the report when handling a crash.
+ *
+ * Writes are guarded by a sequence lock: the sequence number is odd while a
+ * write is in progress, and is incremented again once the write completes.
+ * The JVM layer orders its stores with a volatile store between the sequence
+ * number and the fields, which relies on ART emitting a full barrier for it,
+ * as described in StateRegion.java.
+ */
+#ifndef BUGSNAG_STATE_REGION_H
+#define BUGSNAG_STATE_REGION_H
+
+#include <stdbool.h>
+#include <stdint.h>
+#include <time.h>
+
+#include "report.h"
+#include "utils/build.h"
+
+/**
+ * Version of the region layout. Must match StateRegion.VERSION
+ */
+#define BSG_STATE_REGION_VERSION 1
+
+/**
+ * Number of attempts to read a consistent copy of the region. A write may
+ * never complete if the crashing thread was writing to the region.
+ */
+#define BSG_STATE_REGION_READ_ATTEMPTS 100
+
+/**
+ * Bits of bsg_state_region.changed, which record the fields the JVM layer has
+ * written. Other fields retain the values the report was installed with.
+ */
+#define BSG_STATE_CONTEXT (1 << 0)
+#define BSG_STATE_USER_ID (1 << 1)
+#define BSG_STATE_USER_NAME (1 << 2)
+#define BSG_STATE_USER_EMAIL (1 << 3)
+#define BSG_STATE_ORIENTATION (1 << 4)
+#define BSG_STATE_IN_FOREGROUND (1 << 5)
+#define BSG_STATE_LOW_MEMORY (1 << 6)
+#define BSG_STATE_APP_VERSION (1 << 7)
+#define BSG_STATE_BUILD_UUID (1 << 8)
+#define BSG_STATE_RELEASE_STAGE (1 << 9)
+/**
+ * Set once the app has left the foreground
+ */
+#define BSG_STATE_LEFT_FOREGROUND (1 << 10)
+
+#ifdef __cplusplus
+extern "C" {
+#endif
+
+typedef struct {
+  uint32_t seq;
+  int32_t version;
+  /**
+   * Time in seconds when the app last entered the foreground, or 0
+   */
+  int64_t foreground_start_time;
+  int32_t changed;
+  int32_t orientation;
+  int32_t in_foreground;
+  int32_t low_memory;
+  char context[64];
+  char user_id[BUGSNAG_USER_INFO_LEN];
+  char user_name[BUGSNAG_USER_INFO_LEN];
+  char user_email[BUGSNAG_USER_INFO_LEN];
+  char active_screen[64];
+  char app_version[32];
+  char build_uuid[64];
+  char release_stage[64];
+} bsg_state_region;
+
+/**
+ * Validate a region allocated by the JVM layer
+ *
+ * @return the region or NULL if it is too small or has a different version
+ */
+bsg_state_region *bsg_state_region_attach(void *addr, int64_t capacity);
+
+/**
+ * Copy the fields which the JVM layer has written into the report
+ *
+ * @param foreground_start_time updated if the app has entered or left the
+ *                              foreground
+ * @return false if a consistent copy could not be read, in which case the
+ *         most recent copy has been used
+ */
+bool bsg_state_region_copy(bsg_state_region *region, bugsnag_report *report,
+                           time_t *foreground_start_time) __asyncsafe;
+
+#ifdef __cplusplus
+}
+#endif
+#endif
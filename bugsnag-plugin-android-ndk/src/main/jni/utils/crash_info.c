@@ -8,6 +8,10 @@ extern "C" {
 void bsg_populate_report_as(bsg_environment *env) {
   static time_t now;
 
+  if (env->state_region != NULL) {
+    bsg_state_region_copy(env->state_region, &env->next_report,
+                          &env->foreground_start_time);
+  }
   env->next_report.device.time = time(&now);
   // Convert to milliseconds:
   env->next_report.app.duration = env->next_report.app.duration_ms_offset +
@@ -19,6 +23,10 @@ void bsg_populate_report_as(bsg_environment *env) {
   } else {
     env->next_report.app.duration_in_foreground = 0;
   }
+  if (env->journal != NULL) {
+    bsg_journal_mark_crashed(env->journal);
+    bsg_journal_copy_breadcrumbs(env->journal, &env->next_report);
+  }
 }
 
 #ifdef __cplusplus
@@ -0,0 +1,312 @@
+#include "json_writer.h"
+
+#include <unistd.h>
+
+static const char bsg_hex_digits[] = "0123456789abcdef";
+
+void bsg_json_writer_init(bsg_json_writer *writer, char *buffer,
+                          size_t capacity) {
+  writer->buffer = buffer;
+  writer->capacity = capacity;
+  writer->length = 0;
+  writer->fd = -1;
+  writer->written = 0;
+  writer->failed = false;
+  writer->depth = 0;
+  writer->has_value[0] = false;
+}
+
+void bsg_json_writer_init_fd(bsg_json_writer *writer, int fd, char *buffer,
+                             size_t capacity) {
+  bsg_json_writer_init(writer, buffer, capacity);
+  writer->fd = fd;
+}
+
+bool bsg_json_writer_flush(bsg_json_writer *writer) {
+  if (writer->fd < 0 || writer->failed) {
+    return !writer->failed;
+  }
+  size_t offset = 0;
+  while (offset < writer->length) {
+    ssize_t count =
+        write(writer->fd, writer->buffer + offset, writer->length - offset);
+    if (count <= 0) {
+      writer->failed = true;
+      return false;
+    }
+    offset += count;
+  }
+  writer->length = 0;
+  return true;
+}
+
+static void bsg_json_write(bsg_json_writer *writer, const char *bytes,
+                           size_t length) {
+  for (size_t i = 0; i < length && !writer->failed; i++) {
+    if (writer->length == writer->capacity &&
+        (writer->fd < 0 || !bsg_json_writer_flush(writer))) {
+      writer->failed = true;
+      return;
+    }
+    writer->buffer[writer->length++] = bytes[i];
+    writer->written++;
+  }
+}
+
+static void bsg_json_write_char(bsg_json_writer *writer, char value) {
+  bsg_json_write(writer, &value, 1);
+}
+
+/**
+ * Write the comma which separates a value from the previous one
+ */
+static void bsg_json_separate(bsg_json_writer *writer) {
+  if (writer->has_value[writer->depth]) {
+    bsg_json_write_char(writer, ',');
+  }
+  writer->has_value[writer->depth] = true;
+}
+
+static void bsg_json_begin(bsg_json_writer *writer, char token) {
+  bsg_json_separate(writer);
+  bsg_json_write_char(writer, token);
+  if (writer->depth + 1 >= BSG_JSON_MAX_DEPTH) {
+    writer->failed = true;
+    return;
+  }
+  writer->depth++;
+  writer->has_value[writer->depth] = false;
+}
+
+static void bsg_json_end(bsg_json_writer *writer, char token) {
+  if (writer->depth > 0) {
+    writer->depth--;
+  }
+  bsg_json_write_char(writer, token);
+}
+
+void bsg_json_begin_object(bsg_json_writer *writer) {
+  bsg_json_begin(writer, '{');
+}
+
+void bsg_json_end_object(bsg_json_writer *writer) {
+  bsg_json_end(writer, '}');
+}
+
+void bsg_json_begin_array(bsg_json_writer *writer) {
+  bsg_json_begin(writer, '[');
+}
+
+void bsg_json_end_array(bsg_json_writer *writer) { bsg_json_end(writer, ']'); }
+
+/**
+ * @return the length of the UTF-8 sequence at the start of value, or 0 if it
+ *         is invalid
+ */
+static size_t bsg_utf8_sequence_length(const unsigned char *value,
+                                       size_t remaining) {
+  size_t length;
+  if (value[0] < 0x80) {
+    return 1;
+  } else if ((value[0] & 0xE0) == 0xC0 && value[0] >= 0xC2) {
+    length = 2;
+  } else if ((value[0] & 0xF0) == 0xE0) {
+    length = 3;
+  } else if ((value[0] & 0xF8) == 0xF0 && value[0] <= 0xF4) {
+    length = 4;
+  } else {
+    return 0;
+  }
+  if (length > remaining) {
+    return 0;
+  }
+  for (size_t i = 1; i < length; i++) {
+    if ((value[i] & 0xC0) != 0x80) {
+      return 0;
+    }
+  }
+  return length;
+}
+
+static void bsg_json_write_escaped(bsg_json_writer *writer, const char *value,
+                                   size_t max_length) {
+  size_t length = 0;
+  while (length < max_length && value[length] != '\0') {
+    length++;
+  }
+  bsg_json_write_char(writer, '"');
+
+  size_t i = 0;
+  while (i < length && !writer->failed) {
+    unsigned char c = (unsigned char)value[i];
+    if (c == '"' || c == '\\') {
+      char escaped[] = {'\\', (char)c};
+      bsg_json_write(writer, escaped, sizeof(escaped));
+      i++;
+    } else if (c < 0x20) {
+      char escaped[] = {'\\', 'u', '0', '0', bsg_hex_digits[c >> 4],
+                        bsg_hex_digits[c & 0xF]};
+      bsg_json_write(writer, escaped, sizeof(escaped));
+      i++;
+    } else {
+      size_t sequence = bsg_utf8_sequence_length((const unsigned char *)value + i,
+                                                 length - i);
+      if (sequence == 0) {
+        bsg_json_write(writer, "\\ufffd", 6);
+        i++;
+      } else {
+        bsg_json_write(writer, value + i, sequence);
+        i += sequence;
+      }
+    }
+  }
+  bsg_json_write_char(writer, '"');
+}
+
+void bsg_json_key(bsg_json_writer *writer, const char *key) {
+  bsg_json_separate(writer);
+  bsg_json_write_escaped(writer, key, SIZE_MAX);
+  bsg_json_write_char(writer, ':');
+  // the value which follows the key must not be preceded by a comma
+  writer->has_value[writer->depth] = false;
+}
+
+void bsg_json_string(bsg_json_writer *writer, const char *value,
+                     size_t max_length) {
+  bsg_json_separate(writer);
+  bsg_json_write_escaped(writer, value, max_length);
+}
+
+void bsg_json_bool(bsg_json_writer *writer, bool value) {
+  bsg_json_separate(writer);
+  if (value) {
+    bsg_json_write(writer, "true", 4);
+  } else {
+    bsg_json_write(writer, "false", 5);
+  }
+}
+
+static void bsg_json_write_uint(bsg_json_writer *writer, uint64_t value) {
+  char digits[20];
+  int count = 0;
+  do {
+    digits[sizeof(digits) - 1 - count++] = (char)('0' + value % 10);
+    value /= 10;
+  } while (value > 0);
+  bsg_json_write(writer, digits + sizeof(digits) - count, (size_t)count);
+}
+
+void bsg_json_uint(bsg_json_writer *writer, uint64_t value) {
+  bsg_json_separate(writer);
+  bsg_json_write_uint(writer, value);
+}
+
+void bsg_json_int(bsg_json_writer *writer, int64_t value) {
+  bsg_json_separate(writer);
+  if (value < 0) {
+    bsg_json_write_char(writer, '-');
+    bsg_json_write_uint(writer, (uint64_t)(-(value + 1)) + 1);
+  } else {
+    bsg_json_write_uint(writer, (uint64_t)value);
+  }
+}
+
+void bsg_json_double(bsg_json_writer *writer, double value) {
+  if (value != value || value - value != 0) { // NaN or infinite
+    bsg_json_separate(writer);
+    bsg_json_write(writer, "null", 4);
+    return;
+  }
+  if (value > -1e15 && value < 1e15 && value == (double)(int64_t)value) {
+    bsg_json_int(writer, (int64_t)value);
+    return;
+  }
+  bsg_json_separate(writer);
+  if (value < 0) {
+    bsg_json_write_char(writer, '-');
+    value = -value;
+  }
+
+  // normalize to [1, 10) and take 15 significant digits
+  int exponent = 0;
+  while (value >= 10) {
+    value /= 10;
+    exponent++;
+  }
+  while (value < 1) {
+    value *= 10;
+    exponent--;
+  }
+  uint64_t significand = (uint64_t)(value * 1e14 + 0.5);
+  if (significand >= 1000000000000000ULL) {
+    significand /= 10;
+    exponent++;
+  }
+  char digits[15];
+  int count = 15;
+  for (int i = 14; i >= 0; i--) {
+    digits[i] = (char)('0' + significand % 10);
+    significand /= 10;
+  }
+  while (count > 1 && digits[count - 1] == '0') {
+    count--;
+  }
+
+  if (exponent < -5 || exponent >= 15) {
+    bsg_json_write_char(writer, digits[0]);
+    if (count > 1) {
+      bsg_json_write_char(writer, '.');
+      bsg_json_write(writer, digits + 1, (size_t)count - 1);
+    }
+    bsg_json_write_char(writer, 'e');
+    if (exponent < 0) {
+      bsg_json_write_char(writer, '-');
+      exponent = -exponent;
+    }
+    bsg_json_write_uint(writer, (uint64_t)exponent);
+  } else if (exponent < 0) {
+    bsg_json_write(writer, "0.", 2);
+    for (int i = -1; i > exponent; i--) {
+      bsg_json_write_char(writer, '0');
+    }
+    bsg_json_write(writer, digits, (size_t)count);
+  } else {
+    for (int i = 0; i <= exponent; i++) {
+      bsg_json_write_char(writer, i < count ? digits[i] : '0');
+    }
+    if (count > exponent + 1) {
+      bsg_json_write_char(writer, '.');
+      bsg_json_write(writer, digits + exponent + 1,
+                     (size_t)(count - exponent - 1));
+    }
+  }
+}
+
+void bsg_json_set_string(bsg_json_writer *writer, const char *key,
+                         const char *value, size_t max_length) {
+  bsg_json_key(writer, key);
+  bsg_json_string(writer, value, max_length);
+}
+
+void bsg_json_set_bool(bsg_json_writer *writer, const char *key, bool value) {
+  bsg_json_key(writer, key);
+  bsg_json_bool(writer, value);
+}
+
+void bsg_json_set_int(bsg_json_writer *writer, const char *key,
+                      int64_t value) {
+  bsg_json_key(writer, key);
+  bsg_json_int(writer, value);
+}
+
+void bsg_json_set_uint(bsg_json_writer *writer, const char *key,
+                       uint64_t value) {
+  bsg_json_key(writer, key);
+  bsg_json_uint(writer, value);
+}
+
+void bsg_json_set_double(bsg_json_writer *writer, const char *key,
+                         double value) {
+  bsg_json_key(writer, key);
+  bsg_json_double(writer, value);
+}
@@ -0,0 +1,102 @@
+/**
+ * Streaming JSON encoder which is safe to use from a signal handler.
+ *
+ * Output is written to a caller-provided buffer, which is either the final
+ * destination of the JSON or is flushed to a file descriptor with write() as
+ * it fills. No memory is allocated and no locks are taken. Once the buffer
+ * overflows or a write fails, the writer is marked as failed and ignores any
+ * further output.
+ */
+#ifndef BUGSNAG_JSON_WRITER_H
+#define BUGSNAG_JSON_WRITER_H
+
+#include <stdbool.h>
+#include <stddef.h>
+#include <stdint.h>
+
+#include "build.h"
+
+/**
+ * Maximum nesting of objects and arrays
+ */
+#define BSG_JSON_MAX_DEPTH 16
+
+#ifdef __cplusplus
+extern "C" {
+#endif
+
+typedef struct {
+  char *buffer;
+  size_t capacity;
+  size_t length;
+  /**
+   * File descriptor which the buffer is flushed to, or -1 if the buffer is the
+   * destination
+   */
+  int fd;
+  /**
+   * Total number of bytes written, including those already flushed
+   */
+  size_t written;
+  bool failed;
+  int depth;
+  /**
+   * Whether a value has been written at each level of nesting, and so must be
+   * followed by a comma
+   */
+  bool has_value[BSG_JSON_MAX_DEPTH];
+} bsg_json_writer;
+
+/**
+ * Write JSON into a buffer, failing if it does not fit
+ */
+void bsg_json_writer_init(bsg_json_writer *writer, char *buffer,
+                          size_t capacity) __asyncsafe;
+/**
+ * Write JSON to a file descriptor, using a buffer to batch writes
+ */
+void bsg_json_writer_init_fd(bsg_json_writer *writer, int fd, char *buffer,
+                             size_t capacity) __asyncsafe;
+/**
+ * Write any buffered output to the file descriptor
+ *
+ * @return false if any output could not be written
+ */
+bool bsg_json_writer_flush(bsg_json_writer *writer) __asyncsafe;
+
+void bsg_json_begin_object(bsg_json_writer *writer) __asyncsafe;
+void bsg_json_end_object(bsg_json_writer *writer) __asyncsafe;
+void bsg_json_begin_array(bsg_json_writer *writer) __asyncsafe;
+void bsg_json_end_array(bsg_json_writer *writer) __asyncsafe;
+void bsg_json_key(bsg_json_writer *writer, const char *key) __asyncsafe;
+
+/**
+ * Write a string of at most max_length bytes, stopping at the first null.
+ * Invalid UTF-8 is replaced with U+FFFD.
+ */
+void bsg_json_string(bsg_json_writer *writer, const char *value,
+                     size_t max_length) __asyncsafe;
+void bsg_json_bool(bsg_json_writer *writer, bool value) __asyncsafe;
+void bsg_json_int(bsg_json_writer *writer, int64_t value) __asyncsafe;
+void bsg_json_uint(bsg_json_writer *writer, uint64_t value) __asyncsafe;
+/**
+ * Write a number with up to 15 significant digits. NaN and infinite values
+ * are written as null.
+ */
+void bsg_json_double(bsg_json_writer *writer, double value) __asyncsafe;
+
+void bsg_json_set_string(bsg_json_writer *writer, const char *key,
+                         const char *value, size_t max_length) __asyncsafe;
+void bsg_json_set_bool(bsg_json_writer *writer, const char *key,
+                       bool value) __asyncsafe;
+void bsg_json_set_int(bsg_json_writer *writer, const char *key,
+                      int64_t value) __asyncsafe;
+void bsg_json_set_uint(bsg_json_writer *writer, const char *key,
+                       uint64_t value) __asyncsafe;
+void bsg_json_set_double(bsg_json_writer *writer, const char *key,
+                         double value) __asyncsafe;
+
+#ifdef __cplusplus
+}
+#endif
+#endif
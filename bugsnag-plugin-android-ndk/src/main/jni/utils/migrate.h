@@ -7,13 +7,21 @@
 extern "C" {
 #endif
 
+/**
+ * Metadata before the hash index was added in v3
+ */
+typedef struct {
+    int value_count;
+    bsg_metadata_value values[BUGSNAG_METADATA_MAX];
+} bugsnag_metadata_v2;
+
 typedef struct {
     bsg_library notifier;
     bsg_app_info app;
     bsg_device_info device;
     bsg_user user;
     bsg_exception exception;
-    bugsnag_metadata metadata;
+    bugsnag_metadata_v2 metadata;
 
     int crumb_count;
     // Breadcrumbs are a ring; the first index moves as the
@@ -29,6 +37,29 @@ typedef struct {
     int handled_events;
 } bugsnag_report_v1;
 
+typedef struct {
+    bsg_library notifier;
+    bsg_app_info app;
+    bsg_device_info device;
+    bsg_user user;
+    bsg_exception exception;
+    bugsnag_metadata_v2 metadata;
+
+    int crumb_count;
+    // Breadcrumbs are a ring; the first index moves as the
+    // structure is filled and replaced.
+    int crumb_first_index;
+    bugsnag_breadcrumb breadcrumbs[BUGSNAG_CRUMBS_MAX];
+
+    char context[64];
+    bsg_severity_t severity;
+
+    char session_id[33];
+    char session_start[33];
+    int handled_events;
+    int unhandled_events;
+} bugsnag_report_v2;
+
 #ifdef __cplusplus
 }
 #endif
@@ -0,0 +1,336 @@
+// dl_iterate_phdr is an extension outside of bionic
+#ifndef _GNU_SOURCE
+#define _GNU_SOURCE
+#endif
+
+#include "module_map.h"
+
+#include <elf.h>
+#include <link.h>
+#include <pthread.h>
+#include <stdlib.h>
+#include <string.h>
+
+#ifndef NT_GNU_BUILD_ID
+#define NT_GNU_BUILD_ID 3
+#endif
+#ifndef DT_GNU_HASH
+#define DT_GNU_HASH 0x6ffffef5
+#endif
+#ifndef ELF_ST_TYPE
+#define ELF_ST_TYPE(info) ((info)&0xf)
+#endif
+
+static pthread_mutex_t bsg_module_map_mutex = PTHREAD_MUTEX_INITIALIZER;
+static bsg_module_map *bsg_current_module_map = NULL;
+/**
+ * The map which was replaced by the last refresh. It is kept until the next
+ * refresh in case a crash handler on another thread is still reading it.
+ */
+static bsg_module_map *bsg_retired_module_map = NULL;
+
+typedef struct {
+  uint64_t fingerprint;
+  size_t count;
+  size_t filenames_length;
+} bsg_module_census;
+
+typedef struct {
+  bsg_module_map *map;
+  size_t capacity;
+  size_t filenames_capacity;
+  size_t filenames_length;
+} bsg_module_builder;
+
+static uint64_t bsg_fingerprint_add(uint64_t hash, uintptr_t value) {
+  for (size_t i = 0; i < sizeof(value); i++) {
+    hash ^= (value >> (i * 8)) & 0xFF;
+    hash *= 1099511628211ULL;
+  }
+  return hash;
+}
+
+static const char *bsg_phdr_name(struct dl_phdr_info *info) {
+  return info->dlpi_name == NULL ? "" : info->dlpi_name;
+}
+
+static int bsg_count_module(struct dl_phdr_info *info, size_t size,
+                            void *data) {
+  bsg_module_census *census = (bsg_module_census *)data;
+  size_t name_length = strlen(bsg_phdr_name(info));
+  census->fingerprint = bsg_fingerprint_add(census->fingerprint, info->dlpi_addr);
+  census->fingerprint = bsg_fingerprint_add(census->fingerprint, name_length);
+  census->count++;
+  census->filenames_length += name_length + 1;
+  return 0;
+}
+
+static void bsg_read_build_id(struct dl_phdr_info *info, const ElfW(Phdr) *phdr,
+                              bsg_module *module) {
+  const uint8_t *note = (const uint8_t *)(info->dlpi_addr + phdr->p_vaddr);
+  const uint8_t *end = note + phdr->p_memsz;
+
+  while (note + sizeof(ElfW(Nhdr)) <= end) {
+    const ElfW(Nhdr) *header = (const ElfW(Nhdr) *)note;
+    size_t name_size = (header->n_namesz + 3) & ~(size_t)3;
+    size_t desc_size = (header->n_descsz + 3) & ~(size_t)3;
+    const uint8_t *name = note + sizeof(ElfW(Nhdr));
+    const uint8_t *desc = name + name_size;
+    if (desc + desc_size > end) {
+      return;
+    }
+    if (header->n_type == NT_GNU_BUILD_ID && header->n_namesz == 4 &&
+        memcmp(name, "GNU", 4) == 0) {
+      size_t length = header->n_descsz < BSG_BUILD_ID_MAX ? header->n_descsz
+                                                          : BSG_BUILD_ID_MAX;
+      memcpy(module->build_id, desc, length);
+      module->build_id_length = length;
+      return;
+    }
+    note = desc + desc_size;
+  }
+}
+
+/**
+ * Convert an address from the dynamic section to an absolute address. glibc
+ * relocates these entries on load but bionic does not.
+ */
+static uintptr_t bsg_dynamic_address(struct dl_phdr_info *info,
+                                     ElfW(Addr) address) {
+  return address < info->dlpi_addr ? info->dlpi_addr + address : address;
+}
+
+/**
+ * Count the symbols in a DT_GNU_HASH table, which does not record the count
+ * directly: it is one past the last symbol in the longest chain
+ */
+static size_t bsg_gnu_hash_symbol_count(const uint32_t *table) {
+  uint32_t bucket_count = table[0];
+  uint32_t symbol_offset = table[1];
+  uint32_t bloom_size = table[2];
+  const uint32_t *buckets =
+      (const uint32_t *)((const ElfW(Addr) *)(table + 4) + bloom_size);
+  const uint32_t *chains = buckets + bucket_count;
+  uint32_t last = 0;
+
+  for (uint32_t i = 0; i < bucket_count; i++) {
+    if (buckets[i] > last) {
+      last = buckets[i];
+    }
+  }
+  if (last < symbol_offset) {
+    return symbol_offset;
+  }
+  // the last symbol in a chain has the low bit of its hash set
+  while ((chains[last - symbol_offset] & 1) == 0) {
+    last++;
+  }
+  return last + 1;
+}
+
+static void bsg_read_symbols(struct dl_phdr_info *info, const ElfW(Phdr) *phdr,
+                             bsg_module *module) {
+  const ElfW(Dyn) *entry =
+      (const ElfW(Dyn) *)(info->dlpi_addr + phdr->p_vaddr);
+  uintptr_t symbols = 0;
+  uintptr_t strings = 0;
+  size_t strings_length = 0;
+  size_t symbol_count = 0;
+
+  for (; entry->d_tag != DT_NULL; entry++) {
+    switch (entry->d_tag) {
+    case DT_SYMTAB:
+      symbols = bsg_dynamic_address(info, entry->d_un.d_ptr);
+      break;
+    case DT_STRTAB:
+      strings = bsg_dynamic_address(info, entry->d_un.d_ptr);
+      break;
+    case DT_STRSZ:
+      strings_length = entry->d_un.d_val;
+      break;
+    case DT_HASH:
+      // the number of chain entries is the number of symbols
+      symbol_count = ((const uint32_t *)bsg_dynamic_address(
+          info, entry->d_un.d_ptr))[1];
+      break;
+    case DT_GNU_HASH:
+      if (symbol_count == 0) {
+        symbol_count = bsg_gnu_hash_symbol_count(
+            (const uint32_t *)bsg_dynamic_address(info, entry->d_un.d_ptr));
+      }
+      break;
+    default:
+      break;
+    }
+  }
+
+  // the tables are only read from a crash handler if they are loaded
+  if (symbols < module->start || symbols >= module->end ||
+      strings < module->start || strings + strings_length > module->end) {
+    return;
+  }
+  module->symbols = (const ElfW(Sym) *)symbols;
+  module->symbol_count = symbol_count;
+  module->strings = (const char *)strings;
+  module->strings_length = strings_length;
+}
+
+static int bsg_add_module(struct dl_phdr_info *info, size_t size, void *data) {
+  bsg_module_builder *builder = (bsg_module_builder *)data;
+  bsg_module_map *map = builder->map;
+  const char *name = bsg_phdr_name(info);
+  size_t name_length = strlen(name);
+  map->fingerprint = bsg_fingerprint_add(map->fingerprint, info->dlpi_addr);
+  map->fingerprint = bsg_fingerprint_add(map->fingerprint, name_length);
+
+  // objects loaded since counting are picked up by the next refresh
+  if (map->count == builder->capacity ||
+      builder->filenames_length + name_length + 1 >
+          builder->filenames_capacity) {
+    return 0;
+  }
+  bsg_module *module = &map->modules[map->count];
+  memset(module, 0, sizeof(bsg_module));
+  module->bias = info->dlpi_addr;
+  const ElfW(Phdr) *dynamic = NULL;
+  bool has_segment = false;
+
+  for (ElfW(Half) i = 0; i < info->dlpi_phnum; i++) {
+    const ElfW(Phdr) *phdr = &info->dlpi_phdr[i];
+    if (phdr->p_type == PT_LOAD) {
+      uintptr_t start = info->dlpi_addr + phdr->p_vaddr;
+      uintptr_t end = start + phdr->p_memsz;
+      if (!has_segment || start < module->start) {
+        module->start = start;
+        // where file offset 0 is mapped, which is where the ELF header lives
+        module->load_address = start - phdr->p_offset;
+      }
+      if (!has_segment || end > module->end) {
+        module->end = end;
+      }
+      has_segment = true;
+    } else if (phdr->p_type == PT_NOTE && module->build_id_length == 0) {
+      bsg_read_build_id(info, phdr, module);
+    } else if (phdr->p_type == PT_DYNAMIC) {
+      dynamic = phdr;
+    }
+  }
+  if (!has_segment) {
+    return 0;
+  }
+  if (dynamic != NULL) {
+    bsg_read_symbols(info, dynamic, module);
+  }
+
+  char *filenames = (char *)map->filenames;
+  module->filename_offset = builder->filenames_length;
+  memcpy(filenames + builder->filenames_length, name, name_length + 1);
+  builder->filenames_length += name_length + 1;
+  map->count++;
+  return 0;
+}
+
+static int bsg_compare_modules(const void *a, const void *b) {
+  uintptr_t start_a = ((const bsg_module *)a)->start;
+  uintptr_t start_b = ((const bsg_module *)b)->start;
+  return start_a < start_b ? -1 : start_a > start_b;
+}
+
+bool bsg_module_map_refresh(void) {
+  pthread_mutex_lock(&bsg_module_map_mutex);
+  bsg_module_census census = {.fingerprint = 14695981039346656037ULL};
+  dl_iterate_phdr(bsg_count_module, &census);
+
+  bsg_module_map *current = bsg_current_module_map;
+  if (current != NULL && current->fingerprint == census.fingerprint) {
+    pthread_mutex_unlock(&bsg_module_map_mutex);
+    return false;
+  }
+
+  // the map, its modules and their file names share a single allocation
+  size_t modules_size = census.count * sizeof(bsg_module);
+  bsg_module_map *map =
+      malloc(sizeof(bsg_module_map) + modules_size + census.filenames_length);
+  if (map == NULL) {
+    pthread_mutex_unlock(&bsg_module_map_mutex);
+    return false;
+  }
+  map->fingerprint = 14695981039346656037ULL;
+  map->count = 0;
+  map->modules = (bsg_module *)(map + 1);
+  map->filenames = (const char *)map->modules + modules_size;
+
+  bsg_module_builder builder = {.map = map,
+                                .capacity = census.count,
+                                .filenames_capacity = census.filenames_length,
+                                .filenames_length = 0};
+  dl_iterate_phdr(bsg_add_module, &builder);
+  qsort(map->modules, map->count, sizeof(bsg_module), bsg_compare_modules);
+
+  free(bsg_retired_module_map);
+  bsg_retired_module_map = current;
+  __atomic_store_n(&bsg_current_module_map, map, __ATOMIC_RELEASE);
+  pthread_mutex_unlock(&bsg_module_map_mutex);
+  return true;
+}
+
+const bsg_module_map *bsg_module_map_current(void) {
+  return __atomic_load_n(&bsg_current_module_map, __ATOMIC_ACQUIRE);
+}
+
+const bsg_module *bsg_module_map_find(const bsg_module_map *map,
+                                      uintptr_t address) {
+  if (map == NULL) {
+    return NULL;
+  }
+  size_t low = 0;
+  size_t high = map->count;
+  while (low < high) {
+    size_t mid = low + (high - low) / 2;
+    const bsg_module *module = &map->modules[mid];
+    if (address < module->start) {
+      high = mid;
+    } else if (address >= module->end) {
+      low = mid + 1;
+    } else {
+      return module;
+    }
+  }
+  return NULL;
+}
+
+const char *bsg_module_filename(const bsg_module_map *map,
+                                const bsg_module *module) {
+  return map->filenames + module->filename_offset;
+}
+
+const char *bsg_module_find_symbol(const bsg_module *module, uintptr_t address,
+                                   uintptr_t *symbol_address) {
+  if (module->symbols == NULL || address < module->bias) {
+    return NULL;
+  }
+  ElfW(Addr) value = address - module->bias;
+
+  // a linear scan, as dladdr() does, so that nothing is allocated to index it
+  for (size_t i = 0; i < module->symbol_count; i++) {
+    const ElfW(Sym) *symbol = &module->symbols[i];
+    if (ELF_ST_TYPE(symbol->st_info) == STT_FUNC &&
+        symbol->st_shndx != SHN_UNDEF && symbol->st_value <= value &&
+        value < symbol->st_value + symbol->st_size &&
+        symbol->st_name < module->strings_length) {
+      *symbol_address = module->bias + symbol->st_value;
+      return module->strings + symbol->st_name;
+    }
+  }
+  return NULL;
+}
+
+bool bsg_module_format_build_id(const bsg_module *module, char *buffer) {
+  static const char hex_digits[] = "0123456789abcdef";
+  for (size_t i = 0; i < module->build_id_length; i++) {
+    buffer[i * 2] = hex_digits[module->build_id[i] >> 4];
+    buffer[i * 2 + 1] = hex_digits[module->build_id[i] & 0xF];
+  }
+  buffer[module->build_id_length * 2] = '\0';
+  return module->build_id_length > 0;
+}
@@ -0,0 +1,136 @@
+/**
+ * Snapshot of the shared objects loaded into the process, used to find the
+ * file which contains a stack frame when handling a crash.
+ *
+ * dladdr() takes the linker lock and walks every loaded object, so it is not
+ * safe to call from a signal handler and gets slower as more libraries are
+ * loaded. Instead the loaded objects are read with dl_iterate_phdr() ahead of
+ * time and kept sorted by address, so that a frame is looked up with a binary
+ * search which neither allocates nor locks.
+ *
+ * The map is built on install and refreshed off the crash path whenever the
+ * set of loaded objects may have changed, after the NDK bridge handles a
+ * message. Each module also records where its dynamic symbol table is loaded,
+ * so that method names can be found without dladdr(), as dladdr() only reads
+ * the same table. Frames in files without exported symbols, such as a
+ * stripped app library, are matched to the symbols uploaded for their build by
+ * the build ID which each module records.
+ */
+#ifndef BSG_MODULE_MAP_H
+#define BSG_MODULE_MAP_H
+
+#include <link.h>
+#include <stdbool.h>
+#include <stddef.h>
+#include <stdint.h>
+
+#include "build.h"
+
+/**
+ * Longest GNU build ID which is recorded. Most toolchains emit a 20 byte SHA-1.
+ */
+#define BSG_BUILD_ID_MAX 32
+
+#ifdef __cplusplus
+extern "C" {
+#endif
+
+typedef struct {
+  /**
+   * Lowest address of the object's loadable segments
+   */
+  uintptr_t start;
+  /**
+   * Address one past the end of the object's loadable segments
+   */
+  uintptr_t end;
+  /**
+   * Address which the ELF file is mapped at, which frame offsets are relative
+   * to. The same value as Dl_info.dli_fbase.
+   */
+  uintptr_t load_address;
+  /**
+   * Offset of the null-terminated file path in the map's string pool
+   */
+  size_t filename_offset;
+  size_t build_id_length;
+  uint8_t build_id[BSG_BUILD_ID_MAX];
+  /**
+   * Address which symbol values are relative to, from dl_iterate_phdr()
+   */
+  uintptr_t bias;
+  /**
+   * The object's dynamic symbol table and its string table, which are part of
+   * its loaded image, or NULL if it has none
+   */
+  const ElfW(Sym) *symbols;
+  size_t symbol_count;
+  const char *strings;
+  size_t strings_length;
+} bsg_module;
+
+typedef struct {
+  /**
+   * Identifies the set of loaded objects which the map was built from, so that
+   * an unchanged set does not need to be sorted and published again
+   */
+  uint64_t fingerprint;
+  size_t count;
+  /**
+   * Modules sorted by start address
+   */
+  bsg_module *modules;
+  const char *filenames;
+} bsg_module_map;
+
+/**
+ * Rebuild the module map if any shared objects have been loaded or unloaded
+ * since it was last built. Not async-safe.
+ *
+ * @return true if the map was rebuilt
+ */
+bool bsg_module_map_refresh(void);
+
+/**
+ * @return the current module map, or NULL if it has not been built
+ */
+const bsg_module_map *bsg_module_map_current(void) __asyncsafe;
+
+/**
+ * Find the module containing an address with a binary search
+ *
+ * @return the module, or NULL if the address is not inside any module
+ */
+const bsg_module *bsg_module_map_find(const bsg_module_map *map,
+                                      uintptr_t address) __asyncsafe;
+
+/**
+ * @return the null-terminated file path of a module in a map
+ */
+const char *bsg_module_filename(const bsg_module_map *map,
+                                const bsg_module *module) __asyncsafe;
+
+/**
+ * Find the exported function of a module which contains an address, as
+ * dladdr() would
+ *
+ * @param symbol_address set to the start address of the function if found
+ * @return the name of the function, or NULL if no function contains the
+ *         address
+ */
+const char *bsg_module_find_symbol(const bsg_module *module, uintptr_t address,
+                                   uintptr_t *symbol_address) __asyncsafe;
+
+/**
+ * Write a module's build ID as lowercase hex
+ *
+ * @param buffer must be at least BSG_BUILD_ID_MAX * 2 + 1 bytes long
+ * @return false if the module has no build ID
+ */
+bool bsg_module_format_build_id(const bsg_module *module,
+                                char *buffer) __asyncsafe;
+
+#ifdef __cplusplus
+}
+#endif
+#endif
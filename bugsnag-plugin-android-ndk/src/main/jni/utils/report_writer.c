@@ -0,0 +1,388 @@
+#include "report_writer.h"
+
+#include <string.h>
+
+#include "module_map.h"
+
+#define BSG_SET_STRING(writer, key, field)                                     \
+  bsg_json_set_string(writer, key, field, sizeof(field))
+
+static const char *bsg_severity_name(bsg_severity_t severity) {
+  switch (severity) {
+  case BSG_SEVERITY_INFO:
+    return "info";
+  case BSG_SEVERITY_WARN:
+    return "warn";
+  default:
+    return "error";
+  }
+}
+
+static const char *bsg_crumb_type_name(bsg_breadcrumb_t type) {
+  switch (type) {
+  case BSG_CRUMB_ERROR:
+    return "error";
+  case BSG_CRUMB_LOG:
+    return "log";
+  case BSG_CRUMB_NAVIGATION:
+    return "navigation";
+  case BSG_CRUMB_PROCESS:
+    return "process";
+  case BSG_CRUMB_REQUEST:
+    return "request";
+  case BSG_CRUMB_STATE:
+    return "state";
+  case BSG_CRUMB_USER:
+    return "user";
+  default:
+    return "manual";
+  }
+}
+
+void bsg_format_timestamp(time_t time, char *buffer) {
+  // civil date from days since the epoch, as gmtime() is not async-safe
+  int64_t seconds = (int64_t)time;
+  int64_t days = seconds / 86400;
+  int64_t remainder = seconds % 86400;
+  if (remainder < 0) {
+    remainder += 86400;
+    days--;
+  }
+  days += 719468;
+  int64_t era = (days >= 0 ? days : days - 146096) / 146097;
+  int64_t day_of_era = days - era * 146097;
+  int64_t year_of_era = (day_of_era - day_of_era / 1460 + day_of_era / 36524 -
+                         day_of_era / 146096) / 365;
+  int64_t day_of_year =
+      day_of_era - (365 * year_of_era + year_of_era / 4 - year_of_era / 100);
+  int64_t mp = (5 * day_of_year + 2) / 153;
+  int day = (int)(day_of_year - (153 * mp + 2) / 5 + 1);
+  int month = (int)(mp < 10 ? mp + 3 : mp - 9);
+  int year = (int)(year_of_era + era * 400 + (month <= 2));
+
+  int fields[] = {year, month, day, (int)(remainder / 3600),
+                  (int)(remainder / 60 % 60), (int)(remainder % 60)};
+  const char separators[] = {'-', '-', 'T', ':', ':', 'Z'};
+  char *out = buffer;
+  for (int i = 0; i < 6; i++) {
+    int width = i == 0 ? 4 : 2;
+    for (int d = width - 1; d >= 0; d--) {
+      out[d] = (char)('0' + fields[i] % 10);
+      fields[i] /= 10;
+    }
+    out += width;
+    *out++ = separators[i];
+  }
+  *out = '\0';
+}
+
+/**
+ * Write the build ID of the file containing a frame, so that it can be matched
+ * to the symbols uploaded for that build. The module must be mapped at the same address
+ * as the frame's file, as a report may be written by a later process.
+ */
+static void bsg_write_code_identifier(bsg_json_writer *writer,
+                                      const bsg_stackframe *frame) {
+  const bsg_module_map *map = bsg_module_map_current();
+  const bsg_module *module = bsg_module_map_find(map, frame->load_address);
+  char build_id[BSG_BUILD_ID_MAX * 2 + 1];
+  if (module != NULL && module->load_address == frame->load_address &&
+      strncmp(bsg_module_filename(map, module), frame->filename,
+              sizeof(frame->filename)) == 0 &&
+      bsg_module_format_build_id(module, build_id)) {
+    bsg_json_set_string(writer, "codeIdentifier", build_id, sizeof(build_id));
+  }
+}
+
+static void bsg_write_stackframe(bsg_json_writer *writer,
+                                 const bsg_stackframe *frame) {
+  bsg_json_begin_object(writer);
+  bsg_json_set_uint(writer, "frameAddress", frame->frame_address);
+  bsg_json_set_uint(writer, "symbolAddress", frame->symbol_address);
+  bsg_json_set_uint(writer, "loadAddress", frame->load_address);
+  bsg_json_set_uint(writer, "lineNumber", frame->line_number);
+  if (frame->filename[0] != '\0') {
+    BSG_SET_STRING(writer, "file", frame->filename);
+    bsg_write_code_identifier(writer, frame);
+  }
+  if (frame->method[0] == '\0') {
+    char address[2 + sizeof(uintptr_t) * 2 + 1] = "0x";
+    uintptr_t value = frame->frame_address;
+    int count = 0;
+    char digits[sizeof(uintptr_t) * 2];
+    do {
+      digits[count++] = "0123456789abcdef"[value & 0xF];
+      value >>= 4;
+    } while (value > 0);
+    for (int i = 0; i < count; i++) {
+      address[2 + i] = digits[count - 1 - i];
+    }
+    address[2 + count] = '\0';
+    bsg_json_set_string(writer, "method", address, sizeof(address));
+  } else {
+    BSG_SET_STRING(writer, "method", frame->method);
+  }
+  bsg_json_end_object(writer);
+}
+
+static void bsg_write_exceptions(bsg_json_writer *writer,
+                                 const bugsnag_report *report) {
+  const bsg_exception *exception = &report->exception;
+  bsg_json_key(writer, "exceptions");
+  bsg_json_begin_array(writer);
+  bsg_json_begin_object(writer);
+  BSG_SET_STRING(writer, "errorClass", exception->name);
+  BSG_SET_STRING(writer, "message", exception->message);
+  bsg_json_set_string(writer, "type", "c", 2);
+  bsg_json_key(writer, "stacktrace");
+  bsg_json_begin_array(writer);
+  for (ssize_t i = 0; i < exception->frame_count && i < BUGSNAG_FRAMES_MAX;
+       i++) {
+    bsg_write_stackframe(writer, &exception->stacktrace[i]);
+  }
+  bsg_json_end_array(writer);
+  bsg_json_end_object(writer);
+  bsg_json_end_array(writer);
+}
+
+static void bsg_write_breadcrumbs(bsg_json_writer *writer,
+                                  const bugsnag_report *report) {
+  bsg_json_key(writer, "breadcrumbs");
+  bsg_json_begin_array(writer);
+  int count = report->crumb_count;
+  int index = report->crumb_first_index;
+  if (count > BUGSNAG_CRUMBS_MAX) {
+    count = BUGSNAG_CRUMBS_MAX;
+  }
+  if (index < 0 || index >= BUGSNAG_CRUMBS_MAX) {
+    index = 0;
+  }
+
+  for (int i = 0; i < count; i++) {
+    const bugsnag_breadcrumb *crumb = &report->breadcrumbs[index];
+    bsg_json_begin_object(writer);
+    BSG_SET_STRING(writer, "name", crumb->name);
+    BSG_SET_STRING(writer, "timestamp", crumb->timestamp);
+    bsg_json_set_string(writer, "type", bsg_crumb_type_name(crumb->type), 16);
+    bsg_json_key(writer, "metaData");
+    bsg_json_begin_object(writer);
+    size_t pairs = sizeof(crumb->metadata) / sizeof(bsg_char_metadata_pair);
+    for (size_t k = 0; k < pairs && crumb->metadata[k].key[0] != '\0'; k++) {
+      bsg_json_key(writer, crumb->metadata[k].key);
+      bsg_json_string(writer, crumb->metadata[k].value,
+                      sizeof(crumb->metadata[k].value));
+    }
+    bsg_json_end_object(writer);
+    bsg_json_end_object(writer);
+    index = (index + 1) % BUGSNAG_CRUMBS_MAX;
+  }
+  bsg_json_end_array(writer);
+}
+
+static void bsg_write_app(bsg_json_writer *writer, const bsg_app_info *app) {
+  bsg_json_key(writer, "app");
+  bsg_json_begin_object(writer);
+  BSG_SET_STRING(writer, "version", app->version);
+  BSG_SET_STRING(writer, "id", app->id);
+  BSG_SET_STRING(writer, "type", app->type);
+  BSG_SET_STRING(writer, "releaseStage", app->release_stage);
+  bsg_json_set_int(writer, "versionCode", app->version_code);
+  if (app->build_uuid[0] != '\0') {
+    BSG_SET_STRING(writer, "buildUUID", app->build_uuid);
+  }
+  BSG_SET_STRING(writer, "binaryArch", app->binaryArch);
+  bsg_json_set_int(writer, "duration", app->duration);
+  bsg_json_set_int(writer, "durationInForeground",
+                   app->duration_in_foreground);
+  bsg_json_set_bool(writer, "inForeground", app->in_foreground);
+  bsg_json_end_object(writer);
+}
+
+static void bsg_write_device(bsg_json_writer *writer,
+                             const bsg_device_info *device) {
+  bsg_json_key(writer, "device");
+  bsg_json_begin_object(writer);
+  bsg_json_set_string(writer, "osName", "android", 8);
+  BSG_SET_STRING(writer, "id", device->id);
+  BSG_SET_STRING(writer, "osVersion", device->os_version);
+  BSG_SET_STRING(writer, "manufacturer", device->manufacturer);
+  BSG_SET_STRING(writer, "model", device->model);
+  BSG_SET_STRING(writer, "orientation", device->orientation);
+  bsg_json_key(writer, "runtimeVersions");
+  bsg_json_begin_object(writer);
+  bsg_json_set_int(writer, "androidApiLevel", device->api_level);
+  BSG_SET_STRING(writer, "osBuild", device->os_build);
+  bsg_json_end_object(writer);
+  bsg_json_key(writer, "cpuAbi");
+  bsg_json_begin_array(writer);
+  int abi_count = sizeof(device->cpu_abi) / sizeof(bsg_cpu_abi);
+  for (int i = 0; i < device->cpu_abi_count && i < abi_count; i++) {
+    bsg_json_string(writer, device->cpu_abi[i].value,
+                    sizeof(device->cpu_abi[i].value));
+  }
+  bsg_json_end_array(writer);
+  bsg_json_set_int(writer, "totalMemory", device->total_memory);
+  bsg_json_end_object(writer);
+}
+
+static bool bsg_section_equals(const bsg_metadata_value *value,
+                               const char *section) {
+  return strncmp(value->section, section, sizeof(value->section)) == 0;
+}
+
+/**
+ * Write the custom metadata values in a section as members of the current
+ * object
+ */
+static void bsg_write_custom_values(bsg_json_writer *writer,
+                                    const bugsnag_metadata *metadata,
+                                    const char *section) {
+  for (int i = 0; i < metadata->value_count && i < BUGSNAG_METADATA_MAX; i++) {
+    const bsg_metadata_value *value = &metadata->values[i];
+    if (!bsg_section_equals(value, section)) {
+      continue;
+    }
+    switch (value->type) {
+    case BSG_BOOL_VALUE:
+      bsg_json_key(writer, value->name);
+      bsg_json_bool(writer, value->bool_value);
+      break;
+    case BSG_CHAR_VALUE:
+      bsg_json_key(writer, value->name);
+      bsg_json_string(writer, value->char_value, sizeof(value->char_value));
+      break;
+    case BSG_NUMBER_VALUE:
+      bsg_json_key(writer, value->name);
+      bsg_json_double(writer, value->double_value);
+      break;
+    default:
+      break;
+    }
+  }
+}
+
+static void bsg_write_metadata(bsg_json_writer *writer,
+                               const bugsnag_report *report) {
+  const bsg_app_info *app = &report->app;
+  const bsg_device_info *device = &report->device;
+  const bugsnag_metadata *metadata = &report->metadata;
+  bsg_json_key(writer, "metaData");
+  bsg_json_begin_object(writer);
+
+  bsg_json_key(writer, "app");
+  bsg_json_begin_object(writer);
+  BSG_SET_STRING(writer, "packageName", app->package_name);
+  BSG_SET_STRING(writer, "versionName", app->version_name);
+  BSG_SET_STRING(writer, "activeScreen", app->active_screen);
+  BSG_SET_STRING(writer, "name", app->name);
+  bsg_json_set_bool(writer, "lowMemory", app->low_memory);
+  bsg_write_custom_values(writer, metadata, "app");
+  bsg_json_end_object(writer);
+
+  bsg_json_key(writer, "device");
+  bsg_json_begin_object(writer);
+  BSG_SET_STRING(writer, "brand", device->brand);
+  bsg_json_set_bool(writer, "emulator", device->emulator);
+  bsg_json_set_bool(writer, "jailbroken", device->jailbroken);
+  BSG_SET_STRING(writer, "locale", device->locale);
+  BSG_SET_STRING(writer, "locationStatus", device->location_status);
+  BSG_SET_STRING(writer, "networkAccess", device->network_access);
+  bsg_json_set_int(writer, "dpi", device->dpi);
+  bsg_json_set_double(writer, "screenDensity", device->screen_density);
+  BSG_SET_STRING(writer, "screenResolution", device->screen_resolution);
+  if (device->time > 0) {
+    char timestamp[sizeof "2018-10-08T12:07:09Z"];
+    bsg_format_timestamp(device->time, timestamp);
+    bsg_json_set_string(writer, "time", timestamp, sizeof(timestamp));
+  }
+  bsg_write_custom_values(writer, metadata, "device");
+  bsg_json_end_object(writer);
+
+  // each remaining section is written when its first value is found
+  for (int i = 0; i < metadata->value_count && i < BUGSNAG_METADATA_MAX; i++) {
+    const bsg_metadata_value *value = &metadata->values[i];
+    if (value->type == BSG_NONE_VALUE || bsg_section_equals(value, "app") ||
+        bsg_section_equals(value, "device")) {
+      continue;
+    }
+    bool written = false;
+    for (int j = 0; j < i && !written; j++) {
+      written = metadata->values[j].type != BSG_NONE_VALUE &&
+                bsg_section_equals(&metadata->values[j], value->section);
+    }
+    if (!written) {
+      bsg_json_key(writer, value->section);
+      bsg_json_begin_object(writer);
+      bsg_write_custom_values(writer, metadata, value->section);
+      bsg_json_end_object(writer);
+    }
+  }
+  bsg_json_end_object(writer);
+}
+
+static void bsg_write_user(bsg_json_writer *writer, const bsg_user *user) {
+  if (user->name[0] == '\0' && user->email[0] == '\0' && user->id[0] == '\0') {
+    return;
+  }
+  bsg_json_key(writer, "user");
+  bsg_json_begin_object(writer);
+  if (user->name[0] != '\0') {
+    BSG_SET_STRING(writer, "name", user->name);
+  }
+  if (user->email[0] != '\0') {
+    BSG_SET_STRING(writer, "email", user->email);
+  }
+  if (user->id[0] != '\0') {
+    BSG_SET_STRING(writer, "id", user->id);
+  }
+  bsg_json_end_object(writer);
+}
+
+static void bsg_write_session(bsg_json_writer *writer,
+                              const bugsnag_report *report) {
+  if (report->session_id[0] == '\0') {
+    return;
+  }
+  bsg_json_key(writer, "session");
+  bsg_json_begin_object(writer);
+  BSG_SET_STRING(writer, "startedAt", report->session_start);
+  BSG_SET_STRING(writer, "id", report->session_id);
+  bsg_json_key(writer, "events");
+  bsg_json_begin_object(writer);
+  bsg_json_set_int(writer, "handled", report->handled_events);
+  bsg_json_set_int(writer, "unhandled", report->unhandled_events);
+  bsg_json_end_object(writer);
+  bsg_json_end_object(writer);
+}
+
+bool bsg_report_write_json(bsg_json_writer *writer,
+                           const bugsnag_report *report) {
+  bsg_json_begin_object(writer);
+  bsg_write_exceptions(writer, report);
+  bsg_write_breadcrumbs(writer, report);
+
+  if (report->context[0] != '\0') {
+    BSG_SET_STRING(writer, "context", report->context);
+  } else {
+    BSG_SET_STRING(writer, "context", report->app.active_screen);
+  }
+  bsg_json_set_string(writer, "severity", bsg_severity_name(report->severity),
+                      8);
+  bsg_json_set_bool(writer, "unhandled", true);
+  bsg_json_key(writer, "severityReason");
+  bsg_json_begin_object(writer);
+  bsg_json_set_string(writer, "type", "signal", 7);
+  bsg_json_key(writer, "attributes");
+  bsg_json_begin_object(writer);
+  BSG_SET_STRING(writer, "signalType", report->exception.name);
+  bsg_json_end_object(writer);
+  bsg_json_end_object(writer);
+
+  bsg_write_app(writer, &report->app);
+  bsg_write_metadata(writer, report);
+  bsg_write_device(writer, &report->device);
+  bsg_write_user(writer, &report->user);
+  bsg_write_session(writer, report);
+  bsg_json_end_object(writer);
+  return bsg_json_writer_flush(writer);
+}
@@ -0,0 +1,37 @@
+/**
+ * Encodes a report as the JSON event payload which is delivered to Bugsnag,
+ * without allocating memory, so that the payload can be written when handling
+ * a crash.
+ */
+#ifndef BUGSNAG_REPORT_WRITER_H
+#define BUGSNAG_REPORT_WRITER_H
+
+#include <stdbool.h>
+
+#include "../report.h"
+#include "build.h"
+#include "json_writer.h"
+
+#ifdef __cplusplus
+extern "C" {
+#endif
+
+/**
+ * Write a report as a JSON event
+ *
+ * @return false if the writer failed, in which case the output is incomplete
+ */
+bool bsg_report_write_json(bsg_json_writer *writer,
+                           const bugsnag_report *report) __asyncsafe;
+
+/**
+ * Format a time as an ISO 8601 UTC timestamp, such as 2018-10-08T12:07:09Z
+ *
+ * @param buffer must be at least 21 bytes long
+ */
+void bsg_format_timestamp(time_t time, char *buffer) __asyncsafe;
+
+#ifdef __cplusplus
+}
+#endif
+#endif
@@ -3,12 +3,15 @@
 #include <fcntl.h>
 #include <parson/parson.h>
 #include <report.h>
+#include <report_compact.h>
+#include <report_file.h>
 #include <stdio.h>
 #include <stdlib.h>
 #include <string.h>
 #include <time.h>
 #include <unistd.h>
 #include <utils/migrate.h>
+#include <utils/report_writer.h>
 
 #ifdef __cplusplus
 extern "C" {
@@ -24,7 +27,13 @@ bsg_report_header *bsg_report_header_read(int fd);
 #endif
 
 bool bsg_serialize_report_to_file(bsg_environment *env) {
-  int fd = open(env->next_report_path, O_WRONLY | O_CREAT, 0644);
+  bsg_report_file *report_file =
+      __atomic_load_n(&env->report_file, __ATOMIC_ACQUIRE);
+  if (report_file != NULL) {
+    return bsg_report_file_write(report_file, &env->report_header,
+                                 &env->next_report);
+  }
+  int fd = open(env->next_report_path, O_WRONLY | O_CREAT | O_TRUNC, 0644);
   if (fd == -1) {
     return false;
   }
@@ -32,13 +41,56 @@ bool bsg_serialize_report_to_file(bsg_environment *env) {
   return bsg_report_write(&env->report_header, &env->next_report, fd);
 }
 
+/**
+ * Stream a report as JSON to a new file at path
+ */
+static bool bsg_write_payload(const bugsnag_report *report, const char *path) {
+  static char buffer[4096];
+  int fd = open(path, O_WRONLY | O_CREAT | O_TRUNC, 0644);
+  if (fd == -1) {
+    return false;
+  }
+  bsg_json_writer writer;
+  bsg_json_writer_init_fd(&writer, fd, buffer, sizeof(buffer));
+  bool written = bsg_report_write_json(&writer, report);
+  return close(fd) == 0 && written;
+}
+
+bool bsg_serialize_report_to_payload_file(bsg_environment *env) {
+  bsg_report_file *report_file =
+      __atomic_load_n(&env->report_file, __ATOMIC_ACQUIRE);
+  if (report_file != NULL) {
+    // the file is truncated and renamed to the payload path on delivery
+    if (bsg_report_file_write_json(report_file, &env->next_report)) {
+      return true;
+    }
+    return bsg_report_file_write(report_file, &env->report_header,
+                                 &env->next_report);
+  }
+  // written to the report path first, so that the payload path only ever
+  // holds a complete payload
+  return bsg_write_payload(&env->next_report, env->next_report_path) &&
+         rename(env->next_report_path, env->next_payload_path) == 0;
+}
+
+bool bsg_serialize_report_to_payload_path(const bugsnag_report *report,
+                                          const char *payload_path) {
+  if (bsg_write_payload(report, payload_path)) {
+    return true;
+  }
+  remove(payload_path);
+  return false;
+}
+
 bugsnag_report *bsg_deserialize_report_from_file(char *filepath) {
   int fd = open(filepath, O_RDONLY);
   if (fd == -1) {
     return NULL;
   }
 
-  return bsg_report_read(fd);
+  bugsnag_report *report = bsg_report_read(fd);
+  close(fd);
+  return report;
 }
 
 bugsnag_report_v1 *bsg_report_v1_read(int fd) {
@@ -53,7 +105,19 @@ bugsnag_report_v1 *bsg_report_v1_read(int fd) {
     return report;
 }
 
-bugsnag_report *bsg_report_v2_read(int fd) {
+bugsnag_report_v2 *bsg_report_v2_read(int fd) {
+    size_t report_size = sizeof(bugsnag_report_v2);
+    bugsnag_report_v2 *report = malloc(report_size);
+
+    ssize_t len = read(fd, report, report_size);
+    if (len != report_size) {
+      free(report);
+      return NULL;
+    }
+    return report;
+}
+
+bugsnag_report *bsg_report_v3_read(int fd) {
     size_t report_size = sizeof(bugsnag_report);
     bugsnag_report *report = malloc(report_size);
 
@@ -65,6 +129,48 @@ bugsnag_report *bsg_report_v2_read(int fd) {
     return report;
 }
 
+bugsnag_report *bsg_report_v4_read(int fd) {
+    bsg_compact_header header;
+    ssize_t len = read(fd, &header, sizeof(header));
+    if (len != sizeof(header) || header.length < sizeof(header) ||
+        header.length > sizeof(((bsg_report_record *)0)->body)) {
+      return NULL;
+    }
+    uint8_t *data = malloc(header.length);
+    memcpy(data, &header, sizeof(header));
+    size_t remaining = header.length - sizeof(header);
+    len = read(fd, data + sizeof(header), remaining);
+
+    bugsnag_report *report = NULL;
+    if (len == remaining) {
+      report = calloc(1, sizeof(bugsnag_report));
+      if (!bsg_report_compact_decode(data, header.length, report)) {
+        free(report);
+        report = NULL;
+      }
+    }
+    free(data);
+    return report;
+}
+
+/**
+ * Copy metadata from a report written before v3, building the hash index
+ */
+void bsg_migrate_metadata(bugsnag_metadata_v2 *metadata, bugsnag_report *report) {
+    bugsnag_report_clear_metadata(report);
+
+    for (int i = 0; i < metadata->value_count && i < BUGSNAG_METADATA_MAX; i++) {
+        bsg_metadata_value *value = &metadata->values[i];
+        if (value->type == BSG_NONE_VALUE) {
+            continue;
+        }
+        int index = bugsnag_report_add_metadata_value(report, value->section, value->name);
+        if (index >= 0) {
+            memcpy(&report->metadata.values[index], value, sizeof(bsg_metadata_value));
+        }
+    }
+}
+
 bugsnag_report *bsg_report_read(int fd) {
   bsg_report_header *header = bsg_report_header_read(fd);
   if (header == NULL) {
@@ -76,6 +182,10 @@ bugsnag_report *bsg_report_read(int fd) {
 
   bugsnag_report *report = NULL;
 
+  if (report_version == BSG_REPORT_INCOMPLETE) { // never written by a crash
+      return NULL;
+  }
+
   if (report_version == 1) { // 'report->unhandled_events' was added in v2
       bugsnag_report_v1 *report_v1 = bsg_report_v1_read(fd);
 
@@ -87,7 +197,7 @@ bugsnag_report *bsg_report_read(int fd) {
           report->device = report_v1->device;
           report->user = report_v1->user;
           report->exception = report_v1->exception;
-          report->metadata = report_v1->metadata;
+          bsg_migrate_metadata(&report_v1->metadata, report);
           report->crumb_count = report_v1->crumb_count;
           report->crumb_first_index = report_v1->crumb_first_index;
 
@@ -103,8 +213,37 @@ bugsnag_report *bsg_report_read(int fd) {
 
           free(report_v1);
       }
-  } else {
-      report = bsg_report_v2_read(fd);
+  } else if (report_version == 2) { // the metadata index was added in v3
+      bugsnag_report_v2 *report_v2 = bsg_report_v2_read(fd);
+
+      if (report_v2 != NULL) {
+          report = malloc(sizeof(bugsnag_report));
+
+          report->notifier = report_v2->notifier;
+          report->app = report_v2->app;
+          report->device = report_v2->device;
+          report->user = report_v2->user;
+          report->exception = report_v2->exception;
+          bsg_migrate_metadata(&report_v2->metadata, report);
+          report->crumb_count = report_v2->crumb_count;
+          report->crumb_first_index = report_v2->crumb_first_index;
+
+          size_t breadcrumb_size = sizeof(bugsnag_breadcrumb) * BUGSNAG_CRUMBS_MAX;
+          memcpy(&report->breadcrumbs, report_v2->breadcrumbs, breadcrumb_size);
+
+          strcpy(report->context, report_v2->context);
+          report->severity = report_v2->severity;
+          strcpy(report->session_id, report_v2->session_id);
+          strcpy(report->session_start, report_v2->session_start);
+          report->handled_events = report_v2->handled_events;
+          report->unhandled_events = report_v2->unhandled_events;
+
+          free(report_v2);
+      }
+  } else if (report_version == 3) { // the compact layout was added in v4
+      report = bsg_report_v3_read(fd);
+  } else if (report_version == 4) {
+      report = bsg_report_v4_read(fd);
   }
   return report;
 }
@@ -128,12 +267,15 @@ bool bsg_report_header_write(bsg_report_header *header, int fd) {
 
 bool bsg_report_write(bsg_report_header *header, bugsnag_report *report,
                       int fd) {
-  if (!bsg_report_header_write(header, fd)) {
+  static bsg_report_record record;
+  size_t length =
+      bsg_report_compact_encode(report, record.body, sizeof(record.body));
+  if (length == 0 || !bsg_report_header_write(header, fd)) {
     return false;
   }
 
-  ssize_t len = write(fd, report, sizeof(bugsnag_report));
-  return len == sizeof(bugsnag_report);
+  ssize_t len = write(fd, record.body, length);
+  return len == length;
 }
 
 const char *bsg_crumb_type_string(bsg_breadcrumb_t type) {
@@ -13,8 +13,24 @@ extern "C" {
 
 char *bsg_serialize_report_to_json_string(bugsnag_report *report);
 
+/**
+ * Write the report in the binary layout to the next report path
+ */
 bool bsg_serialize_report_to_file(bsg_environment *env) __asyncsafe;
 
+/**
+ * Write the report as its JSON payload to the next payload path, falling back
+ * to the binary layout if the payload does not fit into the pre-allocated
+ * report file
+ */
+bool bsg_serialize_report_to_payload_file(bsg_environment *env) __asyncsafe;
+
+/**
+ * Write a report read from a file in the binary layout as its JSON payload
+ */
+bool bsg_serialize_report_to_payload_path(const bugsnag_report *report,
+                                          const char *payload_path);
+
 bugsnag_report *bsg_deserialize_report_from_file(char *filepath);
 
 void bsg_serialize_context(const bugsnag_report *report, JSON_Object *event);
@@ -2,6 +2,7 @@
 #include "stack_unwinder_libcorkscrew.h"
 #include "stack_unwinder_libunwind.h"
 #include "stack_unwinder_libunwindstack.h"
+#include "module_map.h"
 #include "stack_unwinder_simple.h"
 #include "string.h"
 #include <asm/siginfo.h>
@@ -41,9 +42,40 @@ void bsg_set_unwind_types(int apiLevel, bool is32bit, bsg_unwinder *signal_type,
   }
 }
 
-void bsg_insert_fileinfo(ssize_t frame_count,
-                         bsg_stackframe stacktrace[BUGSNAG_FRAMES_MAX]) {
-  static Dl_info info;
+/**
+ * Look up the file and exported function containing each frame in the module
+ * map. This is safe to call from a signal handler, unlike dladdr().
+ */
+static void bsg_insert_fileinfo(ssize_t frame_count,
+                                bsg_stackframe stacktrace[BUGSNAG_FRAMES_MAX]) {
+  const bsg_module_map *map = bsg_module_map_current();
+  for (int i = 0; i < frame_count; ++i) {
+    const bsg_module *module =
+        bsg_module_map_find(map, stacktrace[i].frame_address);
+    if (module != NULL) {
+      stacktrace[i].load_address = module->load_address;
+      stacktrace[i].line_number =
+          stacktrace[i].frame_address - stacktrace[i].load_address;
+      char *filename = stacktrace[i].filename;
+      bsg_strncpy(filename, (char *)bsg_module_filename(map, module),
+                  sizeof(stacktrace[i].filename) - 2);
+      filename[sizeof(stacktrace[i].filename) - 1] = '\0';
+
+      uintptr_t symbol_address = 0;
+      const char *method = bsg_module_find_symbol(
+          module, stacktrace[i].frame_address, &symbol_address);
+      if (method != NULL) {
+        stacktrace[i].symbol_address = symbol_address;
+        bsg_strncpy_safe(stacktrace[i].method, (char *)method,
+                         sizeof(stacktrace[i].method));
+      }
+    }
+  }
+}
+
+void bsg_insert_symbols(ssize_t frame_count,
+                        bsg_stackframe stacktrace[BUGSNAG_FRAMES_MAX]) {
+  Dl_info info;
   for (int i = 0; i < frame_count; ++i) {
     if (dladdr((void *)stacktrace[i].frame_address, &info) != 0) {
       stacktrace[i].load_address = (uintptr_t)info.dli_fbase;
@@ -51,10 +83,12 @@ void bsg_insert_fileinfo(ssize_t frame_count,
       stacktrace[i].line_number =
           stacktrace[i].frame_address - stacktrace[i].load_address;
       if (info.dli_fname != NULL) {
-        bsg_strcpy(stacktrace[i].filename, (char *)info.dli_fname);
+        bsg_strncpy_safe(stacktrace[i].filename, (char *)info.dli_fname,
+                         sizeof(stacktrace[i].filename));
       }
       if (info.dli_sname != NULL) {
-        bsg_strcpy(stacktrace[i].method, (char *)info.dli_sname);
+        bsg_strncpy_safe(stacktrace[i].method, (char *)info.dli_sname,
+                         sizeof(stacktrace[i].method));
       }
     }
   }
@@ -74,8 +108,7 @@ ssize_t bsg_unwind_stack(bsg_unwinder unwind_style,
   } else {
     frame_count = bsg_unwind_stack_simple(stacktrace, info, user_context);
   }
-  bsg_insert_fileinfo(frame_count,
-                      stacktrace); // none of this is safe ¯\_(ツ)_/¯
+  bsg_insert_fileinfo(frame_count, stacktrace);
 
   return frame_count;
 }
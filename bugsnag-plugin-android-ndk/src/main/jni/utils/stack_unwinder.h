@@ -33,13 +33,22 @@ void bsg_set_unwind_types(int apiLevel, bool is32bit,
  * Unwind the stack using the preferred tool/style. If info and a user
  * context pointer are provided, the exception stack will be walked. Otherwise,
  * the current stack will be walked instead. The results will populate the
- * stacktrace
+ * stacktrace, with the file of each frame found in the module map but without
+ * method names
  * @return the number of frames
  */
 ssize_t bsg_unwind_stack(bsg_unwinder unwind_style,
                      bsg_stackframe stacktrace[BUGSNAG_FRAMES_MAX],
                          siginfo_t *info, void *user_context) __asyncsafe;
 
+/**
+ * Resolve the file and method name of each frame with dladdr(). This is not
+ * async-safe, so must only be used for stacks which are not captured by a
+ * crash handler.
+ */
+void bsg_insert_symbols(ssize_t frame_count,
+                        bsg_stackframe stacktrace[BUGSNAG_FRAMES_MAX]);
+
 #ifdef __cplusplus
 }
 #endif
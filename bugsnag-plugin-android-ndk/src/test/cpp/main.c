@@ -13,6 +13,14 @@
 SUITE(string_utils);
 SUITE(serialize_utils);
 SUITE(breadcrumbs);
+SUITE(journal);
+SUITE(state_delta);
+SUITE(state_region);
+SUITE(metadata);
+SUITE(report_file);
+SUITE(report_compact);
+SUITE(json_writer);
+SUITE(module_map);
 
 GREATEST_MAIN_DEFS();
 
@@ -24,6 +32,14 @@ JNIEXPORT int JNICALL Java_com_bugsnag_android_ndk_NativeCXXTest_run(
     RUN_SUITE(string_utils);
     RUN_SUITE(serialize_utils);
     RUN_SUITE(breadcrumbs);
+    RUN_SUITE(journal);
+    RUN_SUITE(state_delta);
+    RUN_SUITE(state_region);
+    RUN_SUITE(metadata);
+    RUN_SUITE(report_file);
+    RUN_SUITE(report_compact);
+    RUN_SUITE(json_writer);
+    RUN_SUITE(module_map);
     GREATEST_MAIN_END();
 }
 
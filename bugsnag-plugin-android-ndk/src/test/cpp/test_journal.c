@@ -0,0 +1,87 @@
+#include <greatest/greatest.h>
+#include <journal.h>
+#include <stdlib.h>
+#include <string.h>
+
+bsg_journal *init_journal(void) {
+  bsg_journal *journal = calloc(1, sizeof(bsg_journal));
+  journal->header.magic = BSG_JOURNAL_MAGIC;
+  journal->header.version = BSG_JOURNAL_VERSION;
+  journal->header.crumb_capacity = BSG_JOURNAL_CRUMB_CAPACITY;
+  for (int i = 0; i < BSG_JOURNAL_CRUMB_CAPACITY; i++) {
+    journal->slots[i].seq = BSG_JOURNAL_SEQ_INVALID;
+  }
+  return journal;
+}
+
+void journal_add_crumb(bsg_journal *journal, int num) {
+  int64_t seq = journal->header.crumb_head;
+  bsg_journal_slot *slot = &journal->slots[seq % BSG_JOURNAL_CRUMB_CAPACITY];
+  memset(&slot->crumb, 0, sizeof(bugsnag_breadcrumb));
+  sprintf(slot->crumb.name, "crumb: %d", num);
+  slot->crumb.type = BSG_CRUMB_STATE;
+  slot->timestamp = 1539000429000 + num * 1000;
+  slot->seq = seq;
+  journal->header.crumb_head = seq + 1;
+}
+
+TEST test_copy_journal_breadcrumbs(void) {
+  bsg_journal *journal = init_journal();
+  bugsnag_report *report = calloc(1, sizeof(bugsnag_report));
+  journal_add_crumb(journal, 0);
+  journal_add_crumb(journal, 1);
+  bsg_journal_copy_breadcrumbs(journal, report);
+  ASSERT_EQ(2, report->crumb_count);
+  ASSERT_STR_EQ("crumb: 0", report->breadcrumbs[0].name);
+  ASSERT_STR_EQ("crumb: 1", report->breadcrumbs[1].name);
+  ASSERT_EQ(BSG_CRUMB_STATE, report->breadcrumbs[1].type);
+  ASSERT_STR_EQ("2018-10-08T12:07:09Z", report->breadcrumbs[0].timestamp);
+  ASSERT_STR_EQ("2018-10-08T12:07:10Z", report->breadcrumbs[1].timestamp);
+  free(journal);
+  free(report);
+  PASS();
+}
+
+TEST test_copy_journal_breadcrumbs_over_max(void) {
+  bsg_journal *journal = init_journal();
+  bugsnag_report *report = calloc(1, sizeof(bugsnag_report));
+  for (int i = 0; i < 40; i++) {
+    journal_add_crumb(journal, i);
+  }
+  bsg_journal_copy_breadcrumbs(journal, report);
+  ASSERT_EQ(BUGSNAG_CRUMBS_MAX, report->crumb_count);
+  int last = (report->crumb_first_index + BUGSNAG_CRUMBS_MAX - 1) % BUGSNAG_CRUMBS_MAX;
+  ASSERT_STR_EQ("crumb: 39", report->breadcrumbs[last].name);
+  free(journal);
+  free(report);
+  PASS();
+}
+
+TEST test_skip_invalid_journal_slots(void) {
+  bsg_journal *journal = init_journal();
+  bugsnag_report *report = calloc(1, sizeof(bugsnag_report));
+  journal_add_crumb(journal, 0);
+  journal_add_crumb(journal, 1);
+  journal->slots[1].seq = BSG_JOURNAL_SEQ_INVALID; // being written
+  bsg_journal_copy_breadcrumbs(journal, report);
+  ASSERT_EQ(1, report->crumb_count);
+  ASSERT_STR_EQ("crumb: 0", report->breadcrumbs[0].name);
+  free(journal);
+  free(report);
+  PASS();
+}
+
+TEST test_mark_journal_crashed(void) {
+  bsg_journal *journal = init_journal();
+  bsg_journal_mark_crashed(journal);
+  ASSERT_EQ(1, journal->header.crashed);
+  free(journal);
+  PASS();
+}
+
+SUITE(journal) {
+  RUN_TEST(test_copy_journal_breadcrumbs);
+  RUN_TEST(test_copy_journal_breadcrumbs_over_max);
+  RUN_TEST(test_skip_invalid_journal_slots);
+  RUN_TEST(test_mark_journal_crashed);
+}
@@ -0,0 +1,148 @@
+#include <greatest/greatest.h>
+#include <parson/parson.h>
+#include <stdlib.h>
+#include <string.h>
+#include <utils/json_writer.h>
+#include <utils/report_writer.h>
+
+void generate_basic_report(bugsnag_report *report);
+
+TEST test_write_values(void) {
+  char buffer[256];
+  bsg_json_writer writer;
+  bsg_json_writer_init(&writer, buffer, sizeof(buffer));
+  bsg_json_begin_object(&writer);
+  bsg_json_set_string(&writer, "text", "say \"hi\"\n\\", 64);
+  bsg_json_set_bool(&writer, "flag", false);
+  bsg_json_set_int(&writer, "negative", -42);
+  bsg_json_set_uint(&writer, "address", 18446744073709551615ULL);
+  bsg_json_key(&writer, "numbers");
+  bsg_json_begin_array(&writer);
+  bsg_json_double(&writer, 47.8);
+  bsg_json_double(&writer, 0.001);
+  bsg_json_double(&writer, 1.5e20);
+  bsg_json_double(&writer, 3);
+  bsg_json_end_array(&writer);
+  bsg_json_key(&writer, "empty");
+  bsg_json_begin_object(&writer);
+  bsg_json_end_object(&writer);
+  bsg_json_end_object(&writer);
+  ASSERT(bsg_json_writer_flush(&writer));
+  buffer[writer.length] = '\0';
+
+  ASSERT_STR_EQ("{\"text\":\"say \\\"hi\\\"\\u000a\\\\\",\"flag\":false,"
+                "\"negative\":-42,\"address\":18446744073709551615,"
+                "\"numbers\":[47.8,0.001,1.5e20,3],\"empty\":{}}",
+                buffer);
+  PASS();
+}
+
+TEST test_write_invalid_utf8(void) {
+  char buffer[64];
+  bsg_json_writer writer;
+  bsg_json_writer_init(&writer, buffer, sizeof(buffer));
+  // a valid two byte sequence, followed by a truncated three byte sequence
+  bsg_json_string(&writer, "\xc2\xb0\xe2\x82", 64);
+  buffer[writer.length] = '\0';
+  ASSERT_STR_EQ("\"\xc2\xb0\\ufffd\\ufffd\"", buffer);
+  PASS();
+}
+
+TEST test_write_bounded_string(void) {
+  char buffer[64];
+  char field[4] = {'a', 'b', 'c', 'd'}; // not null terminated
+  bsg_json_writer writer;
+  bsg_json_writer_init(&writer, buffer, sizeof(buffer));
+  bsg_json_string(&writer, field, sizeof(field));
+  buffer[writer.length] = '\0';
+  ASSERT_STR_EQ("\"abcd\"", buffer);
+  PASS();
+}
+
+TEST test_write_overflow(void) {
+  char buffer[8];
+  bsg_json_writer writer;
+  bsg_json_writer_init(&writer, buffer, sizeof(buffer));
+  bsg_json_string(&writer, "longer than the buffer", 64);
+  ASSERT(writer.failed);
+  ASSERT_FALSE(bsg_json_writer_flush(&writer));
+  PASS();
+}
+
+TEST test_format_timestamp(void) {
+  char timestamp[sizeof "2018-10-08T12:07:09Z"];
+  bsg_format_timestamp(1539000429, timestamp);
+  ASSERT_STR_EQ("2018-10-08T12:07:09Z", timestamp);
+  bsg_format_timestamp(951782400, timestamp);
+  ASSERT_STR_EQ("2000-02-29T00:00:00Z", timestamp);
+  PASS();
+}
+
+TEST test_write_report_payload(void) {
+  bugsnag_report *report = calloc(1, sizeof(bugsnag_report));
+  generate_basic_report(report);
+  bugsnag_report_add_metadata_string(report, "device", "weather", "sun");
+  report->device.time = 1539000429;
+  size_t capacity = 64 * 1024;
+  char *buffer = malloc(capacity);
+  bsg_json_writer writer;
+  bsg_json_writer_init(&writer, buffer, capacity);
+  ASSERT(bsg_report_write_json(&writer, report));
+  buffer[writer.length] = '\0';
+
+  JSON_Value *root_value = json_parse_string(buffer);
+  ASSERT(root_value != NULL);
+  JSON_Object *event = json_value_get_object(root_value);
+  ASSERT_STR_EQ("SomeActivity", json_object_get_string(event, "context"));
+  ASSERT_STR_EQ("error", json_object_get_string(event, "severity"));
+  ASSERT_STR_EQ("SIGBUS", json_object_dotget_string(
+                              event, "severityReason.attributes.signalType"));
+  ASSERT_STR_EQ("リリース", json_object_dotget_string(event, "app.releaseStage"));
+  ASSERT_EQ(57, json_object_dotget_number(event, "app.versionCode"));
+  ASSERT_STR_EQ("PhotoSnap Plus",
+                json_object_dotget_string(event, "metaData.app.name"));
+  ASSERT_STR_EQ("rain",
+                json_object_dotget_string(event, "metaData.app.weather"));
+  ASSERT_STR_EQ("sun",
+                json_object_dotget_string(event, "metaData.device.weather"));
+  ASSERT_STR_EQ("2018-10-08T12:07:09Z",
+                json_object_dotget_string(event, "metaData.device.time"));
+  ASSERT_STR_EQ("percy",
+                json_object_dotget_string(event, "metaData.metrics.subject"));
+  ASSERT_EQ(47.8,
+            json_object_dotget_number(event, "metaData.metrics.counter"));
+  ASSERT_EQ(3, json_object_get_count(
+                   json_object_dotget_object(event, "metaData.metrics")));
+  ASSERT_STR_EQ("fex", json_object_dotget_string(event, "user.id"));
+  ASSERT_EQ(NULL, json_object_dotget_string(event, "user.name"));
+  ASSERT_STR_EQ("f1ab", json_object_dotget_string(event, "session.id"));
+
+  JSON_Object *exception = json_array_get_object(
+      json_object_get_array(event, "exceptions"), 0);
+  ASSERT_STR_EQ("c", json_object_get_string(exception, "type"));
+  JSON_Array *stacktrace = json_object_get_array(exception, "stacktrace");
+  ASSERT_EQ(2, json_array_get_count(stacktrace));
+  ASSERT_STR_EQ("makinBacon", json_object_get_string(
+                                  json_array_get_object(stacktrace, 0), "method"));
+  ASSERT_STR_EQ("0x5393e", json_object_get_string(
+                               json_array_get_object(stacktrace, 1), "method"));
+
+  JSON_Array *breadcrumbs = json_object_get_array(event, "breadcrumbs");
+  ASSERT_EQ(2, json_array_get_count(breadcrumbs));
+  ASSERT_STR_EQ("user", json_object_get_string(
+                            json_array_get_object(breadcrumbs, 1), "type"));
+
+  json_value_free(root_value);
+  free(buffer);
+  free(report);
+  PASS();
+}
+
+SUITE(json_writer) {
+  RUN_TEST(test_write_values);
+  RUN_TEST(test_write_invalid_utf8);
+  RUN_TEST(test_write_bounded_string);
+  RUN_TEST(test_write_overflow);
+  RUN_TEST(test_format_timestamp);
+  RUN_TEST(test_write_report_payload);
+}
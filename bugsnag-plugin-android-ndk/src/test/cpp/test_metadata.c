@@ -0,0 +1,111 @@
+#include <greatest/greatest.h>
+#include <report.h>
+#include <stdio.h>
+#include <stdlib.h>
+#include <string.h>
+
+bsg_metadata_value *find_metadata(bugsnag_report *report, const char *section,
+                                  const char *name) {
+  for (int i = 0; i < report->metadata.value_count; i++) {
+    bsg_metadata_value *value = &report->metadata.values[i];
+    if (strcmp(value->section, section) == 0 && strcmp(value->name, name) == 0) {
+      return value;
+    }
+  }
+  return NULL;
+}
+
+TEST test_replace_metadata_value(void) {
+  bugsnag_report *report = calloc(1, sizeof(bugsnag_report));
+  bugsnag_report_add_metadata_string(report, "app", "weather", "rain");
+  bugsnag_report_add_metadata_bool(report, "app", "weather", true);
+  ASSERT_EQ(1, report->metadata.value_count);
+  ASSERT_EQ(BSG_BOOL_VALUE, report->metadata.values[0].type);
+  ASSERT(report->metadata.values[0].bool_value);
+  free(report);
+  PASS();
+}
+
+TEST test_remove_metadata_value(void) {
+  bugsnag_report *report = calloc(1, sizeof(bugsnag_report));
+  bugsnag_report_add_metadata_string(report, "app", "weather", "rain");
+  bugsnag_report_add_metadata_double(report, "app", "count", 5);
+  bugsnag_report_add_metadata_string(report, "device", "weather", "sun");
+  bugsnag_report_remove_metadata(report, "app", "weather");
+  bugsnag_report_remove_metadata(report, "app", "missing");
+  ASSERT_EQ(2, report->metadata.value_count);
+  ASSERT_EQ(NULL, find_metadata(report, "app", "weather"));
+
+  // the value moved into the removed position is still indexed
+  bugsnag_report_add_metadata_string(report, "device", "weather", "snow");
+  ASSERT_EQ(2, report->metadata.value_count);
+  ASSERT_STR_EQ("snow", find_metadata(report, "device", "weather")->char_value);
+  free(report);
+  PASS();
+}
+
+TEST test_remove_metadata_tab(void) {
+  bugsnag_report *report = calloc(1, sizeof(bugsnag_report));
+  bugsnag_report_add_metadata_string(report, "app", "weather", "rain");
+  bugsnag_report_add_metadata_string(report, "device", "weather", "sun");
+  bugsnag_report_add_metadata_double(report, "app", "count", 5);
+  bugsnag_report_remove_metadata_tab(report, "app");
+  ASSERT_EQ(1, report->metadata.value_count);
+  ASSERT_STR_EQ("device", report->metadata.values[0].section);
+
+  bugsnag_report_add_metadata_double(report, "app", "count", 6);
+  ASSERT_EQ(2, report->metadata.value_count);
+  free(report);
+  PASS();
+}
+
+TEST test_truncated_metadata_keys(void) {
+  bugsnag_report *report = calloc(1, sizeof(bugsnag_report));
+  char *name = "a-metadata-key-which-is-longer-than-the-name-field";
+  bugsnag_report_add_metadata_string(report, "app", name, "first");
+  bugsnag_report_add_metadata_string(report, "app", name, "second");
+  ASSERT_EQ(1, report->metadata.value_count);
+  bugsnag_report_remove_metadata(report, "app", name);
+  ASSERT_EQ(0, report->metadata.value_count);
+  free(report);
+  PASS();
+}
+
+TEST test_full_metadata_table(void) {
+  bugsnag_report *report = calloc(1, sizeof(bugsnag_report));
+  char name[32];
+  for (int i = 0; i < BUGSNAG_METADATA_MAX + 1; i++) {
+    sprintf(name, "key%d", i);
+    bugsnag_report_add_metadata_double(report, "tab", name, i);
+  }
+  ASSERT_EQ(BUGSNAG_METADATA_MAX, report->metadata.value_count);
+  ASSERT_EQ(NULL, find_metadata(report, "tab", name));
+
+  // remove every other key, so that probe sequences must be shifted back
+  for (int i = 0; i < BUGSNAG_METADATA_MAX; i += 2) {
+    sprintf(name, "key%d", i);
+    bugsnag_report_remove_metadata(report, "tab", name);
+  }
+  ASSERT_EQ(BUGSNAG_METADATA_MAX / 2, report->metadata.value_count);
+  for (int i = 1; i < BUGSNAG_METADATA_MAX; i += 2) {
+    sprintf(name, "key%d", i);
+    bugsnag_report_add_metadata_double(report, "tab", name, -i);
+    ASSERT_EQ(-i, find_metadata(report, "tab", name)->double_value);
+  }
+  ASSERT_EQ(BUGSNAG_METADATA_MAX / 2, report->metadata.value_count);
+
+  bugsnag_report_clear_metadata(report);
+  ASSERT_EQ(0, report->metadata.value_count);
+  bugsnag_report_add_metadata_double(report, "tab", name, 1);
+  ASSERT_EQ(1, report->metadata.value_count);
+  free(report);
+  PASS();
+}
+
+SUITE(metadata) {
+  RUN_TEST(test_replace_metadata_value);
+  RUN_TEST(test_remove_metadata_value);
+  RUN_TEST(test_remove_metadata_tab);
+  RUN_TEST(test_truncated_metadata_keys);
+  RUN_TEST(test_full_metadata_table);
+}
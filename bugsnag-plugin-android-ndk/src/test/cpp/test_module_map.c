@@ -0,0 +1,150 @@
+// dladdr is an extension outside of bionic
+#ifndef _GNU_SOURCE
+#define _GNU_SOURCE
+#endif
+
+#include <dlfcn.h>
+#include <greatest/greatest.h>
+#include <parson/parson.h>
+#include <stdio.h>
+#include <stdlib.h>
+#include <string.h>
+#include <utils/module_map.h>
+#include <utils/report_writer.h>
+
+TEST test_find_module(void) {
+  bsg_module_map_refresh();
+  const bsg_module_map *map = bsg_module_map_current();
+  ASSERT(map != NULL);
+  ASSERT(map->count > 0);
+
+  Dl_info info;
+  uintptr_t address = (uintptr_t)&fopen;
+  ASSERT(dladdr((void *)address, &info) != 0);
+  const bsg_module *module = bsg_module_map_find(map, address);
+  ASSERT(module != NULL);
+  ASSERT_EQ((uintptr_t)info.dli_fbase, module->load_address);
+  ASSERT_STR_EQ(info.dli_fname, bsg_module_filename(map, module));
+  ASSERT(module->start <= address && address < module->end);
+  PASS();
+}
+
+TEST test_find_symbol(void) {
+  bsg_module_map_refresh();
+  const bsg_module_map *map = bsg_module_map_current();
+  uintptr_t address = (uintptr_t)dlsym(RTLD_DEFAULT, "qsort") + 1;
+  Dl_info info;
+  ASSERT(dladdr((void *)address, &info) != 0);
+  const bsg_module *module = bsg_module_map_find(map, address);
+  ASSERT(module != NULL);
+
+  uintptr_t symbol_address = 0;
+  const char *name = bsg_module_find_symbol(module, address, &symbol_address);
+  ASSERT(name != NULL);
+  ASSERT_EQ((uintptr_t)info.dli_saddr, symbol_address);
+  // any alias of the function is acceptable
+  ASSERT_EQ(info.dli_saddr, dlsym(RTLD_DEFAULT, name));
+  PASS();
+}
+
+TEST test_find_symbol_outside_functions(void) {
+  bsg_module_map_refresh();
+  const bsg_module_map *map = bsg_module_map_current();
+  const bsg_module *module = bsg_module_map_find(map, (uintptr_t)&fopen);
+  ASSERT(module != NULL);
+  uintptr_t symbol_address = 0;
+  ASSERT_EQ(NULL, bsg_module_find_symbol(module, module->start, &symbol_address));
+  ASSERT_EQ(0, symbol_address);
+
+  bsg_module empty = {.bias = module->bias};
+  ASSERT_EQ(NULL, bsg_module_find_symbol(&empty, (uintptr_t)&fopen,
+                                         &symbol_address));
+  PASS();
+}
+
+TEST test_find_unmapped_address(void) {
+  bsg_module_map_refresh();
+  ASSERT_EQ(NULL, bsg_module_map_find(bsg_module_map_current(), 1));
+  ASSERT_EQ(NULL, bsg_module_map_find(NULL, (uintptr_t)&fopen));
+  PASS();
+}
+
+TEST test_modules_sorted(void) {
+  bsg_module_map_refresh();
+  const bsg_module_map *map = bsg_module_map_current();
+  for (size_t i = 1; i < map->count; i++) {
+    ASSERT(map->modules[i - 1].end <= map->modules[i].start);
+  }
+  PASS();
+}
+
+TEST test_refresh_unchanged(void) {
+  bsg_module_map_refresh();
+  const bsg_module_map *map = bsg_module_map_current();
+  ASSERT_FALSE(bsg_module_map_refresh());
+  ASSERT_EQ(map, bsg_module_map_current());
+  PASS();
+}
+
+TEST test_format_build_id(void) {
+  bsg_module module = {.build_id_length = 3, .build_id = {0x0a, 0xbc, 0xff}};
+  char build_id[BSG_BUILD_ID_MAX * 2 + 1];
+  ASSERT(bsg_module_format_build_id(&module, build_id));
+  ASSERT_STR_EQ("0abcff", build_id);
+  module.build_id_length = 0;
+  ASSERT_FALSE(bsg_module_format_build_id(&module, build_id));
+  PASS();
+}
+
+TEST test_write_code_identifier(void) {
+  bsg_module_map_refresh();
+  const bsg_module_map *map = bsg_module_map_current();
+  const bsg_module *module = bsg_module_map_find(map, (uintptr_t)&fopen);
+  char build_id[BSG_BUILD_ID_MAX * 2 + 1];
+  if (module == NULL || !bsg_module_format_build_id(module, build_id)) {
+    SKIPm("libc has no build ID");
+  }
+  bugsnag_report *report = calloc(1, sizeof(bugsnag_report));
+  report->exception.frame_count = 2;
+  for (int i = 0; i < 2; i++) {
+    bsg_stackframe *frame = &report->exception.stacktrace[i];
+    frame->frame_address = (uintptr_t)&fopen;
+    frame->load_address = module->load_address;
+    strcpy(frame->filename, bsg_module_filename(map, module));
+  }
+  // written by a different process, so the file is not mapped in the same place
+  report->exception.stacktrace[1].load_address += 0x1000;
+
+  size_t capacity = 64 * 1024;
+  char *buffer = malloc(capacity);
+  bsg_json_writer writer;
+  bsg_json_writer_init(&writer, buffer, capacity);
+  ASSERT(bsg_report_write_json(&writer, report));
+  buffer[writer.length] = '\0';
+  JSON_Value *root = json_parse_string(buffer);
+  JSON_Array *stacktrace = json_object_get_array(
+      json_array_get_object(
+          json_object_get_array(json_value_get_object(root), "exceptions"), 0),
+      "stacktrace");
+  ASSERT_STR_EQ(build_id,
+                json_object_get_string(json_array_get_object(stacktrace, 0),
+                                       "codeIdentifier"));
+  ASSERT_EQ(NULL, json_object_get_string(json_array_get_object(stacktrace, 1),
+                                         "codeIdentifier"));
+
+  json_value_free(root);
+  free(buffer);
+  free(report);
+  PASS();
+}
+
+SUITE(module_map) {
+  RUN_TEST(test_find_module);
+  RUN_TEST(test_find_symbol);
+  RUN_TEST(test_find_symbol_outside_functions);
+  RUN_TEST(test_find_unmapped_address);
+  RUN_TEST(test_modules_sorted);
+  RUN_TEST(test_refresh_unchanged);
+  RUN_TEST(test_format_build_id);
+  RUN_TEST(test_write_code_identifier);
+}
@@ -0,0 +1,158 @@
+#include <greatest/greatest.h>
+#include <report_compact.h>
+#include <stdio.h>
+#include <stdlib.h>
+#include <string.h>
+
+#define ARENA_SIZE (64 * 1024)
+
+bugsnag_report *bsg_generate_report(void);
+
+static bugsnag_report *decode(void *arena, size_t length) {
+  bugsnag_report *report = calloc(1, sizeof(bugsnag_report));
+  if (!bsg_report_compact_decode(arena, length, report)) {
+    free(report);
+    return NULL;
+  }
+  return report;
+}
+
+TEST test_compact_round_trip(void) {
+  bugsnag_report *report = bsg_generate_report();
+  strcpy(report->exception.stacktrace[1].filename, "libfoo.so");
+  report->exception.stacktrace[1].load_address = 0x7000;
+  strcpy(report->device.cpu_abi[1].value, "armeabi-v7a");
+  report->device.cpu_abi_count = 2;
+  void *arena = malloc(ARENA_SIZE);
+
+  size_t length = bsg_report_compact_encode(report, arena, ARENA_SIZE);
+  ASSERT(length > 0);
+  ASSERT(length < sizeof(bugsnag_report) / 10);
+  bugsnag_report *decoded = decode(arena, length);
+  ASSERT(decoded != NULL);
+
+  ASSERT_STR_EQ("SIGBUS", decoded->exception.name);
+  ASSERT_STR_EQ("リリース", decoded->app.release_stage);
+  ASSERT_STR_EQ("HI-TEC™", decoded->device.manufacturer);
+  ASSERT_STR_EQ("armeabi-v7a", decoded->device.cpu_abi[1].value);
+  ASSERT_EQ(2, decoded->device.cpu_abi_count);
+  ASSERT_EQ(57, decoded->app.version_code);
+  ASSERT_EQ(234678100, decoded->device.total_memory);
+  ASSERT(decoded->app.in_foreground);
+  ASSERT_STR_EQ("f1ab", decoded->session_id);
+  ASSERT_EQ(2, decoded->unhandled_events);
+
+  ASSERT_EQ(2, decoded->exception.frame_count);
+  ASSERT_EQ(454379, decoded->exception.stacktrace[0].frame_address);
+  ASSERT_STR_EQ("makinBacon", decoded->exception.stacktrace[0].method);
+  ASSERT_STR_EQ("libfoo.so", decoded->exception.stacktrace[1].filename);
+  ASSERT_EQ(0x7000, decoded->exception.stacktrace[1].load_address);
+
+  ASSERT_EQ(4, decoded->metadata.value_count);
+  bugsnag_report_add_metadata_string(decoded, "app", "weather", "sun");
+  ASSERT_EQ(4, decoded->metadata.value_count);
+
+  ASSERT_EQ(2, decoded->crumb_count);
+  int index = decoded->crumb_first_index;
+  ASSERT_STR_EQ("decrease torque", decoded->breadcrumbs[index].name);
+  ASSERT_EQ(BSG_CRUMB_STATE, decoded->breadcrumbs[index].type);
+  ASSERT_STR_EQ("message", decoded->breadcrumbs[index].metadata[0].key);
+  ASSERT_STR_EQ("Moving laterally 26º",
+                decoded->breadcrumbs[index].metadata[0].value);
+  ASSERT_STR_EQ("enable blasters", decoded->breadcrumbs[index + 1].name);
+
+  free(decoded);
+  free(arena);
+  free(report);
+  PASS();
+}
+
+TEST test_compact_interns_strings(void) {
+  bugsnag_report *report = calloc(1, sizeof(bugsnag_report));
+  report->exception.frame_count = BUGSNAG_FRAMES_MAX;
+  for (int i = 0; i < BUGSNAG_FRAMES_MAX; i++) {
+    strcpy(report->exception.stacktrace[i].filename,
+           "/data/app/com.example.PhotoSnapPlus-1/lib/arm64/libentrypoint.so");
+    sprintf(report->exception.stacktrace[i].method, "frame_%d", i % 4);
+  }
+  void *arena = malloc(ARENA_SIZE);
+
+  size_t length = bsg_report_compact_encode(report, arena, ARENA_SIZE);
+  ASSERT(length > 0);
+  bsg_compact_header header;
+  memcpy(&header, arena, sizeof(header));
+  ASSERT_EQ(BUGSNAG_FRAMES_MAX, header.frame_count);
+  ASSERT(header.strings_length < 128); // the filename and 4 methods
+  bugsnag_report *decoded = decode(arena, length);
+  ASSERT(decoded != NULL);
+  ASSERT_STR_EQ("frame_3", decoded->exception.stacktrace[7].method);
+  ASSERT_STR_EQ(report->exception.stacktrace[0].filename,
+                decoded->exception.stacktrace[BUGSNAG_FRAMES_MAX - 1].filename);
+
+  free(decoded);
+  free(arena);
+  free(report);
+  PASS();
+}
+
+TEST test_compact_truncates_to_fit(void) {
+  bugsnag_report *report = bsg_generate_report();
+  bugsnag_breadcrumb crumb = {.type = BSG_CRUMB_LOG};
+  for (int i = 0; i < BUGSNAG_CRUMBS_MAX * 2; i++) {
+    sprintf(crumb.name, "crumb %d", i);
+    bugsnag_report_add_breadcrumb(report, &crumb);
+  }
+  void *arena = malloc(ARENA_SIZE);
+  size_t full = bsg_report_compact_encode(report, arena, ARENA_SIZE);
+
+  size_t length = bsg_report_compact_encode(report, arena, full - 40);
+  ASSERT(length > 0);
+  ASSERT(length <= full - 40);
+  bsg_compact_header header;
+  memcpy(&header, arena, sizeof(header));
+  ASSERT_EQ(BSG_COMPACT_TRUNCATED, header.flags);
+
+  bugsnag_report *decoded = decode(arena, length);
+  ASSERT(decoded != NULL);
+  ASSERT_STR_EQ("SIGBUS", decoded->exception.name);
+  ASSERT_EQ(2, decoded->exception.frame_count);
+  ASSERT(decoded->crumb_count < BUGSNAG_CRUMBS_MAX);
+  // the oldest breadcrumbs are dropped
+  ASSERT_STR_EQ("crumb 59",
+                decoded->breadcrumbs[decoded->crumb_count - 1].name);
+
+  ASSERT_EQ(0, bsg_report_compact_encode(report, arena, 64));
+
+  free(decoded);
+  free(arena);
+  free(report);
+  PASS();
+}
+
+TEST test_compact_rejects_malformed(void) {
+  bugsnag_report *report = bsg_generate_report();
+  void *arena = malloc(ARENA_SIZE);
+  size_t length = bsg_report_compact_encode(report, arena, ARENA_SIZE);
+
+  bugsnag_report *decoded = decode(arena, length - 1);
+  ASSERT_EQ(NULL, decoded);
+
+  bsg_compact_header header;
+  memcpy(&header, arena, sizeof(header));
+  header.strings_length -= 8; // references point before the pool
+  header.strings_offset += 8;
+  memcpy(arena, &header, sizeof(header));
+  decoded = decode(arena, length);
+  ASSERT_EQ(NULL, decoded);
+
+  free(arena);
+  free(report);
+  PASS();
+}
+
+SUITE(report_compact) {
+  RUN_TEST(test_compact_round_trip);
+  RUN_TEST(test_compact_interns_strings);
+  RUN_TEST(test_compact_truncates_to_fit);
+  RUN_TEST(test_compact_rejects_malformed);
+}
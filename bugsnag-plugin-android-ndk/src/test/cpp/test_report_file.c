@@ -0,0 +1,144 @@
+#include <greatest/greatest.h>
+#include <parson/parson.h>
+#include <report_file.h>
+#include <stdlib.h>
+#include <string.h>
+#include <unistd.h>
+#include <utils/serializer.h>
+
+#define REPORT_FILE_TEST_FILE "/data/data/com.bugsnag.android.ndk.test/cache/next.crash"
+#define REPORT_FILE_TEST_PAYLOAD REPORT_FILE_TEST_FILE ".json"
+
+TEST test_map_report_file(void) {
+  bsg_report_file *file = bsg_report_file_map(REPORT_FILE_TEST_FILE);
+  ASSERT(file != NULL);
+  ASSERT_EQ(BSG_REPORT_INCOMPLETE, file->record->header.version);
+  ASSERT(bsg_report_file_is_incomplete(REPORT_FILE_TEST_FILE));
+  ASSERT_EQ(NULL, bsg_deserialize_report_from_file(REPORT_FILE_TEST_FILE));
+  bsg_report_file_unmap(file);
+  unlink(REPORT_FILE_TEST_FILE);
+  PASS();
+}
+
+TEST test_map_report_file_failure(void) {
+  ASSERT_EQ(NULL, bsg_report_file_map("/nonexistent/dir/next.crash"));
+  ASSERT_FALSE(bsg_report_file_is_incomplete("/nonexistent/dir/next.crash"));
+  PASS();
+}
+
+TEST test_serialize_to_mapped_file(void) {
+  bsg_environment *env = calloc(1, sizeof(bsg_environment));
+  env->report_header.version = BUGSNAG_REPORT_VERSION;
+  strcpy(env->report_header.os_build, "macOS Sierra");
+  strcpy(env->next_report_path, REPORT_FILE_TEST_FILE);
+  env->report_file = bsg_report_file_map(REPORT_FILE_TEST_FILE);
+  ASSERT(env->report_file != NULL);
+
+  strcpy(env->next_report.exception.name, "SIGSEGV");
+  bugsnag_report_add_metadata_string(&env->next_report, "app", "weather", "rain");
+  ASSERT(bsg_serialize_report_to_file(env));
+  ASSERT_FALSE(bsg_report_file_is_incomplete(REPORT_FILE_TEST_FILE));
+
+  bugsnag_report *report = bsg_deserialize_report_from_file(REPORT_FILE_TEST_FILE);
+  ASSERT(report != NULL);
+  ASSERT_STR_EQ("SIGSEGV", report->exception.name);
+  ASSERT_EQ(1, report->metadata.value_count);
+  ASSERT_STR_EQ("rain", report->metadata.values[0].char_value);
+
+  free(report);
+  bsg_report_file_unmap(env->report_file);
+  unlink(REPORT_FILE_TEST_FILE);
+  free(env);
+  PASS();
+}
+
+TEST test_serialize_payload_to_mapped_file(void) {
+  bsg_environment *env = calloc(1, sizeof(bsg_environment));
+  strcpy(env->next_report_path, REPORT_FILE_TEST_FILE);
+  strcpy(env->next_payload_path, REPORT_FILE_TEST_PAYLOAD);
+  env->report_file = bsg_report_file_map(REPORT_FILE_TEST_FILE);
+  ASSERT(env->report_file != NULL);
+
+  strcpy(env->next_report.exception.name, "SIGSEGV");
+  bugsnag_report_add_metadata_string(&env->next_report, "app", "weather", "rain");
+  ASSERT(bsg_serialize_report_to_payload_file(env));
+  bsg_report_file_unmap(env->report_file);
+
+  // the payload is finished when it is delivered
+  ASSERT(bsg_report_file_is_json(REPORT_FILE_TEST_FILE));
+  ASSERT(bsg_report_file_finish_json(REPORT_FILE_TEST_FILE,
+                                     REPORT_FILE_TEST_PAYLOAD));
+  ASSERT_EQ(-1, access(REPORT_FILE_TEST_FILE, F_OK));
+
+  JSON_Value *root_value = json_parse_file(REPORT_FILE_TEST_PAYLOAD);
+  ASSERT(root_value != NULL);
+  JSON_Object *event = json_value_get_object(root_value);
+  JSON_Object *exception = json_array_get_object(
+      json_object_get_array(event, "exceptions"), 0);
+  ASSERT_STR_EQ("SIGSEGV", json_object_get_string(exception, "errorClass"));
+  ASSERT_STR_EQ("rain",
+                json_object_dotget_string(event, "metaData.app.weather"));
+
+  json_value_free(root_value);
+  unlink(REPORT_FILE_TEST_PAYLOAD);
+  free(env);
+  PASS();
+}
+
+TEST test_serialize_payload_without_mapping(void) {
+  bsg_environment *env = calloc(1, sizeof(bsg_environment));
+  strcpy(env->next_report_path, REPORT_FILE_TEST_FILE);
+  strcpy(env->next_payload_path, REPORT_FILE_TEST_PAYLOAD);
+  strcpy(env->next_report.context, "MainActivity");
+  ASSERT(bsg_serialize_report_to_payload_file(env));
+  ASSERT_EQ(-1, access(REPORT_FILE_TEST_FILE, F_OK));
+
+  JSON_Value *root_value = json_parse_file(REPORT_FILE_TEST_PAYLOAD);
+  ASSERT(root_value != NULL);
+  ASSERT_STR_EQ("MainActivity", json_object_get_string(
+                                    json_value_get_object(root_value), "context"));
+
+  json_value_free(root_value);
+  unlink(REPORT_FILE_TEST_PAYLOAD);
+  free(env);
+  PASS();
+}
+
+TEST test_read_release_stage(void) {
+  bsg_environment *env = calloc(1, sizeof(bsg_environment));
+  strcpy(env->next_report_path, REPORT_FILE_TEST_FILE);
+  strcpy(env->next_payload_path, REPORT_FILE_TEST_PAYLOAD);
+  strcpy(env->next_report.app.release_stage, "beta\\\"2");
+  // quotes in strings are escaped, so this is not mistaken for the app section
+  strcpy(env->next_report.context, "\"app\":{\"releaseStage\":\"x\"");
+  bugsnag_report_add_metadata_string(&env->next_report, "custom", "releaseStage",
+                                     "production");
+  ASSERT(bsg_serialize_report_to_payload_file(env));
+
+  char release_stage[64];
+  ASSERT(bsg_report_file_read_release_stage(REPORT_FILE_TEST_PAYLOAD, release_stage,
+                                            sizeof(release_stage)));
+  ASSERT_STR_EQ("beta\\\"2", release_stage);
+
+  env->next_report.app.release_stage[0] = '\0';
+  ASSERT(bsg_serialize_report_to_payload_file(env));
+  ASSERT(bsg_report_file_read_release_stage(REPORT_FILE_TEST_PAYLOAD, release_stage,
+                                            sizeof(release_stage)));
+  ASSERT_STR_EQ("", release_stage);
+
+  unlink(REPORT_FILE_TEST_PAYLOAD);
+  ASSERT_FALSE(bsg_report_file_read_release_stage(REPORT_FILE_TEST_PAYLOAD,
+                                                  release_stage,
+                                                  sizeof(release_stage)));
+  free(env);
+  PASS();
+}
+
+SUITE(report_file) {
+  RUN_TEST(test_map_report_file);
+  RUN_TEST(test_map_report_file_failure);
+  RUN_TEST(test_serialize_to_mapped_file);
+  RUN_TEST(test_serialize_payload_to_mapped_file);
+  RUN_TEST(test_serialize_payload_without_mapping);
+  RUN_TEST(test_read_release_stage);
+}
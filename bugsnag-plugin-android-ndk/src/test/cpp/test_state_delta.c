@@ -0,0 +1,107 @@
+#include <greatest/greatest.h>
+#include <state_delta.h>
+#include <stdlib.h>
+#include <string.h>
+
+typedef struct {
+  uint8_t data[1024];
+  size_t length;
+} delta_buffer;
+
+void delta_put(delta_buffer *buf, const void *value, size_t size) {
+  memcpy(buf->data + buf->length, value, size);
+  buf->length += size;
+}
+
+void delta_put_op(delta_buffer *buf, uint8_t op) { delta_put(buf, &op, 1); }
+
+void delta_put_string(delta_buffer *buf, const char *value) {
+  int32_t length = (int32_t)strlen(value);
+  delta_put(buf, &length, sizeof(length));
+  delta_put(buf, value, (size_t)length + 1);
+}
+
+TEST test_apply_scalar_changes(void) {
+  bsg_environment *env = calloc(1, sizeof(bsg_environment));
+  delta_buffer buf = {.length = 0};
+  delta_put_op(&buf, BSG_DELTA_CONTEXT);
+  delta_put_string(&buf, "MainActivity");
+  delta_put_op(&buf, BSG_DELTA_USER_ID);
+  delta_put_string(&buf, "123");
+  delta_put_op(&buf, BSG_DELTA_ORIENTATION);
+  int32_t orientation = 90;
+  delta_put(&buf, &orientation, sizeof(orientation));
+  delta_put_op(&buf, BSG_DELTA_IN_FOREGROUND);
+  delta_put_op(&buf, 1);
+  delta_put_string(&buf, "SettingsActivity");
+
+  ASSERT(bsg_apply_state_delta(env, buf.data, buf.length));
+  ASSERT_STR_EQ("MainActivity", env->next_report.context);
+  ASSERT_STR_EQ("123", env->next_report.user.id);
+  ASSERT_STR_EQ("landscape", env->next_report.device.orientation);
+  ASSERT(env->next_report.app.in_foreground);
+  ASSERT_STR_EQ("SettingsActivity", env->next_report.app.active_screen);
+  ASSERT(env->foreground_start_time > 0);
+  free(env);
+  PASS();
+}
+
+TEST test_apply_metadata_changes(void) {
+  bsg_environment *env = calloc(1, sizeof(bsg_environment));
+  delta_buffer buf = {.length = 0};
+  delta_put_op(&buf, BSG_DELTA_METADATA_STRING);
+  delta_put_string(&buf, "custom");
+  delta_put_string(&buf, "name");
+  delta_put_string(&buf, "Foo");
+  delta_put_op(&buf, BSG_DELTA_METADATA_DOUBLE);
+  delta_put_string(&buf, "custom");
+  delta_put_string(&buf, "count");
+  double count = 5;
+  delta_put(&buf, &count, sizeof(count));
+  delta_put_op(&buf, BSG_DELTA_METADATA_CLEAR_TAB);
+  delta_put_string(&buf, "other");
+
+  ASSERT(bsg_apply_state_delta(env, buf.data, buf.length));
+  bugsnag_metadata *metadata = &env->next_report.metadata;
+  ASSERT_EQ(2, metadata->value_count);
+  ASSERT_STR_EQ("name", metadata->values[0].name);
+  ASSERT_STR_EQ("Foo", metadata->values[0].char_value);
+  ASSERT_EQ(5, metadata->values[1].double_value);
+
+  buf.length = 0;
+  delta_put_op(&buf, BSG_DELTA_METADATA_REMOVE);
+  delta_put_string(&buf, "custom");
+  delta_put_string(&buf, "name");
+  ASSERT(bsg_apply_state_delta(env, buf.data, buf.length));
+  ASSERT_EQ(1, metadata->value_count);
+  ASSERT_STR_EQ("count", metadata->values[0].name);
+  free(env);
+  PASS();
+}
+
+TEST test_reject_malformed_delta(void) {
+  bsg_environment *env = calloc(1, sizeof(bsg_environment));
+  delta_buffer buf = {.length = 0};
+  delta_put_op(&buf, BSG_DELTA_CONTEXT);
+  delta_put_string(&buf, "MainActivity");
+  delta_put_op(&buf, BSG_DELTA_USER_ID);
+  int32_t length = 100; // longer than the remaining delta
+  delta_put(&buf, &length, sizeof(length));
+  delta_put(&buf, "abc", 4);
+
+  ASSERT_FALSE(bsg_apply_state_delta(env, buf.data, buf.length));
+  ASSERT_STR_EQ("MainActivity", env->next_report.context);
+  ASSERT_STR_EQ("", env->next_report.user.id);
+
+  buf.length = 0;
+  delta_put_op(&buf, 99);
+  ASSERT_FALSE(bsg_apply_state_delta(env, buf.data, buf.length));
+  free(env);
+  PASS();
+}
+
+SUITE(state_delta) {
+  RUN_TEST(test_apply_scalar_changes);
+  RUN_TEST(test_apply_metadata_changes);
+  RUN_TEST(test_reject_malformed_delta);
+}
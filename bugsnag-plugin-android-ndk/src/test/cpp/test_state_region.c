@@ -0,0 +1,90 @@
+#include <greatest/greatest.h>
+#include <state_region.h>
+#include <stdlib.h>
+#include <string.h>
+
+bsg_state_region *init_region(void) {
+  bsg_state_region *region = calloc(1, sizeof(bsg_state_region));
+  region->version = BSG_STATE_REGION_VERSION;
+  return region;
+}
+
+TEST test_attach_state_region(void) {
+  bsg_state_region *region = init_region();
+  ASSERT_EQ(region, bsg_state_region_attach(region, sizeof(bsg_state_region)));
+  ASSERT_EQ(NULL, bsg_state_region_attach(region, 16));
+  ASSERT_EQ(NULL, bsg_state_region_attach(NULL, sizeof(bsg_state_region)));
+  region->version = BSG_STATE_REGION_VERSION + 1;
+  ASSERT_EQ(NULL, bsg_state_region_attach(region, sizeof(bsg_state_region)));
+  free(region);
+  PASS();
+}
+
+TEST test_copy_changed_fields(void) {
+  bsg_state_region *region = init_region();
+  bugsnag_report *report = calloc(1, sizeof(bugsnag_report));
+  strcpy(report->app.version, "1.0");
+  strcpy(report->context, "Installed");
+  time_t foreground_start_time = 0;
+
+  region->seq = 2;
+  region->changed = BSG_STATE_USER_ID | BSG_STATE_ORIENTATION |
+                    BSG_STATE_IN_FOREGROUND;
+  strcpy(region->user_id, "123");
+  strcpy(region->context, "Ignored");
+  region->orientation = 90;
+  region->in_foreground = 1;
+  strcpy(region->active_screen, "MainActivity");
+  region->foreground_start_time = 1000;
+
+  ASSERT(bsg_state_region_copy(region, report, &foreground_start_time));
+  ASSERT_STR_EQ("123", report->user.id);
+  ASSERT_STR_EQ("landscape", report->device.orientation);
+  ASSERT(report->app.in_foreground);
+  ASSERT_STR_EQ("MainActivity", report->app.active_screen);
+  ASSERT_EQ(1000, foreground_start_time);
+  ASSERT_STR_EQ("Installed", report->context);
+  ASSERT_STR_EQ("1.0", report->app.version);
+  free(region);
+  free(report);
+  PASS();
+}
+
+TEST test_copy_after_leaving_foreground(void) {
+  bsg_state_region *region = init_region();
+  bugsnag_report *report = calloc(1, sizeof(bugsnag_report));
+  report->app.duration_in_foreground_ms_offset = 500;
+  time_t foreground_start_time = 1000;
+
+  region->changed = BSG_STATE_IN_FOREGROUND | BSG_STATE_LEFT_FOREGROUND;
+  ASSERT(bsg_state_region_copy(region, report, &foreground_start_time));
+  ASSERT_FALSE(report->app.in_foreground);
+  ASSERT_EQ(0, foreground_start_time);
+  ASSERT_EQ(0, report->app.duration_in_foreground_ms_offset);
+  free(region);
+  free(report);
+  PASS();
+}
+
+TEST test_copy_during_write(void) {
+  bsg_state_region *region = init_region();
+  bugsnag_report *report = calloc(1, sizeof(bugsnag_report));
+  time_t foreground_start_time = 0;
+
+  // a write which will never complete, as if the writer had crashed
+  region->seq = 3;
+  region->changed = BSG_STATE_CONTEXT;
+  strcpy(region->context, "MainActivity");
+  ASSERT_FALSE(bsg_state_region_copy(region, report, &foreground_start_time));
+  ASSERT_STR_EQ("MainActivity", report->context);
+  free(region);
+  free(report);
+  PASS();
+}
+
+SUITE(state_region) {
+  RUN_TEST(test_attach_state_region);
+  RUN_TEST(test_copy_changed_fields);
+  RUN_TEST(test_copy_after_leaving_foreground);
+  RUN_TEST(test_copy_during_write);
+}
@@ -49,10 +49,55 @@ void generate_basic_report(bugsnag_report *report) {
   strcpy(report->session_start, "2019-03-19T12:58:19+00:00");
 }
 
+void generate_metadata_v2(bugsnag_metadata_v2 *metadata, bugsnag_report *report) {
+  metadata->value_count = report->metadata.value_count;
+  memcpy(metadata->values, report->metadata.values, sizeof(metadata->values));
+}
+
 bugsnag_report_v1 *bsg_generate_report_v1(void) {
-  bugsnag_report_v1 *report = calloc(1, sizeof(bugsnag_report_v1));
-  generate_basic_report((bugsnag_report *) report);
-  return report;
+  bugsnag_report *report = calloc(1, sizeof(bugsnag_report));
+  generate_basic_report(report);
+  bugsnag_report_v1 *report_v1 = calloc(1, sizeof(bugsnag_report_v1));
+  report_v1->notifier = report->notifier;
+  report_v1->app = report->app;
+  report_v1->device = report->device;
+  report_v1->user = report->user;
+  report_v1->exception = report->exception;
+  generate_metadata_v2(&report_v1->metadata, report);
+  report_v1->crumb_count = report->crumb_count;
+  report_v1->crumb_first_index = report->crumb_first_index;
+  memcpy(report_v1->breadcrumbs, report->breadcrumbs, sizeof(report->breadcrumbs));
+  strcpy(report_v1->context, report->context);
+  report_v1->severity = report->severity;
+  strcpy(report_v1->session_id, report->session_id);
+  strcpy(report_v1->session_start, report->session_start);
+  report_v1->handled_events = report->handled_events;
+  free(report);
+  return report_v1;
+}
+
+bugsnag_report_v2 *bsg_generate_report_v2(void) {
+  bugsnag_report *report = calloc(1, sizeof(bugsnag_report));
+  generate_basic_report(report);
+  report->unhandled_events = 2;
+  bugsnag_report_v2 *report_v2 = calloc(1, sizeof(bugsnag_report_v2));
+  report_v2->notifier = report->notifier;
+  report_v2->app = report->app;
+  report_v2->device = report->device;
+  report_v2->user = report->user;
+  report_v2->exception = report->exception;
+  generate_metadata_v2(&report_v2->metadata, report);
+  report_v2->crumb_count = report->crumb_count;
+  report_v2->crumb_first_index = report->crumb_first_index;
+  memcpy(report_v2->breadcrumbs, report->breadcrumbs, sizeof(report->breadcrumbs));
+  strcpy(report_v2->context, report->context);
+  report_v2->severity = report->severity;
+  strcpy(report_v2->session_id, report->session_id);
+  strcpy(report_v2->session_start, report->session_start);
+  report_v2->handled_events = report->handled_events;
+  report_v2->unhandled_events = report->unhandled_events;
+  free(report);
+  return report_v2;
 }
 
 bugsnag_report *bsg_generate_report(void) {
@@ -62,9 +107,22 @@ bugsnag_report *bsg_generate_report(void) {
   return report;
 }
 
+/**
+ * Write a report file as it was before the compact layout, in which the
+ * report struct of the version followed the header
+ */
+void write_struct_report_file(int version, void *report, size_t size) {
+  bsg_report_header header = {.version = version, .big_endian = 1};
+  strcpy(header.os_build, "macOS Sierra");
+  FILE *file = fopen(SERIALIZE_TEST_FILE, "wb");
+  fwrite(&header, sizeof(header), 1, file);
+  fwrite(report, size, 1, file);
+  fclose(file);
+}
+
 TEST test_report_to_file(void) {
-  bsg_environment *env = malloc(sizeof(bsg_environment));
-  env->report_header.version = 7;
+  bsg_environment *env = calloc(1, sizeof(bsg_environment));
+  env->report_header.version = BUGSNAG_REPORT_VERSION;
   env->report_header.big_endian = 1;
   bugsnag_report *report = bsg_generate_report();
   memcpy(&env->next_report, report, sizeof(bugsnag_report));
@@ -77,8 +135,8 @@ TEST test_report_to_file(void) {
 }
 
 TEST test_file_to_report(void) {
-  bsg_environment *env = malloc(sizeof(bsg_environment));
-  env->report_header.version = 7;
+  bsg_environment *env = calloc(1, sizeof(bsg_environment));
+  env->report_header.version = BUGSNAG_REPORT_VERSION;
   env->report_header.big_endian = 1;
   strcpy(env->report_header.os_build, "macOS Sierra");
   bugsnag_report *generated_report = bsg_generate_report();
@@ -97,14 +155,8 @@ TEST test_file_to_report(void) {
 }
 
 TEST test_report_v1_migration(void) {
-  bsg_environment *env = malloc(sizeof(bsg_environment));
-  env->report_header.version = 1;
-  env->report_header.big_endian = 1;
-  strcpy(env->report_header.os_build, "macOS Sierra");
   bugsnag_report_v1 *generated_report = bsg_generate_report_v1();
-  memcpy(&env->next_report, generated_report, sizeof(bugsnag_report_v1));
-  strcpy(env->next_report_path, SERIALIZE_TEST_FILE);
-  bsg_serialize_report_to_file(env);
+  write_struct_report_file(1, generated_report, sizeof(bugsnag_report_v1));
 
   bugsnag_report *report = bsg_deserialize_report_from_file(SERIALIZE_TEST_FILE);
   ASSERT(report != NULL);
@@ -114,11 +166,56 @@ TEST test_report_v1_migration(void) {
   ASSERT_EQ(1, report->unhandled_events);
 
   free(generated_report);
-  free(env);
   free(report);
   PASS();
 }
 
+TEST test_report_v2_migration(void) {
+  bugsnag_report_v2 *generated_report = bsg_generate_report_v2();
+  write_struct_report_file(2, generated_report, sizeof(bugsnag_report_v2));
+
+  bugsnag_report *report = bsg_deserialize_report_from_file(SERIALIZE_TEST_FILE);
+  ASSERT(report != NULL);
+  ASSERT(strcmp("f1ab", report->session_id) == 0);
+  ASSERT_EQ(2, report->unhandled_events);
+  ASSERT_EQ(2, report->crumb_count);
+  ASSERT_EQ(4, report->metadata.value_count);
+
+  // the index is rebuilt, so that existing keys are found
+  bugsnag_report_remove_metadata(report, "metrics", "subject");
+  ASSERT_EQ(3, report->metadata.value_count);
+  bugsnag_report_add_metadata_string(report, "app", "weather", "sun");
+  ASSERT_EQ(3, report->metadata.value_count);
+
+  free(generated_report);
+  free(report);
+  PASS();
+}
+
+TEST test_report_v3_migration(void) {
+  bugsnag_report *generated_report = bsg_generate_report();
+  write_struct_report_file(3, generated_report, sizeof(bugsnag_report));
+
+  bugsnag_report *report = bsg_deserialize_report_from_file(SERIALIZE_TEST_FILE);
+  ASSERT(report != NULL);
+  ASSERT(strcmp("SIGBUS", report->exception.name) == 0);
+  ASSERT_EQ(2, report->crumb_count);
+  ASSERT_EQ(4, report->metadata.value_count);
+
+  free(generated_report);
+  free(report);
+  PASS();
+}
+
+TEST test_report_unknown_version(void) {
+  bugsnag_report *generated_report = bsg_generate_report();
+  write_struct_report_file(BUGSNAG_REPORT_VERSION + 1, generated_report,
+                           sizeof(bugsnag_report));
+  ASSERT_EQ(NULL, bsg_deserialize_report_from_file(SERIALIZE_TEST_FILE));
+  free(generated_report);
+  PASS();
+}
+
 // helper function
 JSON_Value *bsg_generate_json(void) {
   bugsnag_report *report = bsg_generate_report();
@@ -243,6 +340,9 @@ SUITE(serialize_utils) {
   RUN_TEST(test_report_to_file);
   RUN_TEST(test_file_to_report);
   RUN_TEST(test_report_v1_migration);
+  RUN_TEST(test_report_v2_migration);
+  RUN_TEST(test_report_v3_migration);
+  RUN_TEST(test_report_unknown_version);
   RUN_TEST(test_session_handled_counts);
   RUN_TEST(test_report_context_to_json);
   RUN_TEST(test_report_app_info_to_json);